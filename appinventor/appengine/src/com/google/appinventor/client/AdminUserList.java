@@ -145,6 +145,21 @@ public class AdminUserList extends Composite {
         }
       });
     searchPanel.add(addUserButton);
+    final Label cacheStatsLabel = new Label("");
+    Button cacheStatsButton = new Button("Cache Statistics");
+    cacheStatsButton.addClickListener(new ClickListener() {
+        @Override
+        public void onClick(Widget sender) {
+          Ode.getInstance().getAdminInfoService().getCacheStatistics(
+            new OdeAsyncCallback<String>("Ooops") {
+              @Override
+              public void onSuccess(String statistics) {
+                cacheStatsLabel.setText(statistics);
+              }
+            });
+        }
+      });
+    searchPanel.add(cacheStatsButton);
 
     searchButton.addClickListener(new ClickListener() {
         @Override
@@ -157,6 +172,7 @@ public class AdminUserList extends Composite {
     panel.setWidth("100%");
 
     panel.add(searchPanel);
+    panel.add(cacheStatsLabel);
     panel.add(table);
     Button dismissButton = new Button("Dismiss");
     dismissButton.addClickListener(new ClickListener() {
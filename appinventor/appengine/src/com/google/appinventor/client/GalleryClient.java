@@ -124,11 +124,11 @@ public class GalleryClient {
   }
  /**
   * GetAppsByDeveloper gets apps by developer and then tells listeners when done
-  * @param start staring index for search
+  * @param cursor cursor returned with the previous page, or null for the first page
   * @param count number of results
   * @param developerId id of developer
   */
-  public void GetAppsByDeveloper(int start, int count, String developerId) {
+  public void GetAppsByDeveloper(String cursor, int count, String developerId) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -145,7 +145,7 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getDeveloperApps(developerId, start,count,callback);
+    ode.getGalleryService().getDeveloperApps(developerId, cursor, count, callback);
   }
  /**
   * GetFeatured gets featured apps, currently unimplemented
@@ -199,10 +199,10 @@ public class GalleryClient {
   }
 /**
   * GetMostRecent gets most recently updated apps then tells listeners
-  * @param start staring index
+  * @param cursor cursor returned with the previous page, or null for the first page
   * @param count number of results
   */
-  public void GetMostRecent(int start, int count, final boolean refreshable) {
+  public void GetMostRecent(String cursor, int count, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -219,14 +219,14 @@ public class GalleryClient {
       }
     };
     // This is below the call back, but of course it is done first
-    ode.getGalleryService().getRecentApps(start, count, callback);
+    ode.getGalleryService().getRecentApps(cursor, count, callback);
   }
   /**
   * GetMostLiked gets the most liked apps then tells listeners
-  * @param start staring index
+  * @param cursor cursor returned with the previous page, or null for the first page
   * @param count number of results
   */
-  public void GetMostLiked(int start, int count, final boolean refreshable) {
+  public void GetMostLiked(String cursor, int count, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -244,14 +244,14 @@ public class GalleryClient {
     };
 
     // ok, this is below the call back, but of course it is done first
-    ode.getGalleryService().getMostLikedApps(start,count,callback);
+    ode.getGalleryService().getMostLikedApps(cursor, count, callback);
   }
   /**
   * GetMostDownloaded gets the most downloaded apps then tells listeners
-  * @param start staring index
+  * @param cursor cursor returned with the previous page, or null for the first page
   * @param count number of results
   */
-  public void GetMostDownloaded(int start, int count, final boolean refreshable) {
+  public void GetMostDownloaded(String cursor, int count, final boolean refreshable) {
     // Callback for when the server returns us the apps
     final Ode ode = Ode.getInstance();
     final OdeAsyncCallback<GalleryAppListResult> callback = new OdeAsyncCallback<GalleryAppListResult>(
@@ -269,7 +269,7 @@ public class GalleryClient {
     };
 
     // ok, this is below the call back, but of course it is done first
-    ode.getGalleryService().getMostDownloadedApps(start,count,callback);
+    ode.getGalleryService().getMostDownloadedApps(cursor, count, callback);
   }
   /**
    * GetRemixedToList gets children list that apps remixed to then tells listeners
@@ -363,8 +363,8 @@ public class GalleryClient {
   */
   public void appWasChanged() {
     // for now, let's update the recent list, the popular list and feature list (in case one was deleted)
-    GetMostRecent(0,GalleryList.NUMAPPSTOSHOW, true);
-    GetMostLiked(0,GalleryList.NUMAPPSTOSHOW, true);
+    GetMostRecent(null, GalleryList.NUMAPPSTOSHOW, true);
+    GetMostLiked(null, GalleryList.NUMAPPSTOSHOW, true);
     GetFeatured(0, GalleryList.NUMAPPSTOSHOW, 0, true);
     GetTutorial(0,GalleryList.NUMAPPSTOSHOW, 0, true);
   }
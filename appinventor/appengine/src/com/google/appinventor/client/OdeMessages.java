@@ -2787,6 +2787,26 @@ public interface OdeMessages extends Messages {
   @Description("")
   String DelimiterByteProperties();
 
+  @DefaultMessage("AppendFlushInterval")
+  @Description("")
+  String AppendFlushIntervalProperties();
+
+  @DefaultMessage("BytesDropped")
+  @Description("")
+  String BytesDroppedProperties();
+
+  @DefaultMessage("BytesReceived")
+  @Description("")
+  String BytesReceivedProperties();
+
+  @DefaultMessage("ReceiveBufferSize")
+  @Description("")
+  String ReceiveBufferSizeProperties();
+
+  @DefaultMessage("ReceiveInBackground")
+  @Description("")
+  String ReceiveInBackgroundProperties();
+
   @DefaultMessage("DetectColor")
   @Description("")
   String DetectColorProperties();
@@ -3239,6 +3259,14 @@ public interface OdeMessages extends Messages {
   @Description("")
   String SensitivityProperties();
 
+  @DefaultMessage("Samples")
+  @Description("")
+  String SamplesProperties();
+
+  @DefaultMessage("SamplingInterval")
+  @Description("")
+  String SamplingIntervalProperties();
+
   @DefaultMessage("TwitPic_API_Key")
   @Description("")
   String TwitPic_API_KeyProperties();
@@ -3820,6 +3848,46 @@ public interface OdeMessages extends Messages {
   @Description("")
   String fileNameParams();
 
+  @DefaultMessage("batchSize")
+  @Description("")
+  String batchSizeParams();
+
+  @DefaultMessage("firstLineNumber")
+  @Description("")
+  String firstLineNumberParams();
+
+  @DefaultMessage("length")
+  @Description("")
+  String lengthParams();
+
+  @DefaultMessage("lineCount")
+  @Description("")
+  String lineCountParams();
+
+  @DefaultMessage("lines")
+  @Description("")
+  String linesParams();
+
+  @DefaultMessage("offset")
+  @Description("")
+  String offsetParams();
+
+  @DefaultMessage("rowCount")
+  @Description("")
+  String rowCountParams();
+
+  @DefaultMessage("rowNumber")
+  @Description("")
+  String rowNumberParams();
+
+  @DefaultMessage("row")
+  @Description("")
+  String rowParams();
+
+  @DefaultMessage("table")
+  @Description("")
+  String tableParams();
+
   @DefaultMessage("color")
   @Description("")
   String colorParams();
@@ -4717,6 +4785,30 @@ public interface OdeMessages extends Messages {
   @Description("")
   String AfterFileSavedEvents();
 
+  @DefaultMessage("AfterCsvRead")
+  @Description("")
+  String AfterCsvReadEvents();
+
+  @DefaultMessage("AfterLinesRead")
+  @Description("")
+  String AfterLinesReadEvents();
+
+  @DefaultMessage("DataReceived")
+  @Description("")
+  String DataReceivedEvents();
+
+  @DefaultMessage("GotCsvRow")
+  @Description("")
+  String GotCsvRowEvents();
+
+  @DefaultMessage("GotLines")
+  @Description("")
+  String GotLinesEvents();
+
+  @DefaultMessage("GotTextRange")
+  @Description("")
+  String GotTextRangeEvents();
+
   @DefaultMessage("AfterDateSet")
   @Description("")
   String AfterDateSetEvents();
@@ -5558,6 +5650,30 @@ public interface OdeMessages extends Messages {
   @Description("")
   String SaveFileMethods();
 
+  @DefaultMessage("Flush")
+  @Description("")
+  String FlushMethods();
+
+  @DefaultMessage("ReadLines")
+  @Description("")
+  String ReadLinesMethods();
+
+  @DefaultMessage("ReadRange")
+  @Description("")
+  String ReadRangeMethods();
+
+  @DefaultMessage("ReadTail")
+  @Description("")
+  String ReadTailMethods();
+
+  @DefaultMessage("ReadCsvFrom")
+  @Description("")
+  String ReadCsvFromMethods();
+
+  @DefaultMessage("SaveCsvFile")
+  @Description("")
+  String SaveCsvFileMethods();
+
   @DefaultMessage("doFault")
   @Description("")
   String doFaultMethods();
@@ -6628,6 +6744,10 @@ public interface OdeMessages extends Messages {
   @Description("Pan the map to the given latitude, longitude, and zoom")
   String PanToMethods();
 
+  @DefaultMessage("NearestFeature")
+  @Description("")
+  String NearestFeatureMethods();
+
   @DefaultMessage("Roads")
   @Description("Road network map type")
   String mapTypeRoads();
@@ -6788,6 +6908,10 @@ public interface OdeMessages extends Messages {
   @Description("")
   String EnablePanProperties();
 
+  @DefaultMessage("ClusterMarkers")
+  @Description("")
+  String ClusterMarkersProperties();
+
   @DefaultMessage("DistanceToFeature")
   @Description("")
   String DistanceToFeatureMethods();
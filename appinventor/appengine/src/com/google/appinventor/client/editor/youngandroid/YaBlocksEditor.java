@@ -190,7 +190,12 @@ public final class YaBlocksEditor extends FileEditor
         super.onFailure(caught);
       }
     };
-    Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    ChecksumedLoadFile prefetched = ((YaProjectEditor) projectEditor).takePrefetchedFile(fileId);
+    if (prefetched != null) {
+      callback.onSuccess(prefetched);
+    } else {
+      Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    }
   }
 
   @Override
@@ -51,6 +51,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
 import com.google.gwt.core.client.Callback;
 import com.google.gwt.user.client.Command;
+import com.google.gwt.user.client.Timer;
 import com.google.gwt.user.client.Window;
 import com.google.gwt.user.client.ui.DockPanel;
 
@@ -125,6 +126,9 @@ public final class YaFormEditor extends SimpleEditor implements FormChangeListen
   private final List<ComponentDatabaseChangeListener> componentDatabaseChangeListeners = new ArrayList<ComponentDatabaseChangeListener>();
   private JSONArray authURL;    // List of App Inventor versions we have been edited on.
 
+  // Pending push of the form to the phone, see updatePhone
+  private Timer updatePhoneTimer = null;
+
   /**
    * A mapping of component UUIDs to mock components in the designer view.
    */
@@ -222,7 +226,12 @@ public final class YaFormEditor extends SimpleEditor implements FormChangeListen
         super.onFailure(caught);
       }
     };
-    Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    ChecksumedLoadFile prefetched = ((YaProjectEditor) projectEditor).takePrefetchedFile(fileId);
+    if (prefetched != null) {
+      callback.onSuccess(prefetched);
+    } else {
+      Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    }
   }
 
   @Override
@@ -775,11 +784,27 @@ public final class YaFormEditor extends SimpleEditor implements FormChangeListen
 
   /*
    * Push changes to a connected phone (or emulator).
+   *
+   * Changes made together, such as several properties changing at once, are pushed once, so
+   * that the form is only encoded once. The blocks editor then sends the phone just the
+   * properties and components that changed.
    */
   private void updatePhone() {
-    YaProjectEditor yaProjectEditor = (YaProjectEditor) projectEditor;
-    YaBlocksEditor blockEditor = yaProjectEditor.getBlocksFileEditor(formNode.getFormName());
-    blockEditor.sendComponentData();
+    if (updatePhoneTimer != null) {
+      return;
+    }
+    updatePhoneTimer = new Timer() {
+      @Override
+      public void run() {
+        updatePhoneTimer = null;
+        YaProjectEditor yaProjectEditor = (YaProjectEditor) projectEditor;
+        YaBlocksEditor blockEditor = yaProjectEditor.getBlocksFileEditor(formNode.getFormName());
+        if (blockEditor != null) {
+          blockEditor.sendComponentData();
+        }
+      }
+    };
+    updatePhoneTimer.schedule(0);
   }
 
   @Override
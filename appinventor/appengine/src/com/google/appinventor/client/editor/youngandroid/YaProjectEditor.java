@@ -77,6 +77,10 @@ public final class YaProjectEditor extends ProjectEditor implements ProjectChang
   // Maps form name -> editors for this form
   private final HashMap<String, EditorSet> editorMap = Maps.newHashMap();
   
+  // Form and blocks file contents fetched in bulk when the project is loaded,
+  // waiting to be picked up by their editors
+  private final Map<String, ChecksumedLoadFile> prefetchedFiles = new HashMap<>();
+
   // List of External Components
   private final List<String> externalComponents = new ArrayList<String>();
 
@@ -173,6 +177,50 @@ public final class YaProjectEditor extends ProjectEditor implements ProjectChang
   // blocks are loaded!
 
   private void loadProject() {
+    // Fetch the form and blocks files of every screen with a single request
+    // rather than one request per file. If that fails, the editors fall back
+    // to loading their files individually.
+    final List<String> fileIds = new ArrayList<String>();
+    for (ProjectNode source : projectRootNode.getAllSourceNodes()) {
+      if (source instanceof YoungAndroidFormNode || source instanceof YoungAndroidBlocksNode) {
+        fileIds.add(source.getFileId());
+      }
+    }
+    if (fileIds.isEmpty()) {
+      addEditors();
+      return;
+    }
+    Ode.getInstance().getProjectService().loadFiles(projectId, fileIds,
+        new AsyncCallback<List<ChecksumedLoadFile>>() {
+          @Override
+          public void onSuccess(List<ChecksumedLoadFile> result) {
+            for (int i = 0; i < fileIds.size() && i < result.size(); i++) {
+              prefetchedFiles.put(fileIds.get(i), result.get(i));
+            }
+            addEditors();
+          }
+
+          @Override
+          public void onFailure(Throwable caught) {
+            OdeLog.wlog("Unable to prefetch files of project " + projectId + ": "
+                + caught.getMessage());
+            addEditors();
+          }
+        });
+  }
+
+  /**
+   * Returns the content of the given file if it was fetched when the project
+   * was loaded and has not been used yet, otherwise null.
+   *
+   * @param fileId  file ID
+   * @return  prefetched file, or null
+   */
+  ChecksumedLoadFile takePrefetchedFile(String fileId) {
+    return prefetchedFiles.remove(fileId);
+  }
+
+  private void addEditors() {
     // add form editors first, then blocks editors because the blocks editors
     // need access to their corresponding form editors to set up properly
     for (ProjectNode source : projectRootNode.getAllSourceNodes()) {
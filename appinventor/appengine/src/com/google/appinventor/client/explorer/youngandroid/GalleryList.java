@@ -86,9 +86,10 @@ public class GalleryList extends Composite implements GalleryRequestListener {
   public static final int REQUEST_REMIXED_TO = 10;
   public static final int REQUEST_TUTORIAL = 11;
 
-  private int appRecentCounter = 0;
+  // Cursors for the next page of the recent and popular tabs; null for the first page
+  private String appRecentCursor = null;
   private int appFeaturedCounter = 0;
-  private int appPopularCounter = 0;
+  private String appPopularCursor = null;
   private int appSearchCounter = 0;
   private int appTutorialCounter = 0;
 
@@ -269,11 +270,11 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         else if (request == REQUEST_RECENT) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, false);
+        gallery.GetMostRecent(appRecentCursor, NUMAPPSTOSHOW, false);
       } else if (request == REQUEST_MOSTLIKED) {
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
-        gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, false);
+        gallery.GetMostLiked(appPopularCursor, NUMAPPSTOSHOW, false);
       } else if (request == REQUEST_FEATURED){
         generalTotalResultsLabel = new Label();
         container.add(generalTotalResultsLabel);
@@ -314,8 +315,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
             case REQUEST_RECENT:
               if (!appRecentExhausted) {
                 // If the next page still has apps to retrieve, do it
-                appRecentCounter += NUMAPPSTOSHOW;
-                gallery.GetMostRecent(appRecentCounter, NUMAPPSTOSHOW, false);
+                gallery.GetMostRecent(appRecentCursor, NUMAPPSTOSHOW, false);
               }
               break;
             case REQUEST_SEARCH:
@@ -328,8 +328,7 @@ public class GalleryList extends Composite implements GalleryRequestListener {
             case REQUEST_MOSTLIKED:
               if (!appPopularExhausted) {
                 // If the next page still has apps to retrieve, do it
-                appPopularCounter += NUMAPPSTOSHOW;
-                gallery.GetMostLiked(appPopularCounter, NUMAPPSTOSHOW, false);
+                gallery.GetMostLiked(appPopularCursor, NUMAPPSTOSHOW, false);
               }
               break;
           }
@@ -411,18 +410,10 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         break;
       case REQUEST_RECENT:
         appRecentTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
-        if(appsResult.getTotalCount() < NUMAPPSTOSHOW  || appRecentCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
-          appRecentTab.getButtonNext().setVisible(false);
-        }else{
-          appRecentTab.getButtonNext().setVisible(true);
-        }
-
-        if (appsResult.getApps().size() < NUMAPPSTOSHOW) {
-          // That means there's not enough apps to show (reaches the end)
-          appRecentExhausted = true;
-        } else {
-          appRecentExhausted = false;
-        }
+        appRecentCursor = appsResult.getCursor();
+        // A null cursor means there are no more apps to show (reaches the end)
+        appRecentExhausted = appRecentCursor == null;
+        appRecentTab.getButtonNext().setVisible(!appRecentExhausted);
         galleryGF.generateHorizontalAppList(appsResult.getApps(), appRecentContent, refreshable);
         break;
       case REQUEST_SEARCH:
@@ -451,17 +442,10 @@ public class GalleryList extends Composite implements GalleryRequestListener {
         break;
       case REQUEST_MOSTLIKED:
         appPopularTab.setGeneralTotalResultsLabel(appsResult.getTotalCount());
-        if(appsResult.getTotalCount() < NUMAPPSTOSHOW || appPopularCounter + NUMAPPSTOSHOW >= appsResult.getTotalCount()){
-          appPopularTab.getButtonNext().setVisible(false);
-        }else{
-          appPopularTab.getButtonNext().setVisible(true);
-        }
-        if (appsResult.getApps().size() < NUMAPPSTOSHOW) {
-          // That means there's not enough apps to show (reaches the end)
-          appPopularExhausted = true;
-        } else {
-          appPopularExhausted = false;
-        }
+        appPopularCursor = appsResult.getCursor();
+        // A null cursor means there are no more apps to show (reaches the end)
+        appPopularExhausted = appPopularCursor == null;
+        appPopularTab.getButtonNext().setVisible(!appPopularExhausted);
         galleryGF.generateHorizontalAppList(appsResult.getApps(), appPopularContent, refreshable);
         break;
     }
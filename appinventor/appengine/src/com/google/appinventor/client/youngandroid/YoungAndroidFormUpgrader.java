@@ -272,6 +272,9 @@ public final class YoungAndroidFormUpgrader {
       } else if (componentType.equals("FusiontablesControl")) {
         srcCompVersion = upgradeFusiontablesControlProperties(componentProperties, srcCompVersion);
 
+      } else if (componentType.equals("GyroscopeSensor")) {
+        srcCompVersion = upgradeGyroscopeSensorProperties(componentProperties, srcCompVersion);
+
       } else if (componentType.equals("HorizontalArrangement")) {
         srcCompVersion = upgradeHorizontalArrangementProperties(componentProperties, srcCompVersion);
 
@@ -423,6 +426,11 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 4.
       srcCompVersion = 4;
     }
+    if (srcCompVersion < 5) {
+      // The SamplingInterval and Samples properties were added.
+      // No properties need to be modified to upgrade to version 5.
+      srcCompVersion = 5;
+    }
     return srcCompVersion;
   }
 
@@ -534,6 +542,12 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 5.
       srcCompVersion = 5;
     }
+    if (srcCompVersion < 6) {
+      // The ReceiveInBackground, ReceiveBufferSize, BytesReceived and BytesDropped properties
+      // and the DataReceived event were added.
+      // No properties need to be modified to upgrade to version 6.
+      srcCompVersion = 6;
+    }
     return srcCompVersion;
   }
 
@@ -560,6 +574,12 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 5.
       srcCompVersion = 5;
     }
+    if (srcCompVersion < 6) {
+      // The ReceiveInBackground, ReceiveBufferSize, BytesReceived and BytesDropped properties
+      // and the DataReceived event were added.
+      // No properties need to be modified to upgrade to version 6.
+      srcCompVersion = 6;
+    }
     return srcCompVersion;
   }
   private static int upgradeSliderProperties(Map<String, JSONValue> componentProperties,
@@ -795,6 +815,19 @@ public final class YoungAndroidFormUpgrader {
       // No properties need to be modified to upgrade to version 2.
       srcCompVersion = 2;
     }
+    if (srcCompVersion < 3) {
+      // File.ReadCsvFrom and File.SaveCsvFile methods were added.
+      // File.GotCsvRow and File.AfterCsvRead events were added.
+      // No properties need to be modified to upgrade to version 3.
+      srcCompVersion = 3;
+    }
+    if (srcCompVersion < 4) {
+      // File.AppendFlushInterval property was added.
+      // File.Flush, File.ReadLines, File.ReadTail and File.ReadRange methods were added.
+      // File.GotLines, File.AfterLinesRead and File.GotTextRange events were added.
+      // No properties need to be modified to upgrade to version 4.
+      srcCompVersion = 4;
+    }
     return srcCompVersion;
   }
 
@@ -976,6 +1009,16 @@ public final class YoungAndroidFormUpgrader {
     return srcCompVersion;
   }
 
+  private static int upgradeGyroscopeSensorProperties(Map<String, JSONValue> componentProperties,
+      int srcCompVersion) {
+    if (srcCompVersion < 2) {
+      // The SamplingInterval and Samples properties were added.
+      // No properties need to be modified to upgrade to version 2.
+      srcCompVersion = 2;
+    }
+    return srcCompVersion;
+  }
+
   private static int upgradeHorizontalArrangementProperties(Map<String, JSONValue> componentProperties,
       int srcCompVersion) {
     if (srcCompVersion < 2) {
@@ -1167,6 +1210,11 @@ public final class YoungAndroidFormUpgrader {
       // Properties related to this component have now been upgraded to version 2.
       srcCompVersion = 2;
     }
+    if (srcCompVersion < 3) {
+      // The SamplingInterval property was added.
+      // No properties need to be modified to upgrade to version 3.
+      srcCompVersion = 3;
+    }
     return srcCompVersion;
   }
 
@@ -1511,6 +1559,11 @@ public final class YoungAndroidFormUpgrader {
       // Block event handlers were renamed
       srcCompVersion = 3;
     }
+    if (srcCompVersion < 4) {
+      // The ClusterMarkers designer property was added. It defaults to False.
+      // The NearestFeature method was added.
+      srcCompVersion = 4;
+    }
     return srcCompVersion;
   }
 
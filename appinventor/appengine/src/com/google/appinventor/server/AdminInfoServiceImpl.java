@@ -96,4 +96,12 @@ public class AdminInfoServiceImpl extends OdeRemoteServiceServlet implements Adm
     getThreadLocalResponse().addCookie(cook);
 
   }
+
+  @Override
+  public String getCacheStatistics() {
+    if (!userInfoProvider.getIsAdmin()) {
+      throw new IllegalArgumentException("Unauthorized.");
+    }
+    return storageIo.getProjectCacheStatistics();
+  }
 }
@@ -0,0 +1,152 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.cookieauth.CookieAuth;
+import com.google.appinventor.server.flags.Flag;
+import com.google.appinventor.shared.rpc.user.User;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A per-instance cache of what {@link OdeAuthFilter} needs to authenticate
+ * a request: the decrypted authentication cookie, the {@link User} record
+ * and the result of the whitelist check.
+ *
+ * <p>The GWT client fires several RPCs for each editor action, each of
+ * which would otherwise decrypt the cookie, fetch the user (memcache or
+ * datastore) and, if enabled, query the whitelist. Entries live for at
+ * most {@code auth.cache.ttl.secs} seconds. Changes to a user made through
+ * StorageIo on this instance call {@link #invalidateUser(String)}; changes
+ * made on another instance are seen once the entry expires.
+ *
+ * <p>Only users that have accepted the terms of service are cached, the
+ * same rule used for the User entries kept in memcache, so that accepting
+ * the terms of service takes effect immediately.
+ */
+public final class AuthCache {
+
+  private static final Flag<Integer> cacheSize = Flag.createFlag("auth.cache.size", 2000);
+  private static final Flag<Integer> cacheTtlSecs = Flag.createFlag("auth.cache.ttl.secs", 10);
+
+  /**
+   * What we know about a user: their record and, once checked, whether
+   * their email is on the whitelist.
+   */
+  private static final class UserEntry {
+    final User user;
+    // null until the whitelist has been checked
+    volatile Boolean whitelisted;
+
+    UserEntry(User user) {
+      this.user = user;
+    }
+  }
+
+  // Keyed by a digest of the raw cookie so we do not keep the cookies
+  // themselves around. The parsed protocol buffer is immutable.
+  private final Cache<String, CookieAuth.cookie> cookies;
+  private final Cache<String, UserEntry> users;
+
+  /**
+   * Returns the singleton AuthCache instance.
+   *
+   * @return authCache instance
+   */
+  public static AuthCache getInstance() {
+    return AuthCacheInstanceHolder.INSTANCE;
+  }
+
+  private static class AuthCacheInstanceHolder {
+    private AuthCacheInstanceHolder() {} // not to be instantiated
+    private static final AuthCache INSTANCE = new AuthCache();
+  }
+
+  private AuthCache() {
+    int size = cacheSize.get();
+    long ttl = cacheTtlSecs.get();
+    cookies = CacheBuilder.newBuilder()
+        .maximumSize(size)
+        .expireAfterWrite(ttl, TimeUnit.SECONDS)
+        .build();
+    users = CacheBuilder.newBuilder()
+        .maximumSize(size)
+        .expireAfterWrite(ttl, TimeUnit.SECONDS)
+        .build();
+  }
+
+  /**
+   * Returns the decrypted cookie for the given raw cookie value, or null
+   * if it has not been seen recently.
+   */
+  CookieAuth.cookie getCookie(String rawCookie) {
+    return cookies.getIfPresent(digest(rawCookie));
+  }
+
+  void putCookie(String rawCookie, CookieAuth.cookie cookie) {
+    cookies.put(digest(rawCookie), cookie);
+  }
+
+  /**
+   * Returns a private copy of the cached record for a user, or null. A
+   * copy is returned because callers adjust the admin and read only flags
+   * for their request.
+   */
+  User getUser(String userId) {
+    UserEntry entry = users.getIfPresent(userId);
+    return entry == null ? null : copyOf(entry.user);
+  }
+
+  void putUser(User user) {
+    if (user.getUserTosAccepted()) {
+      users.put(user.getUserId(), new UserEntry(copyOf(user)));
+    }
+  }
+
+  /**
+   * Returns the cached whitelist decision for a user's email, or null if
+   * it is not known.
+   */
+  Boolean getWhitelisted(String userId, String email) {
+    UserEntry entry = users.getIfPresent(userId);
+    if (entry == null || !email.equals(entry.user.getUserEmail())) {
+      return null;
+    }
+    return entry.whitelisted;
+  }
+
+  void putWhitelisted(String userId, String email, boolean whitelisted) {
+    UserEntry entry = users.getIfPresent(userId);
+    if (entry != null && email.equals(entry.user.getUserEmail())) {
+      entry.whitelisted = whitelisted;
+    }
+  }
+
+  /**
+   * Forgets everything cached about a user. Called when the user record
+   * changes, for example a new session id or email address.
+   *
+   * @param userId the id of the user that changed
+   */
+  public void invalidateUser(String userId) {
+    users.invalidate(userId);
+  }
+
+  private static User copyOf(User user) {
+    User copy = user.copy();
+    copy.setPassword(user.getPassword());
+    return copy;
+  }
+
+  private static String digest(String rawCookie) {
+    return Hashing.sha256().hashString(rawCookie, Charsets.UTF_8).toString();
+  }
+}
@@ -15,9 +15,7 @@ import com.google.appinventor.shared.rpc.Nonce;
 import com.google.appinventor.shared.rpc.ServerLayout;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
-import com.google.appinventor.shared.storage.StorageUtil;
 
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.FileNotFoundException;
@@ -90,18 +88,6 @@ public class BuildOutputServlet extends OdeServlet {
       return;
     }
 
-    String fileName = downloadableFile.getFileName();
-    byte[] content = downloadableFile.getContent();
-
-    // Set http response information
-    resp.setStatus(HttpServletResponse.SC_OK);
-    resp.setHeader("content-disposition", "attachment; filename=\"" + fileName + "\"");
-    resp.setContentType(StorageUtil.getContentTypeForFilePath(fileName));
-    resp.setContentLength(content.length);
-
-    // Attach download data
-    ServletOutputStream out = resp.getOutputStream();
-    out.write(content);
-    out.close();
+    DownloadServlet.sendRawFile(req, resp, downloadableFile);
   }
 }
@@ -15,6 +15,7 @@ import com.google.appinventor.shared.rpc.ServerLayout;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.storage.StorageUtil;
+import com.google.common.annotations.VisibleForTesting;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -217,13 +218,47 @@ public class DownloadServlet extends OdeServlet {
       throw CrashReport.createAndLogError(LOG, req, "user=" + userId, e);
     }
 
+    sendRawFile(req, resp, downloadableFile);
+  }
+
+  /**
+   * Sends a file as an attachment. Files left in storage are streamed, and
+   * a single byte range may be requested so that interrupted downloads of
+   * large packages can be resumed.
+   */
+  static void sendRawFile(HttpServletRequest req, HttpServletResponse resp,
+      RawFile downloadableFile) throws IOException {
     String fileName = downloadableFile.getFileName();
-    byte[] content = downloadableFile.getContent();
 
     // Set http response information
-    resp.setStatus(HttpServletResponse.SC_OK);
     resp.setHeader("content-disposition", "attachment; filename=\"" + fileName + "\"");
     resp.setContentType(StorageUtil.getContentTypeForFilePath(fileName));
+
+    if (downloadableFile instanceof StoredRawFile) {
+      StoredRawFile storedFile = (StoredRawFile) downloadableFile;
+      long length = storedFile.getLength();
+      long[] range = parseRange(req.getHeader("Range"), length);
+      resp.setHeader("Accept-Ranges", "bytes");
+      if (range == null) {
+        resp.setStatus(HttpServletResponse.SC_OK);
+        range = new long[] { 0, length - 1 };
+      } else if (range.length == 0) {
+        resp.setHeader("Content-Range", "bytes */" + length);
+        resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        return;
+      } else {
+        resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        resp.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+      }
+      resp.setHeader("Content-Length", Long.toString(range[1] - range[0] + 1));
+      ServletOutputStream out = resp.getOutputStream();
+      storedFile.writeTo(range[0], range[1] - range[0] + 1, out);
+      out.close();
+      return;
+    }
+
+    byte[] content = downloadableFile.getContent();
+    resp.setStatus(HttpServletResponse.SC_OK);
     resp.setContentLength(content.length);
 
     // Attach download data
@@ -231,4 +266,46 @@ public class DownloadServlet extends OdeServlet {
     out.write(content);
     out.close();
   }
+
+  /**
+   * Parses a Range header asking for a single range of bytes.
+   *
+   * @param header  value of the Range header, or null
+   * @param length  length of the file
+   * @return the first and last byte of the range, an empty array if the
+   *     range cannot be satisfied, or null to send the whole file
+   */
+  @VisibleForTesting
+  static long[] parseRange(String header, long length) {
+    if (header == null || !header.startsWith("bytes=") || header.contains(",")) {
+      return null;              // Multiple ranges are not worth supporting
+    }
+    String spec = header.substring("bytes=".length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0) {
+      return null;
+    }
+    long first;
+    long last;
+    try {
+      if (dash == 0) {          // The last N bytes
+        long suffix = Long.parseLong(spec.substring(1));
+        if (suffix <= 0) {
+          return new long[0];
+        }
+        first = Math.max(0, length - suffix);
+        last = length - 1;
+      } else {
+        first = Long.parseLong(spec.substring(0, dash));
+        last = dash == spec.length() - 1 ? length - 1
+            : Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    if (first < 0 || first >= length || last < first) {
+      return new long[0];
+    }
+    return new long[] { first, last };
+  }
 }
@@ -21,6 +21,10 @@ public interface FileExporter {
 
   public static final String REMIX_INFORMATION_FILE_PATH = "youngandroidproject/remix_history";
 
+  // Lists the files of a build request that the build server already has, as
+  // "<content hash> <file name>" lines. Must match the build server's ContentCache.
+  public static final String CONTENT_MANIFEST_FILE_PATH = "youngandroidproject/content.manifest";
+
   /**
    * Exports a project output file.
    *
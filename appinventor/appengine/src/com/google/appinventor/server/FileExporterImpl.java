@@ -50,8 +50,8 @@ public final class FileExporterImpl implements FileExporter {
 
     for (String fileName : files) {
       if (fileName.endsWith(".apk")) {
-        byte[] content = storageIo.downloadRawFile(userId, projectId, fileName);
-        return new RawFile(StorageUtil.basename(fileName), content);
+        // Left in storage, the servlets stream it
+        return new StoredRawFile(storageIo, userId, projectId, fileName);
       }
     }
 
@@ -0,0 +1,30 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * GalleryIndexServlet -- Write logged gallery app changes to the search index
+ *
+ * When gallery apps are published, updated or removed their ids are
+ * logged and a task is queued on the "galleryindex" queue which calls this
+ * servlet to re-index them in batches (see GallerySearchIndex.indexChanges).
+ * Like the GalleryReconcileServlet it is restricted to admin users, which
+ * includes the task queue manager.
+ *
+ */
+public class GalleryIndexServlet extends OdeServlet {
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    GallerySearchIndex.getInstance().indexChanges();
+  }
+}
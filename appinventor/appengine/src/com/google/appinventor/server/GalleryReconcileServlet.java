@@ -0,0 +1,48 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.GalleryStorageIo;
+import com.google.appinventor.server.storage.GalleryStorageIoInstanceHolder;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * GalleryReconcileServlet -- Fold sharded gallery counters into GalleryAppData
+ *
+ * Gallery downloads and likes are written to sharded counters so that
+ * popular apps do not contend on a single entity. After counters are
+ * written a task is queued on the "galleryreconcile" queue which calls
+ * this servlet to copy the totals into the app's stored counts, which
+ * are what the gallery sorts on. Like the BlobUpgradeServlet it is
+ * restricted to admin users, which includes the task queue manager.
+ *
+ */
+public class GalleryReconcileServlet extends OdeServlet {
+  // Logging support
+  private static final Logger LOG = Logger.getLogger(GalleryReconcileServlet.class.getName());
+  private final GalleryStorageIo galleryStorageIo = GalleryStorageIoInstanceHolder.INSTANCE;
+
+  @Override
+  public void doPost(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+
+    String galleryId = req.getParameter("galleryId");
+    long id;
+    try {
+      id = Long.parseLong(galleryId);
+    } catch (NumberFormatException e) {
+      // Don't make the task queue retry a request that can never succeed
+      LOG.warning("Bad galleryId to reconcile: " + galleryId);
+      return;
+    }
+    galleryStorageIo.reconcileCounters(id);
+  }
+}
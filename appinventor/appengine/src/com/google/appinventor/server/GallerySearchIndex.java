@@ -6,7 +6,6 @@
 
 package com.google.appinventor.server;
 
-import com.google.appengine.api.search.Cursor;
 import com.google.appengine.api.search.DeleteException;
 import com.google.appengine.api.search.Document;
 import com.google.appengine.api.search.Field;
@@ -20,20 +19,42 @@ import com.google.appengine.api.search.ScoredDocument;
 import com.google.appengine.api.search.SearchException;
 import com.google.appengine.api.search.SearchServiceFactory;
 import com.google.appengine.api.search.StatusCode;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appinventor.server.flags.Flag;
 import com.google.appinventor.server.storage.GalleryStorageIo;
 import com.google.appinventor.server.storage.GalleryStorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.project.GalleryApp;
 import com.google.appinventor.shared.rpc.project.GalleryAppListResult;
-import com.googlecode.objectify.NotFoundException;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 // see sample at https://developers.google.com/appengine/docs/java/search/
 
+/**
+ * Search index of gallery apps.
+ *
+ * <p>Changes to apps are not written to the index as they happen. Instead
+ * the ids of changed apps are recorded in a change log (see
+ * {@link GalleryStorageIo#logIndexChanges}) and a task on the
+ * {@code galleryindex} queue calls {@link #indexChanges} a few seconds
+ * later. It re-reads the changed apps and writes their documents in
+ * batches, removing the documents of apps that were deleted or
+ * deactivated. Searches that come across such documents log them as
+ * changes too, instead of deleting them on the query path.
+ *
+ * <p>Setting {@code gallery.search.local} uses a {@link LocalGalleryIndex}
+ * kept in memory instead of the App Engine search service, and applies
+ * changes right away.
+ */
 public class GallerySearchIndex {
 
   private static final Logger LOG = Logger.getLogger(GallerySearchIndex.class.getName());
@@ -45,6 +66,21 @@ public class GallerySearchIndex {
   private final int NUMBER_FOUND_ACCURACY = 100;
   private static final boolean DEBUG = Flag.createFlag("appinventor.debugging", false).get();
 
+  // Most documents Index.put and Index.delete accept in one call
+  public static final int MAX_BATCH_SIZE = 200;
+  // Use an in-memory index instead of the App Engine search service
+  private static final Flag<Boolean> useLocalIndex =
+      Flag.createFlag("gallery.search.local", false);
+  // How long changes are collected before they are written to the index
+  private static final Flag<Integer> indexDelaySecs =
+      Flag.createFlag("gallery.index.delay.secs", 10);
+  // How long one indexChanges call may run before handing over to a new task
+  private static final long INDEX_TIME_LIMIT_MILLIS = 60 * 1000;
+  private static final String INDEX_QUEUE = "galleryindex";
+  private static final String INDEX_URL = "/galleryindex";
+
+  private final LocalGalleryIndex localIndex = new LocalGalleryIndex();
+
   /**
    * The default constructor of GallerySearchIndex
    */
@@ -69,24 +105,16 @@ public class GallerySearchIndex {
    * @param app galleryapp
    */
   public void indexApp (GalleryApp app) {
-    // take the title, description, and the user name and index it
-    // need to build up a string with all meta data
-    String indexWords = app.getTitle()+" "+app.getDescription() + " " + app.getDeveloperName();
-    // now create the doc
-    Document doc = Document.newBuilder()
-      .setId(String.valueOf(app.getGalleryAppId()))
-      .addField(Field.newBuilder().setName("content").setText(indexWords))
-      .build();
-
-    Index index = getIndex();
+    indexApp(app.getGalleryAppId());
+  }
 
-    try {
-      index.put(doc);
-    } catch (PutException e) {
-      if (StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())) {
-          // retry putting the document
-      }
-    }
+  /**
+   * queue a gallery app for re-indexing. The app is removed from the index
+   * if it no longer exists or is inactive by then.
+   * @param galleryId gallery id
+   */
+  public void indexApp(long galleryId) {
+    logChanges(Collections.singletonList(galleryId));
   }
 
   /**
@@ -94,13 +122,58 @@ public class GallerySearchIndex {
    * @param galleryId gallery id
    */
   public void unIndexApp(long galleryId) {
-    Index index = getIndex();
-    try {
-      index.delete(String.valueOf(galleryId));
-    } catch (DeleteException e) {
-      LOG.info("error deleting index entry");
+    // The app is gone or inactive by now, so re-indexing removes it
+    logChanges(Collections.singletonList(galleryId));
+  }
+
+  /**
+   * index the given gallery apps right away, in batches
+   * @param apps gallery apps
+   * @return true if all documents were written
+   */
+  public boolean indexApps(List<GalleryApp> apps) {
+    if (useLocalIndex.get()) {
+      for (GalleryApp app : apps) {
+        localIndex.put(app.getGalleryAppId(), indexWords(app));
+      }
+      return true;
+    }
+    boolean success = true;
+    for (int i = 0; i < apps.size(); i += MAX_BATCH_SIZE) {
+      List<Document> docs = new ArrayList<Document>();
+      for (GalleryApp app : apps.subList(i, Math.min(i + MAX_BATCH_SIZE, apps.size()))) {
+        docs.add(Document.newBuilder()
+            .setId(String.valueOf(app.getGalleryAppId()))
+            .addField(Field.newBuilder().setName("content").setText(indexWords(app)))
+            .build());
+      }
+      success &= putDocuments(docs);
     }
+    return success;
+  }
 
+  /**
+   * Brings the index up to date with the apps in the change log. Called by
+   * GalleryIndexServlet from the galleryindex queue.
+   */
+  public void indexChanges() {
+    long started = System.currentTimeMillis();
+    while (true) {
+      Map<Long, Long> changed = galleryStorageIo.getIndexChanges(MAX_BATCH_SIZE);
+      if (changed.isEmpty()) {
+        return;
+      }
+      if (!reindex(new ArrayList<Long>(changed.keySet()))) {
+        // Leave the changes logged and try again later
+        scheduleIndexing();
+        return;
+      }
+      galleryStorageIo.clearIndexChanges(changed);
+      if (System.currentTimeMillis() - started > INDEX_TIME_LIMIT_MILLIS) {
+        scheduleIndexing();
+        return;
+      }
+    }
   }
 
   /**
@@ -112,8 +185,13 @@ public class GallerySearchIndex {
    * @return GalleryAppListResult gallery applist result
    */
   public GalleryAppListResult find (String searchWords, int start, int count) {
+    if (useLocalIndex.get()) {
+      List<Long> ids = localIndex.search(searchWords);
+      List<Long> page = ids.subList(Math.min(start, ids.size()),
+          Math.min(start + count, ids.size()));
+      return new GalleryAppListResult(getActiveApps(page), ids.size(), searchWords);
+    }
     //TODO page sliced has not implemented yet
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
     final Result<Integer> size = new Result<Integer>();
     Query query = Query.newBuilder()
             .setOptions(QueryOptions.newBuilder()
@@ -153,33 +231,140 @@ public class GallerySearchIndex {
       }
     }
 
+    List<GalleryApp> apps;
     if (results != null){
+      List<Long> ids = new ArrayList<Long>();
       // Iterate over the documents in the results
       for (ScoredDocument document : results) {
         if (DEBUG) {
           LOG.info("Find:" + document.getId());
         }
+        ids.add(Long.parseLong(document.getId()));
       }
-
-      // Iterate over the documents in the results
-      for (ScoredDocument document : results) {
-        try{
-          GalleryApp app = galleryStorageIo.getGalleryApp(Long.parseLong(document.getId()));
-          apps.add(app);
-        }catch(NotFoundException e){
-          LOG.log(Level.SEVERE, "Didn't Find GalleryAppData.id: " + document.getId());
-          unIndexApp(Long.parseLong(document.getId()));
-        }
-      }
+      apps = getActiveApps(ids);
       size.t = (int) results.getNumberFound();
     } else {
       // the search was not successful in the try and catch
+      apps = new ArrayList<GalleryApp>();
       size.t = 0;
       LOG.info("Search failed after " + attempts + " attempts");
     }
     return new GalleryAppListResult(apps, size.t, searchWords);
   }
 
+  // Fetches the found apps together. Documents of apps that are gone or
+  // inactive are logged for removal by indexChanges.
+  private List<GalleryApp> getActiveApps(List<Long> ids) {
+    List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    Set<Long> stale = new HashSet<Long>(ids);
+    for (GalleryApp app : galleryStorageIo.getGalleryApps(ids)) {
+      if (app.getActive()) {
+        apps.add(app);
+        stale.remove(app.getGalleryAppId());
+      }
+    }
+    if (!stale.isEmpty()) {
+      LOG.log(Level.WARNING, "Search index has stale entries for " + stale);
+      logChanges(new ArrayList<Long>(stale));
+    }
+    return apps;
+  }
+
+  // Writes the current state of the given apps to the index
+  private boolean reindex(List<Long> galleryIds) {
+    List<GalleryApp> active = new ArrayList<GalleryApp>();
+    List<String> stale = new ArrayList<String>();
+    Set<Long> found = new HashSet<Long>();
+    for (GalleryApp app : galleryStorageIo.getGalleryApps(galleryIds)) {
+      found.add(app.getGalleryAppId());
+      if (app.getActive()) {
+        active.add(app);
+      } else {
+        stale.add(String.valueOf(app.getGalleryAppId()));
+      }
+    }
+    for (long galleryId : galleryIds) {
+      if (!found.contains(galleryId)) {
+        stale.add(String.valueOf(galleryId));
+      }
+    }
+    return indexApps(active) && deleteDocuments(stale);
+  }
+
+  private void logChanges(List<Long> galleryIds) {
+    if (useLocalIndex.get()) {
+      // Cheap enough to do right away
+      reindex(galleryIds);
+      return;
+    }
+    try {
+      galleryStorageIo.logIndexChanges(galleryIds);
+    } catch (RuntimeException e) {
+      // Not worth failing the user's request over, indexAll will fix it
+      LOG.log(Level.WARNING, "Unable to log index changes for " + galleryIds, e);
+      return;
+    }
+    scheduleIndexing();
+  }
+
+  /**
+   * Queues a call to indexChanges. Task names are derived from the current
+   * indexing delay, so at most one task is queued per delay interval no
+   * matter how many apps change.
+   */
+  private void scheduleIndexing() {
+    long delayMillis = Math.max(indexDelaySecs.get() * 1000L, 1000L);
+    long bucket = System.currentTimeMillis() / delayMillis;
+    try {
+      QueueFactory.getQueue(INDEX_QUEUE).add(TaskOptions.Builder.withUrl(INDEX_URL)
+          .taskName("galleryindex-" + bucket)
+          .countdownMillis(delayMillis));
+    } catch (TaskAlreadyExistsException e) {
+      // Already scheduled for this interval
+    } catch (RuntimeException e) {
+      // The changes are safe in the log; the next change will schedule again
+      LOG.log(Level.WARNING, "Unable to schedule gallery indexing", e);
+    }
+  }
+
+  private boolean putDocuments(List<Document> docs) {
+    for (int attempts = 1; ; attempts++) {
+      try {
+        getIndex().put(docs);
+        return true;
+      } catch (PutException e) {
+        if (!StatusCode.TRANSIENT_ERROR.equals(e.getOperationResult().getCode())
+            || attempts >= SEARCH_RETRY_MAX) {
+          LOG.log(Level.WARNING, "error putting index entries", e);
+          return false;
+        }
+      }
+    }
+  }
+
+  private boolean deleteDocuments(List<String> ids) {
+    if (useLocalIndex.get()) {
+      for (String id : ids) {
+        localIndex.remove(Long.parseLong(id));
+      }
+      return true;
+    }
+    for (int i = 0; i < ids.size(); i += MAX_BATCH_SIZE) {
+      try {
+        getIndex().delete(ids.subList(i, Math.min(i + MAX_BATCH_SIZE, ids.size())));
+      } catch (DeleteException e) {
+        LOG.log(Level.INFO, "error deleting index entries", e);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // take the title, description, and the user name and index it
+  private static String indexWords(GalleryApp app) {
+    return app.getTitle() + " " + app.getDescription() + " " + app.getDeveloperName();
+  }
+
   /**
    * @return the search index
    */
@@ -141,9 +141,22 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    */
   @Override
   public void indexAll(int count) {
-    List<GalleryApp> apps= getRecentApps(1,count).getApps();
-    for (GalleryApp app:apps) {
-      GallerySearchIndex.getInstance().indexApp(app);
+    // Page through the apps a batch at a time, each batch is one index write
+    String cursor = null;
+    int indexed = 0;
+    while (indexed < count) {
+      GalleryAppListResult page = getRecentApps(cursor,
+          Math.min(count - indexed, GallerySearchIndex.MAX_BATCH_SIZE));
+      List<GalleryApp> apps = page.getApps();
+      if (apps.isEmpty()) {
+        break;
+      }
+      GallerySearchIndex.getInstance().indexApps(apps);
+      indexed += apps.size();
+      cursor = page.getCursor();
+      if (cursor == null) {
+        break;
+      }
     }
   }
 
@@ -159,13 +172,13 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
   /**
    * Returns a wrapped class which contains list of most recently
    * updated galleryApps and total number of results in database
-   * @param start starting index
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps to return
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getRecentApps(int start,int count) {
-    return galleryStorageIo.getRecentGalleryApps(start,count);
+  public GalleryAppListResult getRecentApps(String cursor, int count) {
+    return galleryStorageIo.getRecentGalleryApps(cursor, count);
   }
 
   /**
@@ -228,13 +241,13 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
    * Returns a wrapped class which contains a list of galleryApps
    * by a particular developer and total number of results in database
    * @param userId id of the developer
-   * @param start starting index
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps to return
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getDeveloperApps(String userId, int start,int count) {
-    return galleryStorageIo.getDeveloperApps(userId, start,count);
+  public GalleryAppListResult getDeveloperApps(String userId, String cursor, int count) {
+    return galleryStorageIo.getDeveloperApps(userId, cursor, count);
   }
 
   /**
@@ -264,25 +277,25 @@ public class GalleryServiceImpl extends OdeRemoteServiceServlet implements Galle
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps to return
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getMostDownloadedApps(int start, int count) {
-    return galleryStorageIo.getMostDownloadedApps(start,count);
+  public GalleryAppListResult getMostDownloadedApps(String cursor, int count) {
+    return galleryStorageIo.getMostDownloadedApps(cursor, count);
   }
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps to return
    * @return list of GalleryApps
    */
   @Override
-  public GalleryAppListResult getMostLikedApps(int start, int count) {
-    return galleryStorageIo.getMostLikedApps(start,count);
+  public GalleryAppListResult getMostLikedApps(String cursor, int count) {
+    return galleryStorageIo.getMostLikedApps(cursor, count);
   }
 
   /**
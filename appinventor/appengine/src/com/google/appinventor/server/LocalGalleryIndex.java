@@ -0,0 +1,125 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A simple in-memory inverted index of gallery apps, used by
+ * {@link GallerySearchIndex} where the App Engine search service is not
+ * available. Documents are split into lower case words, and a query
+ * matches the documents that contain all of its words. Matches are
+ * returned newest (highest id) first.
+ *
+ * <p>The index lives only in this instance, so it is meant for development
+ * and single instance deployments. It is filled as apps are published or
+ * updated, or all at once by {@link GalleryServiceImpl#indexAll(int)}.
+ *
+ */
+final class LocalGalleryIndex {
+  // word -> ids of the documents containing it
+  private final Map<String, Set<Long>> postings = new HashMap<String, Set<Long>>();
+  // id -> words of the document, to clear its postings when it is replaced
+  private final Map<Long, Set<String>> documents = new HashMap<Long, Set<String>>();
+
+  /**
+   * Adds a document to the index, replacing any document with the same id.
+   */
+  synchronized void put(long id, String text) {
+    remove(id);
+    Set<String> words = new HashSet<String>(tokenize(text));
+    for (String word : words) {
+      Set<Long> ids = postings.get(word);
+      if (ids == null) {
+        ids = new HashSet<Long>();
+        postings.put(word, ids);
+      }
+      ids.add(id);
+    }
+    documents.put(id, words);
+  }
+
+  /**
+   * Removes a document from the index, if present.
+   */
+  synchronized void remove(long id) {
+    Set<String> words = documents.remove(id);
+    if (words == null) {
+      return;
+    }
+    for (String word : words) {
+      Set<Long> ids = postings.get(word);
+      ids.remove(id);
+      if (ids.isEmpty()) {
+        postings.remove(word);
+      }
+    }
+  }
+
+  /**
+   * Returns the ids of all documents that contain every word of
+   * {@code query}, highest id first. A query without words matches nothing.
+   */
+  synchronized List<Long> search(String query) {
+    List<Set<Long>> matches = new ArrayList<Set<Long>>();
+    for (String word : new LinkedHashSet<String>(tokenize(query))) {
+      Set<Long> ids = postings.get(word);
+      if (ids == null) {
+        return Collections.emptyList();
+      }
+      matches.add(ids);
+    }
+    if (matches.isEmpty()) {
+      return Collections.emptyList();
+    }
+    // Intersect starting from the rarest word
+    Set<Long> smallest = matches.get(0);
+    for (Set<Long> ids : matches) {
+      if (ids.size() < smallest.size()) {
+        smallest = ids;
+      }
+    }
+    List<Long> result = new ArrayList<Long>();
+    for (Long id : smallest) {
+      boolean all = true;
+      for (Set<Long> ids : matches) {
+        if (!ids.contains(id)) {
+          all = false;
+          break;
+        }
+      }
+      if (all) {
+        result.add(id);
+      }
+    }
+    Collections.sort(result, Collections.reverseOrder());
+    return result;
+  }
+
+  private static List<String> tokenize(String text) {
+    List<String> words = new ArrayList<String>();
+    if (text == null) {
+      return words;
+    }
+    StringBuilder word = new StringBuilder();
+    for (int i = 0; i <= text.length(); i++) {
+      if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+        word.append(Character.toLowerCase(text.charAt(i)));
+      } else if (word.length() > 0) {
+        words.add(word.toString());
+        word.setLength(0);
+      }
+    }
+    return words;
+  }
+}
@@ -53,10 +53,10 @@ public class OdeAuthFilter implements Filter {
 
   private static final Logger LOG = Logger.getLogger(OdeAuthFilter.class.getName());
 
-  private static Crypter crypter = null; // accessed through getCrypter only
-  private static final Object crypterSync = new Object();
+  private static volatile Crypter crypter = null; // accessed through getCrypter only
 
   private final StorageIo storageIo = StorageIoInstanceHolder.INSTANCE;
+  private static final AuthCache authCache = AuthCache.getInstance();
 
   // Whether this server should use a whitelist to determine who can
   // access it. Value is specified in the <system-properties> section
@@ -194,7 +194,14 @@ public class OdeAuthFilter implements Filter {
   @VisibleForTesting
   boolean isUserWhitelisted() {
     //return whitelist.isInWhitelist(localUser);
-    return storageIo.checkWhiteList(localUser.getUserEmail());
+    String userId = localUser.getUserId();
+    String email = localUser.getUserEmail();
+    Boolean whitelisted = authCache.getWhitelisted(userId, email);
+    if (whitelisted == null) {
+      whitelisted = storageIo.checkWhiteList(email);
+      authCache.putWhitelisted(userId, email, whitelisted);
+    }
+    return whitelisted;
   }
 
   @VisibleForTesting
@@ -214,7 +221,11 @@ public class OdeAuthFilter implements Filter {
    * that was encrypted in the URL.
    */
   void setUserFromUserId(String userId, boolean isAdmin, boolean isReadOnly) {
-    User user = storageIo.getUser(userId);
+    User user = authCache.getUser(userId);
+    if (user == null) {
+      user = storageIo.getUser(userId);
+      authCache.putUser(user);
+    }
     if (!user.getIsAdmin() && isAdmin) {
       user.setIsAdmin(true);    // If session says they are an admin (which is the case
                                 // if they are a Google Account with Developer access
@@ -349,9 +360,14 @@ public class OdeAuthFilter implements Filter {
             if (DEBUG) {
               LOG.info("getUserInfo: rawCookie = " + rawData);
             }
-            Crypter crypter = getCrypter();
-            CookieAuth.cookie cookieToken = CookieAuth.cookie.parseFrom(
-              crypter.decrypt(Base64Coder.decode(rawData)));
+            CookieAuth.cookie cookieToken = authCache.getCookie(rawData);
+            if (cookieToken == null) {
+              Crypter crypter = getCrypter();
+              cookieToken = CookieAuth.cookie.parseFrom(
+                crypter.decrypt(Base64Coder.decode(rawData)));
+              authCache.putCookie(rawData, cookieToken);
+            }
+            // The timestamp is checked on every request, cached or not
             UserInfo uInfo = new UserInfo();
             uInfo.userId = cookieToken.getUuid();
             uInfo.ts = cookieToken.getTs();
@@ -373,14 +389,14 @@ public class OdeAuthFilter implements Filter {
     }
   }
 
+  // No lock is needed: the Crypter is thread safe, and if two threads race
+  // to create it the loser's copy is simply discarded.
   private static Crypter getCrypter() throws KeyczarException {
-    synchronized(crypterSync) {
-      if (crypter != null) {
-        return crypter;
-      } else {
-        crypter = new Crypter(sessionKeyFile.get());
-        return crypter;
-      }
+    Crypter result = crypter;
+    if (result == null) {
+      result = new Crypter(sessionKeyFile.get());
+      crypter = result;
     }
+    return result;
   }
 }
@@ -365,6 +365,21 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
     return getProjectRpcImpl(userId, projectId).load2(userId, projectId, fileId);
   }
 
+  /**
+   * Loads several source files of a project in a single request.
+   *
+   * @param projectId  project ID
+   * @param fileIds  project nodes whose source should be loaded
+   *
+   * @return  checksummed file objects, in the same order as {@code fileIds}
+   */
+  @Override
+  public List<ChecksumedLoadFile> loadFiles(long projectId, List<String> fileIds)
+      throws ChecksumedFileException {
+    final String userId = userInfoProvider.getUserId();
+    return getProjectRpcImpl(userId, projectId).loadFiles(userId, projectId, fileIds);
+  }
+
   /**
    * Attempt to record the project Id and error message when we detect a corruption
    * while loading a project.
@@ -0,0 +1,50 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.storage.StorageIo;
+import com.google.appinventor.shared.rpc.project.RawFile;
+import com.google.appinventor.shared.storage.StorageUtil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A {@link RawFile} whose content is left in storage until it is needed.
+ * Servlets can copy it to a response a range at a time (see
+ * {@link DownloadServlet#sendRawFile}) instead of loading it into memory.
+ *
+ */
+final class StoredRawFile extends RawFile {
+  private final StorageIo storageIo;
+  private final String userId;
+  private final long projectId;
+  private final String storedFileName;
+
+  StoredRawFile(StorageIo storageIo, String userId, long projectId, String storedFileName) {
+    super(StorageUtil.basename(storedFileName), null);
+    this.storageIo = storageIo;
+    this.userId = userId;
+    this.projectId = projectId;
+    this.storedFileName = storedFileName;
+  }
+
+  /**
+   * Reads the whole file. Prefer {@link #writeTo} for large files.
+   */
+  @Override
+  public byte[] getContent() {
+    return storageIo.downloadRawFile(userId, projectId, storedFileName);
+  }
+
+  long getLength() {
+    return storageIo.getRawFileLength(userId, projectId, storedFileName);
+  }
+
+  void writeTo(long offset, long length, OutputStream out) throws IOException {
+    storageIo.downloadRawFile(userId, projectId, storedFileName, offset, length, out);
+  }
+}
@@ -23,7 +23,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * The base class for classes that provide project services for a specific
@@ -204,6 +206,30 @@ public abstract class CommonProjectService {
     return retval;
   }
 
+  /**
+   * Loads several source files of a project at once. The files are fetched
+   * from storage together rather than one after another.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileIds  project nodes whose source should be loaded
+   *
+   * @return  ChecksumedLoadFile objects, in the same order as {@code fileIds}
+   */
+  public List<ChecksumedLoadFile> loadFiles(String userId, long projectId, List<String> fileIds)
+      throws ChecksumedFileException {
+    Map<String, String> contents = storageIo.downloadFiles(userId, projectId, fileIds,
+        StorageUtil.DEFAULT_CHARSET);
+    List<ChecksumedLoadFile> result = new ArrayList<ChecksumedLoadFile>();
+    // Looked up by id, as a file asked for twice is only returned once
+    for (String fileId : fileIds) {
+      ChecksumedLoadFile file = new ChecksumedLoadFile();
+      file.setContent(contents.get(fileId));
+      result.add(file);
+    }
+    return result;
+  }
+
   /**
    * Attempt to record the project Id and error message when we detect a corruption
    * while loading a project.
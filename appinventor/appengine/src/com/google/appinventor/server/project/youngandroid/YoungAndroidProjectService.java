@@ -6,14 +6,15 @@
 
 package com.google.appinventor.server.project.youngandroid;
 
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.common.utils.StringUtils;
 import com.google.appinventor.common.version.GitBuildId;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.server.CrashReport;
-import com.google.appinventor.server.FileExporter;
-import com.google.appinventor.server.FileExporterImpl;
 import com.google.appinventor.server.Server;
 import com.google.appinventor.server.encryption.EncryptionException;
 import com.google.appinventor.server.flags.Flag;
@@ -52,6 +53,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
+import com.google.common.io.CountingOutputStream;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -60,16 +62,23 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.text.DecimalFormat;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -80,7 +89,6 @@ import java.util.logging.Logger;
  */
 public final class YoungAndroidProjectService extends CommonProjectService {
 
-  private static int currentProgress = 0;
   private static final Logger LOG = Logger.getLogger(YoungAndroidProjectService.class.getName());
 
   // The value of this flag can be changed in appengine-web.xml
@@ -120,9 +128,21 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   private static final Flag<String> appengineHost =
       Flag.createFlag("appengine.host", "");
   private static final boolean DEBUG = Flag.createFlag("appinventor.debugging", false).get();
+  // Ask the build server which assets it already has before sending a project
+  private static final Flag<Boolean> sendContentManifest =
+      Flag.createFlag("build.send.content.manifest", false);
+
+  // Random prefixes so we do not collide with other users of memcache, see
+  // User.usercachekey
+  private static final String BUILD_ID_PREFIX = "5e0f9c3a-7d21-4b6e-a8f4-2c91d7e6b0a5|id|";
+  private static final String PROGRESS_PREFIX = "5e0f9c3a-7d21-4b6e-a8f4-2c91d7e6b0a5|p|";
+
+  // The build id and the last progress of each project's latest build, shared by all instances
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
 
   public YoungAndroidProjectService(StorageIo storageIo) {
     super(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE, storageIo);
+    memcache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
   }
 
   /**
@@ -441,6 +461,10 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     newProject.setProjectType(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE);
     newProject.setProjectHistory(oldProjectHistory);
 
+    // Media files are passed to createProject so their stored content can be shared rather than
+    // copied.
+    Map<String, String> sharedFiles = new LinkedHashMap<String, String>();
+
     // Get the old project's source files and add them to new project, modifying where necessary.
     for (String oldSourceFileName : storageIo.getProjectSourceFiles(userId, oldProjectId)) {
       String newSourceFileName;
@@ -469,6 +493,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         // We've determined (above) that the contents of the file must change for the new project.
         // Use newContents when adding the file to the new project.
         newProject.addTextFile(new TextFile(newSourceFileName, newContents));
+      } else if (oldSourceFileName.startsWith(ASSETS_FOLDER + "/")) {
+        sharedFiles.put(oldSourceFileName, newSourceFileName);
       } else {
         // If we get here, we know that the contents of the file can just be copied from the old
         // project. Since it might be a binary file, we copy it as a raw file (that works for both
@@ -479,9 +505,9 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     }
 
     // Create the new project and return the new project's id.
-    return storageIo.createProject(userId, newProject, getProjectSettings(icon, vcode, vname,
-        useslocation, aname, sizing, showListsAsJson, tutorialURL, actionBar, theme, primaryColor,
-        primaryColorDark, accentColor));
+    return storageIo.createProject(userId, newProject, getProjectSettings(icon, vcode,
+        vname, useslocation, aname, sizing, showListsAsJson, tutorialURL, actionBar, theme,
+        primaryColor, primaryColorDark, accentColor), oldProjectId, sharedFiles);
   }
 
   @Override
@@ -656,25 +682,26 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       storageIo.deleteFile(userId, projectId, buildOutputFile);
     }
     URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    CountingOutputStream zipStream = null;
     try {
       buildServerUrl = new URL(getBuildServerUrlStr(
           user.getUserEmail(),
           userId,
           projectId,
-          outputFileDir));
+          outputFileDir,
+          null));
+      Set<String> cachedContent = sendContentManifest.get()
+          ? getCachedContent(userId, projectId) : Collections.<String>emptySet();
       HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
-      connection.setDoOutput(true);
-      connection.setRequestMethod("POST");
-
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
-      FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
-          /* includeAndroidKeystore */ true,
-        projectName + ".aia", true, false, true, false);
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
+      zipStream = openZipUpload(connection);
+      sendProjectSourceZip(zipStream, userId, projectId, cachedContent);
+      if (connection.getResponseCode() == HttpURLConnection.HTTP_PRECON_FAILED
+          && !cachedContent.isEmpty()) {
+        // The build server no longer has some of the content, send all of it
+        connection = (HttpURLConnection) buildServerUrl.openConnection();
+        zipStream = openZipUpload(connection);
+        sendProjectSourceZip(zipStream, userId, projectId, Collections.<String>emptySet());
+      }
 
       int responseCode = 0;
       responseCode = connection.getResponseCode();
@@ -711,6 +738,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
 
         return new RpcResult(responseCode, "", StringUtils.escape(error));
       }
+      startedBuild(userId, projectId, target, connection.getHeaderField("X-Build-Id"));
     } catch (MalformedURLException e) {
       CrashReport.createAndLogError(LOG, null,
           buildErrorMsg("MalformedURLException", buildServerUrl, userId, projectId), e);
@@ -718,7 +746,7 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     } catch (IOException e) {
       // As of App Engine 1.9.0 we get these when UrlFetch is asked to send too much data
       Throwable wrappedException = e;
-      int zipFileLength = zipFile == null ? -1 : zipFile.getContent().length;
+      long zipFileLength = zipStream == null ? -1 : zipStream.getCount();
       if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
         String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
         wrappedException = new IllegalArgumentException(
@@ -736,8 +764,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       // In particular, we often see RequestTooLargeException (if the zip is too
       // big) and ApiProxyException. There may be others.
       Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
+      if (e instanceof ApiProxy.RequestTooLargeException && zipStream != null) {
+        long zipFileLength = zipStream.getCount();
         if (zipFileLength >= (5 * 1024 * 1024) /* 5 MB */) {
           String lengthMbs = format((zipFileLength * 1.0)/(1024*1024));
           wrappedException = new IllegalArgumentException(
@@ -755,6 +783,87 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     return new RpcResult(true, "Building " + projectName, "");
   }
 
+  /*
+   * Remembers the id of the build the build server started for a project, so
+   * that its progress, and not that of another build, is asked for.
+   */
+  private void startedBuild(String userId, long projectId, String target, String buildId) {
+    String key = buildKey(userId, projectId, target);
+    memcache.delete(PROGRESS_PREFIX + key);
+    if (buildId == null) {
+      memcache.delete(BUILD_ID_PREFIX + key);
+    } else {
+      memcache.put(BUILD_ID_PREFIX + key, buildId);
+    }
+  }
+
+  private static String buildKey(String userId, long projectId, String target) {
+    return userId + "|" + projectId + "|" + target;
+  }
+
+  /*
+   * Starts a POST on connection whose body is streamed rather than buffered.
+   * The returned stream counts the bytes sent.
+   */
+  private static CountingOutputStream openZipUpload(HttpURLConnection connection)
+      throws IOException {
+    connection.setDoOutput(true);
+    connection.setRequestMethod("POST");
+    connection.setChunkedStreamingMode(0);
+    return new CountingOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+  }
+
+  /*
+   * Writes the project zip to the build server, without building it in
+   * memory first.
+   */
+  private void sendProjectSourceZip(CountingOutputStream zipStream, String userId,
+      long projectId, Set<String> cachedContent) throws IOException {
+    try {
+      storageIo.exportProjectSourceZip(userId, projectId, cachedContent, zipStream);
+      zipStream.flush();
+    } finally {
+      zipStream.close();
+    }
+  }
+
+  /*
+   * Returns the content hashes of the project's assets that the build server
+   * already has. Any failure just means everything is sent.
+   */
+  private Set<String> getCachedContent(String userId, long projectId) {
+    Set<String> hashes = new HashSet<String>(
+        storageIo.getProjectContentHashes(userId, projectId).values());
+    if (hashes.isEmpty()) {
+      return hashes;
+    }
+    try {
+      URL url = new URL("http://" + buildServerHost.get() + "/buildserver/missing-content");
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      connection.setDoOutput(true);
+      connection.setRequestMethod("POST");
+      connection.addRequestProperty("Content-Type", "text/plain; charset=utf-8");
+      Writer writer = new OutputStreamWriter(connection.getOutputStream(), "UTF-8");
+      try {
+        for (String hash : hashes) {
+          writer.write(hash + "\n");
+        }
+      } finally {
+        writer.close();
+      }
+      if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+        return Collections.emptySet();
+      }
+      for (String missing : readContent(connection.getInputStream()).split("\n")) {
+        hashes.remove(missing.trim());
+      }
+      return hashes;
+    } catch (IOException e) {
+      LOG.warning("Unable to get cached content from build server: " + e.getMessage());
+      return Collections.emptySet();
+    }
+  }
+
   private String buildErrorMsg(String exceptionName, URL buildURL, String userId, long projectId) {
     return "Request to build failed with " + exceptionName + ", user=" + userId
         + ", project=" + projectId + ", build URL is " + buildURL
@@ -765,10 +874,11 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   // a little more complicated when we want to get the URL from an App Engine config file or
   // command line argument.
   private String getBuildServerUrlStr(String userName, String userId,
-                                      long projectId, String fileName)
+                                      long projectId, String fileName, String buildId)
       throws UnsupportedEncodingException, EncryptionException {
     return "http://" + buildServerHost.get() + "/buildserver/build-all-from-zip-async"
            + "?uname=" + URLEncoder.encode(userName, "UTF-8")
+           + (buildId != null ? "&buildId=" + URLEncoder.encode(buildId, "UTF-8") : "")
            + (sendGitVersion.get()
                ? "&gitBuildVersion="
                  + URLEncoder.encode(GitBuildId.getVersion(), "UTF-8")
@@ -829,8 +939,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     String userId = user.getUserId();
     String buildOutputFileName = BUILD_FOLDER + '/' + target + '/' + "build.out";
     List<String> outputFiles = storageIo.getProjectOutputFiles(userId, projectId);
-    updateCurrentProgress(user, projectId, target);
-    RpcResult buildResult = new RpcResult(-1, ""+currentProgress, ""); // Build not finished
+    int progress = updateCurrentProgress(user, projectId, target);
+    RpcResult buildResult = new RpcResult(-1, ""+progress, ""); // Build not finished
     for (String outputFile : outputFiles) {
       if (buildOutputFileName.equals(outputFile)) {
         String outputStr = storageIo.downloadFile(userId, projectId, outputFile, "UTF-8");
@@ -855,44 +965,50 @@ public final class YoungAndroidProjectService extends CommonProjectService {
    * @param user the User that owns the {@code projectId}.
    * @param projectId  project id to be built
    * @param target  build target (optional, implementation dependent)
+   * @return the progress of the project's latest build, or the last progress
+   *         seen if the build server cannot be asked
    */
-  public void updateCurrentProgress(User user, long projectId, String target) {
+  public int updateCurrentProgress(User user, long projectId, String target) {
+    String userId = user.getUserId();
+    String key = buildKey(userId, projectId, target);
+    Object lastProgress = memcache.get(PROGRESS_PREFIX + key);
+    int progress = lastProgress instanceof Integer ? (Integer) lastProgress : 0;
     try {
-      String userId = user.getUserId();
-      String projectName = storageIo.getProjectName(userId, projectId);
       String outputFileDir = BUILD_FOLDER + '/' + target;
-      URL buildServerUrl = null;
-      ProjectSourceZip zipFile = null;
-
-      buildServerUrl = new URL(getBuildServerUrlStr(user.getUserEmail(),
-        userId, projectId, outputFileDir));
+      // Without an id, which older build servers do not send, the build server answers with
+      // the progress of the user's latest build.
+      String buildId = (String) memcache.get(BUILD_ID_PREFIX + key);
+      URL buildServerUrl = new URL(getBuildServerUrlStr(user.getUserEmail(),
+        userId, projectId, outputFileDir, buildId));
       HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
       connection.setDoOutput(true);
       connection.setRequestMethod("POST");
 
       int responseCode = connection.getResponseCode();
-        if (responseCode == HttpURLConnection.HTTP_OK) {
-          try {
-            String content = readContent(connection.getInputStream());
-            if (content != null && !content.isEmpty()) {
-              if (DEBUG) {
-                LOG.info("The current progress is " + content + "%.");
-              }
-              currentProgress = Integer.parseInt(content);
+      if (responseCode == HttpURLConnection.HTTP_OK) {
+        try {
+          String content = readContent(connection.getInputStream());
+          if (content != null && !content.isEmpty()) {
+            if (DEBUG) {
+              LOG.info("The current progress is " + content + "%.");
             }
-          } catch (IOException e) {
-            // No content. That's ok.
+            progress = Integer.parseInt(content);
+            memcache.put(PROGRESS_PREFIX + key, progress);
           }
-         }
-      } catch (MalformedURLException e) {
-        // that's ok, nothing to do
-      } catch (IOException e) {
-        // that's ok, nothing to do
-      } catch (EncryptionException e) {
-        // that's ok, nothing to do
-      } catch (RuntimeException e) {
-        // that's ok, nothing to do
+        } catch (IOException e) {
+          // No content. That's ok.
+        }
       }
+    } catch (MalformedURLException e) {
+      // that's ok, nothing to do
+    } catch (IOException e) {
+      // that's ok, nothing to do
+    } catch (EncryptionException e) {
+      // that's ok, nothing to do
+    } catch (RuntimeException e) {
+      // that's ok, nothing to do
+    }
+    return progress;
   }
 
   // Nicely format floating number using only two decimal places
@@ -32,6 +32,10 @@ public class GalleryAppData {
   @Indexed public int numDownloads;
   @Indexed public int unreadLikes;
   @Indexed public int unreadDownloads;
+  // Shard totals already folded into numDownloads/numLikes, see
+  // GalleryShardedCounters
+  long reconciledDownloads;
+  long reconciledLikes;
   long projectId;
   int status;
   long lastEmailNotificationTimeStamp;
@@ -0,0 +1,27 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * A materialized count of gallery apps, kept up to date when apps are
+ * published, deleted, activated or deactivated so that listing pages do
+ * not need to run a count() query on every request.
+ *
+ * this class modelled after those in StoredData.java
+ */
+@Unindexed
+public class GalleryCounterData {
+  // Name of the counter, e.g. "activeApps" or "developerApps:<userId>"
+  @Id String id;
+  long count;
+  // False until the count has been initialized from a count query; until
+  // then, changes to the counted apps only write the entity without counting
+  boolean initialized;
+}
@@ -0,0 +1,25 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * One shard of a per-app gallery counter (downloads or likes). Each shard
+ * is its own entity group so that concurrent increments of a popular app
+ * do not contend on a single entity. The value of the counter is the sum
+ * of its shards; see {@link GalleryShardedCounters}.
+ *
+ * this class modelled after those in StoredData.java
+ */
+@Unindexed
+public class GalleryCounterShardData {
+  // "<galleryId>:<counter name>:<shard number>"
+  @Id String id;
+  long count;
+}
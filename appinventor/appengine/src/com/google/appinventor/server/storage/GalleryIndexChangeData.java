@@ -0,0 +1,31 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Parent;
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * An entry in the log of gallery apps whose search index documents are out
+ * of date. Entries are written when an app is published, updated,
+ * activated or deactivated, and removed once the app has been re-indexed
+ * by GallerySearchIndex.indexChanges.
+ *
+ * this class modelled after those in StoredData.java
+ */
+@Unindexed
+public class GalleryIndexChangeData {
+  // Id of the changed GalleryAppData
+  @Id Long galleryId;
+  // The part of the log the entry is in
+  @Parent Key<GalleryIndexLogData> logKey;
+  // Incremented each time the app is logged, so that a change made while
+  // the app was being re-indexed is not cleared from the log
+  long version;
+}
@@ -0,0 +1,24 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import javax.persistence.Id;
+
+import com.googlecode.objectify.annotation.Unindexed;
+
+/**
+ * One part of the log of gallery apps whose search index documents are out
+ * of date. It is never stored: its key is the parent of the
+ * {@link GalleryIndexChangeData} entries of its part, so that they form an
+ * entity group that can be queried consistently.
+ *
+ * this class modelled after those in StoredData.java
+ */
+@Unindexed
+public class GalleryIndexLogData {
+  // Number of the part, from 1
+  @Id Long id;
+}
@@ -0,0 +1,184 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appinventor.server.flags.Flag;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sharded counters for gallery app downloads and likes.
+ *
+ * <p>Each increment is written straight to a randomly chosen
+ * {@link GalleryCounterShardData} entity, so a burst of downloads for one
+ * app is spread over many entity groups instead of retrying optimistic
+ * transactions on its {@link GalleryAppData}. Nothing is kept in the memory
+ * of an instance.
+ *
+ * <p>After an increment a task is queued on the {@code galleryreconcile} queue
+ * which folds the shard totals into the denormalized
+ * {@link GalleryAppData#numDownloads} and {@link GalleryAppData#numLikes}
+ * fields used for sorting (see
+ * {@link ObjectifyGalleryStorageIo#reconcileCounters(long)}). Shard totals
+ * are cached in memcache for reads.
+ *
+ */
+final class GalleryShardedCounters {
+  static final String DOWNLOADS = "downloads";
+  static final String LIKES = "likes";
+
+  private static final Logger LOG = Logger.getLogger(GalleryShardedCounters.class.getName());
+
+  // Number of shards per counter. This may be increased but must never be
+  // decreased, as counts in the dropped shards would no longer be read.
+  private static final Flag<Integer> numShards = Flag.createFlag("gallery.counter.shards", 20);
+  // Minimum interval between reconciliations of the same app
+  private static final Flag<Integer> reconcileIntervalSecs =
+      Flag.createFlag("gallery.counter.reconcile.secs", 60);
+
+  private static final int MAX_SHARD_RETRIES = 5;
+  private static final int CACHE_SECONDS = 30;
+  private static final String CACHE_KEY_PREFIX = "gallerycounter:";
+  private static final String RECONCILE_QUEUE = "galleryreconcile";
+  private static final String RECONCILE_URL = "/reconcile";
+
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+  private final Random random = new Random();
+
+  GalleryShardedCounters() {
+    memcache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
+  }
+
+  /**
+   * Adds {@code delta} to a random shard of a counter and schedules a
+   * reconciliation of the app.
+   * @param galleryId id of the gallery app
+   * @param counter {@link #DOWNLOADS} or {@link #LIKES}
+   * @param delta amount to add, may be negative
+   */
+  void add(long galleryId, String counter, long delta) {
+    if (incrementShard(galleryId, counter, delta)) {
+      // Keep the cached total roughly current; increment is a no-op on a miss
+      memcache.increment(cacheKey(galleryId, counter), delta);
+      scheduleReconcile(galleryId);
+    }
+  }
+
+  /**
+   * Returns the current value of a counter: the sum of its shards, cached
+   * in memcache for a short while.
+   * @param galleryId id of the gallery app
+   * @param counter {@link #DOWNLOADS} or {@link #LIKES}
+   */
+  long getTotal(long galleryId, String counter) {
+    String cacheKey = cacheKey(galleryId, counter);
+    Long total = (Long) memcache.get(cacheKey);
+    if (total == null) {
+      total = readShards(galleryId, counter);
+      memcache.put(cacheKey, total, Expiration.byDeltaSeconds(CACHE_SECONDS));
+    }
+    return total;
+  }
+
+  /**
+   * Returns the sum of the shards of a counter read directly from the
+   * datastore, bypassing memcache.
+   * @param galleryId id of the gallery app
+   * @param counter {@link #DOWNLOADS} or {@link #LIKES}
+   */
+  long readShards(long galleryId, String counter) {
+    int shards = numShards.get();
+    List<Key<GalleryCounterShardData>> keys = new ArrayList<Key<GalleryCounterShardData>>(shards);
+    for (int i = 0; i < shards; i++) {
+      keys.add(shardKey(galleryId, counter, i));
+    }
+    long total = 0;
+    Objectify datastore = ObjectifyService.begin();
+    for (GalleryCounterShardData shard : datastore.get(keys).values()) {
+      total += shard.count;
+    }
+    return total;
+  }
+
+  private boolean incrementShard(long galleryId, String counter, long delta) {
+    int shards = numShards.get();
+    for (int tries = 0; tries < MAX_SHARD_RETRIES; tries++) {
+      // On contention simply pick another shard rather than retrying the same one
+      Key<GalleryCounterShardData> key = shardKey(galleryId, counter, random.nextInt(shards));
+      Objectify datastore = ObjectifyService.beginTransaction();
+      try {
+        GalleryCounterShardData shard = datastore.find(key);
+        if (shard == null) {
+          shard = new GalleryCounterShardData();
+          shard.id = key.getName();
+        }
+        shard.count += delta;
+        datastore.put(shard);
+        datastore.getTxn().commit();
+        return true;
+      } catch (ConcurrentModificationException e) {
+        LOG.log(Level.INFO, "Contention on gallery counter shard " + key.getName(), e);
+      } finally {
+        if (datastore.getTxn().isActive()) {
+          try {
+            datastore.getTxn().rollback();
+          } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Transaction rollback failed", e);
+          }
+        }
+      }
+    }
+    LOG.warning("Unable to write gallery counter " + counter + " for app " + galleryId);
+    return false;
+  }
+
+  /**
+   * Queues a reconciliation of the given app. Task names are derived from
+   * the current reconcile interval, so at most one task per app is queued
+   * per interval no matter how many instances change its counters.
+   */
+  private void scheduleReconcile(long galleryId) {
+    long intervalMillis = reconcileIntervalSecs.get() * 1000L;
+    long bucket = System.currentTimeMillis() / intervalMillis;
+    try {
+      Queue queue = QueueFactory.getQueue(RECONCILE_QUEUE);
+      queue.add(TaskOptions.Builder.withUrl(RECONCILE_URL)
+          .param("galleryId", Long.toString(galleryId))
+          .taskName("reconcile-" + galleryId + "-" + bucket)
+          .countdownMillis(intervalMillis));
+    } catch (TaskAlreadyExistsException e) {
+      // Already scheduled for this interval
+    } catch (RuntimeException e) {
+      // The counts are safe in the shards; the next increment will schedule again
+      LOG.log(Level.WARNING, "Unable to schedule reconciliation of gallery app " + galleryId, e);
+    }
+  }
+
+  private static String cacheKey(long galleryId, String counter) {
+    return CACHE_KEY_PREFIX + galleryId + ":" + counter;
+  }
+
+  private static Key<GalleryCounterShardData> shardKey(long galleryId, String counter, int shard) {
+    return new Key<GalleryCounterShardData>(GalleryCounterShardData.class,
+        galleryId + ":" + counter + ":" + shard);
+  }
+}
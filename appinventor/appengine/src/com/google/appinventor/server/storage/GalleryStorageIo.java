@@ -8,6 +8,7 @@ package com.google.appinventor.server.storage;
 
 
 import java.util.List;
+import java.util.Map;
 
 import com.google.appinventor.shared.rpc.project.Email;
 import com.google.appinventor.shared.rpc.project.GalleryApp;
@@ -66,29 +67,29 @@ public interface GalleryStorageIo {
   /**
    * Returns a wrapped class which contains list of most recently
    * updated galleryApps and total number of results in database
-   * @param start starting index of apps you want
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps you want
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getRecentGalleryApps(int start, int count);
+  GalleryAppListResult getRecentGalleryApps(String cursor, int count);
 
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps you want
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getMostDownloadedApps(int start, int count);
+  GalleryAppListResult getMostDownloadedApps(String cursor, int count);
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps you want
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getMostLikedApps(int start, int count);
+  GalleryAppListResult getMostLikedApps(String cursor, int count);
 
   /**
    *Returns a wrapped class which contains a list of featured gallery app
@@ -138,11 +139,11 @@ public interface GalleryStorageIo {
    * Returns a wrapped class which contains a list of galleryApps
    * by a particular developer and total number of results in database
    * @param userId id of developer
-   * @param start starting index of apps you want
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps you want
    * @return list of {@link GalleryApp}
    */
-  GalleryAppListResult getDeveloperApps(String userId, int start, int count);
+  GalleryAppListResult getDeveloperApps(String userId, String cursor, int count);
 
   /**
    * records that an app has been downloaded
@@ -150,6 +151,45 @@ public interface GalleryStorageIo {
    */
   void incrementDownloads(long galleryId);
 
+  /**
+   * Brings the stored download and like counts of an app up to date with
+   * the counters incremented by incrementDownloads and increaseLikes
+   * @param galleryId the id of the gallery app
+   */
+  void reconcileCounters(long galleryId);
+
+  /**
+   * Records that the search index documents of the given apps are out of
+   * date. The apps are re-indexed, or removed from the index if they no
+   * longer exist or are inactive, by GallerySearchIndex.indexChanges
+   * @param galleryIds the ids of the changed gallery apps
+   */
+  void logIndexChanges(List<Long> galleryIds);
+
+  /**
+   * Returns the apps logged by logIndexChanges that have not been cleared
+   * yet. Apps that have been cleared are not returned.
+   * @param count the maximum number of apps to return
+   * @return the version logged for each changed gallery app, by id
+   */
+  Map<Long, Long> getIndexChanges(int count);
+
+  /**
+   * Clears apps from the index change log, except for those logged again
+   * since getIndexChanges returned them
+   * @param changes the version returned by getIndexChanges for each
+   * re-indexed gallery app, by id
+   */
+  void clearIndexChanges(Map<Long, Long> changes);
+
+  /**
+   * Returns the gallery apps with the given ids, fetched together. Ids of
+   * apps that no longer exist are skipped.
+   * @param galleryIds the ids of the gallery apps
+   * @return list of {@link GalleryApp}, in the order of galleryIds
+   */
+  List<GalleryApp> getGalleryApps(List<Long> galleryIds);
+
   /**
    * deletes an app
    * @param galleryId the id of gallery app to be deleted
@@ -7,12 +7,18 @@
 package com.google.appinventor.server.storage;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.datastore.TransactionOptions;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.GalleryEmail;
 import com.google.appinventor.server.GallerySearchIndex;
@@ -31,7 +37,9 @@ import com.google.common.annotations.VisibleForTesting;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.NotFoundException;
 import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyOpts;
 import com.googlecode.objectify.ObjectifyService;
+import com.googlecode.objectify.Query;
 
 /**
  * Implements the GalleryStorageIo interface using Objectify as the underlying data
@@ -53,10 +61,18 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   private static final int MAX_JOB_RETRIES = 10;
   private static final long TWENTYFOURHOURS = 24*3600*1000; // 24 hours in milliseconds
 
+  // Names of the materialized counters kept in GalleryCounterData
+  private static final String ACTIVE_APPS_COUNTER = "activeApps";
+  private static final String DEVELOPER_APPS_COUNTER_PREFIX = "developerApps:";
+
+  // Number of entity groups the index change log is split over
+  private static final int INDEX_LOG_SIZE = 8;
+
   // Use this class to define the work of a job that can be retried. The
   // "datastore" argument to run() is the Objectify object for this job
   // (created with ObjectifyService.beginTransaction()). Note that all operations
-  // on "datastore" should be for objects in the same entity group.
+  // on "datastore" should be for objects in the same entity group, unless the
+  // job is run with runCrossGroupJobWithRetries.
   @VisibleForTesting
   abstract class JobRetryHelper {
     public abstract void run(Objectify datastore) throws ObjectifyException;
@@ -87,8 +103,15 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     ObjectifyService.register(GalleryAppAttributionData.class);
     ObjectifyService.register(GalleryAppReportData.class);
     ObjectifyService.register(GalleryModerationActionData.class);
+    ObjectifyService.register(GalleryCounterData.class);
+    ObjectifyService.register(GalleryCounterShardData.class);
+    ObjectifyService.register(GalleryIndexChangeData.class);
   }
 
+  // Downloads and likes are counted here and folded into GalleryAppData by
+  // reconcileCounters
+  private final GalleryShardedCounters counters = new GalleryShardedCounters();
+
   // we'll need to talk to the StorageIo to get developer names, so...
   private final transient StorageIo storageIo =
       StorageIoInstanceHolder.INSTANCE;
@@ -110,11 +133,11 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     final Result<GalleryAppData> galleryAppData = new Result<GalleryAppData>();
     try {
       // first job is on the gallery entity, creating the GalleryAppData object
-      // and the associated files.
-      runJobWithRetries(new JobRetryHelper() {
+      // and the associated files. The active app counters are updated in the
+      // same transaction.
+      runCrossGroupJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) throws ObjectifyException {
-          datastore = ObjectifyService.begin();
           long date = System.currentTimeMillis();
           GalleryAppData appData = new GalleryAppData();
           appData.id = null;  // let Objectify auto-generate the project id
@@ -143,6 +166,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           // written in this job, reading the assigned id from pd should work.
 
           Key<GalleryAppData> galleryKey = galleryKey(appData.id);
+          adjustActiveAppCounters(datastore, userId, 1);
         }
       });
 
@@ -168,82 +192,59 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   /**
    * Returns a wrapped class which contains list of most recently
    * updated galleryApps and total number of results in database
-   * @param start starting index of apps you want
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps you want
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getRecentGalleryApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+  public GalleryAppListResult getRecentGalleryApps(String cursor, final int count) {
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).order("-dateModified").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    Query<GalleryAppData> query = datastore.query(GalleryAppData.class)
+        .order("-dateModified").filter("active", true);
+    return makeGalleryAppPage(query, cursor, count, getActiveAppCount());
   }
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps you want
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getMostDownloadedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+  public GalleryAppListResult getMostDownloadedApps(String cursor, final int count) {
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed.
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-    int totalCount = datastore.query(GalleryAppData.class).order("-numDownloads").filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    Query<GalleryAppData> query = datastore.query(GalleryAppData.class)
+        .order("-numDownloads").filter("active", true);
+    return makeGalleryAppPage(query, cursor, count, getActiveAppCount());
   }
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
-   * @param start starting index of apps you want
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps you want
    * @return list of {@link GalleryApp}
    */
   @Override
-  public GalleryAppListResult getMostLikedApps(int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+  public GalleryAppListResult getMostLikedApps(String cursor, final int count) {
     // If I try to run this in runjobwithretries, it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so I grabbed
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData : datastore.query(GalleryAppData.class)
-           .filter("active", true)
-           .order("-numLikes")
-           .order("-numDownloads")
-           .offset(start).limit(count)) {
-      GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
-      apps.add(gApp);
-    }
-
-    // The line below is a PROBLEM. It is *very expensive*
-    // We either need to keep separate track of the number of apps in the
-    // Gallery, or we need to cache this value somewhere so we are
-    // not computing it all the time!
-    int totalCount = datastore.query(GalleryAppData.class).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
-
+    Query<GalleryAppData> query = datastore.query(GalleryAppData.class)
+        .filter("active", true)
+        .order("-numLikes")
+        .order("-numDownloads");
+    return makeGalleryAppPage(query, cursor, count, getActiveAppCount());
   }
 
   /**
@@ -376,24 +377,166 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * Returns a wrapped class which contains a list of galleryApps
    * by a particular developer and total number of results in database
    * @param userId id of developer
-   * @param start starting index of apps you want
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps you want
    * @return list of {@link GalleryApp}
-   */  @Override
-  public GalleryAppListResult getDeveloperApps(String userId, int start, final int count) {
-    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+   */
+  @Override
+  public GalleryAppListResult getDeveloperApps(final String userId, String cursor,
+      final int count) {
     // if i try to run this in runjobwithretries it tells me can't run
     // non-ancestor query as a transaction. ObjectifyStorageio has some samples
     // of not using transactions (run with) so i grabbed
 
     Objectify datastore = ObjectifyService.begin();
-    for (GalleryAppData appData:datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).offset(start).limit(count)) {
+    Query<GalleryAppData> query = datastore.query(GalleryAppData.class)
+        .filter("userId", userId).filter("active", true);
+    int totalCount = getMaterializedCount(developerAppsCounterName(userId),
+        new CountQuery() {
+          @Override
+          public int count(Objectify datastore) {
+            return datastore.query(GalleryAppData.class)
+                .filter("userId", userId).filter("active", true).count();
+          }
+        });
+    return makeGalleryAppPage(query, cursor, count, totalCount);
+  }
+
+  /**
+   * Runs {@code query} starting at {@code cursor} and returns one page of
+   * results. Only the requested page (plus one lookahead entity used to tell
+   * whether there is a next page) is read from the datastore, regardless of
+   * how deep into the result set the page is.
+   * @param query the query to run
+   * @param cursor web safe cursor returned with the previous page, or null
+   *               for the first page
+   * @param count number of apps you want
+   * @param totalCount total number of results, from a materialized counter
+   * @return the page, with the cursor for the next page or null if this is the last page
+   */
+  private GalleryAppListResult makeGalleryAppPage(Query<GalleryAppData> query, String cursor,
+      int count, int totalCount) {
+    final List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    if (cursor != null) {
+      try {
+        query.startCursor(Cursor.fromWebSafeString(cursor));
+      } catch (IllegalArgumentException e) {
+        // A stale or mangled cursor; start over at the first page
+        LOG.log(Level.WARNING, "Ignoring invalid gallery cursor " + cursor, e);
+      }
+    }
+    QueryResultIterator<GalleryAppData> iterator = query.limit(count + 1).iterator();
+    while (apps.size() < count && iterator.hasNext()) {
       GalleryApp gApp = new GalleryApp();
-      makeGalleryApp(appData, gApp);
+      makeGalleryApp(iterator.next(), gApp);
       apps.add(gApp);
     }
-    int totalCount = datastore.query(GalleryAppData.class).filter("userId",userId).filter("active", true).count();
-    return new GalleryAppListResult(apps, totalCount);
+    String nextCursor = null;
+    if (apps.size() == count) {
+      Cursor endOfPage = iterator.getCursor();
+      if (endOfPage != null && iterator.hasNext()) {
+        nextCursor = endOfPage.toWebSafeString();
+      }
+    }
+    return new GalleryAppListResult(apps, totalCount, null, nextCursor);
+  }
+
+  /**
+   * Counts the entities matched by some query. Used to initialize a
+   * materialized counter the first time it is read.
+   */
+  private interface CountQuery {
+    int count(Objectify datastore);
+  }
+
+  private static String developerAppsCounterName(String userId) {
+    return DEVELOPER_APPS_COUNTER_PREFIX + userId;
+  }
+
+  /**
+   * Returns the number of active gallery apps.
+   */
+  private int getActiveAppCount() {
+    return getMaterializedCount(ACTIVE_APPS_COUNTER, new CountQuery() {
+      @Override
+      public int count(Objectify datastore) {
+        return datastore.query(GalleryAppData.class).filter("active", true).count();
+      }
+    });
+  }
+
+  /**
+   * Returns the value of the named counter. If the counter has not been
+   * initialized yet (e.g., the first request after the counters were
+   * introduced) it is initialized from {@code countQuery}, once, in a
+   * transaction; after that the expensive count query is never run again for
+   * this counter.
+   * @param counterName name of the counter
+   * @param countQuery computes the initial value of the counter
+   * @return the current value of the counter
+   */
+  private int getMaterializedCount(final String counterName, final CountQuery countQuery) {
+    GalleryCounterData counterData =
+        ObjectifyService.begin().find(galleryCounterKey(counterName));
+    if (counterData != null && counterData.initialized) {
+      return (int) counterData.count;
+    }
+    final Result<Integer> count = new Result<Integer>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          GalleryCounterData counterData = datastore.find(galleryCounterKey(counterName));
+          if (counterData != null && counterData.initialized) {
+            count.t = (int) counterData.count;
+            return;
+          }
+          // A change to the counted apps committed while we count touches
+          // the counter too, so this transaction then fails and counts again.
+          // The count query cannot be part of the transaction.
+          count.t = countQuery.count(ObjectifyService.begin());
+          counterData = new GalleryCounterData();
+          counterData.id = counterName;
+          counterData.count = count.t;
+          counterData.initialized = true;
+          datastore.put(counterData);
+        }
+      });
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          "error in galleryStorageIo.getMaterializedCount: " + counterName, e);
+    }
+    return count.t;
+  }
+
+  /**
+   * Adds {@code delta} to the counters of active apps and of the given
+   * developer's active apps, as part of the transaction that changes the
+   * app, which must be cross-group. Counters which have not been initialized
+   * yet are only touched, so that initializing them at the same time fails
+   * and counts again.
+   * @param datastore the transaction changing the app
+   * @param userId id of the developer of the app that changed
+   * @param delta amount to add, +1 when an app becomes active and -1 when it
+   *              stops being active
+   */
+  private void adjustActiveAppCounters(Objectify datastore, String userId, int delta) {
+    adjustCounter(datastore, ACTIVE_APPS_COUNTER, delta);
+    if (userId != null) {
+      adjustCounter(datastore, developerAppsCounterName(userId), delta);
+    }
+  }
+
+  private void adjustCounter(Objectify datastore, String counterName, int delta) {
+    GalleryCounterData counterData = datastore.find(galleryCounterKey(counterName));
+    if (counterData == null) {
+      counterData = new GalleryCounterData();
+      counterData.id = counterName;
+    }
+    if (counterData.initialized) {
+      counterData.count = Math.max(0, counterData.count + delta);
+    }
+    datastore.put(counterData);
   }
 
  /**
@@ -402,24 +545,201 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @Override
   public void incrementDownloads(final long galleryId) {
+    // Written to a sharded counter; GalleryAppData is brought up to date by
+    // reconcileCounters
+    counters.add(galleryId, GalleryShardedCounters.DOWNLOADS, 1);
+  }
 
+  /**
+   * Folds the sharded download and like counters of an app into its
+   * GalleryAppData, which is what the gallery sorts on.
+   * @param galleryId the id of the gallery app
+   */
+  @Override
+  public void reconcileCounters(final long galleryId) {
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
           GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
-          if (galleryAppData != null) {
-            galleryAppData.numDownloads = galleryAppData.numDownloads + 1;
-            galleryAppData.unreadDownloads = galleryAppData.unreadDownloads + 1;
-            datastore.put(galleryAppData);
+          if (galleryAppData == null) {
+            return;
+          }
+          // The shards are separate entity groups and cannot be read in the
+          // transaction. Reading them after the app, on every try, means the
+          // totals are never older than the ones the app was last reconciled
+          // with: an overlapping reconciliation that commits first makes this
+          // transaction fail and read them again.
+          long downloads = counters.readShards(galleryId, GalleryShardedCounters.DOWNLOADS);
+          long likes = counters.readShards(galleryId, GalleryShardedCounters.LIKES);
+          // Downloads only ever go up, so their watermark only moves forward
+          long newDownloads = Math.max(0, downloads - galleryAppData.reconciledDownloads);
+          long newLikes = likes - galleryAppData.reconciledLikes;
+          if (newDownloads == 0 && newLikes == 0) {
+            return;
           }
+          galleryAppData.numDownloads += newDownloads;
+          galleryAppData.unreadDownloads += newDownloads;
+          galleryAppData.numLikes = (int) Math.max(0, galleryAppData.numLikes + newLikes);
+          galleryAppData.unreadLikes = (int) Math.max(0, galleryAppData.unreadLikes + newLikes);
+          galleryAppData.reconciledDownloads += newDownloads;
+          galleryAppData.reconciledLikes = likes;
+          datastore.put(galleryAppData);
         }
       });
     } catch (ObjectifyException e) {
-       throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo", e);
+      throw CrashReport.createAndLogError(LOG, null,
+          "error in galleryStorageIo.reconcileCounters", e);
     }
   }
 
+  /**
+   * Records that the search index documents of the given apps are out of
+   * date. This is not part of any transaction: logging an app that did not
+   * end up changing only costs a redundant re-index.
+   * @param galleryIds the ids of the changed gallery apps
+   */
+  @Override
+  public void logIndexChanges(List<Long> galleryIds) {
+    try {
+      for (final Map.Entry<Key<GalleryIndexLogData>, List<Key<GalleryIndexChangeData>>> group :
+             indexChangeKeysByLog(galleryIds).entrySet()) {
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            Map<Key<GalleryIndexChangeData>, GalleryIndexChangeData> logged =
+                datastore.get(group.getValue());
+            List<GalleryIndexChangeData> changes = new ArrayList<GalleryIndexChangeData>();
+            for (Key<GalleryIndexChangeData> key : group.getValue()) {
+              GalleryIndexChangeData change = logged.get(key);
+              if (change == null) {
+                change = new GalleryIndexChangeData();
+                change.galleryId = key.getId();
+                change.logKey = group.getKey();
+              }
+              change.version++;
+              changes.add(change);
+            }
+            datastore.put(changes);
+          }
+        });
+      }
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          "error in galleryStorageIo.logIndexChanges", e);
+    }
+  }
+
+  /**
+   * Returns the apps whose search index documents are out of date. Each
+   * part of the log is an entity group, so apps cleared by
+   * clearIndexChanges are never returned again.
+   * @param count the maximum number of apps to return
+   * @return the version logged for each changed gallery app, by id
+   */
+  @Override
+  public Map<Long, Long> getIndexChanges(int count) {
+    Map<Long, Long> changes = new LinkedHashMap<Long, Long>();
+    try {
+      Objectify datastore = ObjectifyService.begin();
+      for (long logId = 1; logId <= INDEX_LOG_SIZE && changes.size() < count; logId++) {
+        for (GalleryIndexChangeData change : datastore.query(GalleryIndexChangeData.class)
+               .ancestor(indexLogKey(logId)).limit(count - changes.size())) {
+          changes.put(change.galleryId, change.version);
+        }
+      }
+    } catch (RuntimeException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          "error in galleryStorageIo.getIndexChanges", e);
+    }
+    return changes;
+  }
+
+  /**
+   * Clears re-indexed apps from the index change log
+   * @param changes the version returned by getIndexChanges for each
+   * re-indexed gallery app, by id
+   */
+  @Override
+  public void clearIndexChanges(final Map<Long, Long> changes) {
+    try {
+      for (final List<Key<GalleryIndexChangeData>> keys :
+             indexChangeKeysByLog(changes.keySet()).values()) {
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            List<Key<GalleryIndexChangeData>> done = new ArrayList<Key<GalleryIndexChangeData>>();
+            for (Map.Entry<Key<GalleryIndexChangeData>, GalleryIndexChangeData> entry :
+                   datastore.get(keys).entrySet()) {
+              // Changed again while we were indexing, keep it for the next round
+              if (entry.getValue().version == changes.get(entry.getKey().getId())) {
+                done.add(entry.getKey());
+              }
+            }
+            datastore.delete(done);
+          }
+        });
+      }
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          "error in galleryStorageIo.clearIndexChanges", e);
+    }
+  }
+
+  // The change log is split over a few entity groups, so that it can be
+  // queried consistently without limiting all changes to the rate at which
+  // a single entity group can be written
+  private static Key<GalleryIndexLogData> indexLogKey(long logId) {
+    return new Key<GalleryIndexLogData>(GalleryIndexLogData.class, logId);
+  }
+
+  // Returns the keys of the log entries of the given apps, by part of the log
+  private static Map<Key<GalleryIndexLogData>, List<Key<GalleryIndexChangeData>>>
+      indexChangeKeysByLog(Collection<Long> galleryIds) {
+    Map<Key<GalleryIndexLogData>, List<Key<GalleryIndexChangeData>>> keys =
+        new LinkedHashMap<Key<GalleryIndexLogData>, List<Key<GalleryIndexChangeData>>>();
+    for (long galleryId : galleryIds) {
+      Key<GalleryIndexLogData> logKey = indexLogKey(Math.abs(galleryId % INDEX_LOG_SIZE) + 1);
+      List<Key<GalleryIndexChangeData>> group = keys.get(logKey);
+      if (group == null) {
+        group = new ArrayList<Key<GalleryIndexChangeData>>();
+        keys.put(logKey, group);
+      }
+      group.add(new Key<GalleryIndexChangeData>(logKey, GalleryIndexChangeData.class, galleryId));
+    }
+    return keys;
+  }
+
+  /**
+   * Returns the gallery apps with the given ids, fetched together
+   * @param galleryIds the ids of the gallery apps
+   * @return list of {@link GalleryApp}, in the order of galleryIds
+   */
+  @Override
+  public List<GalleryApp> getGalleryApps(List<Long> galleryIds) {
+    List<Key<GalleryAppData>> keys = new ArrayList<Key<GalleryAppData>>();
+    for (long galleryId : galleryIds) {
+      keys.add(galleryKey(galleryId));
+    }
+    Map<Key<GalleryAppData>, GalleryAppData> found;
+    try {
+      found = ObjectifyService.begin().get(keys);
+    } catch (RuntimeException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          "error in galleryStorageIo.getGalleryApps", e);
+    }
+    List<GalleryApp> apps = new ArrayList<GalleryApp>();
+    for (Key<GalleryAppData> key : keys) {
+      GalleryAppData appData = found.get(key);
+      if (appData != null) {
+        GalleryApp gApp = new GalleryApp();
+        makeGalleryApp(appData, gApp);
+        apps.add(gApp);
+      }
+    }
+    return apps;
+  }
+
   /**
    * updates gallery app
    * @param galleryId id of app being updated
@@ -461,12 +781,14 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public GalleryApp getGalleryApp(final long galleryId) {
     final GalleryApp gApp = new GalleryApp();
+    final Result<GalleryAppData> appData = new Result<GalleryAppData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
           GalleryAppData app = datastore.get(new Key<GalleryAppData>(GalleryAppData.class,galleryId));
           makeGalleryApp(app,gApp);
+          appData.t = app;
         }
       });
     }catch (NotFoundException e){
@@ -476,6 +798,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,"gallery error", e);
     }
+    // The page of a single app also shows what is not reconciled yet
+    gApp.setDownloads(getNumDownloads(appData.t));
+    gApp.setLikes(getNumLikes(appData.t));
     return (gApp);
   }
 
@@ -513,12 +838,15 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     */
     //for now, we only set app to inactive status.
     try {
-        runJobWithRetries(new JobRetryHelper() {
+        runCrossGroupJobWithRetries(new JobRetryHelper() {
           @Override
           public void run(Objectify datastore) {
             // delete the GalleryApp
             GalleryAppData appData = datastore.find(galleryKey(galleryId));
             if(appData != null){
+              if (appData.active) {
+                adjustActiveAppCounters(datastore, appData.userId, -1);
+              }
               appData.active = false;
               datastore.put(appData);
             }
@@ -605,41 +933,49 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public int increaseLikes(final long galleryId,final String userId) {
     final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Boolean> added = new Result<Boolean>();
+    numLikes.t = 0;
+    added.t = false;
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
+          added.t = false;
+          Key<GalleryAppData> galleryKey = galleryKey(galleryId);
+          GalleryAppData galleryAppData = datastore.find(galleryKey);
           if (galleryAppData != null) {
-            Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-
             // Make sure it isn't already liked (people have subverted the client
             // based checks!)
+            int count = 0;
+            boolean liked = false;
             for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
+              count++;
               if(likeData.userId.equals(userId)){
-                return;         // We're done, already liked.
+                liked = true;   // Already liked, nothing to add
               }
             }
+            numLikes.t = count;
+            if (liked) {
+              return;
+            }
 
-            // Forge the like data entry
+            // Forge the like data entry. The app's like count itself is a
+            // sharded counter so that popular apps don't contend here.
             GalleryAppLikeData likeData = new GalleryAppLikeData();
             likeData.galleryKey = galleryKey;
             likeData.userId = userId;
             datastore.put(likeData);
-
-            // Retrieve the current number of likes
-            numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            galleryAppData.numLikes = galleryAppData.numLikes + 1;
-            galleryAppData.unreadLikes = galleryAppData.unreadLikes + 1;
-            datastore.put(galleryAppData);
+            numLikes.t = count + 1;
+            added.t = true;
           }
         }
       });
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.increaseLike", e);
     }
+    if (added.t) {
+      counters.add(galleryId, GalleryShardedCounters.LIKES, 1);
+    }
     return numLikes.t;
   }
 
@@ -653,32 +989,30 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   @Override
   public int decreaseLikes(final long galleryId, final String userId) {
     final Result<Integer> numLikes = new Result<Integer>();
+    final Result<Integer> removed = new Result<Integer>();
+    numLikes.t = 0;
+    removed.t = 0;
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          GalleryAppData galleryAppData = datastore.find(galleryKey(galleryId));
+          removed.t = 0;
+          Key<GalleryAppData> galleryKey = galleryKey(galleryId);
+          GalleryAppData galleryAppData = datastore.find(galleryKey);
           if (galleryAppData != null) {
-            Key<GalleryAppData> galleryKey = galleryKey(galleryId);
+            int count = 0;
             for (GalleryAppLikeData likeData : datastore.query(GalleryAppLikeData.class).ancestor(galleryKey)) {
               if(likeData.userId.equals(userId)){
                 datastore.delete(likeData);
+                removed.t++;
                 // break;
                 // We don't break because there might be more then one likeData object for this
                 // person
+              } else {
+                count++;
               }
             }
-            numLikes.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-
-            // Increase app's like/unread like count
-            if(galleryAppData.numLikes > 0){
-              galleryAppData.numLikes = galleryAppData.numLikes - 1;
-            }
-
-            if (galleryAppData.unreadLikes > 0) {
-              galleryAppData.unreadLikes = galleryAppData.unreadLikes - 1;
-              datastore.put(galleryAppData);
-            }
+            numLikes.t = count;
           }
         }
       });
@@ -686,6 +1020,9 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
       throw CrashReport.createAndLogError(LOG, null,
           "error in galleryStorageIo.decreaseLike", e);
     }
+    if (removed.t > 0) {
+      counters.add(galleryId, GalleryShardedCounters.LIKES, -removed.t);
+    }
     return numLikes.t;
   }
 
@@ -697,22 +1034,31 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    * @return the num of like
    */
   public int getNumLikes(final long galleryId) {
-    final Result<Integer> num = new Result<Integer>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          Key<GalleryAppData> galleryKey = galleryKey(galleryId);
-          //num.t = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
-          GalleryAppData galleryAppData = datastore.find(galleryKey);
-          num.t = galleryAppData.numLikes;
-        }
-      });
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          "error in galleryStorageIo.getNumLike", e);
+    GalleryAppData galleryAppData = ObjectifyService.begin().find(galleryKey(galleryId));
+    if (galleryAppData == null) {
+      return 0;
     }
-    return num.t;
+    return getNumLikes(galleryAppData);
+  }
+
+  /**
+   * The like count of an app: its reconciled count plus any likes still
+   * waiting in the sharded counter. Lists use the reconciled count only.
+   */
+  private int getNumLikes(GalleryAppData appData) {
+    long pending = counters.getTotal(appData.id, GalleryShardedCounters.LIKES)
+        - appData.reconciledLikes;
+    return (int) Math.max(0, appData.numLikes + pending);
+  }
+
+  /**
+   * The download count of an app, including downloads not yet reconciled.
+   * Lists use the reconciled count only.
+   */
+  private int getNumDownloads(GalleryAppData appData) {
+    long pending = counters.getTotal(appData.id, GalleryShardedCounters.DOWNLOADS)
+        - appData.reconciledDownloads;
+    return (int) (appData.numDownloads + Math.max(0, pending));
   }
 
   /**
@@ -781,6 +1127,10 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
           num = datastore.query(GalleryAppLikeData.class).ancestor(galleryKey).count();
           GalleryAppData galleryAppData = datastore.find(galleryKey);
           galleryAppData.numLikes = num;
+          // The rebuilt count already includes everything in the shards. They
+          // are read after the likes on every try, like in reconcileCounters.
+          galleryAppData.reconciledLikes =
+              counters.readShards(galleryId, GalleryShardedCounters.LIKES);
           datastore.put(galleryAppData);
           LOG.info("salvage on gallerId:" + galleryId + ", total likes:" + galleryAppData.numLikes);
         }
@@ -1088,30 +1438,27 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
   public boolean deactivateGalleryApp(final long galleryId) {
     final Result<Boolean> success = new Result<Boolean>();
     try {
-      runJobWithRetries(new JobRetryHelper() {
+      runCrossGroupJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-            datastore = ObjectifyService.begin();
             success.t = false;
             Key<GalleryAppData> galleryKey = galleryKey(galleryId);
             GalleryAppData appData = datastore.find(galleryKey);
             if(appData != null){
               appData.active = !appData.active;
               datastore.put(appData);
+              adjustActiveAppCounters(datastore, appData.userId, appData.active ? 1 : -1);
               success.t = true;
-              if(appData.active){
-                GalleryApp gApp = new GalleryApp();
-                makeGalleryApp(appData, gApp);
-                GallerySearchIndex.getInstance().indexApp(gApp);
-              }else{
-                GallerySearchIndex.getInstance().unIndexApp(appData.id);
-              }
             }
          }
       });
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, "error in galleryStorageIo.markReportAsResolved", e);
     }
+    if (success.t) {
+      // Only once committed, so that re-indexing sees the new state
+      GallerySearchIndex.getInstance().indexApp(galleryId);
+    }
     return success.t;
   }
   /**
@@ -1311,7 +1658,7 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     galleryApp.setMoreInfo(appData.moreInfo);
     galleryApp.setCredit(appData.credit);
 
-    galleryApp.setLikes(getNumLikes(appData.id));
+    galleryApp.setLikes(appData.numLikes);
   }
 
   private static String collectGalleryAppErrorInfo(final String galleryAppId) {
@@ -1338,6 +1685,10 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
     return new Key<GalleryAppReportData>(GalleryAppReportData.class, appReportId);
   }
 
+  private Key<GalleryCounterData> galleryCounterKey(String counterName) {
+    return new Key<GalleryCounterData>(GalleryCounterData.class, counterName);
+  }
+
   private Key<EmailData> emailKey(long id) {
     return new Key<EmailData>(EmailData.class, id);
   }
@@ -1428,9 +1779,28 @@ public class ObjectifyGalleryStorageIo implements  GalleryStorageIo {
    */
   @VisibleForTesting
   void runJobWithRetries(JobRetryHelper job) throws ObjectifyException {
+    runJobWithRetries(job, false);
+  }
+
+  /**
+   * Like {@link #runJobWithRetries(JobRetryHelper)}, but in a cross-group
+   * transaction, so that the job can change entities of up to 25 entity
+   * groups together.
+   * @param job
+   * @throws ObjectifyException
+   */
+  void runCrossGroupJobWithRetries(JobRetryHelper job) throws ObjectifyException {
+    runJobWithRetries(job, true);
+  }
+
+  private void runJobWithRetries(JobRetryHelper job, boolean crossGroup)
+      throws ObjectifyException {
     int tries = 0;
     while (tries <= MAX_JOB_RETRIES) {
-      Objectify datastore = ObjectifyService.beginTransaction();
+      Objectify datastore = crossGroup
+          ? ObjectifyService.begin(new ObjectifyOpts().setBeginTransaction(true)
+              .setTransactionOptions(TransactionOptions.Builder.withXG(true)))
+          : ObjectifyService.beginTransaction();
       try {
         job.run(datastore);
         datastore.getTxn().commit();
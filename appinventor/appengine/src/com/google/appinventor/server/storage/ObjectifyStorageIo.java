@@ -6,12 +6,14 @@
 
 package com.google.appinventor.server.storage;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.appidentity.AppIdentityService;
 import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
 import com.google.appengine.api.appidentity.AppIdentityServiceFailureException;
 import com.google.appengine.api.blobstore.BlobKey;
 import com.google.appengine.api.blobstore.BlobstoreInputStream;
 import com.google.appengine.api.blobstore.BlobstoreServiceFactory;
+import com.google.appengine.api.datastore.TransactionOptions;
 import com.google.appengine.api.memcache.ErrorHandlers;
 import com.google.appengine.api.memcache.MemcacheService;
 import com.google.appengine.api.memcache.MemcacheServiceFactory;
@@ -21,6 +23,7 @@ import com.google.appengine.api.taskqueue.Queue;
 import com.google.appengine.api.taskqueue.QueueFactory;
 import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.apphosting.api.ApiProxy;
+import com.google.appinventor.server.AuthCache;
 import com.google.appinventor.server.CrashReport;
 import com.google.appinventor.server.FileExporter;
 import com.google.appinventor.server.Server;
@@ -31,6 +34,7 @@ import com.google.appinventor.server.storage.StoredData.FileData;
 import com.google.appinventor.server.storage.StoredData.MotdData;
 import com.google.appinventor.server.storage.StoredData.NonceData;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
+import com.google.appinventor.server.storage.StoredData.SharedContentData;
 import com.google.appinventor.server.storage.StoredData.PWData;
 import com.google.appinventor.server.storage.StoredData.SplashData;
 import com.google.appinventor.server.storage.StoredData.UserData;
@@ -55,12 +59,16 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyOpts;
 import com.googlecode.objectify.ObjectifyService;
 import com.googlecode.objectify.Query;
 
@@ -68,6 +76,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 
 // GCS imports
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
 import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsInputChannel;
@@ -85,10 +94,19 @@ import java.nio.channels.Channels;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -120,10 +138,19 @@ public class ObjectifyStorageIo implements  StorageIo {
   // TODO(user): need a way to modify this. Also, what is really a good value?
   private static final int MAX_JOB_RETRIES = 10;
 
+  // Size of the pieces in which large files are streamed to and from GCS
+  private static final int STREAM_CHUNK_SIZE = 1024 * 1024;
+
   private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
 
+  // Project metadata (ProjectData and each user's list of projects)
+  private final ProjectCache projectCache = new ProjectCache();
+
   private final GcsService gcsService;
 
+  // Shared, content addressed storage for project media (see useSharedContent)
+  private final SharedContentStore sharedContent;
+
   private static final String GCS_BUCKET_NAME;
 
   private static final long TWENTYFOURHOURS = 24*3600*1000; // 24 hours in milliseconds
@@ -133,13 +160,19 @@ public class ObjectifyStorageIo implements  StorageIo {
   private final boolean conversionEnabled = false; // We are converting GCS <=> Blobstore
   private static final boolean DEBUG = Flag.createFlag("appinventor.debugging", false).get();
 
+  // Number of Blobstore/GCS reads a project export or bulk load keeps in flight
+  private static final Flag<Integer> exportParallelReads =
+      Flag.createFlag("export.parallel.reads", 4);
+
   // Use this class to define the work of a job that can be
   // retried. The "datastore" argument to run() is the Objectify
   // object for this job (created with
   // ObjectifyService.beginTransaction() if a transaction is used or
-  // ObjectifyService.begin if no transaction is used). Note that all
-  // operations on "datastore" should be for objects in the same
-  // entity group if a transaction is used.
+  // ObjectifyService.begin if no transaction is used). Transactions
+  // are cross-group, so that a job can change a FileData and the
+  // SharedContentData it refers to together; they may cover up to 25
+  // entity groups. A transaction that covers one entity group costs
+  // the same as a single group transaction.
 
   // Note: 1/25/2015: Added code to make the use of a transaction
   //                  optional.  In general we only need to use a
@@ -155,6 +188,8 @@ public class ObjectifyStorageIo implements  StorageIo {
   @VisibleForTesting
   abstract class JobRetryHelper {
     private IOException exception = null;
+    // ProjectData written by the current try, cached once the job has committed
+    private final List<ProjectData> changedProjects = new ArrayList<ProjectData>();
     public abstract void run(Objectify datastore) throws ObjectifyException, IOException;
     /*
      * Called before retrying the job. Note that the underlying datastore
@@ -170,6 +205,13 @@ public class ObjectifyStorageIo implements  StorageIo {
     public IOException getIOException() {
       return exception;
     }
+    /*
+     * Records a ProjectData written by the job, so that the project cache
+     * is updated once the job has committed rather than before.
+     */
+    void projectChanged(ProjectData pd) {
+      changedProjects.add(pd);
+    }
   }
 
   // Create a final object of this class to hold a modifiable result value that
@@ -193,6 +235,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     ObjectifyService.register(CorruptionRecord.class);
     ObjectifyService.register(PWData.class);
     ObjectifyService.register(SplashData.class);
+    ObjectifyService.register(SharedContentData.class);
 
     // Learn GCS Bucket from App Configuration or App Engine Default
     String gcsBucket = Flag.createFlag("gcs.bucket", "").get();
@@ -229,6 +272,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       LOG.log(Level.INFO, "RetryParams: getTotalRetryPeriodMillis() = " + retryParams.getTotalRetryPeriodMillis());
     }
     gcsService = GcsServiceFactory.createGcsService(retryParams);
+    sharedContent = new SharedContentStore(gcsService, GCS_BUCKET_NAME);
     memcache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
     initMotd();
   }
@@ -397,6 +441,7 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public void setUserEmail(final String userId, String inputemail) {
     final String email = inputemail.toLowerCase();
+    String cachekey = User.usercachekey + "|" + userId;
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
@@ -411,6 +456,8 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    memcache.delete(cachekey);  // Flush cached copy because it changed
+    AuthCache.getInstance().invalidateUser(userId);
   }
 
   @Override
@@ -434,6 +481,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    AuthCache.getInstance().invalidateUser(userId);
 
   }
 
@@ -458,6 +506,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    AuthCache.getInstance().invalidateUser(userId);
   }
 
   @Override
@@ -481,6 +530,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    AuthCache.getInstance().invalidateUser(userId);
   }
 
   @Override
@@ -500,6 +550,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    AuthCache.getInstance().invalidateUser(userId);
     memcache.delete(cachekey);  // Flush cached copy because it changed
   }
 
@@ -520,6 +571,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    AuthCache.getInstance().invalidateUser(userId);
     memcache.delete(cachekey);  // Flush cached copy because it changed
   }
 
@@ -629,8 +681,68 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public long createProject(final String userId, final Project project,
       final String projectSettings) {
+    return createProject(userId, project, projectSettings, Collections.<FileData>emptyList());
+  }
+
+  @Override
+  public long createProject(String userId, Project project, String projectSettings,
+      long fromProjectId, Map<String, String> copiedFiles) {
+    validateGCS();
+    // Files whose content is shared get a reference of their own up front,
+    // the others are copied into the project
+    List<FileData> sharedCopies = new ArrayList<FileData>();
+    boolean handedOver = false;
+    try {
+      for (Map.Entry<String, String> entry : copiedFiles.entrySet()) {
+        FileData source = ObjectifyService.begin().find(
+            projectFileKey(projectKey(fromProjectId), entry.getKey()));
+        if (source != null && source.userId != null && !source.userId.equals("")
+            && !source.userId.equals(userId)) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectUserProjectErrorInfo(userId, fromProjectId),
+              new UnauthorizedAccessException(userId, fromProjectId, null));
+        }
+        String gcsName = null;
+        if (source != null && source.contentHash != null) {
+          try {
+            gcsName = sharedContent.addReference(source.contentHash);
+          } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to reference shared content " + source.contentHash, e);
+          }
+        }
+        if (gcsName == null) {  // Not shared, or being collected
+          project.addRawFile(new RawFile(entry.getValue(),
+              downloadRawFile(userId, fromProjectId, entry.getKey())));
+          continue;
+        }
+        FileData fd = new FileData();
+        fd.fileName = entry.getValue();
+        fd.role = FileData.RoleEnum.SOURCE;
+        fd.userId = userId;
+        fd.isGCS = true;
+        fd.gcsName = gcsName;
+        fd.contentHash = source.contentHash;
+        sharedCopies.add(fd);
+      }
+      handedOver = true;
+      return createProject(userId, project, projectSettings, sharedCopies);
+    } finally {
+      if (!handedOver) {
+        releaseSharedContent(sharedCopies);
+      }
+    }
+  }
+
+  /*
+   * Creates a project with the files of the given project and the given
+   * FileData, which refer to shared content that has been referenced for
+   * them. The references are released if the project is not created.
+   */
+  private long createProject(final String userId, final Project project,
+      final String projectSettings, final List<FileData> sharedCopies) {
     final Result<Long> projectId = new Result<Long>();
     final List<FileData> addedFiles = new ArrayList<FileData>();
+    boolean projectCreated = false;
 
     try {
       // first job is on the project entity, creating the ProjectData object
@@ -638,6 +750,9 @@ public class ObjectifyStorageIo implements  StorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) throws ObjectifyException {
+          // Drop what a failed earlier attempt added
+          releaseSharedContent(addedFiles);
+          addedFiles.clear();
           long date = System.currentTimeMillis();
           ProjectData pd = new ProjectData();
           pd.id = null;  // let Objectify auto-generate the project id
@@ -678,7 +793,11 @@ public class ObjectifyStorageIo implements  StorageIo {
                 collectProjectErrorInfo(userId, projectId.t, file.getFileName()), e);
             }
           }
+          for (FileData fd : sharedCopies) {
+            fd.projectKey = projectKey;
+          }
           datastore.put(addedFiles);  // batch put
+          datastore.put(sharedCopies);
         }
 
         @Override
@@ -694,6 +813,8 @@ public class ObjectifyStorageIo implements  StorageIo {
                                        // We can use a transaction in production between the
                                        // production implementation of GCS does not touch the
                                        // datastore
+      // From here on the files refer to their shared content
+      projectCreated = true;
 
       // second job is on the user entity
       runJobWithRetries(new JobRetryHelper() {
@@ -707,22 +828,31 @@ public class ObjectifyStorageIo implements  StorageIo {
           datastore.put(upd);
         }
       }, true);
+      projectCache.invalidateUserProjects(userId);
     } catch (ObjectifyException e) {
-      for (FileData addedFile : addedFiles) {
-        if (isTrue(addedFile.isGCS)) {  // Do something
-          if (addedFile.gcsName != null) {
-            try {
-              gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, addedFile.gcsName));
-            } catch (IOException ee) {
-              LOG.log(Level.WARNING, "Unable to delete " + addedFile.gcsName +
-                " from GCS while aborting project creation.", ee);
+      if (!projectCreated) {
+        for (FileData addedFile : addedFiles) {
+          if (isTrue(addedFile.isGCS) && addedFile.contentHash == null) {  // Do something
+            if (addedFile.gcsName != null) {
+              try {
+                gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, addedFile.gcsName));
+              } catch (IOException ee) {
+                LOG.log(Level.WARNING, "Unable to delete " + addedFile.gcsName +
+                  " from GCS while aborting project creation.", ee);
+              }
+            }
           }
         }
       }
-      // clear addedFiles in case we end up here more than once
-      addedFiles.clear();
       throw CrashReport.createAndLogError(LOG, null,
           collectUserProjectErrorInfo(userId, projectId.t), e);
+    } finally {
+      // Whatever the failure, shared content is only referenced by the
+      // files once the project has been committed
+      if (!projectCreated) {
+        releaseSharedContent(addedFiles);
+        releaseSharedContent(sharedCopies);
+        addedFiles.clear();
       }
     }
     return projectId.t;
@@ -741,7 +871,11 @@ public class ObjectifyStorageIo implements  StorageIo {
     file.projectKey = projectKey;
     file.role = role;
     file.userId = userId;
-    if (useGCSforFile(fileName, content.length)) {
+    if (useGCSforFile(fileName, content.length) && useSharedContent(fileName)) {
+      file.isGCS = true;
+      file.contentHash = SharedContentStore.hash(content);
+      file.gcsName = sharedContent.acquire(file.contentHash, content);
+    } else if (useGCSforFile(fileName, content.length)) {
       file.isGCS = true;
       file.gcsName = makeGCSfileName(fileName, projectKey.getId());
       GcsOutputChannel outputChannel =
@@ -760,6 +894,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     // blobs associated with the project
     final List<String> blobKeys = new ArrayList<String>();
     final List<String> gcsPaths = new ArrayList<String>();
+    final List<String> sharedHashes = new ArrayList<String>();
     try {
       // first job deletes the UserProjectData in the user's entity group
       runJobWithRetries(new JobRetryHelper() {
@@ -778,8 +913,13 @@ public class ObjectifyStorageIo implements  StorageIo {
         public void run(Objectify datastore) {
           Key<ProjectData> projectKey = projectKey(projectId);
           Query<FileData> fdq = datastore.query(FileData.class).ancestor(projectKey);
+          gcsPaths.clear();
+          blobKeys.clear();
+          sharedHashes.clear();
           for (FileData fd: fdq) {
-            if (isTrue(fd.isGCS)) {
+            if (fd.contentHash != null) {
+              sharedHashes.add(fd.contentHash);
+            } else if (isTrue(fd.isGCS)) {
               gcsPaths.add(fd.gcsName);
             } else if (fd.isBlob) {
               blobKeys.add(fd.blobKey);
@@ -790,6 +930,8 @@ public class ObjectifyStorageIo implements  StorageIo {
           datastore.delete(projectKey);
         }
       }, true);
+      projectCache.invalidateUserProjects(userId);
+      projectCache.invalidateProject(projectId);
       // have to delete the blobs outside of the user and project jobs
       for (String blobKeyString: blobKeys) {
         deleteBlobstoreFile(blobKeyString);
@@ -802,6 +944,11 @@ public class ObjectifyStorageIo implements  StorageIo {
           LOG.log(Level.WARNING, "Unable to delete " + gcsName + " from GCS while deleting project", e);
         }
       }
+      // Shared content is only deleted once no project refers to it
+      for (String hash : sharedHashes) {
+        sharedContent.release(hash);
+      }
+      sharedContent.collectGarbage();
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectUserProjectErrorInfo(userId, projectId), e);
@@ -825,6 +972,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
+    projectCache.invalidateProject(projectId);
   }
   @Override
   public void setProjectAttributionId(final String userId, final long projectId,final long attributionId) {
@@ -842,10 +990,16 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
        throw CrashReport.createAndLogError(LOG, null,"error in setProjectAttributionId",  e);
     }
+    projectCache.invalidateProject(projectId);
   }
 
   @Override
   public List<Long> getProjects(final String userId) {
+    List<Long> cached = projectCache.getUserProjects(userId);
+    if (cached != null) {
+      return new ArrayList<Long>(cached);
+    }
+    Object version = projectCache.getUserProjectsVersion(userId);
     final List<Long> projects = new ArrayList<Long>();
     try {
       runJobWithRetries(new JobRetryHelper() {
@@ -860,30 +1014,14 @@ public class ObjectifyStorageIo implements  StorageIo {
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null, collectUserErrorInfo(userId), e);
     }
-
+    projectCache.addUserProjects(userId, projects, version);
     return projects;
   }
 
   @Override
   public String loadProjectSettings(final String userId, final long projectId) {
-    final Result<String> settings = new Result<String>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          ProjectData pd = datastore.find(projectKey(projectId));
-          if (pd != null) {
-            settings.t = pd.settings;
-          } else {
-            settings.t = "";
-          }
-        }
-      }, false);
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          collectUserProjectErrorInfo(userId, projectId), e);
-    }
-    return settings.t;
+    ProjectData pd = loadProjectData(userId, projectId);
+    return pd != null ? pd.settings : "";
   }
 
   @Override
@@ -904,6 +1042,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       throw CrashReport.createAndLogError(LOG, null,
           collectUserProjectErrorInfo(userId, projectId), e);
     }
+    projectCache.invalidateProject(projectId);
   }
 
   @Override
@@ -931,41 +1070,37 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   @Override
   public UserProject getUserProject(final String userId, final long projectId) {
-    final Result<ProjectData> projectData = new Result<ProjectData>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          ProjectData pd = datastore.find(projectKey(projectId));
-          if (pd != null) {
-            projectData.t = pd;
-          } else {
-            projectData.t = null;
-          }
-        }
-      }, false);
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          collectUserProjectErrorInfo(userId, projectId), e);
-    }
-    if (projectData.t == null) {
+    ProjectData projectData = loadProjectData(userId, projectId);
+    if (projectData == null) {
       return null;
     } else {
-      return new UserProject(projectId, projectData.t.name,
-          projectData.t.type, projectData.t.dateCreated,
-          projectData.t.dateModified, projectData.t.galleryId,
-          projectData.t.attributionId);
+      return new UserProject(projectId, projectData.name,
+          projectData.type, projectData.dateCreated,
+          projectData.dateModified, projectData.galleryId,
+          projectData.attributionId);
     }
   }
 
   @Override
   public List<UserProject> getUserProjects(final String userId, final List<Long> projectIds) {
+    final Map<Long,ProjectData> cached = projectCache.getProjects(projectIds);
+    final List<Long> uncachedIds = new ArrayList<Long>();
+    for (Long projectId : projectIds) {
+      if (!cached.containsKey(projectId)) {
+        uncachedIds.add(projectId);
+      }
+    }
+    final Map<Long, Object> versions = projectCache.getProjectVersions(uncachedIds);
     final Result<Map<Long,ProjectData>> projectDatas = new Result<Map<Long,ProjectData>>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          Map<Long,ProjectData> pd = datastore.get(ProjectData.class, projectIds);
+          if (uncachedIds.isEmpty()) {
+            projectDatas.t = new HashMap<Long,ProjectData>();
+            return;
+          }
+          Map<Long,ProjectData> pd = datastore.get(ProjectData.class, uncachedIds);
           if (pd != null) {
             projectDatas.t = pd;
           } else {
@@ -982,8 +1117,16 @@ public class ObjectifyStorageIo implements  StorageIo {
       // Note we directly throw a RuntimeException instead of calling CrashReport
       // because we don't have an explicitly caught exception to hand it.
     } else {
-      List<UserProject> uProjects = Lists.newArrayListWithExpectedSize(projectDatas.t.size());
       for (ProjectData projectData : projectDatas.t.values()) {
+        projectCache.add(projectData, versions.get(projectData.id));
+      }
+      cached.putAll(projectDatas.t);
+      List<UserProject> uProjects = Lists.newArrayListWithExpectedSize(cached.size());
+      for (Long projectId : projectIds) {
+        ProjectData projectData = cached.get(projectId);
+        if (projectData == null) {
+          continue;
+        }
         uProjects.add(new UserProject(projectData.id, projectData.name,
             projectData.type, projectData.dateCreated,
             projectData.dateModified, projectData.galleryId,
@@ -995,47 +1138,14 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   @Override
   public String getProjectName(final String userId, final long projectId) {
-    final Result<String> projectName = new Result<String>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          ProjectData pd = datastore.find(projectKey(projectId));
-          if (pd != null) {
-            projectName.t = pd.name;
-          } else {
-            projectName.t = "";
-          }
-        }
-      }, false);
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          collectUserProjectErrorInfo(userId, projectId), e);
-    }
-    return projectName.t;
+    ProjectData pd = loadProjectData(userId, projectId);
+    return pd != null ? pd.name : "";
   }
 
   @Override
   public long getProjectDateModified(final String userId, final long projectId) {
-    final Result<Long> modDate = new Result<Long>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          ProjectData pd = datastore.find(projectKey(projectId));
-          if (pd != null) {
-            modDate.t = pd.dateModified;
-          } else {
-            modDate.t = UserProject.NOTPUBLISHED;
-          }
-        }
-      }, false); // Transaction not needed, and we want the caching we get if we don't
-                 // use them.
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          collectUserProjectErrorInfo(userId, projectId), e);
-    }
-    return modDate.t;
+    ProjectData pd = loadProjectData(userId, projectId);
+    return pd != null ? pd.dateModified : UserProject.NOTPUBLISHED;
   }
 
   @Override
@@ -1064,67 +1174,53 @@ public class ObjectifyStorageIo implements  StorageIo {
 
   @Override
   public long getProjectDateCreated(final String userId, final long projectId) {
-    final Result<Long> dateCreated = new Result<Long>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          ProjectData pd = datastore.find(projectKey(projectId));
-          if (pd != null) {
-            dateCreated.t = pd.dateCreated;
-          } else {
-            dateCreated.t = UserProject.NOTPUBLISHED;
-          }
-        }
-      }, true);
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG, null,
-          collectUserProjectErrorInfo(userId, projectId), e);
-    }
-    return dateCreated.t;
+    ProjectData pd = loadProjectData(userId, projectId);
+    return pd != null ? pd.dateCreated : UserProject.NOTPUBLISHED;
   }
 
   @Override
   public long getProjectGalleryId(String userId, final long projectId) {
-    final Result<Long> galleryId = new Result<Long>();
-    try {
-      runJobWithRetries(new JobRetryHelper() {
-        @Override
-        public void run(Objectify datastore) {
-          ProjectData pd = datastore.find(projectKey(projectId));
-          if (pd != null) {
-            galleryId.t = pd.galleryId;
-          } else {
-            galleryId.t = UserProject.NOTPUBLISHED;
-          }
-        }
-      }, true);
-    } catch (ObjectifyException e) {
-      throw CrashReport.createAndLogError(LOG,
-          null,"error in getProjectGalleryId", e);
-    }
-    return galleryId.t;
+    ProjectData pd = loadProjectData(userId, projectId);
+    return pd != null ? pd.galleryId : UserProject.NOTPUBLISHED;
   }
   @Override
   public long getProjectAttributionId(final long projectId) {
-    final Result<Long> attributionId = new Result<Long>();
+    ProjectData pd = loadProjectData(null, projectId);
+    return pd != null ? pd.attributionId : UserProject.FROMSCRATCH;
+  }
+
+  /*
+   * Returns the ProjectData of a project, or null if there is no such
+   * project. The result comes from the project cache when possible and
+   * must not be modified.
+   */
+  private ProjectData loadProjectData(final String userId, final long projectId) {
+    ProjectData cached = projectCache.getProject(projectId);
+    if (cached != null) {
+      return cached;
+    }
+    Object version = projectCache.getProjectVersion(projectId);
+    final Result<ProjectData> projectData = new Result<ProjectData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          ProjectData pd = datastore.find(projectKey(projectId));
-          if (pd != null) {
-            attributionId.t = pd.attributionId;
-          } else {
-            attributionId.t = UserProject.FROMSCRATCH;
-          }
+          projectData.t = datastore.find(projectKey(projectId));
         }
-      }, true);
+      }, false);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
-          "error in getProjectAttributionId", e);
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    if (projectData.t != null) {
+      projectCache.add(projectData.t, version);
     }
-    return attributionId.t;
+    return projectData.t;
+  }
+
+  @Override
+  public String getProjectCacheStatistics() {
+    return projectCache.getStatistics();
   }
 
   @Override
@@ -1333,7 +1429,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          addFilesToProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate, userId, fileNames);
+          addFilesToProject(datastore, this, projectId, FileData.RoleEnum.SOURCE, changeModDate, userId, fileNames);
         }
       }, true);
     } catch (ObjectifyException e) {
@@ -1349,7 +1445,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          addFilesToProject(datastore, projectId, FileData.RoleEnum.TARGET, false, userId, fileNames);
+          addFilesToProject(datastore, this, projectId, FileData.RoleEnum.TARGET, false, userId, fileNames);
         }
       }, true);
     } catch (ObjectifyException e) {
@@ -1358,7 +1454,8 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
-  private void addFilesToProject(Objectify datastore, long projectId, FileData.RoleEnum role,
+  private void addFilesToProject(Objectify datastore, JobRetryHelper job, long projectId,
+    FileData.RoleEnum role,
     boolean changeModDate, String userId, String... fileNames) {
     List<FileData> addedFiles = new ArrayList<FileData>();
     Key<ProjectData> projectKey = projectKey(projectId);
@@ -1371,7 +1468,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
     datastore.put(addedFiles); // batch put
     if (changeModDate) {
-      updateProjectModDate(datastore, projectId, false);
+      updateProjectModDate(datastore, job, projectId, false);
     }
   }
 
@@ -1395,37 +1492,46 @@ public class ObjectifyStorageIo implements  StorageIo {
   @Override
   public void removeSourceFilesFromProject(final String userId, final long projectId,
       final boolean changeModDate, final String... fileNames) {
+    final List<FileData> removed = new ArrayList<FileData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.SOURCE, changeModDate, fileNames);
+          removed.clear();
+          removeFilesFromProject(datastore, this, projectId, FileData.RoleEnum.SOURCE, changeModDate,
+              removed, fileNames);
         }
       }, true);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
     }
+    releaseSharedContent(removed);
   }
 
   @Override
   public void removeOutputFilesFromProject(final String userId, final long projectId,
       final String... fileNames) {
+    final List<FileData> removed = new ArrayList<FileData>();
     try {
       runJobWithRetries(new JobRetryHelper() {
         @Override
         public void run(Objectify datastore) {
-          removeFilesFromProject(datastore, projectId, FileData.RoleEnum.TARGET, false, fileNames);
+          removed.clear();
+          removeFilesFromProject(datastore, this, projectId, FileData.RoleEnum.TARGET, false,
+              removed, fileNames);
         }
       }, true);
     } catch (ObjectifyException e) {
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileNames[0]), e);
     }
+    releaseSharedContent(removed);
   }
 
-  private void removeFilesFromProject(Objectify datastore, long projectId,
-      FileData.RoleEnum role, boolean changeModDate, String... fileNames) {
+  private void removeFilesFromProject(Objectify datastore, JobRetryHelper job, long projectId,
+      FileData.RoleEnum role, boolean changeModDate, List<FileData> removed,
+      String... fileNames) {
     Key<ProjectData> projectKey = projectKey(projectId);
     List<Key<FileData>> filesToRemove = new ArrayList<Key<FileData>>();
     for (String fileName : fileNames) {
@@ -1435,6 +1541,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       if (fd != null) {
         if (fd.role.equals(role)) {
           filesToRemove.add(projectFileKey(projectKey, fileName));
+          removed.add(fd);
         } else {
           throw CrashReport.createAndLogError(LOG, null,
               collectProjectErrorInfo(null, projectId, fileName),
@@ -1444,7 +1551,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
     datastore.delete(filesToRemove);  // batch delete
     if (changeModDate) {
-      updateProjectModDate(datastore, projectId, false);
+      updateProjectModDate(datastore, job, projectId, false);
     }
   }
 
@@ -1516,7 +1623,8 @@ public class ObjectifyStorageIo implements  StorageIo {
     }
   }
 
-  private long updateProjectModDate(Objectify datastore, long projectId, boolean doingConversion) {
+  private long updateProjectModDate(Objectify datastore, JobRetryHelper job, long projectId,
+      boolean doingConversion) {
     long modDate = System.currentTimeMillis();
     ProjectData pd = datastore.find(projectKey(projectId));
     if (pd != null) {
@@ -1527,6 +1635,7 @@ public class ObjectifyStorageIo implements  StorageIo {
       if ((modDate > (pd.dateModified + 1000*60)) && !doingConversion) {
         pd.dateModified = modDate;
         datastore.put(pd);
+        job.projectChanged(pd);  // Written through to the cache once committed
       } else {
         // return the (old) dateModified
         modDate = pd.dateModified;
@@ -1561,6 +1670,15 @@ public class ObjectifyStorageIo implements  StorageIo {
     final Result<Long> modTime = new Result<Long>();
     final boolean useGCS = useGCSforFile(fileName, content.length);
     final Result<String> oldBlobstoreKey = new Result<String>();
+    final Result<String> oldGcsName = new Result<String>();
+    final boolean shared = useGCS && useSharedContent(fileName);
+    // Only assets can point at shared content. Their reference counts change
+    // in the transaction that changes what the file points at.
+    final boolean useTransaction = useSharedContent(fileName);
+    final String contentHash = shared ? SharedContentStore.hash(content) : null;
+    final Result<String> writtenGcsName = new Result<String>();
+    final Result<String> newGcsName = new Result<String>();
+    boolean written = false;
     final boolean considerBackup = (useGcs?((fileName.contains("src/") && fileName.endsWith(".blk")) // AI1 Blocks Files
         || (fileName.contains("src/") && fileName.endsWith(".bky")) // Blockly files
         || (fileName.contains("src/") && fileName.endsWith(".scm"))) // Form Definitions
@@ -1573,7 +1691,9 @@ public class ObjectifyStorageIo implements  StorageIo {
         @Override
         public void run(Objectify datastore) throws ObjectifyException {
           Key<FileData> key = projectFileKey(projectKey(projectId), fileName);
-          fd = (FileData) memcache.get(key.getString());
+          // The reference counts are only right if the hash they are
+          // changed for is read in the transaction
+          fd = useTransaction ? null : (FileData) memcache.get(key.getString());
           if (fd == null) {
             fd = datastore.find(projectFileKey(projectKey(projectId), fileName));
           } else {
@@ -1609,7 +1729,41 @@ public class ObjectifyStorageIo implements  StorageIo {
             // mark the old blobstore blob for deletion
            oldBlobstoreKey.t = fd.blobKey;
           }
-          if (useGCS) {
+          oldGcsName.t = null;
+          if (shared) {
+            // We only point at the content. A per project object left from
+            // before is deleted once the job commits.
+            if (isTrue(fd.isGCS) && fd.contentHash == null) {
+              oldGcsName.t = fd.gcsName;
+            }
+            if (!contentHash.equals(fd.contentHash)) {
+              String gcsName = sharedContent.reference(datastore, contentHash, writtenGcsName.t);
+              if (gcsName == null) {
+                // Not stored (any more), store it and try again
+                try {
+                  writtenGcsName.t = sharedContent.write(contentHash, content);
+                } catch (IOException e) {
+                  throw CrashReport.createAndLogError(LOG, null,
+                    collectProjectErrorInfo(userId, projectId, fileName), e);
+                }
+                gcsName = sharedContent.reference(datastore, contentHash, writtenGcsName.t);
+              }
+              if (fd.contentHash != null) {
+                sharedContent.dereference(datastore, fd.contentHash);
+              }
+              fd.gcsName = gcsName;
+            }
+            fd.isGCS = true;
+            fd.contentHash = contentHash;
+            fd.content = null;
+            fd.isBlob = false;
+            fd.blobstorePath = null;
+          } else if (useGCS) {
+            if (fd.contentHash != null) {
+              // Never overwrite shared content in place
+              sharedContent.dereference(datastore, fd.contentHash);
+              fd.contentHash = null;
+            }
             fd.isGCS = true;
             fd.gcsName = makeGCSfileName(fileName, projectId);
             try {
@@ -1626,7 +1780,12 @@ public class ObjectifyStorageIo implements  StorageIo {
             fd.isBlob = false;  // in case we are converting from a blob
             fd.blobstorePath = null;
           } else {
-            if (isTrue(fd.isGCS)) {     // Was a GCS file, must have gotten smaller
+            if (fd.contentHash != null) { // Shared content is released, not deleted
+              sharedContent.dereference(datastore, fd.contentHash);
+              fd.contentHash = null;
+              fd.isGCS = false;
+              fd.gcsName = null;
+            } else if (isTrue(fd.isGCS)) {     // Was a GCS file, must have gotten smaller
               try {             // and is now stored in the data store
                 gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName));
               } catch (IOException e) {
@@ -1664,8 +1823,13 @@ public class ObjectifyStorageIo implements  StorageIo {
             fd.userId = userId;
           }
           datastore.put(fd);
-          memcache.put(key.getString(), fd); // Store the updated data in memcache
-          modTime.t = updateProjectModDate(datastore, projectId, doingConversion);
+          if (useTransaction) {
+            memcache.delete(key.getString()); // Read again from the datastore
+          } else {
+            memcache.put(key.getString(), fd); // Store the updated data in memcache
+          }
+          modTime.t = updateProjectModDate(datastore, this, projectId, doingConversion);
+          newGcsName.t = fd.gcsName;
         }
 
         @Override
@@ -1674,8 +1838,9 @@ public class ObjectifyStorageIo implements  StorageIo {
             oldBlobstoreKey.t = fd.blobKey;
           }
         }
-      }, false);        // Use transaction for blobstore, otherwise we don't need one
-                               // and without one the caching code comes into play.
+      }, useTransaction);   // Use transaction for shared content, otherwise we don't
+                            // need one and without one the caching code comes into play.
+      written = writtenGcsName.t != null && writtenGcsName.t.equals(newGcsName.t);
 
       // It would have been convenient to delete the old blobstore file within the run() method
       // above but that caused an exception where the app engine datastore claimed to be doing
@@ -1684,12 +1849,101 @@ public class ObjectifyStorageIo implements  StorageIo {
       if (oldBlobstoreKey.t != null) {
         deleteBlobstoreFile(oldBlobstoreKey.t);
       }
+      if (oldGcsName.t != null) {
+        try {
+          gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, oldGcsName.t));
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Unable to delete " + oldGcsName.t + " from GCS.", e);
+        }
+      }
     } catch (ObjectifyException e) {
       if (e.getMessage().startsWith("Blocks")) { // Convert Exception
         throw new BlocksTruncatedException();
       }
       throw CrashReport.createAndLogError(LOG, null,
           collectProjectErrorInfo(userId, projectId, fileName), e);
+    } finally {
+      // Content we stored that the committed file does not point at, if any
+      if (writtenGcsName.t != null && !written) {
+        sharedContent.discard(writtenGcsName.t);
+      }
+    }
+    return modTime.t;
+  }
+
+  @Override
+  public long uploadRawFileStream(final long projectId, final String fileName,
+      final String userId, InputStream content) throws IOException {
+    validateGCS();
+    // Only files that go to GCS whatever their size can be streamed. Shared
+    // content must be hashed before it is stored.
+    if (!useGCSforFile(fileName, 0) || useSharedContent(fileName)) {
+      return uploadRawFileForce(projectId, fileName, userId, ByteStreams.toByteArray(content));
+    }
+
+    // Copy the content to GCS first, a chunk at a time. The object is only
+    // finalized by close(), so a failed copy leaves the old content in place.
+    final String gcsName = makeGCSfileName(fileName, projectId);
+    GcsOutputChannel outputChannel = gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET_NAME, gcsName), GcsFileOptions.getDefaultInstance());
+    byte[] buffer = new byte[STREAM_CHUNK_SIZE];
+    int count;
+    while ((count = ByteStreams.read(content, buffer, 0, buffer.length)) > 0) {
+      outputChannel.write(ByteBuffer.wrap(buffer, 0, count));
+    }
+    outputChannel.close();
+
+    // Then point the FileData at it
+    final Result<Long> modTime = new Result<Long>();
+    final Result<String> oldBlobstoreKey = new Result<String>();
+    final Result<String> oldGcsName = new Result<String>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) throws ObjectifyException {
+          Key<FileData> key = projectFileKey(projectKey(projectId), fileName);
+          FileData fd = (FileData) memcache.get(key.getString());
+          if (fd == null) {
+            fd = datastore.find(key);
+          }
+          Preconditions.checkState(fd != null);
+          if (fd.userId != null && !fd.userId.equals("") && !fd.userId.equals(userId)) {
+            throw CrashReport.createAndLogError(LOG, null,
+                collectUserProjectErrorInfo(userId, projectId),
+                new UnauthorizedAccessException(userId, projectId, null));
+          }
+          // Files streamed here never point at shared content (see above)
+          oldBlobstoreKey.t = fd.isBlob ? fd.blobKey : null;
+          oldGcsName.t = isTrue(fd.isGCS) && fd.contentHash == null
+              && !gcsName.equals(fd.gcsName) ? fd.gcsName : null;
+          fd.isGCS = true;
+          fd.gcsName = gcsName;
+          fd.contentHash = null;
+          fd.content = null;
+          fd.isBlob = false;
+          fd.blobKey = null;
+          fd.blobstorePath = null;
+          if (fd.userId == null || fd.userId.equals("")) {
+            fd.userId = userId;
+          }
+          datastore.put(fd);
+          memcache.put(key.getString(), fd);
+          modTime.t = updateProjectModDate(datastore, this, projectId, false);
+        }
+      }, false);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+    }
+    if (oldBlobstoreKey.t != null) {
+      deleteBlobstoreFile(oldBlobstoreKey.t);
+    }
+    if (oldGcsName.t != null) {
+      try {
+        gcsService.delete(new GcsFilename(GCS_BUCKET_NAME, oldGcsName.t));
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to delete " + oldGcsName.t + " from GCS.", e);
+      }
     }
     return modTime.t;
   }
@@ -1728,6 +1982,22 @@ public class ObjectifyStorageIo implements  StorageIo {
     return (projectId + "/" + fileName);
   }
 
+  // Media is often the same across projects (copies, remixes, imports of the
+  // same template), so assets stored in GCS are kept once per distinct content.
+  // Only call this for files useGCSforFile() accepts.
+  @VisibleForTesting
+  boolean useSharedContent(String fileName) {
+    return fileName.startsWith("assets/");
+  }
+
+  private void releaseSharedContent(List<FileData> files) {
+    for (FileData fd : files) {
+      if (fd.contentHash != null) {
+        sharedContent.release(fd.contentHash);
+      }
+    }
+  }
+
   @Override
   public long deleteFile(final String userId, final long projectId, final String fileName) {
     validateGCS();
@@ -1750,12 +2020,14 @@ public class ObjectifyStorageIo implements  StorageIo {
               }
             }
             oldBlobKeyString.t = fileData.blobKey;
-            if (isTrue(fileData.isGCS)) {
+            if (fileData.contentHash != null) {
+              sharedContent.dereference(datastore, fileData.contentHash);
+            } else if (isTrue(fileData.isGCS)) {
               oldgcsName.t = fileData.gcsName;
             }
           }
           datastore.delete(fileKey);
-          modTime.t = updateProjectModDate(datastore, projectId, false);
+          modTime.t = updateProjectModDate(datastore, this, projectId, false);
         }
       }, true);
     } catch (ObjectifyException e) {
@@ -1954,6 +2226,156 @@ public class ObjectifyStorageIo implements  StorageIo {
     return result.t;
   }
 
+  @Override
+  public Map<String, String> downloadFiles(final String userId, final long projectId,
+      List<String> fileNames, String encoding) {
+    validateGCS();
+    final Map<String, FileData> files = new HashMap<String, FileData>();
+    final List<Key<FileData>> misses = new ArrayList<Key<FileData>>();
+    List<String> memcacheKeys = new ArrayList<String>();
+    for (String fileName : fileNames) {
+      memcacheKeys.add(projectFileKey(projectKey(projectId), fileName).getString());
+    }
+    Map<String, Object> cached = memcache.getAll(memcacheKeys);
+    for (String fileName : fileNames) {
+      Key<FileData> fileKey = projectFileKey(projectKey(projectId), fileName);
+      FileData fd = (FileData) cached.get(fileKey.getString());
+      if (fd == null) {
+        misses.add(fileKey);
+      } else {
+        files.put(fileName, fd);
+      }
+    }
+    if (!misses.isEmpty()) {
+      try {
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            for (FileData fd : datastore.get(misses).values()) {
+              files.put(fd.fileName, fd);
+            }
+          }
+        }, false); // Transaction not needed
+      } catch (ObjectifyException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectUserProjectErrorInfo(userId, projectId), e);
+      }
+    }
+
+    // Read the blob/GCS files outside of the job, several at a time
+    Map<String, Future<byte[]>> reads = new LinkedHashMap<String, Future<byte[]>>();
+    ExecutorService executor = newReadExecutor(exportParallelReads.get());
+    try {
+      for (String fileName : fileNames) {
+        final FileData fd = files.get(fileName);
+        if (fd == null) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectProjectErrorInfo(userId, projectId, fileName),
+              new FileNotFoundException("No data for " + fileName));
+        }
+        if (fd.userId != null && !fd.userId.equals("") && !fd.userId.equals(userId)) {
+          throw CrashReport.createAndLogError(LOG, null,
+              collectUserProjectErrorInfo(userId, projectId),
+              new UnauthorizedAccessException(userId, projectId, null));
+        }
+        if (fd.isBlob || isTrue(fd.isGCS)) {
+          reads.put(fileName, executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws IOException {
+              return readStoredFile(userId, projectId, fd, false);
+            }
+          }));
+        } else {
+          reads.put(fileName, Futures.immediateFuture(fd.content));
+        }
+      }
+      Map<String, String> result = new LinkedHashMap<String, String>();
+      for (Map.Entry<String, Future<byte[]>> read : reads.entrySet()) {
+        byte[] data = getStoredFile(read.getValue());
+        result.put(read.getKey(), data == null ? "" : new String(data, encoding));
+      }
+      return result;
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public long getRawFileLength(String userId, long projectId, String fileName) {
+    FileData fd = getRawFileData(userId, projectId, fileName);
+    if (isTrue(fd.isGCS)) {
+      try {
+        GcsFileMetadata metadata =
+            gcsService.getMetadata(new GcsFilename(GCS_BUCKET_NAME, fd.gcsName));
+        // Zero length objects used to not be written to GCS
+        return metadata == null ? 0 : metadata.getLength();
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    } else if (fd.isBlob) {
+      return downloadRawFile(userId, projectId, fileName).length;
+    } else {
+      return fd.content == null ? 0 : fd.content.length;
+    }
+  }
+
+  @Override
+  public void downloadRawFile(String userId, long projectId, String fileName, long offset,
+      long length, OutputStream out) throws IOException {
+    FileData fd = getRawFileData(userId, projectId, fileName);
+    if (isTrue(fd.isGCS)) {
+      InputStream in = Channels.newInputStream(gcsService.openPrefetchingReadChannel(
+          new GcsFilename(GCS_BUCKET_NAME, fd.gcsName), offset, STREAM_CHUNK_SIZE));
+      try {
+        ByteStreams.copy(ByteStreams.limit(in, length), out);
+      } finally {
+        in.close();
+      }
+    } else {
+      byte[] content = fd.isBlob ? downloadRawFile(userId, projectId, fileName) : fd.content;
+      if (content != null && offset < content.length) {
+        out.write(content, (int) offset, (int) Math.min(length, content.length - offset));
+      }
+    }
+  }
+
+  // Looks up a file the user owns, for reads that do not need its content
+  private FileData getRawFileData(final String userId, final long projectId,
+      final String fileName) {
+    validateGCS();
+    final Result<FileData> fd = new Result<FileData>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          Key<FileData> fileKey = projectFileKey(projectKey(projectId), fileName);
+          fd.t = (FileData) memcache.get(fileKey.getString());
+          if (fd.t == null) {
+            fd.t = datastore.find(fileKey);
+          }
+        }
+      }, false); // Transaction not needed
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+    }
+    if (fd.t == null) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName),
+          new FileNotFoundException("No data for " + fileName));
+    }
+    if (fd.t.userId != null && !fd.t.userId.equals("") && !fd.t.userId.equals(userId)) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId),
+          new UnauthorizedAccessException(userId, projectId, null));
+    }
+    return fd.t;
+  }
+
   // Note: this must be called outside of any transaction, since getBlobKey()
   // uses the current transaction and it will most likely have the wrong
   // entity group!
@@ -1992,8 +2414,68 @@ public class ObjectifyStorageIo implements  StorageIo {
     final boolean includeScreenShots,
     final boolean forGallery,
     final boolean fatalError) throws IOException {
-    validateGCS();
     final Result<Integer> fileCount = new Result<Integer>();
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    String projectName = writeProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        Collections.<String>emptySet(), zipFile, fileCount);
+
+    if (zipName == null) {
+      zipName = projectName + ".aia";
+    }
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
+    projectSourceZip.setMetadata(projectName);
+    return projectSourceZip;
+  }
+
+  @Override
+  public void exportProjectSourceZip(String userId, long projectId,
+      Set<String> cachedContent, OutputStream destination) throws IOException {
+    writeProjectSourceZip(userId, projectId, false, /* includeAndroidKeystore */ true,
+        /* includeYail */ true, false, false, /* fatalError */ true, cachedContent, destination,
+        new Result<Integer>());
+  }
+
+  @Override
+  public Map<String, String> getProjectContentHashes(final String userId, final long projectId) {
+    final Map<String, String> hashes = new HashMap<String, String>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          hashes.clear();
+          for (FileData fd : datastore.query(FileData.class).ancestor(projectKey(projectId))) {
+            if (fd.role.equals(FileData.RoleEnum.SOURCE) && fd.contentHash != null) {
+              hashes.put(fd.fileName, fd.contentHash);
+            }
+          }
+        }
+      }, false);
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    return hashes;
+  }
+
+  /*
+   * Writes the project's files as a zip archive to destination, which is
+   * left open, and returns the project name. Files whose content hash is in cachedContent are not
+   * written; they are listed in the FileExporter.CONTENT_MANIFEST_FILE_PATH entry
+   * instead.
+   */
+  private String writeProjectSourceZip(final String userId, final long projectId,
+    final boolean includeProjectHistory,
+    final boolean includeAndroidKeystore,
+    final boolean includeYail,
+    final boolean includeScreenShots,
+    final boolean forGallery,
+    final boolean fatalError,
+    Set<String> cachedContent,
+    OutputStream destination,
+    final Result<Integer> fileCount) throws IOException {
+    validateGCS();
     fileCount.t = 0;
     final Result<String> projectHistory = new Result<String>();
     projectHistory.t = null;
@@ -2006,8 +2488,7 @@ public class ObjectifyStorageIo implements  StorageIo {
     projectName.t = null;
     String fileName = null;
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
+    final ZipOutputStream out = new ZipOutputStream(destination);
     out.setComment("Built with MIT App Inventor");
 
     try {
@@ -2016,6 +2497,7 @@ public class ObjectifyStorageIo implements  StorageIo {
         public void run(Objectify datastore) throws IOException {
           Key<ProjectData> projectKey = projectKey(projectId);
           boolean foundFiles = false;
+          fileData.clear();
           for (FileData fd : datastore.query(FileData.class).ancestor(projectKey)) {
             String fileName = fd.fileName;
             if (fileName.startsWith("assets/external_comps") && forGallery) {
@@ -2059,87 +2541,56 @@ public class ObjectifyStorageIo implements  StorageIo {
         throw error;
       }
       // Process the file contents outside of the job since we can't read
-      // blobs in the job.
-      for (FileData fd : fileData) {
-        fileName = fd.fileName;
-        byte[] data = null;
-        if (fd.isBlob) {
-          try {
-            if (fd.blobKey == null) {
-              throw new BlobReadException("blobKey is null");
-            }
-            data = getBlobstoreBytes(fd.blobKey);
-          } catch (BlobReadException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
-        } else if (isTrue(fd.isGCS)) {
-          try {
-            int count;
-            boolean npfHappened = false;
-            boolean recovered = false;
-            for (count = 0; count < 5; count++) {
-              GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
-              int bytesRead = 0;
-              int fileSize = 0;
-              ByteBuffer resultBuffer;
-              try {
-                fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-                resultBuffer = ByteBuffer.allocate(fileSize);
-                GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-                try {
-                  while (bytesRead < fileSize) {
-                    bytesRead += readChannel.read(resultBuffer);
-                    if (bytesRead < fileSize) {
-                      if (DEBUG) {
-                        LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                      }
-                    }
-                  }
-                  recovered = true;
-                  data = resultBuffer.array();
-                  break;        // We got the data, break out of the loop!
-                } finally {
-                  readChannel.close();
-                }
-              } catch (NullPointerException e) {
-                // This happens if the object in GCS is non-existent, which would happen
-                // when people uploaded a zero length object. As of this change, we now
-                // store zero length objects into GCS, but there are plenty of older objects
-                // that are missing in GCS.
-                LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
-                npfHappened = true;
-                resultBuffer = ByteBuffer.allocate(0);
-                data = resultBuffer.array();
-              }
-            }
-
-            // report out on how things went above
-            if (npfHappened) {    // We lost at least once
-              if (recovered) {
-                LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
-                  " count = " + count);
-              } else {
-                LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
-                if (fatalError) {
-                  throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
+      // blobs in the job. Blobstore and GCS reads are started ahead of the
+      // zip writer, up to export.parallel.reads at a time, but entries are
+      // still written in order.
+      StringBuilder manifest = new StringBuilder();
+      List<Future<byte[]>> reads = new ArrayList<Future<byte[]>>(fileData.size());
+      int window = Math.max(1, exportParallelReads.get());
+      ExecutorService executor = newReadExecutor(window);
+      try {
+        for (int i = 0; i < fileData.size(); i++) {
+          while (reads.size() < fileData.size() && reads.size() < i + window) {
+            final FileData fd = fileData.get(reads.size());
+            if (fd.contentHash != null && cachedContent.contains(fd.contentHash)) {
+              reads.add(null);
+            } else if (fd.isBlob || isTrue(fd.isGCS)) {
+              reads.add(executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                  return readStoredFile(userId, projectId, fd, fatalError);
                 }
-              }
+              }));
+            } else {
+              reads.add(Futures.immediateFuture(fd.content));
             }
-          } catch (IOException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-              collectProjectErrorInfo(userId, projectId, fileName), e);
           }
-        } else {
-          data = fd.content;
-        }
-        if (data == null) {     // This happens if file creation is interrupted
-          data = new byte[0];
+          FileData fd = fileData.get(i);
+          fileName = fd.fileName;
+          if (reads.get(i) == null) {
+            // The receiver already has this content
+            manifest.append(fd.contentHash).append(' ').append(fileName).append('\n');
+            fileCount.t++;
+            continue;
+          }
+          byte[] data = getStoredFile(reads.get(i));
+          reads.set(i, null);   // Let go of the content once it is written
+          if (data == null) {     // This happens if file creation is interrupted
+            data = new byte[0];
+          }
+          out.putNextEntry(new ZipEntry(fileName));
+          out.write(data, 0, data.length);
+          out.closeEntry();
+          fileCount.t++;
         }
-        out.putNextEntry(new ZipEntry(fileName));
+      } finally {
+        executor.shutdownNow();
+      }
+      if (manifest.length() > 0) {
+        byte[] data = manifest.toString().getBytes(StorageUtil.DEFAULT_CHARSET);
+        out.putNextEntry(new ZipEntry(FileExporter.CONTENT_MANIFEST_FILE_PATH));
         out.write(data, 0, data.length);
         out.closeEntry();
-        fileCount.t++;
       }
       if (projectHistory.t != null) {
         byte[] data = projectHistory.t.getBytes(StorageUtil.DEFAULT_CHARSET);
@@ -2193,15 +2644,109 @@ public class ObjectifyStorageIo implements  StorageIo {
       }
     }
 
-    out.close();
+    out.finish();
+    return projectName.t;
+  }
 
-    if (zipName == null) {
-      zipName = projectName.t + ".aia";
+  // Reads the content of a Blobstore or GCS file outside of any job
+  private byte[] readStoredFile(String userId, long projectId, FileData fd,
+      boolean fatalError) throws IOException {
+    String fileName = fd.fileName;
+    byte[] data = null;
+    if (fd.isBlob) {
+      try {
+        if (fd.blobKey == null) {
+          throw new BlobReadException("blobKey is null");
+        }
+        data = getBlobstoreBytes(fd.blobKey);
+      } catch (BlobReadException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    } else {
+      try {
+        int count;
+        boolean npfHappened = false;
+        boolean recovered = false;
+        for (count = 0; count < 5; count++) {
+          GcsFilename gcsFileName = new GcsFilename(GCS_BUCKET_NAME, fd.gcsName);
+          int bytesRead = 0;
+          int fileSize = 0;
+          ByteBuffer resultBuffer;
+          try {
+            fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
+            resultBuffer = ByteBuffer.allocate(fileSize);
+            GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
+            try {
+              while (bytesRead < fileSize) {
+                bytesRead += readChannel.read(resultBuffer);
+                if (bytesRead < fileSize) {
+                  if (DEBUG) {
+                    LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
+                  }
+                }
+              }
+              recovered = true;
+              data = resultBuffer.array();
+              break;        // We got the data, break out of the loop!
+            } finally {
+              readChannel.close();
+            }
+          } catch (NullPointerException e) {
+            // This happens if the object in GCS is non-existent, which would happen
+            // when people uploaded a zero length object. As of this change, we now
+            // store zero length objects into GCS, but there are plenty of older objects
+            // that are missing in GCS.
+            LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
+            npfHappened = true;
+            resultBuffer = ByteBuffer.allocate(0);
+            data = resultBuffer.array();
+          }
+        }
+
+        // report out on how things went above
+        if (npfHappened) {    // We lost at least once
+          if (recovered) {
+            LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
+              " count = " + count);
+          } else {
+            LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
+            if (fatalError) {
+              throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
+            }
+          }
+        }
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
     }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
+    return data;
+  }
+
+  private static byte[] getStoredFile(Future<byte[]> read) throws IOException {
+    try {
+      return read.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while reading project files", e);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  // Runs Blobstore/GCS reads on request threads. Falls back to reading in the
+  // calling thread where request threads are not available.
+  private static ExecutorService newReadExecutor(int threads) {
+    if (threads > 1) {
+      try {
+        return Executors.newFixedThreadPool(threads, ThreadManager.currentRequestThreadFactory());
+      } catch (RuntimeException e) {
+        LOG.log(Level.FINE, "Request threads unavailable, reading serially", e);
+      }
+    }
+    return MoreExecutors.newDirectExecutorService();
   }
 
   @Override
@@ -2517,15 +3062,20 @@ public class ObjectifyStorageIo implements  StorageIo {
     while (tries <= MAX_JOB_RETRIES) {
       Objectify datastore;
       if (useTransaction) {
-        datastore = ObjectifyService.beginTransaction();
+        datastore = ObjectifyService.begin(new ObjectifyOpts().setBeginTransaction(true)
+            .setTransactionOptions(TransactionOptions.Builder.withXG(true)));
       } else {
         datastore = ObjectifyService.begin();
       }
       try {
+        job.changedProjects.clear();
         job.run(datastore);
         if (useTransaction) {
           datastore.getTxn().commit();
         }
+        for (ProjectData pd : job.changedProjects) {
+          projectCache.update(pd);
+        }
         break;
       } catch (ConcurrentModificationException ex) {
         job.onNonFatalError();
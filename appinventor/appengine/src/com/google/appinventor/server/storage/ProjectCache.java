@@ -0,0 +1,283 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appinventor.server.Server;
+import com.google.appinventor.server.flags.Flag;
+import com.google.appinventor.server.storage.StoredData.ProjectData;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * A two level cache of project metadata for {@link ObjectifyStorageIo}: a
+ * small LRU on this instance in front of memcache.
+ *
+ * <p>Two kinds of values are cached: {@link ProjectData} by project id,
+ * and the list of project ids of a user (from their UserProjectData).
+ * Memcache entries are stored under versioned keys. Changing a project or
+ * a user's project list bumps its version once the change has committed,
+ * which orphans every old copy in memcache at once; the orphans simply age
+ * out. Readers take the version before they read the datastore and add
+ * what they read under that version. If a writer commits in between, the
+ * writer bumps the version after the reader took it, so what the reader
+ * read before the change lands under a version nobody looks up any more.
+ *
+ * <p>The local LRU is invalidated immediately on this instance. Other
+ * instances notice a change when their local entry expires, after at
+ * most {@code project.cache.local.secs} seconds.
+ *
+ * <p>Values handed out are shared and must not be modified.
+ */
+final class ProjectCache {
+
+  private static final Flag<Integer> localSize = Flag.createFlag("project.cache.local.size", 1000);
+  private static final Flag<Integer> localSecs = Flag.createFlag("project.cache.local.secs", 10);
+  private static final Flag<Integer> memcacheSecs =
+      Flag.createFlag("project.cache.memcache.secs", 600);
+
+  // Random prefixes so we do not collide with other users of memcache, see
+  // User.usercachekey
+  private static final String PROJECT_PREFIX = "c4b7e0a2-58e1-4d0b-9d4a-0c7a1f5b8e21|p|";
+  private static final String USER_PROJECTS_PREFIX = "c4b7e0a2-58e1-4d0b-9d4a-0c7a1f5b8e21|u|";
+  private static final String VERSION_SUFFIX = "|v";
+
+  private final MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+  private final Cache<Long, ProjectData> localProjects;
+  private final Cache<String, List<Long>> localUserProjects;
+
+  private final AtomicLong localHits = new AtomicLong();
+  private final AtomicLong memcacheHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  ProjectCache() {
+    memcache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
+    // The local level is only used in production. The development server
+    // and the tests reset the datastore and memcache underneath us, which
+    // a local cache would not notice.
+    int size = Server.isProductionServer() ? localSize.get() : 0;
+    localProjects = CacheBuilder.newBuilder()
+        .maximumSize(size)
+        .expireAfterWrite(localSecs.get(), TimeUnit.SECONDS)
+        .build();
+    localUserProjects = CacheBuilder.newBuilder()
+        .maximumSize(size)
+        .expireAfterWrite(localSecs.get(), TimeUnit.SECONDS)
+        .build();
+  }
+
+  /**
+   * Returns the cached ProjectData of a project, or null if it must be read
+   * from the datastore (after which the caller should {@link #add} it, with
+   * the version taken before the read).
+   */
+  ProjectData getProject(long projectId) {
+    return getProjects(Collections.singletonList(projectId)).get(projectId);
+  }
+
+  /**
+   * Returns whichever of the given projects are cached, keyed by id.
+   */
+  Map<Long, ProjectData> getProjects(Collection<Long> projectIds) {
+    Map<Long, ProjectData> result = new HashMap<Long, ProjectData>();
+    List<String> versionKeys = new ArrayList<String>();
+    for (Long projectId : projectIds) {
+      ProjectData pd = localProjects.getIfPresent(projectId);
+      if (pd != null) {
+        result.put(projectId, pd);
+      } else {
+        versionKeys.add(PROJECT_PREFIX + projectId + VERSION_SUFFIX);
+      }
+    }
+    localHits.addAndGet(result.size());
+    if (versionKeys.isEmpty()) {
+      return result;
+    }
+    Map<String, Object> versions = memcache.getAll(versionKeys);
+    List<String> dataKeys = new ArrayList<String>();
+    for (Map.Entry<String, Object> entry : versions.entrySet()) {
+      String versionKey = entry.getKey();
+      dataKeys.add(versionKey.substring(0, versionKey.length() - VERSION_SUFFIX.length())
+          + "|" + entry.getValue());
+    }
+    int found = 0;
+    if (!dataKeys.isEmpty()) {
+      for (Object value : memcache.getAll(dataKeys).values()) {
+        ProjectData pd = (ProjectData) value;
+        result.put(pd.id, pd);
+        localProjects.put(pd.id, pd);
+        found++;
+      }
+    }
+    memcacheHits.addAndGet(found);
+    misses.addAndGet(versionKeys.size() - found);
+    return result;
+  }
+
+  /**
+   * Returns the current version of a project. Call this before reading the
+   * project from the datastore and pass the version to {@link #add}.
+   */
+  Object getProjectVersion(long projectId) {
+    return getVersion(PROJECT_PREFIX + projectId);
+  }
+
+  /**
+   * Returns the current versions of the given projects, like
+   * {@link #getProjectVersion}.
+   */
+  Map<Long, Object> getProjectVersions(Collection<Long> projectIds) {
+    Map<Long, Object> versions = new HashMap<Long, Object>();
+    for (Long projectId : projectIds) {
+      versions.put(projectId, getProjectVersion(projectId));
+    }
+    return versions;
+  }
+
+  /**
+   * Caches a ProjectData read from the datastore.
+   *
+   * @param version  the version of the project taken before it was read
+   */
+  void add(ProjectData pd, Object version) {
+    memcache.put(PROJECT_PREFIX + pd.id + "|" + version, pd, expiration(),
+        SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    localProjects.put(pd.id, pd);
+  }
+
+  /**
+   * Caches a ProjectData whose change has been committed to the datastore,
+   * replacing any copy cached before the change.
+   */
+  void update(ProjectData pd) {
+    String key = PROJECT_PREFIX + pd.id;
+    bumpVersion(key);
+    memcache.put(key + "|" + getVersion(key), pd, expiration(), SetPolicy.SET_ALWAYS);
+    localProjects.put(pd.id, pd);
+  }
+
+  /**
+   * Forgets a project after its change or deletion has been committed.
+   */
+  void invalidateProject(long projectId) {
+    localProjects.invalidate(projectId);
+    bumpVersion(PROJECT_PREFIX + projectId);
+    invalidations.incrementAndGet();
+  }
+
+  /**
+   * Returns the cached list of a user's project ids, or null.
+   */
+  @SuppressWarnings("unchecked")
+  List<Long> getUserProjects(String userId) {
+    List<Long> projectIds = localUserProjects.getIfPresent(userId);
+    if (projectIds != null) {
+      localHits.incrementAndGet();
+      return projectIds;
+    }
+    Object version = memcache.get(USER_PROJECTS_PREFIX + userId + VERSION_SUFFIX);
+    if (version != null) {
+      projectIds = (List<Long>) memcache.get(USER_PROJECTS_PREFIX + userId + "|" + version);
+    }
+    if (projectIds == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    memcacheHits.incrementAndGet();
+    localUserProjects.put(userId, projectIds);
+    return projectIds;
+  }
+
+  /**
+   * Returns the current version of a user's project list. Call this before
+   * reading the list from the datastore and pass the version to
+   * {@link #addUserProjects}.
+   */
+  Object getUserProjectsVersion(String userId) {
+    return getVersion(USER_PROJECTS_PREFIX + userId);
+  }
+
+  /**
+   * Caches a user's project ids read from the datastore.
+   *
+   * @param version  the version of the list taken before it was read
+   */
+  void addUserProjects(String userId, List<Long> projectIds, Object version) {
+    ArrayList<Long> copy = new ArrayList<Long>(projectIds);
+    memcache.put(USER_PROJECTS_PREFIX + userId + "|" + version, copy, expiration(),
+        SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    localUserProjects.put(userId, copy);
+  }
+
+  /**
+   * Forgets a user's project list after a project was added or removed.
+   */
+  void invalidateUserProjects(String userId) {
+    localUserProjects.invalidate(userId);
+    bumpVersion(USER_PROJECTS_PREFIX + userId);
+    invalidations.incrementAndGet();
+  }
+
+  /**
+   * Returns a one line summary of the hit and miss counts on this instance.
+   */
+  String getStatistics() {
+    long local = localHits.get();
+    long remote = memcacheHits.get();
+    long missed = misses.get();
+    long total = local + remote + missed;
+    return "Project cache on this instance: " + total + " lookups, "
+        + local + " local hits, " + remote + " memcache hits, " + missed + " misses ("
+        + (total == 0 ? 0 : (100 * (local + remote) / total)) + "% hit rate), "
+        + invalidations.get() + " invalidations, " + localProjects.size()
+        + " projects and " + localUserProjects.size() + " project lists held locally";
+  }
+
+  /**
+   * Returns the current version of a value, creating a version if there is
+   * none.
+   */
+  private Object getVersion(String key) {
+    String versionKey = key + VERSION_SUFFIX;
+    Object version = memcache.get(versionKey);
+    if (version == null) {
+      // Start from the clock rather than zero so that an evicted version
+      // never brings back copies cached under an older one.
+      memcache.put(versionKey, System.currentTimeMillis(), null,
+          SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      version = memcache.get(versionKey);
+      if (version == null) {    // memcache unavailable
+        version = "none";
+      }
+    }
+    return version;
+  }
+
+  private void bumpVersion(String key) {
+    // increment is atomic and does nothing if there is no version yet, in
+    // which case the next reader creates a new one.
+    memcache.increment(key + VERSION_SUFFIX, 1);
+  }
+
+  private static Expiration expiration() {
+    return Expiration.byDeltaSeconds(memcacheSecs.get());
+  }
+}
@@ -0,0 +1,316 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import com.google.appengine.tools.cloudstorage.GcsFileOptions;
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsOutputChannel;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.appinventor.server.storage.StoredData.SharedContentData;
+import com.google.common.hash.Hashing;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ConcurrentModificationException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content addressed, reference counted storage of project media in GCS.
+ *
+ * <p>Assets are stored once per distinct content under a name derived from
+ * their SHA-256 hash, and every FileData holding that content points at
+ * the same object. Remixing a gallery app or starting from a template
+ * therefore adds references instead of writing the same sounds and images
+ * again.
+ *
+ * <p>Each piece of content has a {@link SharedContentData} entity counting
+ * its references. Content is only written before it has an entity, so an
+ * entity with references always names a complete object. Content whose
+ * count reaches zero is kept for {@link #GRACE_PERIOD_MILLIS} and then
+ * collected a few at a time by {@link #collectGarbage}. While being
+ * collected an entity is marked so that new references go to a freshly
+ * written object under a new name instead.
+ *
+ * <p>When a FileData changes the content it points at, the counts are
+ * changed with {@link #reference} and {@link #dereference} in the same
+ * cross-group transaction that writes the FileData, so that retries and
+ * concurrent changes of the file cannot count a reference twice.
+ */
+final class SharedContentStore {
+  private static final Logger LOG = Logger.getLogger(SharedContentStore.class.getName());
+
+  // How long unreferenced content is kept before it is deleted
+  private static final long GRACE_PERIOD_MILLIS = 3600*1000L; // One hour
+  // How many unreferenced objects to delete per call to collectGarbage
+  private static final int COLLECT_LIMIT = 10;
+  private static final int MAX_RETRIES = 10;
+  private static final String GCS_PREFIX = "shared/";
+
+  private final GcsService gcsService;
+  private final String bucketName;
+
+  SharedContentStore(GcsService gcsService, String bucketName) {
+    this.gcsService = gcsService;
+    this.bucketName = bucketName;
+  }
+
+  /**
+   * Returns the hash used to identify the given content.
+   */
+  static String hash(byte[] content) {
+    return Hashing.sha256().hashBytes(content).toString();
+  }
+
+  /**
+   * Adds a reference to the given content, storing it if it is not already
+   * stored, and returns the GCS name of the shared object. The reference is
+   * added in a transaction of its own; the caller must {@link #release} it
+   * if it ends up not being used.
+   *
+   * @param hash the value of {@link #hash} for content
+   * @param content the content
+   * @return the GCS file name (sans bucket) holding the content
+   */
+  String acquire(String hash, byte[] content) throws IOException {
+    String gcsName = addReference(hash);
+    if (gcsName != null) {
+      return gcsName;           // Already stored, nothing to write
+    }
+    String newName = write(hash, content);
+    for (int tries = 0; tries < MAX_RETRIES; tries++) {
+      Objectify datastore = ObjectifyService.beginTransaction();
+      try {
+        String result = reference(datastore, hash, newName);
+        datastore.getTxn().commit();
+        if (!result.equals(newName)) {
+          discard(newName);     // Someone else stored it meanwhile, we use theirs
+        }
+        return result;
+      } catch (ConcurrentModificationException e) {
+        LOG.log(Level.INFO, "Retrying reference to shared content " + hash, e);
+      } finally {
+        rollbackIfActive(datastore);
+      }
+    }
+    discard(newName);
+    throw new IOException("Unable to store shared content " + hash);
+  }
+
+  /**
+   * Adds a reference to content that is already stored, in a transaction of
+   * its own.
+   *
+   * @param hash the hash of the content
+   * @return the GCS name of the content, or null if it is not stored (or
+   *     is being collected), in which case no reference was added
+   */
+  String addReference(final String hash) throws IOException {
+    for (int tries = 0; tries < MAX_RETRIES; tries++) {
+      Objectify datastore = ObjectifyService.beginTransaction();
+      try {
+        String gcsName = reference(datastore, hash, null);
+        datastore.getTxn().commit();
+        return gcsName;
+      } catch (ConcurrentModificationException e) {
+        LOG.log(Level.INFO, "Retrying reference to shared content " + hash, e);
+      } finally {
+        rollbackIfActive(datastore);
+      }
+    }
+    throw new IOException("Unable to reference shared content " + hash);
+  }
+
+  /**
+   * Drops a reference to the given content, in a transaction of its own.
+   * The content itself is deleted later by {@link #collectGarbage}. Failures
+   * are logged, not thrown: the worst outcome is content that is never
+   * collected.
+   *
+   * @param hash the hash of the content
+   */
+  void release(String hash) {
+    for (int tries = 0; tries < MAX_RETRIES; tries++) {
+      Objectify datastore = ObjectifyService.beginTransaction();
+      try {
+        dereference(datastore, hash);
+        datastore.getTxn().commit();
+        return;
+      } catch (ConcurrentModificationException e) {
+        LOG.log(Level.INFO, "Retrying release of shared content " + hash, e);
+      } finally {
+        rollbackIfActive(datastore);
+      }
+    }
+    LOG.warning("Unable to release shared content " + hash);
+  }
+
+  /**
+   * Returns whether the given content is stored and can be referenced. This
+   * is only a hint, {@link #reference} has the final say.
+   */
+  boolean isStored(String hash) {
+    SharedContentData data = ObjectifyService.begin().find(contentKey(hash));
+    return data != null && !data.collecting;
+  }
+
+  /**
+   * Writes content to a new GCS object that no entity refers to yet. Pass
+   * the name to {@link #reference}, and {@link #discard} it if it ends up
+   * unused.
+   *
+   * @param hash the value of {@link #hash} for content
+   * @param content the content
+   * @return the GCS file name (sans bucket) of the new object
+   */
+  String write(String hash, byte[] content) throws IOException {
+    String newName = GCS_PREFIX + hash + "/" + System.currentTimeMillis();
+    GcsOutputChannel outputChannel = gcsService.createOrReplace(
+        new GcsFilename(bucketName, newName), GcsFileOptions.getDefaultInstance());
+    outputChannel.write(ByteBuffer.wrap(content));
+    outputChannel.close();
+    return newName;
+  }
+
+  /**
+   * Adds a reference to the given content as part of the caller's
+   * transaction, so that the count changes if and only if the caller's own
+   * changes commit.
+   *
+   * @param datastore the caller's transaction
+   * @param hash the hash of the content
+   * @param newName the name returned by {@link #write} if the caller has
+   *     written the content, or null
+   * @return the GCS name of the content, which is {@code newName} if the
+   *     content was not stored before, or null if it is not stored and
+   *     {@code newName} is null
+   */
+  String reference(Objectify datastore, String hash, String newName) {
+    SharedContentData data = datastore.find(contentKey(hash));
+    if (data != null && !data.collecting) {
+      data.refCount++;
+      data.zeroSince = 0;
+    } else if (newName != null) {
+      // Replaces an entity being collected, whose object is about to go
+      data = new SharedContentData();
+      data.hash = hash;
+      data.gcsName = newName;
+      data.refCount = 1;
+    } else {
+      return null;
+    }
+    datastore.put(data);
+    return data.gcsName;
+  }
+
+  /**
+   * Drops a reference to the given content as part of the caller's
+   * transaction.
+   *
+   * @param datastore the caller's transaction
+   * @param hash the hash of the content
+   */
+  void dereference(Objectify datastore, String hash) {
+    SharedContentData data = datastore.find(contentKey(hash));
+    if (data == null || data.refCount <= 0) {
+      LOG.warning("Release of unreferenced shared content " + hash);
+      return;
+    }
+    data.refCount--;
+    if (data.refCount == 0) {
+      data.zeroSince = System.currentTimeMillis();
+    }
+    datastore.put(data);
+  }
+
+  /**
+   * Deletes an object written by {@link #write} that no entity refers to.
+   */
+  void discard(String newName) {
+    deleteObject(newName);
+  }
+
+  /**
+   * Deletes up to {@link #COLLECT_LIMIT} pieces of content that have been
+   * unreferenced for longer than the grace period. Like cleanupNonces this
+   * is called opportunistically, and anything left over is picked up by a
+   * later call.
+   */
+  void collectGarbage() {
+    long cutoff = System.currentTimeMillis() - GRACE_PERIOD_MILLIS;
+    try {
+      Objectify datastore = ObjectifyService.begin();
+      for (Key<SharedContentData> key : datastore.query(SharedContentData.class)
+             .filter("zeroSince >", 0).filter("zeroSince <", cutoff)
+             .limit(COLLECT_LIMIT).fetchKeys()) {
+        collect(key, cutoff);
+      }
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Exception while collecting shared content", e);
+    }
+  }
+
+  private void collect(Key<SharedContentData> key, long cutoff) {
+    // Mark it first so that nobody adds a reference to the object we delete
+    String gcsName = null;
+    Objectify datastore = ObjectifyService.beginTransaction();
+    try {
+      SharedContentData data = datastore.find(key);
+      if (data != null && data.refCount == 0 && data.zeroSince > 0 && data.zeroSince < cutoff) {
+        data.collecting = true;
+        datastore.put(data);
+        datastore.getTxn().commit();
+        gcsName = data.gcsName;
+      }
+    } catch (ConcurrentModificationException e) {
+      return;                   // Try again next time
+    } finally {
+      rollbackIfActive(datastore);
+    }
+    if (gcsName == null) {
+      return;
+    }
+    deleteObject(gcsName);
+    datastore = ObjectifyService.beginTransaction();
+    try {
+      SharedContentData data = datastore.find(key);
+      // acquire may have replaced the entity with new content meanwhile
+      if (data != null && data.collecting && gcsName.equals(data.gcsName)) {
+        datastore.delete(key);
+        datastore.getTxn().commit();
+      }
+    } catch (ConcurrentModificationException e) {
+      // Left marked as collecting, acquire will replace it
+    } finally {
+      rollbackIfActive(datastore);
+    }
+  }
+
+  private void deleteObject(String gcsName) {
+    try {
+      gcsService.delete(new GcsFilename(bucketName, gcsName));
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to delete shared content " + gcsName + " from GCS", e);
+    }
+  }
+
+  private static void rollbackIfActive(Objectify datastore) {
+    if (datastore.getTxn().isActive()) {
+      try {
+        datastore.getTxn().rollback();
+      } catch (RuntimeException e) {
+        LOG.log(Level.WARNING, "Transaction rollback failed", e);
+      }
+    }
+  }
+
+  private static Key<SharedContentData> contentKey(String hash) {
+    return new Key<SharedContentData>(SharedContentData.class, hash);
+  }
+}
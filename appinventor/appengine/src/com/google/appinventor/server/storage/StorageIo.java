@@ -19,9 +19,12 @@ import com.google.appinventor.shared.rpc.user.SplashConfig;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -176,6 +179,25 @@ public interface StorageIo {
    */
   long createProject(String userId, Project project, String projectSettings);
 
+  /**
+   * Creates a new project with the files of the given project and copies of
+   * files of another project. Copied files whose content is shared refer to
+   * the stored content instead of copying it.
+   *
+   * <p>
+   * This is an atomic operation.
+   *
+   * @param userId user id, who must own the project copied from
+   * @param project project information
+   * @param projectSettings project settings
+   * @param fromProjectId  project ID to copy files from
+   * @param copiedFiles  file ID in the project copied from to file ID in
+   *                     the new project
+   * @return project id
+   */
+  long createProject(String userId, Project project, String projectSettings,
+      long fromProjectId, Map<String, String> copiedFiles);
+
   /**
    * Deletes a project and all its files.
    *
@@ -489,6 +511,19 @@ public interface StorageIo {
    */
   long uploadRawFileForce(long projectId, String fileId, String userId, byte[] content);
 
+  /**
+   * Uploads a file from a stream. Files that are kept in GCS, such as build
+   * output, are copied there chunk by chunk without holding the whole file
+   * in memory. The stream is not closed.
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param userId the user who owns the file
+   * @param content  file content
+   * @return modification date for project
+   */
+  long uploadRawFileStream(long projectId, String fileId, String userId, InputStream content)
+      throws IOException;
+
   /**
    * Deletes a file.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -509,6 +544,19 @@ public interface StorageIo {
    */
   String downloadFile(String userId, long projectId, String fileId, String encoding);
 
+  /**
+   * Downloads several text files of a project at once, using a single
+   * datastore lookup for all of them.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileIds  file IDs
+   * @param encoding  encoding of text files
+   *
+   * @return  text file contents by file ID, in the order of {@code fileIds}
+   */
+  Map<String, String> downloadFiles(String userId, long projectId, List<String> fileIds,
+      String encoding);
+
   /**
    * Records a "corruption" record so we can analyze if corruption is
    * happening.
@@ -530,6 +578,30 @@ public interface StorageIo {
    */
   byte[] downloadRawFile(String userId, long projectId, String fileId);
 
+  /**
+   * Returns the length of a raw file without reading its content, where the
+   * storage allows.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileId  file ID
+   *
+   * @return  file length in bytes
+   */
+  long getRawFileLength(String userId, long projectId, String fileId);
+
+  /**
+   * Copies part of a raw file to a stream. Files kept in GCS are read chunk
+   * by chunk.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param offset  first byte to copy
+   * @param length  number of bytes to copy
+   * @param out  stream to copy to, which is not closed
+   */
+  void downloadRawFile(String userId, long projectId, String fileId, long offset, long length,
+      OutputStream out) throws IOException;
+
   /**
    * Creates a temporary file with the given content and returns
    * its file name, which will always begin with __TEMP__
@@ -590,6 +662,28 @@ public interface StorageIo {
     final boolean forGallery,
     final boolean fatalError) throws IOException;
 
+  /**
+   *  Writes the project files the build server needs as a zip archive,
+   *  streaming it to destination rather than building it in memory.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param cachedContent  content hashes the build server already has; files
+   *        with these hashes are listed by hash instead of being written
+   * @param destination  where to write the zip archive, left open
+   */
+  void exportProjectSourceZip(String userId, long projectId, Set<String> cachedContent,
+      OutputStream destination) throws IOException;
+
+  /**
+   * Returns the content hashes of the project's files that are stored as
+   * shared content, keyed by file name.
+   *
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @return  map from file name to content hash
+   */
+  Map<String, String> getProjectContentHashes(String userId, long projectId);
+
   /**
    * Find a user's id given their email address. Note that this query is case
    * sensitive!
@@ -656,4 +750,7 @@ public interface StorageIo {
   List<AdminUser> searchUsers(String partialEmail);
   void storeUser(AdminUser user) throws AdminInterfaceException;
 
+  // Hit and miss counts of the project metadata cache on this instance
+  String getProjectCacheStatistics();
+
 }
@@ -66,9 +66,11 @@ public class StoredData {
 
   // Project properties
   // The ProjectData class is an entity root, and the parent of FileData
+  // Note: ProjectData has to be Serializable so we can put it into
+  //       memcache (see ProjectCache).
   @Cached
   @Unindexed
-  static final class ProjectData {
+  static final class ProjectData implements Serializable {
     // Auto-generated unique project id
     @Id Long id;
 
@@ -197,6 +199,11 @@ public class StoredData {
     String userId;              // The userId which owns this file
                                 // if null or the empty string, we haven't initialized
                                 // it yet
+
+    // If set, gcsName names a shared, content addressed GCS object with
+    // this SHA-256 hash (see SharedContentStore) rather than a per project
+    // copy. The object must never be written or deleted through this file.
+    String contentHash;
   }
 
   // MOTD data.
@@ -260,6 +267,20 @@ public class StoredData {
     public Date timestamp;
   }
 
+  // SharedContentData -- One piece of content stored once in GCS and
+  // shared by every FileData with the same contentHash. refCount counts
+  // those FileData objects. Content whose refCount has stayed at zero for
+  // a while is collected by SharedContentStore.
+
+  @Unindexed
+  static final class SharedContentData {
+    @Id String hash;            // SHA-256 of the content, in hex
+    String gcsName;             // GCS file name (sans bucket)
+    long refCount;
+    @Indexed long zeroSince;    // When refCount dropped to zero, 0 while in use
+    boolean collecting;         // Being deleted, do not add references
+  }
+
   @Unindexed
   static final class CorruptionRecord {
     @Id Long id;
@@ -39,4 +39,11 @@ public interface AdminInfoService extends RemoteService {
 
   void switchUser(AdminUser user) throws AdminInterfaceException;
 
+  /*
+   * Returns a summary of the storage cache statistics of the
+   * server instance handling the request
+   */
+
+  String getCacheStatistics();
+
 }
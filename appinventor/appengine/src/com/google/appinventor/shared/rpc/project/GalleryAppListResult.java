@@ -20,6 +20,7 @@ public class GalleryAppListResult implements IsSerializable{
   List<GalleryApp> apps;    //sliced results
   int totalCount;           //total number of all suitable results
   String keyword;           //search keyword, only for searching
+  String cursor;            //cursor for the next page, null if this is the last page
   /**
    * default constructor
    */
@@ -48,6 +49,22 @@ public class GalleryAppListResult implements IsSerializable{
     this.keyword = keyword;
   }
 
+  /**
+   * constructor based on given parameters
+   * @param apps list of GalleryApp
+   * @param totalCount total num of results
+   * @param keyword the search keyword
+   * @param cursor opaque cursor for fetching the next page, or null if
+   *               there are no more results
+   */
+  public GalleryAppListResult(List<GalleryApp> apps, int totalCount, String keyword,
+      String cursor){
+    this.apps = apps;
+    this.totalCount = totalCount;
+    this.keyword = keyword;
+    this.cursor = cursor;
+  }
+
   /**
    * setApps based on given list of apps
    * @param apps list of GalleryApp
@@ -72,6 +89,14 @@ public class GalleryAppListResult implements IsSerializable{
     this.keyword = keyword;
   }
 
+  /**
+   * setCursor based on given cursor
+   * @param cursor cursor for the next page
+   */
+  public void setCursor(String cursor){
+    this.cursor = cursor;
+  }
+
   /**
    * @return apps list of GalleryApp
    */
@@ -92,4 +117,11 @@ public class GalleryAppListResult implements IsSerializable{
   public String getKeyword(){
     return keyword;
   }
+
+  /**
+   * @return cursor for fetching the next page, or null if there are no more results
+   */
+  public String getCursor(){
+    return cursor;
+  }
 }
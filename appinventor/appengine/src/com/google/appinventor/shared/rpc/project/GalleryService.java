@@ -79,29 +79,29 @@ public interface GalleryService extends RemoteService {
   /**
    * Returns a wrapped class which contains list of most recently
    * updated galleryApps and total number of results in database
-   * @param start starting index
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps to return
    * @return list of GalleryApps
    */
-  GalleryAppListResult getRecentApps(int start, int count);
+  GalleryAppListResult getRecentApps(String cursor, int count);
 
   /**
    * Returns a wrapped class which contains a list of most downloaded
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps to return
    * @return list of GalleryApps
    */
-  GalleryAppListResult getMostDownloadedApps(int start, int count);
+  GalleryAppListResult getMostDownloadedApps(String cursor, int count);
 
   /**
    * Returns a wrapped class which contains a list of most liked
    * gallery apps and total number of results in database
-   * @param start starting index
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps to return
    * @return list of GalleryApps
    */
-  GalleryAppListResult getMostLikedApps(int start, int count);
+  GalleryAppListResult getMostLikedApps(String cursor, int count);
 
   /**
    * Returns a wrapped class which contains a list of featured gallery app
@@ -151,11 +151,11 @@ public interface GalleryService extends RemoteService {
    * Returns a wrapped class which contains a list of galleryApps
    * by a particular developer and total number of results in database
    * @param userId id of the developer
-   * @param start starting index
+   * @param cursor cursor returned with the previous page, or null for the first page
    * @param count number of apps to return
    * @return list of GalleryApps
    */
-  GalleryAppListResult getDeveloperApps(String userId, int start, int count);
+  GalleryAppListResult getDeveloperApps(String userId, String cursor, int count);
 
   /**
    * Returns a wrapped class which contains a list of galleryApps and
@@ -65,9 +65,9 @@ public interface GalleryServiceAsync {
    */
   void getNumApps(AsyncCallback<Integer> callback);
   /**
-   * @see @link{@link GalleryService#getRecentApps(int, int)
+   * @see @link{@link GalleryService#getRecentApps(String, int)
    */
-  void getRecentApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getRecentApps(String cursor, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
    * @see @link{@link GalleryService#getFeaturedApp(int, int)
@@ -100,19 +100,19 @@ public interface GalleryServiceAsync {
   void markAppAsTutorial(long galleryId, AsyncCallback<Boolean> callback);
 
   /**
-   * @see @link{@link GalleryService#getMostDownloadedApps(int, int)
+   * @see @link{@link GalleryService#getMostDownloadedApps(String, int)
    */
-  void getMostDownloadedApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getMostDownloadedApps(String cursor, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
-  * @see @link{@link GalleryService#getMostLikedApps(int, int)
+  * @see @link{@link GalleryService#getMostLikedApps(String, int)
   */
- void getMostLikedApps(int start, int count, AsyncCallback<GalleryAppListResult> callback);
+ void getMostLikedApps(String cursor, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
-   * @see @link{@link GalleryService#getDeveloperApps(String, int, int)
+   * @see @link{@link GalleryService#getDeveloperApps(String, String, int)
    */
-  void getDeveloperApps(String userId, int start, int count, AsyncCallback<GalleryAppListResult> callback);
+  void getDeveloperApps(String userId, String cursor, int count, AsyncCallback<GalleryAppListResult> callback);
 
   /**
    * @see @link{@link GalleryService#findApps(String, int, int)
@@ -181,6 +181,19 @@ public interface ProjectService extends RemoteService {
    */
   ChecksumedLoadFile load2(long projectId, String fileId) throws ChecksumedFileException;
 
+  /**
+   * Loads several source files of a project in a single request. This is
+   * used to fetch all of the screens of a project when it is opened, instead
+   * of issuing one {@link #load2(long, String)} call per file.
+   *
+   * @param projectId  project ID
+   * @param fileIds  project nodes whose source should be loaded
+   *
+   * @return  checksummed file objects, in the same order as {@code fileIds}
+   */
+  List<ChecksumedLoadFile> loadFiles(long projectId, List<String> fileIds)
+      throws ChecksumedFileException;
+
   /**
    * Attempt to record the project Id and error message when we detect a corruption
    * while loading a project.
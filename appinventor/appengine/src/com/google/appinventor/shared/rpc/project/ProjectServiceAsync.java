@@ -106,6 +106,12 @@ public interface ProjectServiceAsync {
    */
   void load2(long projectId, String fileId, AsyncCallback<ChecksumedLoadFile> callback);
 
+  /**
+   * @see ProjectService#loadFiles(long, List)
+   */
+  void loadFiles(long projectId, List<String> fileIds,
+      AsyncCallback<List<ChecksumedLoadFile>> callback);
+
   /**
    * @see ProjectService#recordCorruption(long, String, String)
    */
@@ -0,0 +1,64 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import com.google.appinventor.server.cookieauth.CookieAuth;
+import com.google.appinventor.shared.rpc.user.User;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link AuthCache}.
+ *
+ */
+public class AuthCacheTest extends TestCase {
+  private final AuthCache cache = AuthCache.getInstance();
+
+  private static User makeUser(String id, boolean tosAccepted) {
+    return new User(id, id + "@example.com", "Name", null, 0, tosAccepted, false, 0, "session");
+  }
+
+  public void testCookieIsCachedByValue() {
+    CookieAuth.cookie cookie = CookieAuth.cookie.newBuilder()
+        .setUuid("cookie-user").setTs(1).setIsAdmin(false).setIsReadOnly(false).build();
+    assertNull(cache.getCookie("raw-cookie"));
+    cache.putCookie("raw-cookie", cookie);
+    assertSame(cookie, cache.getCookie("raw-cookie"));
+    assertNull(cache.getCookie("other-cookie"));
+  }
+
+  public void testUserIsCopied() {
+    cache.putUser(makeUser("copied", true));
+    User first = cache.getUser("copied");
+    first.setIsAdmin(true);
+    first.setReadOnly(true);
+    User second = cache.getUser("copied");
+    assertFalse(second.getIsAdmin());
+    assertFalse(second.isReadOnly());
+    assertEquals("session", second.getSessionId());
+  }
+
+  public void testUserWithoutTosIsNotCached() {
+    cache.putUser(makeUser("notos", false));
+    assertNull(cache.getUser("notos"));
+  }
+
+  public void testWhitelistFollowsEmail() {
+    cache.putUser(makeUser("listed", true));
+    assertNull(cache.getWhitelisted("listed", "listed@example.com"));
+    cache.putWhitelisted("listed", "listed@example.com", true);
+    assertEquals(Boolean.TRUE, cache.getWhitelisted("listed", "listed@example.com"));
+    assertNull(cache.getWhitelisted("listed", "someone@example.com"));
+  }
+
+  public void testInvalidateUser() {
+    cache.putUser(makeUser("changed", true));
+    cache.putWhitelisted("changed", "changed@example.com", true);
+    cache.invalidateUser("changed");
+    assertNull(cache.getUser("changed"));
+    assertNull(cache.getWhitelisted("changed", "changed@example.com"));
+  }
+}
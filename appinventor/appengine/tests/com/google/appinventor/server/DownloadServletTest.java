@@ -18,9 +18,12 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import static org.easymock.EasyMock.expect;
 
@@ -241,6 +244,19 @@ public class DownloadServletTest {
     PowerMock.verifyAll();
     }
 
+  @Test
+  public void testParseRange() {
+    assertNull(DownloadServlet.parseRange(null, 100));
+    assertNull(DownloadServlet.parseRange("bytes=0-1,5-6", 100));
+    assertNull(DownloadServlet.parseRange("bytes=x-1", 100));
+    assertTrue(Arrays.equals(new long[] { 10, 19 }, DownloadServlet.parseRange("bytes=10-19", 100)));
+    assertTrue(Arrays.equals(new long[] { 10, 99 }, DownloadServlet.parseRange("bytes=10-", 100)));
+    assertTrue(Arrays.equals(new long[] { 10, 99 }, DownloadServlet.parseRange("bytes=10-500", 100)));
+    assertTrue(Arrays.equals(new long[] { 90, 99 }, DownloadServlet.parseRange("bytes=-10", 100)));
+    assertEquals(0, DownloadServlet.parseRange("bytes=100-", 100).length);
+    assertEquals(0, DownloadServlet.parseRange("bytes=20-10", 100).length);
+  }
+
   // TODO(user): Add testDownloadAllProjectsSource* to test
   // downloading all projects.
 }
@@ -0,0 +1,46 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link LocalGalleryIndex}.
+ *
+ */
+public class LocalGalleryIndexTest extends TestCase {
+  private final LocalGalleryIndex index = new LocalGalleryIndex();
+
+  @Override
+  protected void setUp() {
+    index.put(1, "Hello Purr: pet the kitty");
+    index.put(2, "PaintPot, paint on a kitty picture");
+    index.put(3, "Mole Mash");
+  }
+
+  public void testAllWordsMustMatch() {
+    assertEquals(Arrays.asList(2L, 1L), index.search("kitty"));
+    assertEquals(Arrays.asList(2L), index.search("Kitty PAINT"));
+    assertEquals(Collections.emptyList(), index.search("kitty mole"));
+    assertEquals(Collections.emptyList(), index.search("  "));
+  }
+
+  public void testPutReplacesDocument() {
+    index.put(3, "Whack a kitty");
+    assertEquals(Arrays.asList(3L, 2L, 1L), index.search("kitty"));
+    assertEquals(Collections.emptyList(), index.search("mole"));
+  }
+
+  public void testRemove() {
+    index.remove(1);
+    index.remove(42);
+    assertEquals(Arrays.asList(2L), index.search("kitty"));
+    assertEquals(Collections.emptyList(), index.search("purr"));
+  }
+}
@@ -16,6 +16,7 @@ import com.google.appinventor.server.encryption.KeyczarEncryptor;
 import com.google.appinventor.server.storage.StorageIo;
 import com.google.appinventor.server.storage.StorageIoInstanceHolder;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
+import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.FileDescriptorWithContent;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
@@ -44,6 +45,7 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -293,6 +295,30 @@ public class ProjectServiceTest {
     PowerMock.verifyAll();
   }
 
+  @Test
+  public void testLoadFiles() throws Exception {
+    expect(localUserMock.getUserId()).andReturn(USER_ID_ONE).anyTimes();
+    PowerMock.replayAll();
+    do_init();
+
+    NewYoungAndroidProjectParameters params = new NewYoungAndroidProjectParameters(
+        PACKAGE_BASE + PROJECT1_NAME);
+    long yaProject =
+        projectServiceImpl.newProject(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+                                      PROJECT1_NAME, params).getProjectId();
+
+    // A file asked for twice is returned in both places
+    String properties = "youngandroidproject/project.properties";
+    String blocks = "src/com/domain/noname/Project1/Screen1.bky";
+    List<ChecksumedLoadFile> files = projectServiceImpl.loadFiles(yaProject,
+        Arrays.asList(properties, blocks, properties));
+    assertEquals(3, files.size());
+    assertEquals(files.get(0).getContent(), files.get(2).getContent());
+    assertTrue(files.get(0).getContent().startsWith("main=com.domain.noname.Project1.Screen1"));
+    assertEquals("", files.get(1).getContent());
+    PowerMock.verifyAll();
+  }
+
   @Test
   public void testCopyProject() throws Exception {
     // Since only USER_ID_ONE is used in this test, we don't care how
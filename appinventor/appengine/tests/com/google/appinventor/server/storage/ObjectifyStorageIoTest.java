@@ -7,6 +7,7 @@
 package com.google.appinventor.server.storage;
 
 import com.google.appengine.api.blobstore.BlobKey;
+import com.google.appinventor.server.FileExporter;
 import com.google.appinventor.server.LocalDatastoreTestCase;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
@@ -20,8 +21,11 @@ import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
 
 import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -29,8 +33,14 @@ import java.io.UnsupportedEncodingException;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.json.JSONObject;
 
@@ -325,6 +335,33 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertFalse(storage.getProjectOutputFiles(USER_ID, projectId).contains(FILE_NAME_OUTPUT));
   }
 
+  public void testDownloadFiles() throws BlocksTruncatedException {
+    final String USER_ID = "1210";
+    final String USER_EMAIL = "newuser1210@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, FILE_NAME1, FILE_NAME2);
+    storage.uploadFile(projectId, FILE_NAME2, USER_ID, FILE_CONTENT2, StorageUtil.DEFAULT_CHARSET);
+    storage.uploadFile(projectId, FILE_NAME1, USER_ID, FILE_CONTENT1, StorageUtil.DEFAULT_CHARSET);
+    // Read one file first so that the other is not in memcache
+    storage.downloadFile(USER_ID, projectId, FILE_NAME2, StorageUtil.DEFAULT_CHARSET);
+
+    Map<String, String> contents = storage.downloadFiles(USER_ID, projectId,
+        Arrays.asList(FILE_NAME2, FILE_NAME1), StorageUtil.DEFAULT_CHARSET);
+    assertEquals(Arrays.asList(FILE_NAME2, FILE_NAME1),
+        new ArrayList<String>(contents.keySet()));
+    assertEquals(FILE_CONTENT1, contents.get(FILE_NAME1));
+    assertEquals(FILE_CONTENT2, contents.get(FILE_NAME2));
+
+    try {
+      storage.downloadFiles(USER_ID, projectId, Arrays.asList(FILE_NAME1, "nonexistent"),
+          StorageUtil.DEFAULT_CHARSET);
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof FileNotFoundException);
+    }
+  }
+
   public void testAddRemoveUserFile() {
     // Note that neither FILE_NAME1 nor FILE_NAME_OUTPUT should exist
     // at the start of this test
@@ -438,6 +475,116 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     // TODO(sharon): should test large blob files (e.g., >2MB (chunk size), >4MB (row size));
   }
 
+  public void testStreamedOutputFile() throws IOException {
+    final String USER_ID = "1310";
+    final String USER_EMAIL = "newuser1310@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(
+        USER_ID, PROJECT_NAME, YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    // Spans several chunks
+    byte[] apk = new byte[3 * 1024 * 1024 + 7];
+    for (int i = 0; i < apk.length; i++) {
+      apk[i] = (byte) i;
+    }
+    storage.addOutputFilesToProject(USER_ID, projectId, APK_FILE_NAME1);
+    storage.uploadRawFileStream(projectId, APK_FILE_NAME1, USER_ID,
+        new ByteArrayInputStream(apk));
+
+    assertTrue(storage.isGcsFile(projectId, APK_FILE_NAME1));
+    assertEquals(apk.length, storage.getRawFileLength(USER_ID, projectId, APK_FILE_NAME1));
+    assertTrue(Arrays.equals(apk, storage.downloadRawFile(USER_ID, projectId, APK_FILE_NAME1)));
+    ByteArrayOutputStream range = new ByteArrayOutputStream();
+    storage.downloadRawFile(USER_ID, projectId, APK_FILE_NAME1, 1024 * 1024 - 5, 10, range);
+    assertTrue(Arrays.equals(Arrays.copyOfRange(apk, 1024 * 1024 - 5, 1024 * 1024 + 5),
+        range.toByteArray()));
+  }
+
+  public void testSharedAssetContent() throws BlocksTruncatedException {
+    final String USER_ID = "1305";
+    final String USER_EMAIL = "newuser1305@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId1 = createProject(
+        USER_ID, PROJECT_NAME, YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId1, false, ASSET_FILE_NAME1, BLOCK_FILE_NAME);
+    storage.uploadRawFile(projectId1, ASSET_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    storage.uploadRawFile(projectId1, BLOCK_FILE_NAME, USER_ID, true, BLOCK_FILE_CONTENT);
+    Project project = new Project(PROJECT_NAME + "Copy");
+    project.setProjectType(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE);
+    project.addTextFile(new TextFile(FORM_QUALIFIED_NAME, ""));
+    Map<String, String> copiedFiles = new HashMap<String, String>();
+    copiedFiles.put(ASSET_FILE_NAME1, RAW_FILE_NAME1);
+    copiedFiles.put(BLOCK_FILE_NAME, FILE_NAME2);
+    long projectId2 = storage.createProject(USER_ID, project, SETTINGS, projectId1, copiedFiles);
+    List<String> files = storage.getProjectSourceFiles(USER_ID, projectId2);
+    assertTrue(files.contains(RAW_FILE_NAME1));
+    assertTrue(files.contains(FILE_NAME2));
+
+    // Only the asset refers to the stored content, the other file is copied
+    assertEquals(storage.getProjectContentHashes(USER_ID, projectId1).get(ASSET_FILE_NAME1),
+        storage.getProjectContentHashes(USER_ID, projectId2).get(RAW_FILE_NAME1));
+    assertFalse(storage.getProjectContentHashes(USER_ID, projectId2).containsKey(FILE_NAME2));
+    assertTrue(Arrays.equals(BLOCK_FILE_CONTENT,
+        storage.downloadRawFile(USER_ID, projectId2, FILE_NAME2)));
+
+    // Changing the copy must not change the original
+    storage.uploadRawFile(projectId2, RAW_FILE_NAME1, USER_ID, true, RAW_FILE_CONTENT3);
+    assertTrue(Arrays.equals(ASSET_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, projectId1, ASSET_FILE_NAME1)));
+    assertTrue(Arrays.equals(RAW_FILE_CONTENT3,
+        storage.downloadRawFile(USER_ID, projectId2, RAW_FILE_NAME1)));
+
+    // Nor does deleting the original remove the content from the copy
+    storage.uploadRawFile(projectId2, RAW_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    storage.deleteProject(USER_ID, projectId1);
+    assertTrue(Arrays.equals(ASSET_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, projectId2, RAW_FILE_NAME1)));
+
+    // Uploading the same content again leaves it readable
+    storage.uploadRawFile(projectId2, RAW_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    assertTrue(Arrays.equals(ASSET_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, projectId2, RAW_FILE_NAME1)));
+  }
+
+  public void testExportWithCachedContent() throws Exception {
+    final String USER_ID = "1306";
+    final String USER_EMAIL = "newuser1306@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(
+        USER_ID, PROJECT_NAME, YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, ASSET_FILE_NAME1);
+    storage.uploadRawFile(projectId, ASSET_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+    Map<String, String> hashes = storage.getProjectContentHashes(USER_ID, projectId);
+    assertEquals(1, hashes.size());
+    String hash = hashes.get(ASSET_FILE_NAME1);
+
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    storage.exportProjectSourceZip(USER_ID, projectId, new HashSet<String>(hashes.values()), zip);
+    Map<String, String> entries = new HashMap<String, String>();
+    ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()));
+    ZipEntry entry;
+    while ((entry = zis.getNextEntry()) != null) {
+      entries.put(entry.getName(), new String(ByteStreams.toByteArray(zis), Charsets.UTF_8));
+    }
+    assertFalse(entries.containsKey(ASSET_FILE_NAME1));
+    assertEquals(hash + " " + ASSET_FILE_NAME1 + "\n",
+        entries.get(FileExporter.CONTENT_MANIFEST_FILE_PATH));
+
+    zip = new ByteArrayOutputStream();
+    storage.exportProjectSourceZip(USER_ID, projectId, Collections.<String>emptySet(), zip);
+    zis = new ZipInputStream(new ByteArrayInputStream(zip.toByteArray()));
+    boolean foundAsset = false;
+    while ((entry = zis.getNextEntry()) != null) {
+      assertFalse(entry.getName().equals(FileExporter.CONTENT_MANIFEST_FILE_PATH));
+      if (entry.getName().equals(ASSET_FILE_NAME1)) {
+        foundAsset = Arrays.equals(ASSET_FILE_CONTENT1, ByteStreams.toByteArray(zis));
+      }
+    }
+    assertTrue(foundAsset);
+  }
+
   public void testOldBlockFilesInDatastoreStillWork() throws BlocksTruncatedException {
     // Create new storage object that forces storage in the datastore
     ObjectifyStorageIo oldStyleStorage = new ObjectifyStorageIo() {
@@ -487,6 +634,32 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     assertNull(result);
   }
 
+  public void testProjectCacheSeesChanges() {
+    final String USER_ID = "1550";
+    final String USER_EMAIL = "newuser1550@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    // Read everything once so that it is cached
+    assertEquals(PROJECT_NAME, storage.getProjectName(USER_ID, projectId));
+    assertEquals(UserProject.NOTPUBLISHED, storage.getProjectGalleryId(USER_ID, projectId));
+    assertEquals(1, storage.getProjects(USER_ID).size());
+
+    storage.storeProjectSettings(USER_ID, projectId, "new settings");
+    assertEquals("new settings", storage.loadProjectSettings(USER_ID, projectId));
+    storage.setProjectGalleryId(USER_ID, projectId, 42);
+    assertEquals(42, storage.getProjectGalleryId(USER_ID, projectId));
+
+    long secondProjectId = createProject(USER_ID, PROJECT_NAME + "2", FAKE_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    assertEquals(2, storage.getProjects(USER_ID).size());
+    assertEquals(2, storage.getUserProjects(USER_ID, storage.getProjects(USER_ID)).size());
+
+    storage.deleteProject(USER_ID, projectId);
+    assertEquals(1, storage.getProjects(USER_ID).size());
+    assertEquals("", storage.getProjectName(USER_ID, projectId));
+    assertEquals(PROJECT_NAME + "2", storage.getProjectName(USER_ID, secondProjectId));
+  }
+
   public void testWrongUserThrowsException() throws Exception {
     final String USER_ID = "1600";
     final String USER_EMAIL = "newuser1600@test.com";
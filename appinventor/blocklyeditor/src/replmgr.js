@@ -93,6 +93,7 @@ Blockly.ReplMgr.buildYail = function(workspace) {
     var blocks;
     var block;
     var needinitialize = false;
+    var addedComponents = [];
     if (!top.ReplState.phoneState) { // If there is no phone state, make some!
         top.ReplState.phoneState = {};
     }
@@ -103,6 +104,7 @@ Blockly.ReplMgr.buildYail = function(workspace) {
         phoneState.initialized = true;
         phoneState.blockYail = {};
         phoneState.componentYail = "";
+        phoneState.componentSnapshot = null;
     }
 
     var nameConverter;
@@ -147,15 +149,39 @@ Blockly.ReplMgr.buildYail = function(workspace) {
         code = code.join('\n');
 
         if (phoneState.componentYail != code) {
-            // We need to send all of the component cruft (sorry)
-            needinitialize = true;
-            phoneState.blockYail = {}; // Sorry, have to send the blocks again.
-            this.putYail(Blockly.Yail.YAIL_CLEAR_FORM);
-            // Tell the Companion the current form name
-            this.putYail(Blockly.Yail.YAIL_SET_FORM_NAME_BEGIN + formName + Blockly.Yail.YAIL_SET_FORM_NAME_END);
-            this.putYail(code);
-            this.putYail(Blockly.Yail.YAIL_INIT_RUNTIME);
+            var snapshot = this.snapshotComponents(jsonObject);
+            var delta = null;
+            if (phoneState.componentSnapshot) {
+                delta = this.componentDelta(phoneState.componentSnapshot, snapshot, formName,
+                                            nameConverter, workspace.getComponentDatabase());
+            }
+            if (delta) {
+                // Only some properties changed, or components were added at the end of
+                // their containers, so the Companion can keep its components and blocks.
+                var context = this;
+                var deltaFailed = function() {
+                    // The Companion's components no longer match what we think it has,
+                    // so send the whole form again.
+                    phoneState.componentYail = null;
+                    phoneState.componentSnapshot = null;
+                    context.sendFormData(phoneState.formJson, phoneState.packageName, workspace);
+                };
+                for (var i = 0; i < delta.code.length; i++) {
+                    this.putYail(delta.code[i], null, null, deltaFailed);
+                }
+                addedComponents = delta.added;
+            } else {
+                // We need to send all of the component cruft (sorry)
+                needinitialize = true;
+                phoneState.blockYail = {}; // Sorry, have to send the blocks again.
+                this.putYail(Blockly.Yail.YAIL_CLEAR_FORM);
+                // Tell the Companion the current form name
+                this.putYail(Blockly.Yail.YAIL_SET_FORM_NAME_BEGIN + formName + Blockly.Yail.YAIL_SET_FORM_NAME_END);
+                this.putYail(code);
+                this.putYail(Blockly.Yail.YAIL_INIT_RUNTIME);
+            }
             phoneState.componentYail = code;
+            phoneState.componentSnapshot = snapshot;
         }
     }
 
@@ -192,7 +218,148 @@ Blockly.ReplMgr.buildYail = function(workspace) {
     // need to do this after the blocks have been defined
     if (needinitialize) {
         this.putYail(Blockly.Yail.getComponentInitializationString(formName, componentNames));
+    } else if (addedComponents.length > 0) {
+        // Only initialize the new components; the form was initialized when it was sent.
+        var init = Blockly.Yail.YAIL_INITIALIZE_COMPONENTS;
+        for (var j = 0; j < addedComponents.length; j++) {
+            init += " " + Blockly.Yail.YAIL_QUOTE + addedComponents[j];
+        }
+        this.putYail(init + ")");
+    }
+};
+
+/**
+ * Flattens the components of a form into a map from component name to what the Companion
+ * needs to know about the component, so that the next buildYail can work out what changed.
+ * @param {Object} jsonObject the parsed form JSON sent by the designer
+ * @returns {Object} map from component name to an object with the component's type,
+ *    version, parent, position in the parent, JSON and properties
+ */
+Blockly.ReplMgr.snapshotComponents = function(jsonObject) {
+    var snapshot = {};
+    var visit = function(componentJson, parentName, index) {
+        var properties = {};
+        for (var prop in componentJson) {
+            // The same properties that Blockly.Yail.getPropertySettersLines sends
+            if (prop.charAt(0) != "$" && prop != "Uuid" && prop != "TutorialURL") {
+                properties[prop] = componentJson[prop];
+            }
+        }
+        snapshot[componentJson.$Name] = {
+            'type' : componentJson.$Type,
+            'version' : componentJson.$Version,
+            'parent' : parentName,
+            'index' : index,
+            'json' : componentJson,
+            'properties' : properties
+        };
+        var children = componentJson.$Components || [];
+        for (var i = 0; i < children.length; i++) {
+            visit(children[i], componentJson.$Name, i);
+        }
+    };
+    visit(jsonObject.Properties, null, 0);
+    snapshot['$YaVersion'] = jsonObject.YaVersion;
+    return snapshot;
+};
+
+/**
+ * Works out the YAIL that changes the Companion's components from oldSnapshot to
+ * newSnapshot without clearing the form: a property setter for each changed property, and
+ * add-component for each component added at the end of its container.
+ *
+ * Returns null when the form has to be sent again in full instead: when a component was
+ * removed, renamed, moved or upgraded (the Companion cannot take a component out of its
+ * container), when the designer's version changed, or when a property was reset to a
+ * default that we do not know.
+ *
+ * @param {Object} oldSnapshot what the Companion has, from snapshotComponents
+ * @param {Object} newSnapshot what the designer has, from snapshotComponents
+ * @param {String} formName
+ * @param {function(string): string} nameConverter see Blockly.Yail.getComponentLines
+ * @param {!Blockly.ComponentDatabase} componentDb Component database, for type information
+ * @returns {?{code: Array.<string>, added: Array.<string>}} the YAIL to send and the names of
+ *    the added components, or null
+ */
+Blockly.ReplMgr.componentDelta = function(oldSnapshot, newSnapshot, formName, nameConverter,
+                                          componentDb) {
+    var code = [];
+    var added = [];
+    var name, prop;
+    if (oldSnapshot['$YaVersion'] != newSnapshot['$YaVersion']) {
+        return null;
     }
+    for (name in oldSnapshot) {
+        if (!(name in newSnapshot)) {
+            return null;
+        }
+    }
+    try {
+        // Names are visited in the order snapshotComponents added them, so parents come
+        // before their children and new siblings in the order they appear.
+        for (name in newSnapshot) {
+            if (name == '$YaVersion') {
+                continue;
+            }
+            var newComponent = newSnapshot[name];
+            var oldComponent = oldSnapshot[name];
+            if (!oldComponent) {
+                // Existing components keep their positions (checked below), so a new
+                // component can only have been added after them.
+                added.push(name);
+                code.push(Blockly.Yail.getComponentPropertiesLines(formName, newComponent.json,
+                    newComponent.parent, false, nameConverter, componentDb).join('\n'));
+                continue;
+            }
+            if (oldComponent.type != newComponent.type ||
+                oldComponent.version != newComponent.version ||
+                oldComponent.parent != newComponent.parent ||
+                oldComponent.index != newComponent.index) {
+                return null;
+            }
+            for (prop in newComponent.properties) {
+                if (oldComponent.properties[prop] !== newComponent.properties[prop]) {
+                    code.push(Blockly.Yail.getPropertySetterString(name, newComponent.type, prop,
+                        newComponent.properties[prop], componentDb));
+                }
+            }
+            for (prop in oldComponent.properties) {
+                if (!(prop in newComponent.properties)) {
+                    // The designer leaves out properties that have their default value.
+                    var defaultValue = this.getPropertyDefault(componentDb, newComponent.type, prop);
+                    if (defaultValue === null) {
+                        return null;
+                    }
+                    code.push(Blockly.Yail.getPropertySetterString(name, newComponent.type, prop,
+                        defaultValue, componentDb));
+                }
+            }
+        }
+    } catch (e) {
+        console.log('componentDelta: sending the whole form, ' + e);
+        return null;
+    }
+    return {'code' : code, 'added' : added};
+};
+
+/**
+ * Returns the designer default value of a property, or null if it is not known.
+ * @param {!Blockly.ComponentDatabase} componentDb
+ * @param {string} typeName
+ * @param {string} propertyName
+ * @returns {?string}
+ */
+Blockly.ReplMgr.getPropertyDefault = function(componentDb, typeName, propertyName) {
+    var type = componentDb.getType(typeName);
+    var properties = type && type.componentInfo && type.componentInfo.properties;
+    if (properties) {
+        for (var i = 0, property; property = properties[i]; i++) {
+            if (property.name == propertyName && property.defaultValue !== undefined) {
+                return property.defaultValue;
+            }
+        }
+    }
+    return null;
 };
 
 Blockly.ReplMgr.sendFormData = function(formJson, packageName, workspace) {
@@ -251,6 +418,9 @@ Blockly.ReplMgr.putYail = (function() {
     var conn;                   // XMLHttpRequest Object sending to Phone
     var rxhr;                   // XMLHttpRequest Object listening for returns
     var phonereceiving = false;
+    var channel = null;         // WebSocket to the phone, when it has one (see ReplChannel.java)
+    var channelId = 0;          // Id of the last form sent over the channel
+    var channelWork = {};       // Queue entries sent over the channel, by id, awaiting results
     var engine = {
         // Enqueue form for the phone
         'putYail' : function(code, block, success, failure) {
@@ -283,6 +453,11 @@ Blockly.ReplMgr.putYail = (function() {
                 engine.doversioncheck();
                 return;
             }
+            if (channel) {
+                // Let the rest of this batch of code be queued, then send it all in one message.
+                setTimeout(engine.sendtochannel, 0);
+                return;
+            }
             if (!phonereceiving) {
                 engine.receivefromphone();
             }
@@ -420,10 +595,17 @@ Blockly.ReplMgr.putYail = (function() {
                     // we no longer need to be compatible, we can remove this
                     // code (the reseting code, LEAVE the pollphone() call
                     // or visit the land of the lost!
-                    context.resetYail(true); // Reset (partial reset)
-                    rs.phoneState.phoneQueue = []; // But flush the queue of pending code
-                    context.pollYail(Blockly.mainWorkspace);  // Regenerate
-                    engine.pollphone();  // Next...
+                    var proceed = function() {
+                        context.resetYail(true); // Reset (partial reset)
+                        rs.phoneState.phoneQueue = []; // But flush the queue of pending code
+                        context.pollYail(Blockly.mainWorkspace);  // Regenerate
+                        engine.pollphone();  // Next...
+                    };
+                    if (json && json.channel && window.WebSocket) {
+                        engine.openchannel(proceed);
+                    } else {
+                        proceed();
+                    }
                     return;
                 }
                 if (this.readyState == 4) { // Old Companion, doesn't do CORS so we fail to talk to it
@@ -436,7 +618,148 @@ Blockly.ReplMgr.putYail = (function() {
             };
             conn.send();
         },
+        // Open a WebSocket to the phone, which carries both code and return values, and call
+        // done once it is open or has failed to open, in which case we keep using HTTP.
+        "openchannel" : function(done) {
+            engine.closechannel();
+            var url = rs.url.replace(/^http/, 'ws').replace(/\/_newblocks$/, '/_channel');
+            var socket = null;
+            var settled = false;
+            var settle = function() {
+                if (!settled) {
+                    settled = true;
+                    clearTimeout(timer);
+                    done();
+                }
+            };
+            var timer = setTimeout(function() {
+                console.log("openchannel: timed out");
+                if (socket && socket !== channel) {
+                    socket.close();
+                }
+                settle();
+            }, 5000);
+            try {
+                socket = new WebSocket(url);
+            } catch (e) {
+                console.log("openchannel: " + e);
+                settle();
+                return;
+            }
+            socket.onopen = function() {
+                console.log("openchannel: open");
+                channel = socket;
+                settle();
+            };
+            socket.onmessage = function(event) {
+                engine.channelmessage(event.data);
+            };
+            socket.onclose = function() {
+                engine.channelclosed(socket);
+                settle();
+            };
+        },
+        // Send everything queued as one message. Each form keeps its own sequence number,
+        // HMAC and block, so errors are still reported on the right block.
+        "sendtochannel" : function() {
+            if (!channel) {         // Closed while we waited, carry on over HTTP
+                engine.pollphone();
+                return;
+            }
+            var forms = [];
+            var work;
+            while ((work = rs.phoneState.phoneQueue.shift())) {
+                var blockid;
+                if (work.block) {
+                    blockid = '"' + work.block.id + '"';
+                } else {
+                    blockid = "-1";
+                }
+                var id = ++channelId;
+                forms.push({
+                    'id' : id,
+                    'seq' : rs.seq_count,
+                    'blockid' : blockid,
+                    'code' : work.code,
+                    'mac' : Blockly.ReplMgr.hmac(work.code + rs.seq_count + blockid)
+                });
+                rs.seq_count += 1;
+                work.sent = new Date().getTime();
+                channelWork[id] = work;
+            }
+            rs.phoneState.ioRunning = false;
+            if (forms.length > 0) {
+                channel.send(goog.json.serialize({'type' : 'eval', 'forms' : forms}));
+            }
+        },
+        "channelmessage" : function(data) {
+            var json = goog.json.parse(data);
+            if (json.type == 'result') {
+                var work = channelWork[json.id];
+                delete channelWork[json.id];
+                if (work) {
+                    console.log("Eval " + json.id + ": " + (new Date().getTime() - work.sent) +
+                                " ms round trip, " + json.evalMs + " ms on the Companion" +
+                                (json.reused ? " (reused)" : ""));
+                    if (json.status != 'OK') {
+                        if (work.failure)
+                            work.failure(Blockly.Msg.REPL_ERROR_FROM_COMPANION);
+                    } else {
+                        if (work.success)
+                            work.success();
+                    }
+                }
+            }
+            if (json.sync) {
+                console.log("Sync: " + json.sync.forms + " forms, " + json.sync.reused +
+                            " reused, " + json.sync.expandMs + " ms expanding, " +
+                            json.sync.runMs + " ms running, " + json.sync.totalMs +
+                            " ms in all on the Companion");
+            }
+            if (json.values) {
+                context.processRetvals(json.values);
+            }
+        },
+        "channelclosed" : function(socket) {
+            if (socket !== channel) { // Never opened, or already replaced
+                return;
+            }
+            console.log("channel closed");
+            channel = null;
+            var lost = false;
+            for (var id in channelWork) {
+                lost = true;
+                if (channelWork[id].failure) {
+                    channelWork[id].failure(Blockly.Msg.REPL_NETWORK_CONNECTION_ERROR);
+                }
+            }
+            channelWork = {};
+            if (lost) {
+                // We cannot tell which of the forms in flight the phone evaluated, so
+                // handle this like a failed HTTP request.
+                var dialog = new Blockly.Util.Dialog(Blockly.Msg.REPL_NETWORK_ERROR, Blockly.Msg.REPL_NETWORK_ERROR_RESTART, Blockly.Msg.REPL_OK, null, 0,
+                    function() {
+                        dialog.hide();
+                        context.hardreset(context.formName);
+                    });
+                engine.resetcompanion();
+            } else if (rs.state == Blockly.ReplMgr.rsState.CONNECTED && !phonereceiving) {
+                engine.receivefromphone(); // Go back to polling for values
+            }
+        },
+        "closechannel" : function() {
+            if (channel) {
+                var socket = channel;
+                channel = null;
+                socket.close();
+            }
+            channelWork = {};
+        },
         "receivefromphone" : function() {
+            if (channel) {          // Values arrive over the channel
+                phonereceiving = false;
+                return;
+            }
             phonereceiving = true;
             console.log("receivefromphone called.");
             rxhr = goog.net.XmlHttp();
@@ -465,6 +788,7 @@ Blockly.ReplMgr.putYail = (function() {
         },
         "resetcompanion" : function() {
             console.log("reseting companion");
+            engine.closechannel();
             rs.state = Blockly.ReplMgr.rsState.IDLE;
             rs.connection = null;
             context.resetYail(false);
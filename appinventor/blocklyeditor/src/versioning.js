@@ -1144,7 +1144,10 @@ Blockly.Versioning.AllUpgradeMaps =
     3: "noUpgrade",
 
     // AI2: LegacyMode property was added.
-    4: "noUpgrade"
+    4: "noUpgrade",
+
+    // AI2: The SamplingInterval and Samples properties were added.
+    5: "noUpgrade"
 
   }, // End Accelerometer upgraders
 
@@ -1241,7 +1244,12 @@ Blockly.Versioning.AllUpgradeMaps =
 
     // The BluetoothClient.Secure property was added.
     // No blocks need to be modified to upgrade to version 5.
-    5: "noUpgrade"
+    5: "noUpgrade",
+
+    // The ReceiveInBackground, ReceiveBufferSize, BytesReceived and BytesDropped properties
+    // and the DataReceived event were added.
+    // No blocks need to be modified to upgrade to version 6.
+    6: "noUpgrade"
 
   }, // End BluetoothClient upgraders
 
@@ -1267,7 +1275,12 @@ Blockly.Versioning.AllUpgradeMaps =
 
     // The BluetoothServer.Secure property was added.
     // No blocks need to be modified to upgrade to version 5.
-    5: "noUpgrade"
+    5: "noUpgrade",
+
+    // The ReceiveInBackground, ReceiveBufferSize, BytesReceived and BytesDropped properties
+    // and the DataReceived event were added.
+    // No blocks need to be modified to upgrade to version 6.
+    6: "noUpgrade"
 
   }, // End BluetoothServer upgraders
 
@@ -1488,7 +1501,18 @@ Blockly.Versioning.AllUpgradeMaps =
 
     // AI2: The AfterFileSaved event was added.
     // No blocks need to be modified to upgrade to version 2.
-    2: "noUpgrade"
+    2: "noUpgrade",
+
+    // AI2: The ReadCsvFrom and SaveCsvFile methods and the GotCsvRow and
+    // AfterCsvRead events were added.
+    // No blocks need to be modified to upgrade to version 3.
+    3: "noUpgrade",
+
+    // AI2: The AppendFlushInterval property, the Flush, ReadLines, ReadTail and
+    // ReadRange methods and the GotLines, AfterLinesRead and GotTextRange events
+    // were added.
+    // No blocks need to be modified to upgrade to version 4.
+    4: "noUpgrade"
 
   }, // End File upgraders
 
@@ -1527,7 +1551,10 @@ Blockly.Versioning.AllUpgradeMaps =
   "GyroscopeSensor": {
 
     // This is initial version. Placeholder for future upgrades
-    1: "noUpgrade"
+    1: "noUpgrade",
+
+    // AI2: The SamplingInterval and Samples properties were added.
+    2: "noUpgrade"
 
   }, // End GyroscopeSensor upgraders
 
@@ -1845,7 +1872,12 @@ Blockly.Versioning.AllUpgradeMaps =
     3: [
       Blockly.Versioning.changeEventName('Map', 'GotGeoJSON', 'GotFeatures'),
       Blockly.Versioning.changeEventName('Map', 'GeoJSONError', 'LoadError')
-    ]
+    ],
+
+    // AI2:
+    // - The ClusterMarkers property and the NearestFeature method were added.
+    // No blocks need to be modified to upgrade to version 4.
+    4: "noUpgrade"
 
   }, // End Map upgraders
 
@@ -2012,7 +2044,10 @@ Blockly.Versioning.AllUpgradeMaps =
         changeFirstMatchingSocketBlockConnectorLabel(block, "yaw", "azimuth");
       }
     */
-    2: "ai1CantDoUpgrade" // Just indicates we couldn't do upgrade even if we wanted to
+    2: "ai1CantDoUpgrade", // Just indicates we couldn't do upgrade even if we wanted to
+
+    // AI2: The SamplingInterval property was added.
+    3: "noUpgrade"
 
   }, // End OrientationSensor upgraders
 
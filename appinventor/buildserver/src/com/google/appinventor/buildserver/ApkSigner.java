@@ -0,0 +1,692 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Signs and aligns an APK in one pass over it, in place of running
+ * jarsigner and then zipalign.
+ *
+ * <p>The APK is signed with the JAR signing scheme (v1), which every
+ * version of Android checks, and with APK Signature Scheme v2, which
+ * Android 7.0 and later check instead and verify faster. The compressed
+ * data of every entry is copied as is, and the data of every uncompressed
+ * entry is aligned on a 4 byte boundary, as zipalign does, so that it can
+ * be mapped into memory. The v1 signature files are written first, as
+ * jarsigner writes them.
+ *
+ * <p>Archives larger than 4 GB or with more than 65535 entries (ZIP64) are
+ * not supported.
+ */
+final class ApkSigner {
+  private static final int ALIGNMENT = 4;
+  private static final int CHUNK_SIZE = 1024 * 1024;
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+  private static final int UTF8_FLAG = 0x800;
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  private static final int APK_SIGNATURE_SCHEME_V2_BLOCK_ID = 0x7109871a;
+  private static final byte[] APK_SIGNING_BLOCK_MAGIC =
+      "APK Sig Block 42".getBytes(Charsets.US_ASCII);
+
+  private static final String CREATED_BY = "1.0 (App Inventor)";
+  private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+  private static final String SIGNATURE_FILE_NAME = "META-INF/CERT.SF";
+  private static final byte[] CRLF = { '\r', '\n' };
+  private static final BaseEncoding BASE64 = BaseEncoding.base64();
+
+  /*
+   * An entry of a zip file, as described by its central directory.
+   */
+  private static final class Entry {
+    String name;
+    byte[] nameBytes;
+    int versionMadeBy;
+    int versionNeeded;
+    int flags;
+    int method;
+    int time;
+    int date;
+    long crc;
+    long compressedSize;
+    long size;
+    int internalAttributes;
+    long externalAttributes;
+    long localHeaderOffset;
+    byte[] data;                // The compressed data of an entry created here, or null
+  }
+
+  /*
+   * Counts the bytes written through it and computes the digests of each
+   * 1 MB chunk of them, for the v2 signature.
+   */
+  private static final class ChunkDigestOutputStream extends FilterOutputStream {
+    private final MessageDigest digest;
+    private final List<byte[]> chunkDigests;
+    private final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+    private long count;
+
+    ChunkDigestOutputStream(OutputStream out, MessageDigest digest, List<byte[]> chunkDigests) {
+      super(out);
+      this.digest = digest;
+      this.chunkDigests = chunkDigests;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      count += len;
+      while (len > 0) {
+        int n = Math.min(len, CHUNK_SIZE - chunk.size());
+        chunk.write(b, off, n);
+        off += n;
+        len -= n;
+        if (chunk.size() == CHUNK_SIZE) {
+          finishChunk();
+        }
+      }
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    void finishChunk() {
+      if (chunk.size() > 0) {
+        chunkDigests.add(digestChunk(digest, chunk.toByteArray(), 0, chunk.size()));
+        chunk.reset();
+      }
+    }
+  }
+
+  private final PrivateKey key;
+  private final X509Certificate certificate;
+
+  /**
+   * Creates a signer for the given key.
+   *
+   * @param key  private key to sign with, an RSA, DSA or EC key
+   * @param certificate  certificate of the key's public key
+   */
+  ApkSigner(PrivateKey key, X509Certificate certificate) {
+    this.key = key;
+    this.certificate = certificate;
+  }
+
+  /**
+   * Creates a signer for a key in a keystore.
+   *
+   * @param keystorePath  path to the keystore
+   * @param alias  alias of the key in the keystore
+   * @param password  password of both the keystore and the key
+   * @throws IOException if the keystore cannot be read
+   * @throws GeneralSecurityException if the keystore has no such key
+   */
+  static ApkSigner fromKeyStore(String keystorePath, String alias, String password)
+      throws IOException, GeneralSecurityException {
+    KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+    InputStream in = new FileInputStream(keystorePath);
+    try {
+      keyStore.load(in, password.toCharArray());
+    } finally {
+      in.close();
+    }
+    PrivateKey key = (PrivateKey) keyStore.getKey(alias, password.toCharArray());
+    Certificate certificate = keyStore.getCertificate(alias);
+    if (key == null || !(certificate instanceof X509Certificate)) {
+      throw new KeyStoreException("No key " + alias + " in " + keystorePath);
+    }
+    return new ApkSigner(key, (X509Certificate) certificate);
+  }
+
+  /**
+   * Writes a signed and aligned copy of an APK.
+   *
+   * @param input  the unsigned APK; any signature files in it are replaced
+   * @param output  the file to write the signed APK to
+   * @throws IOException if the APK cannot be read or written
+   * @throws GeneralSecurityException if the APK cannot be signed with the key
+   */
+  void sign(File input, File output) throws IOException, GeneralSecurityException {
+    RandomAccessFile in = new RandomAccessFile(input, "r");
+    try {
+      List<Entry> entries = new ArrayList<Entry>();
+      for (Entry entry : readCentralDirectory(in)) {
+        if (!isSignatureFile(entry.name)) {
+          entries.add(entry);
+        }
+      }
+      List<Entry> signatureFiles = createSignatureFiles(input, entries);
+
+      OutputStream file = new BufferedOutputStream(new FileOutputStream(output), 64 * 1024);
+      try {
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        List<byte[]> chunkDigests = new ArrayList<byte[]>();
+        ChunkDigestOutputStream out = new ChunkDigestOutputStream(file, sha256, chunkDigests);
+        List<Entry> written = new ArrayList<Entry>(signatureFiles.size() + entries.size());
+        byte[] buffer = new byte[64 * 1024];
+        for (Entry entry : signatureFiles) {
+          writeEntry(out, entry, in, buffer);
+          written.add(entry);
+        }
+        for (Entry entry : entries) {
+          writeEntry(out, entry, in, buffer);
+          written.add(entry);
+        }
+        out.finishChunk();
+
+        // The v2 signature covers the entries, the central directory and the end of central
+        // directory record as if the central directory started where the signing block does.
+        long signingBlockOffset = out.getCount();
+        byte[] centralDirectory = centralDirectory(written);
+        byte[] end = endOfCentralDirectory(written.size(), centralDirectory.length,
+            signingBlockOffset);
+        addChunkDigests(sha256, centralDirectory, chunkDigests);
+        addChunkDigests(sha256, end, chunkDigests);
+        byte[] signingBlock = signingBlock(contentDigest(sha256, chunkDigests));
+
+        file.write(signingBlock);
+        file.write(centralDirectory);
+        file.write(endOfCentralDirectory(written.size(), centralDirectory.length,
+            signingBlockOffset + signingBlock.length));
+      } finally {
+        file.close();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static boolean isSignatureFile(String name) {
+    if (name.equalsIgnoreCase(MANIFEST_NAME)) {
+      return true;
+    }
+    String upper = name.toUpperCase(Locale.US);
+    return upper.startsWith("META-INF/") && upper.indexOf('/', 9) < 0
+        && (upper.endsWith(".SF") || upper.endsWith(".RSA") || upper.endsWith(".DSA")
+            || upper.endsWith(".EC"));
+  }
+
+  // v1 signature
+
+  /*
+   * Creates the manifest, signature file and signature block of the JAR
+   * signature of the entries.
+   */
+  private List<Entry> createSignatureFiles(File input, List<Entry> entries)
+      throws IOException, GeneralSecurityException {
+    MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+    ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+    writeAttribute(manifest, "Manifest-Version", "1.0");
+    writeAttribute(manifest, "Created-By", CREATED_BY);
+    manifest.write(CRLF);
+    ByteArrayOutputStream signatureFileSections = new ByteArrayOutputStream();
+
+    ZipFile zip = new ZipFile(input);
+    try {
+      byte[] buffer = new byte[64 * 1024];
+      for (Entry entry : entries) {
+        if (entry.name.endsWith("/")) {
+          continue;               // Directories are not signed
+        }
+        InputStream data = zip.getInputStream(zip.getEntry(entry.name));
+        try {
+          for (int n = data.read(buffer); n >= 0; n = data.read(buffer)) {
+            sha1.update(buffer, 0, n);
+          }
+        } finally {
+          data.close();
+        }
+        ByteArrayOutputStream section = new ByteArrayOutputStream();
+        writeAttribute(section, "Name", entry.name);
+        writeAttribute(section, "SHA1-Digest", BASE64.encode(sha1.digest()));
+        section.write(CRLF);
+        section.writeTo(manifest);
+
+        writeAttribute(signatureFileSections, "Name", entry.name);
+        writeAttribute(signatureFileSections, "SHA1-Digest",
+            BASE64.encode(sha1.digest(section.toByteArray())));
+        signatureFileSections.write(CRLF);
+      }
+    } finally {
+      zip.close();
+    }
+
+    ByteArrayOutputStream signatureFile = new ByteArrayOutputStream();
+    writeAttribute(signatureFile, "Signature-Version", "1.0");
+    writeAttribute(signatureFile, "Created-By", CREATED_BY);
+    writeAttribute(signatureFile, "SHA1-Digest-Manifest",
+        BASE64.encode(sha1.digest(manifest.toByteArray())));
+    // Tells Android 7.0 and later that the APK is also signed with v2, so that the v2
+    // signature cannot be stripped to fall back to checking the v1 signature.
+    writeAttribute(signatureFile, "X-Android-APK-Signed", "2");
+    signatureFile.write(CRLF);
+    signatureFileSections.writeTo(signatureFile);
+    byte[] signatureFileBytes = signatureFile.toByteArray();
+
+    String keyAlgorithm = key.getAlgorithm().toUpperCase(Locale.US);
+    List<Entry> files = new ArrayList<Entry>(3);
+    files.add(newEntry(MANIFEST_NAME, manifest.toByteArray()));
+    files.add(newEntry(SIGNATURE_FILE_NAME, signatureFileBytes));
+    files.add(newEntry("META-INF/CERT." + keyAlgorithm, signatureBlock(signatureFileBytes)));
+    return files;
+  }
+
+  /*
+   * Writes a manifest attribute, continuing it on further lines so that no
+   * line is longer than 72 bytes, without splitting a UTF-8 character.
+   */
+  private static void writeAttribute(ByteArrayOutputStream out, String name, String value) {
+    byte[] line = (name + ": " + value).getBytes(Charsets.UTF_8);
+    int start = 0;
+    int max = 72;
+    while (line.length - start > max) {
+      int end = start + max;
+      while ((line[end] & 0xC0) == 0x80) {
+        end--;
+      }
+      out.write(line, start, end - start);
+      out.write(CRLF, 0, CRLF.length);
+      out.write(' ');
+      start = end;
+      max = 71;
+    }
+    out.write(line, start, line.length - start);
+    out.write(CRLF, 0, CRLF.length);
+  }
+
+  /*
+   * Signs the signature file, returning the DER encoded PKCS #7 signed data
+   * that goes in the signature block file.
+   */
+  private byte[] signatureBlock(byte[] signatureFile) throws IOException, GeneralSecurityException {
+    try {
+      ContentSigner signer = new JcaContentSignerBuilder(
+          "SHA1with" + signatureAlgorithmSuffix()).build(key);
+      CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+      // jarsigner and Android expect no signed attributes, just the signature of the file.
+      generator.addSignerInfoGenerator(
+          new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().build())
+              .setDirectSignature(true)
+              .build(signer, certificate));
+      generator.addCertificates(new JcaCertStore(Collections.singletonList(certificate)));
+      CMSSignedData signedData =
+          generator.generate(new CMSProcessableByteArray(signatureFile), false);
+      ASN1InputStream asn1 = new ASN1InputStream(signedData.getEncoded());
+      try {
+        return asn1.readObject().getEncoded(ASN1Encoding.DER);
+      } finally {
+        asn1.close();
+      }
+    } catch (OperatorCreationException e) {
+      throw new SignatureException("Cannot sign with " + key.getAlgorithm() + " key", e);
+    } catch (CMSException e) {
+      throw new SignatureException("Cannot create the signature block", e);
+    }
+  }
+
+  private String signatureAlgorithmSuffix() throws GeneralSecurityException {
+    String algorithm = key.getAlgorithm().toUpperCase(Locale.US);
+    if (algorithm.equals("RSA") || algorithm.equals("DSA")) {
+      return algorithm;
+    } else if (algorithm.equals("EC")) {
+      return "ECDSA";
+    }
+    throw new SignatureException("Unsupported key algorithm " + key.getAlgorithm());
+  }
+
+  // v2 signature
+
+  /*
+   * The id of the v2 signature algorithm for the key, which signs with
+   * SHA2-256 digests.
+   */
+  private int signatureAlgorithmId() throws GeneralSecurityException {
+    String algorithm = key.getAlgorithm().toUpperCase(Locale.US);
+    if (algorithm.equals("RSA")) {
+      return 0x0103;            // RSASSA-PKCS1-v1_5 with SHA2-256
+    } else if (algorithm.equals("EC")) {
+      return 0x0201;            // ECDSA with SHA2-256
+    } else if (algorithm.equals("DSA")) {
+      return 0x0301;            // DSA with SHA2-256
+    }
+    throw new SignatureException("Unsupported key algorithm " + key.getAlgorithm());
+  }
+
+  static byte[] digestChunk(MessageDigest digest, byte[] data, int offset, int length) {
+    digest.update((byte) 0xa5);
+    digest.update(intBytes(length));
+    digest.update(data, offset, length);
+    return digest.digest();
+  }
+
+  static void addChunkDigests(MessageDigest digest, byte[] section, List<byte[]> chunkDigests) {
+    for (int offset = 0; offset < section.length; offset += CHUNK_SIZE) {
+      chunkDigests.add(
+          digestChunk(digest, section, offset, Math.min(CHUNK_SIZE, section.length - offset)));
+    }
+  }
+
+  static byte[] contentDigest(MessageDigest digest, List<byte[]> chunkDigests) {
+    digest.update((byte) 0x5a);
+    digest.update(intBytes(chunkDigests.size()));
+    for (byte[] chunkDigest : chunkDigests) {
+      digest.update(chunkDigest);
+    }
+    return digest.digest();
+  }
+
+  /*
+   * Creates the APK Signing Block holding the v2 signature of the content
+   * digest.
+   */
+  private byte[] signingBlock(byte[] contentDigest) throws GeneralSecurityException {
+    int algorithmId = signatureAlgorithmId();
+    byte[] signedData = concat(
+        lengthPrefixed(lengthPrefixed(concat(intBytes(algorithmId),
+            lengthPrefixed(contentDigest)))),
+        lengthPrefixed(lengthPrefixed(certificate.getEncoded())),
+        lengthPrefixed(new byte[0]));
+    Signature signature = Signature.getInstance("SHA256with" + signatureAlgorithmSuffix());
+    signature.initSign(key);
+    signature.update(signedData);
+    byte[] signer = concat(
+        lengthPrefixed(signedData),
+        lengthPrefixed(lengthPrefixed(concat(intBytes(algorithmId),
+            lengthPrefixed(signature.sign())))),
+        lengthPrefixed(certificate.getPublicKey().getEncoded()));
+    byte[] value = lengthPrefixed(lengthPrefixed(signer));
+
+    byte[] pair = concat(longBytes(4 + value.length), intBytes(APK_SIGNATURE_SCHEME_V2_BLOCK_ID),
+        value);
+    long size = pair.length + 8 + APK_SIGNING_BLOCK_MAGIC.length;
+    return concat(longBytes(size), pair, longBytes(size), APK_SIGNING_BLOCK_MAGIC);
+  }
+
+  // Zip file structure
+
+  private static List<Entry> readCentralDirectory(RandomAccessFile in) throws IOException {
+    long length = in.length();
+    int tailLength = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+    byte[] tail = new byte[tailLength];
+    in.seek(length - tailLength);
+    in.readFully(tail);
+    ByteBuffer end = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+    int endOffset = -1;
+    for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (end.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+        endOffset = i;
+        break;
+      }
+    }
+    if (endOffset < 0) {
+      throw new ZipException("No end of central directory record");
+    }
+    int count = end.getShort(endOffset + 10) & 0xFFFF;
+    long centralDirectorySize = end.getInt(endOffset + 12) & 0xFFFFFFFFL;
+    long centralDirectoryOffset = end.getInt(endOffset + 16) & 0xFFFFFFFFL;
+    if (centralDirectoryOffset + centralDirectorySize > length) {
+      throw new ZipException("Central directory out of range");
+    }
+
+    byte[] bytes = new byte[(int) centralDirectorySize];
+    in.seek(centralDirectoryOffset);
+    in.readFully(bytes);
+    ByteBuffer directory = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    List<Entry> entries = new ArrayList<Entry>(count);
+    int position = 0;
+    for (int i = 0; i < count; i++) {
+      if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+        throw new ZipException("Bad central directory entry at " + position);
+      }
+      Entry entry = new Entry();
+      entry.versionMadeBy = directory.getShort(position + 4) & 0xFFFF;
+      entry.versionNeeded = directory.getShort(position + 6) & 0xFFFF;
+      entry.flags = directory.getShort(position + 8) & 0xFFFF;
+      entry.method = directory.getShort(position + 10) & 0xFFFF;
+      entry.time = directory.getShort(position + 12) & 0xFFFF;
+      entry.date = directory.getShort(position + 14) & 0xFFFF;
+      entry.crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+      entry.compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+      entry.size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+      int nameLength = directory.getShort(position + 28) & 0xFFFF;
+      int extraLength = directory.getShort(position + 30) & 0xFFFF;
+      int commentLength = directory.getShort(position + 32) & 0xFFFF;
+      entry.internalAttributes = directory.getShort(position + 36) & 0xFFFF;
+      entry.externalAttributes = directory.getInt(position + 38) & 0xFFFFFFFFL;
+      entry.localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+      entry.nameBytes = new byte[nameLength];
+      System.arraycopy(bytes, position + CENTRAL_HEADER_SIZE, entry.nameBytes, 0, nameLength);
+      entry.name = new String(entry.nameBytes,
+          (entry.flags & UTF8_FLAG) != 0 ? Charsets.UTF_8 : Charsets.ISO_8859_1);
+      entries.add(entry);
+      position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    return entries;
+  }
+
+  private static Entry newEntry(String name, byte[] content) throws IOException {
+    Entry entry = new Entry();
+    entry.name = name;
+    entry.nameBytes = name.getBytes(Charsets.UTF_8);
+    entry.versionMadeBy = 20;
+    entry.versionNeeded = 20;
+    entry.flags = UTF8_FLAG;
+    entry.method = DEFLATED;
+    Calendar now = Calendar.getInstance();
+    entry.time = now.get(Calendar.HOUR_OF_DAY) << 11 | now.get(Calendar.MINUTE) << 5
+        | now.get(Calendar.SECOND) >> 1;
+    entry.date = (now.get(Calendar.YEAR) - 1980) << 9 | (now.get(Calendar.MONTH) + 1) << 5
+        | now.get(Calendar.DAY_OF_MONTH);
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    entry.crc = crc.getValue();
+    entry.size = content.length;
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    DeflaterOutputStream deflating = new DeflaterOutputStream(compressed, deflater);
+    deflating.write(content);
+    deflating.close();
+    deflater.end();
+    entry.data = compressed.toByteArray();
+    entry.compressedSize = entry.data.length;
+    return entry;
+  }
+
+  /*
+   * Writes the local header and data of an entry, padding the header so
+   * that the data of an uncompressed entry is aligned.
+   */
+  private static void writeEntry(ChunkDigestOutputStream out, Entry entry, RandomAccessFile in,
+      byte[] buffer) throws IOException {
+    long dataOffset = 0;
+    if (entry.data == null) {
+      byte[] header = new byte[LOCAL_HEADER_SIZE];
+      in.seek(entry.localHeaderOffset);
+      in.readFully(header);
+      ByteBuffer local = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+      if (local.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+        throw new ZipException("Bad local header for " + entry.name);
+      }
+      dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE
+          + (local.getShort(26) & 0xFFFF) + (local.getShort(28) & 0xFFFF);
+    }
+
+    entry.localHeaderOffset = out.getCount();
+    // The sizes follow in the header, so there is no need for a data descriptor.
+    entry.flags &= ~DATA_DESCRIPTOR_FLAG;
+    int padding = 0;
+    if (entry.method == STORED) {
+      long start = entry.localHeaderOffset + LOCAL_HEADER_SIZE + entry.nameBytes.length;
+      padding = (int) ((ALIGNMENT - start % ALIGNMENT) % ALIGNMENT);
+    }
+    ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(LOCAL_HEADER_SIGNATURE);
+    header.putShort((short) entry.versionNeeded);
+    header.putShort((short) entry.flags);
+    header.putShort((short) entry.method);
+    header.putShort((short) entry.time);
+    header.putShort((short) entry.date);
+    header.putInt((int) entry.crc);
+    header.putInt((int) entry.compressedSize);
+    header.putInt((int) entry.size);
+    header.putShort((short) entry.nameBytes.length);
+    header.putShort((short) padding);
+    out.write(header.array());
+    out.write(entry.nameBytes);
+    out.write(new byte[padding]);
+
+    if (entry.data != null) {
+      out.write(entry.data);
+      return;
+    }
+    in.seek(dataOffset);
+    for (long left = entry.compressedSize; left > 0; ) {
+      int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+      if (n < 0) {
+        throw new ZipException("Truncated data for " + entry.name);
+      }
+      out.write(buffer, 0, n);
+      left -= n;
+    }
+  }
+
+  private static byte[] centralDirectory(List<Entry> entries) throws IOException {
+    if (entries.size() > 0xFFFF) {
+      throw new ZipException("Too many entries: " + entries.size());
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (Entry entry : entries) {
+      ByteBuffer header = ByteBuffer.allocate(CENTRAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(CENTRAL_HEADER_SIGNATURE);
+      header.putShort((short) entry.versionMadeBy);
+      header.putShort((short) entry.versionNeeded);
+      header.putShort((short) entry.flags);
+      header.putShort((short) entry.method);
+      header.putShort((short) entry.time);
+      header.putShort((short) entry.date);
+      header.putInt((int) entry.crc);
+      header.putInt((int) entry.compressedSize);
+      header.putInt((int) entry.size);
+      header.putShort((short) entry.nameBytes.length);
+      header.putShort((short) 0);                   // extra field length
+      header.putShort((short) 0);                   // comment length
+      header.putShort((short) 0);                   // disk number
+      header.putShort((short) entry.internalAttributes);
+      header.putInt((int) entry.externalAttributes);
+      header.putInt((int) entry.localHeaderOffset);
+      out.write(header.array());
+      out.write(entry.nameBytes);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] endOfCentralDirectory(int count, long size, long offset)
+      throws ZipException {
+    if (offset + size > 0xFFFFFFFFL) {
+      throw new ZipException("APK larger than 4 GB");
+    }
+    ByteBuffer end = ByteBuffer.allocate(END_OF_CENTRAL_DIRECTORY_SIZE)
+        .order(ByteOrder.LITTLE_ENDIAN);
+    end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+    end.putShort((short) 0);                        // disk number
+    end.putShort((short) 0);                        // disk with the central directory
+    end.putShort((short) count);
+    end.putShort((short) count);
+    end.putInt((int) size);
+    end.putInt((int) offset);
+    end.putShort((short) 0);                        // comment length
+    return end.array();
+  }
+
+  // Little endian encoding
+
+  private static byte[] intBytes(int value) {
+    return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array();
+  }
+
+  private static byte[] longBytes(long value) {
+    return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(value).array();
+  }
+
+  private static byte[] lengthPrefixed(byte[] value) {
+    return concat(intBytes(value.length), value);
+  }
+
+  private static byte[] concat(byte[]... parts) {
+    int length = 0;
+    for (byte[] part : parts) {
+      length += part.length;
+    }
+    byte[] result = new byte[length];
+    int offset = 0;
+    for (byte[] part : parts) {
+      System.arraycopy(part, 0, result, offset, part.length);
+      offset += part.length;
+    }
+    return result;
+  }
+}
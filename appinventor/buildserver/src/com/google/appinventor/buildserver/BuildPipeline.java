@@ -0,0 +1,385 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the stages of a build as a graph, starting each stage as soon as the
+ * stages it depends on have finished.
+ *
+ * <p>Each stage names the artifacts it reads and writes, such as
+ * "manifest" or "classes". A stage depends on the stages that write its
+ * inputs, so independent stages, such as compiling the screens and
+ * packaging the resources, run at the same time on the given executor.
+ * Once a stage fails no other stage is started, and the stages already
+ * running are waited for.
+ *
+ * <p>The wall time of every stage is written to the build output and added
+ * to the {@link #getTimings() timings} kept for this server run. Those
+ * timings are used to {@link #estimateRemainingMillis estimate} how long a
+ * running pipeline will take to finish.
+ */
+final class BuildPipeline {
+
+  /**
+   * The number of runs and the total and longest wall time of a stage, over
+   * every build of this server run.
+   */
+  static final class Timing {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    private void add(long millis) {
+      count.incrementAndGet();
+      totalMillis.addAndGet(millis);
+      long max;
+      do {
+        max = maxMillis.get();
+      } while (millis > max && !maxMillis.compareAndSet(max, millis));
+    }
+
+    long getCount() {
+      return count.get();
+    }
+
+    long getTotalMillis() {
+      return totalMillis.get();
+    }
+
+    long getMaxMillis() {
+      return maxMillis.get();
+    }
+
+    long getAverageMillis() {
+      long n = count.get();
+      return n == 0 ? 0 : totalMillis.get() / n;
+    }
+  }
+
+  /**
+   * Told when the stages of a pipeline start and finish. Called on the
+   * thread running the stage.
+   */
+  interface Listener {
+    void stageStarted(String name);
+
+    void stageFinished(String name, long millis, boolean succeeded);
+  }
+
+  private static final class StageInfo {
+    final String name;
+    final List<String> inputs;
+    final List<String> outputs;
+    final Callable<Boolean> body;
+    final List<StageInfo> dependents = new ArrayList<StageInfo>();
+    final List<StageInfo> prerequisites = new ArrayList<StageInfo>();
+    int waitingFor;
+
+    StageInfo(String name, List<String> inputs, List<String> outputs, Callable<Boolean> body) {
+      this.name = name;
+      this.inputs = inputs;
+      this.outputs = outputs;
+      this.body = body;
+    }
+  }
+
+  private static final Logger LOG = Logger.getLogger(BuildPipeline.class.getName());
+
+  private static final ConcurrentMap<String, Timing> timings =
+      new ConcurrentHashMap<String, Timing>();
+
+  private final PrintStream out;
+  private final Map<String, StageInfo> stages = new LinkedHashMap<String, StageInfo>();
+  private final Map<String, StageInfo> producers = new HashMap<String, StageInfo>();
+  private final Map<String, Long> stageMillis =
+      Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+  private final ConcurrentMap<String, Long> startMillis = new ConcurrentHashMap<String, Long>();
+  // The stages in an order where every stage follows its prerequisites, set by link().
+  private volatile List<StageInfo> order = Collections.emptyList();
+  private volatile Listener listener;
+
+  /**
+   * Creates an empty pipeline.
+   *
+   * @param out  stream to write the wall time of each stage to
+   */
+  BuildPipeline(PrintStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Adds a stage to the pipeline.
+   *
+   * @param name  name of the stage, unique within the pipeline
+   * @param inputs  artifacts the stage reads, each written by another stage
+   * @param outputs  artifacts the stage writes, which no other stage writes
+   * @param body  the work of the stage, returning {@code false} if it failed
+   * @throws IllegalArgumentException if the name or an output is already used
+   */
+  void addStage(String name, String[] inputs, String[] outputs, Callable<Boolean> body) {
+    if (stages.containsKey(name)) {
+      throw new IllegalArgumentException("Duplicate stage: " + name);
+    }
+    StageInfo stage = new StageInfo(name, listOf(inputs), listOf(outputs), body);
+    for (String output : stage.outputs) {
+      if (producers.containsKey(output)) {
+        throw new IllegalArgumentException("Artifact " + output + " is written by both "
+            + producers.get(output).name + " and " + name);
+      }
+    }
+    for (String output : stage.outputs) {
+      producers.put(output, stage);
+    }
+    stages.put(name, stage);
+  }
+
+  /**
+   * Sets the listener told about the stages of this pipeline, replacing any
+   * set before.
+   */
+  void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Returns the names of the stages, in the order they were added.
+   */
+  List<String> getStageNames() {
+    return new ArrayList<String>(stages.keySet());
+  }
+
+  private static List<String> listOf(String[] names) {
+    List<String> list = new ArrayList<String>(names.length);
+    Collections.addAll(list, names);
+    return list;
+  }
+
+  /**
+   * Runs every stage, at most as many at a time as the executor allows.
+   *
+   * <p>A stage body must not wait for another task of the same executor, or
+   * a bounded executor could deadlock.
+   *
+   * @param executor  executor to run the stages on
+   * @return {@code true} if every stage succeeded, {@code false} if one failed
+   * @throws IllegalStateException if an input has no stage writing it, or the
+   *         stages depend on each other in a cycle
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  boolean run(ExecutorService executor) throws InterruptedException {
+    List<StageInfo> ready = link();
+    CompletionService<Boolean> completion = new ExecutorCompletionService<Boolean>(executor);
+    Map<Future<Boolean>, StageInfo> running = new IdentityHashMap<Future<Boolean>, StageInfo>();
+    for (StageInfo stage : ready) {
+      running.put(completion.submit(timed(stage)), stage);
+    }
+
+    boolean success = true;
+    while (!running.isEmpty()) {
+      Future<Boolean> future = completion.take();
+      StageInfo stage = running.remove(future);
+      boolean stageSucceeded;
+      try {
+        stageSucceeded = future.get();
+      } catch (ExecutionException e) {
+        LOG.log(Level.SEVERE, "Stage " + stage.name + " failed", e.getCause());
+        stageSucceeded = false;
+      }
+      if (!stageSucceeded) {
+        success = false;
+      }
+      if (success) {
+        for (StageInfo dependent : stage.dependents) {
+          if (--dependent.waitingFor == 0) {
+            running.put(completion.submit(timed(dependent)), dependent);
+          }
+        }
+      }
+    }
+    return success;
+  }
+
+  /*
+   * Connects every stage to the stages writing its inputs and returns the
+   * stages that depend on no other.
+   */
+  private List<StageInfo> link() {
+    List<StageInfo> ready = new ArrayList<StageInfo>();
+    for (StageInfo stage : stages.values()) {
+      stage.dependents.clear();
+      stage.prerequisites.clear();
+      stage.waitingFor = 0;
+    }
+    for (StageInfo stage : stages.values()) {
+      Map<StageInfo, Boolean> prerequisites = new IdentityHashMap<StageInfo, Boolean>();
+      for (String input : stage.inputs) {
+        StageInfo producer = producers.get(input);
+        if (producer == null) {
+          throw new IllegalStateException("No stage writes " + input + ", read by " + stage.name);
+        }
+        prerequisites.put(producer, Boolean.TRUE);
+      }
+      for (StageInfo prerequisite : prerequisites.keySet()) {
+        prerequisite.dependents.add(stage);
+        stage.prerequisites.add(prerequisite);
+      }
+      stage.waitingFor = prerequisites.size();
+      if (stage.waitingFor == 0) {
+        ready.add(stage);
+      }
+    }
+
+    // Check that every stage can be reached before running any of them.
+    Map<StageInfo, Integer> waiting = new IdentityHashMap<StageInfo, Integer>();
+    List<StageInfo> reached = new ArrayList<StageInfo>(ready);
+    for (int i = 0; i < reached.size(); i++) {
+      for (StageInfo dependent : reached.get(i).dependents) {
+        Integer count = waiting.get(dependent);
+        int left = (count == null ? dependent.waitingFor : count) - 1;
+        waiting.put(dependent, left);
+        if (left == 0) {
+          reached.add(dependent);
+        }
+      }
+    }
+    if (reached.size() < stages.size()) {
+      List<String> cycle = new ArrayList<String>();
+      for (StageInfo stage : stages.values()) {
+        if (!reached.contains(stage)) {
+          cycle.add(stage.name);
+        }
+      }
+      throw new IllegalStateException("Stages depend on each other: " + cycle);
+    }
+    order = reached;
+    return ready;
+  }
+
+  private Callable<Boolean> timed(final StageInfo stage) {
+    return new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        long start = System.currentTimeMillis();
+        startMillis.put(stage.name, start);
+        Listener listener = BuildPipeline.this.listener;
+        if (listener != null) {
+          listener.stageStarted(stage.name);
+        }
+        boolean succeeded = false;
+        try {
+          succeeded = stage.body.call();
+          return succeeded;
+        } finally {
+          long millis = System.currentTimeMillis() - start;
+          stageMillis.put(stage.name, millis);
+          Timing timing = timings.get(stage.name);
+          if (timing == null) {
+            timings.putIfAbsent(stage.name, new Timing());
+            timing = timings.get(stage.name);
+          }
+          timing.add(millis);
+          String message = "Stage " + stage.name + " time: " + (millis / 1000.0) + " seconds";
+          out.println(message);
+          LOG.info(message);
+          if (listener != null) {
+            listener.stageFinished(stage.name, millis, succeeded);
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Returns the wall time, in milliseconds, of each stage that has finished,
+   * in the order they finished.
+   */
+  Map<String, Long> getStageMillis() {
+    synchronized (stageMillis) {
+      return new LinkedHashMap<String, Long>(stageMillis);
+    }
+  }
+
+  /**
+   * Returns the time, in milliseconds since the epoch, at which each stage
+   * that has started did so.
+   */
+  Map<String, Long> getStartMillis() {
+    return new HashMap<String, Long>(startMillis);
+  }
+
+  /**
+   * Estimates how long the pipeline will take to finish from the average
+   * time each stage took in earlier builds.
+   *
+   * <p>Stages that run at the same time overlap, so the estimate is the
+   * longest chain of stages, each waiting for its prerequisites, that is
+   * left. A running stage is expected to take its average time, less the
+   * time it has run so far.
+   *
+   * @param now  the current time, in milliseconds since the epoch
+   * @return the estimated time left in milliseconds, 0 if every stage has
+   *         finished, or -1 if the pipeline has not started or a stage that
+   *         has not finished has never run before
+   */
+  long estimateRemainingMillis(long now) {
+    List<StageInfo> stagesInOrder = order;
+    if (stagesInOrder.isEmpty()) {
+      return -1;
+    }
+    Map<StageInfo, Long> finishAt = new IdentityHashMap<StageInfo, Long>();
+    long remaining = 0;
+    for (StageInfo stage : stagesInOrder) {
+      long ready = 0;
+      for (StageInfo prerequisite : stage.prerequisites) {
+        ready = Math.max(ready, finishAt.get(prerequisite));
+      }
+      long left = 0;
+      if (!stageMillis.containsKey(stage.name)) {
+        Timing timing = timings.get(stage.name);
+        if (timing == null || timing.getCount() == 0) {
+          return -1;
+        }
+        left = timing.getAverageMillis();
+        Long started = startMillis.get(stage.name);
+        if (started != null) {
+          left = Math.max(0, left - (now - started));
+        }
+      }
+      finishAt.put(stage, ready + left);
+      remaining = Math.max(remaining, ready + left);
+    }
+    return remaining;
+  }
+
+  /**
+   * Returns the timings of every stage run in this server run, by stage name.
+   */
+  static SortedMap<String, Timing> getTimings() {
+    return new TreeMap<String, Timing>(timings);
+  }
+}
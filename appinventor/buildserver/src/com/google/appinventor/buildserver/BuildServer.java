@@ -24,9 +24,13 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Writer;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.OperatingSystemMXBean;
@@ -36,8 +40,10 @@ import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.URL;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -53,6 +59,7 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 /**
  * Top level class for exposing the building of App Inventor APK files as a RESTful web service.
@@ -95,6 +102,28 @@ public class BuildServer {
             usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--contentCacheDir",
+            usage = "the directory to cache project assets in, by content digest")
+    String contentCacheDir = null;
+
+    @Option(name = "--contentCacheMaxMb",
+            usage = "Maximum size of the asset cache, in MB.")
+    int contentCacheMaxMb = 1024;
+
+    @Option(name = "--stageThreads",
+            usage = "Maximum number of stages of a build that can run in parallel.")
+    int stageThreads = 4;
+
+    @Option(name = "--kawaWorkers",
+            usage = "Number of Kawa processes a build can split its screens between. " +
+                    "Each can use childProcessRamMb of ram.")
+    int kawaWorkers = 1;
+
+    @Option(name = "--aarCacheDir",
+            usage = "the directory to unpack AAR libraries into once, shared by all builds. " +
+                    "Defaults to a temporary directory.")
+    String aarCacheDir = null;
+
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -111,6 +140,9 @@ public class BuildServer {
 
   private static final AtomicInteger buildCount = new AtomicInteger(0);
 
+  // The longest time between two status events sent by build-status.
+  private static final long STATUS_INTERVAL_MILLIS = 1000;
+
   // The number of build requests for this server run
   private static final AtomicInteger asyncBuildRequests = new AtomicInteger(0);
 
@@ -132,6 +164,15 @@ public class BuildServer {
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
   private static NonQueuingExecutor buildExecutor;
 
+  // Assets kept between builds so App Inventor need not send them again, or null if disabled.
+  private static ContentCache contentCache;
+
+  // The number of build requests whose assets were (partly) restored from the content cache
+  private static final AtomicInteger contentCacheRestores = new AtomicInteger(0);
+
+  // The number of build requests sent back because cached assets they refer to were evicted
+  private static final AtomicInteger contentCacheMisses = new AtomicInteger(0);
+
   // The input zip file. It will be deleted in cleanUp.
   private File inputZip;
 
@@ -232,6 +273,17 @@ public class BuildServer {
     variables.put("rejected-async-build-requests", rejectedAsyncBuildRequests.get() + "");
     variables.put("successful-async-build-requests", successfulBuildRequests.get() + "");
     variables.put("failed-async-build-requests", failedBuildRequests.get() + "");
+    variables.put("content-cache-restores", contentCacheRestores.get() + "");
+    variables.put("content-cache-misses", contentCacheMisses.get() + "");
+
+    // Build stages, with their wall times over this server run
+    for (Map.Entry<String, BuildPipeline.Timing> entry : BuildPipeline.getTimings().entrySet()) {
+      String stage = "stage-" + entry.getKey();
+      BuildPipeline.Timing timing = entry.getValue();
+      variables.put(stage + "-count", timing.getCount() + "");
+      variables.put(stage + "-average-ms", timing.getAverageMillis() + "");
+      variables.put(stage + "-max-ms", timing.getMaxMillis() + "");
+    }
 
     // Build tasks
     int max = buildExecutor.getMaxActiveTasks();
@@ -286,6 +338,30 @@ public class BuildServer {
     }
   }
 
+  /**
+   * Tells App Inventor which project assets it has to send with a build request.
+   *
+   * @param hashes  the SHA-256 digests of the project's assets, one per line
+   * @return the digests that are not in the content cache, one per line
+   */
+  @POST
+  @Path("missing-content")
+  @Produces(MediaType.TEXT_PLAIN)
+  public Response missingContent(String hashes) {
+    List<String> requested = new ArrayList<String>();
+    for (String hash : hashes.split("\n")) {
+      if (!hash.trim().isEmpty()) {
+        requested.add(hash.trim());
+      }
+    }
+    List<String> missing = contentCache == null ? requested : contentCache.getMissing(requested);
+    StringBuilder response = new StringBuilder();
+    for (String hash : missing) {
+      response.append(hash).append('\n');
+    }
+    return Response.ok(response.toString(), MediaType.TEXT_PLAIN_TYPE).build();
+  }
+
   /**
    * Build an APK file from the input zip file. The zip file needs to be a variant of the same
    * App Inventor source zip that's generated by the Download Source command.  The differences are
@@ -391,8 +467,12 @@ public class BuildServer {
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
    * @param callbackUrlStr An url to send the build results back to.
-   * @param inputZipFile  The zip file representing the App Inventor source code.
-   * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503).
+   * @param buildId  The id of the build whose progress is asked for with an empty zip file. If
+   *     absent, the progress of the latest build of the user is returned.
+   * @param inputZipFile  The zip file representing the App Inventor source code, or an empty file
+   *     to ask for the progress of a build.
+   * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503). An OK response
+   *     holds the progress of the build, and the id of a new build in the X-Build-Id header.
    */
   @POST
   @Path("build-all-from-zip-async")
@@ -401,6 +481,7 @@ public class BuildServer {
     @QueryParam("uname") final String userName,
     @QueryParam("callback") final String callbackUrlStr,
     @QueryParam("gitBuildVersion") final String gitBuildVersion,
+    @QueryParam("buildId") final String buildId,
     final File inputZipFile) throws IOException {
     // Set the inputZip field so we can delete the input zip file later in
     // cleanUp.
@@ -411,6 +492,10 @@ public class BuildServer {
     //for the request for update part, the file should be empty
     if (inputZip.length() == 0L) {
       cleanUp();
+      BuildStatus status = buildId != null ? BuildStatus.get(buildId)
+          : BuildStatus.getLatest(userName);
+      int progress = status == null ? BuildStatus.INITIAL_PROGRESS : status.getProgress();
+      return Response.ok().type(MediaType.TEXT_PLAIN_TYPE).entity("" + progress).build();
     } else {
       if (getShutdownState() == ShutdownState.DOWN) {
         LOG.info("request received while shutdown completely");
@@ -455,6 +540,26 @@ public class BuildServer {
         }
       }
 
+      if (contentCache != null) {
+        try {
+          File restored = contentCache.restore(inputZip);
+          if (restored != inputZip) {
+            inputZip.delete();
+            inputZip = restored;
+            contentCacheRestores.incrementAndGet();
+          }
+        } catch (FileNotFoundException e) {
+          // The content was evicted since App Inventor asked for it. It will retry with
+          // everything included.
+          LOG.info(e.getMessage());
+          contentCacheMisses.incrementAndGet();
+          cleanUp();
+          return Response.status(Response.Status.PRECONDITION_FAILED).type(MediaType.TEXT_PLAIN_TYPE).entity(e.getMessage()).build();
+        }
+      }
+      final File zipToBuild = inputZip;
+      final BuildStatus status = projectBuilder.getStatus();
+
       Runnable buildTask = new Runnable() {
           @Override
           public void run() {
@@ -462,7 +567,14 @@ public class BuildServer {
             try {
               LOG.info("START NEW BUILD " + count);
               checkMemory();
-              buildAndCreateZip(userName, inputZipFile);
+              if (contentCache != null) {
+                try {
+                  contentCache.remember(zipToBuild);
+                } catch (IOException e) {
+                  LOG.warning("Unable to cache assets: " + e.getMessage());
+                }
+              }
+              buildAndCreateZip(userName, zipToBuild);
               // Send zip back to the callbackUrl
               LOG.info("CallbackURL: " + callbackUrlStr);
               URL callbackUrl = new URL(callbackUrlStr);
@@ -495,6 +607,9 @@ public class BuildServer {
               // TODO(user): Maybe send a failure callback
               LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ inputZip.length());
             } finally {
+              if (!status.isFinished()) {
+                status.finish(false);
+              }
               cleanUp();
               checkMemory();
               LOG.info("BUILD " + count + " FINISHED");
@@ -502,8 +617,10 @@ public class BuildServer {
           }
         };
       try {
+        BuildStatus.register(status, userName);
         buildExecutor.execute(buildTask);
       } catch (RejectedExecutionException e) {
+        status.finish(false);
         // This request was rejected because all threads in the build
         // executor are busy.
         rejectedAsyncBuildRequests.incrementAndGet();
@@ -518,9 +635,71 @@ public class BuildServer {
       }
     }
     return Response.ok().type(MediaType.TEXT_PLAIN_TYPE)
+      .header("X-Build-Id", projectBuilder.getStatus().getId())
       .entity("" + projectBuilder.getProgress()).build();
   }
 
+  /**
+   * Streams the status of a build started with build-all-from-zip-async as server-sent events,
+   * until the build finishes. A "log" event carries new lines of the build output, one per data
+   * line. A "status" event, sent whenever something changes and at least every
+   * STATUS_INTERVAL_MILLIS, carries the JSON from {@link BuildStatus#toJson}: the progress, the
+   * state and elapsed time of each stage, and the estimated time left, based on how long each
+   * stage has taken in earlier builds.
+   *
+   * @param buildId  the id returned in the X-Build-Id header when the build was started
+   * @return the event stream, or NOT_FOUND (404) if there is no such build
+   */
+  @GET
+  @Path("build-status")
+  @Produces("text/event-stream")
+  public Response buildStatus(@QueryParam("id") String buildId) {
+    final BuildStatus status = BuildStatus.get(buildId);
+    if (status == null) {
+      return Response.status(Response.Status.NOT_FOUND).type(MediaType.TEXT_PLAIN_TYPE)
+          .entity("No build with id " + buildId).build();
+    }
+    StreamingOutput events = new StreamingOutput() {
+      @Override
+      public void write(OutputStream output) throws IOException {
+        Writer writer = new OutputStreamWriter(output, "UTF-8");
+        int logOffset = 0;
+        long version = 0;
+        try {
+          while (true) {
+            // Checked first, so that the output written before the build finished is all sent.
+            boolean finished = status.isFinished();
+            byte[] lines = status.readLog(logOffset);
+            logOffset += lines.length;
+            if (lines.length > 0) {
+              writeEvent(writer, "log", new String(lines, "UTF-8"));
+            }
+            writeEvent(writer, "status", status.toJson().toString());
+            writer.flush();
+            if (finished) {
+              return;
+            }
+            version = status.awaitChange(version, STATUS_INTERVAL_MILLIS);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        } catch (JSONException e) {
+          throw new IOException(e);
+        }
+      }
+    };
+    return Response.ok(events).type("text/event-stream;charset=utf-8")
+        .header("Cache-Control", "no-cache").build();
+  }
+
+  private static void writeEvent(Writer writer, String event, String data) throws IOException {
+    writer.write("event: " + event + "\n");
+    for (String line : data.split("\n")) {
+      writer.write("data: " + line + "\n");
+    }
+    writer.write("\n");
+  }
+
   private void buildAndCreateZip(String userName, File inputZipFile)
     throws IOException, JSONException {
     Result buildResult = build(userName, inputZipFile);
@@ -570,6 +749,7 @@ public class BuildServer {
     outputDir.deleteOnExit();
     Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile), outputDir, false,
       commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir);
+    projectBuilder.getStatus().finish(buildResult.succeeded());
     String buildOutput = buildResult.getOutput();
     LOG.info("Build output: " + buildOutput);
     String buildError = buildResult.getError();
@@ -626,6 +806,15 @@ public class BuildServer {
 
     // Now that the command line options have been processed, we can create the buildExecutor.
     buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    Compiler.setParallelism(commandLineOptions.stageThreads, commandLineOptions.kawaWorkers);
+    Compiler.setAarCacheDir(commandLineOptions.aarCacheDir == null ? Files.createTempDir()
+        : new File(commandLineOptions.aarCacheDir));
+    // Read the component metadata now rather than during the first build.
+    ComponentIndex.get();
+    if (commandLineOptions.contentCacheDir != null) {
+      contentCache = new ContentCache(new File(commandLineOptions.contentCacheDir),
+          commandLineOptions.contentCacheMaxMb * 1024L * 1024L);
+    }
 
     int port = commandLineOptions.port;
     SelectorThread threadSelector = GrizzlyServerFactory.create("http://localhost:" + port + "/");
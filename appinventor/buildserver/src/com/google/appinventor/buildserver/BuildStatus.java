@@ -0,0 +1,259 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * The progress, stages and output of one build.
+ *
+ * <p>Every build has its own status, so builds running at the same time do
+ * not see each other's progress. A status that is {@link #register
+ * registered} can be looked up by its id, or by the user who started the
+ * build, until some time after the build finishes.
+ */
+final class BuildStatus implements BuildPipeline.Listener {
+
+  // The progress reported before the compiler has started.
+  static final int INITIAL_PROGRESS = 10;
+
+  // How long the status of a finished build can still be looked up.
+  private static final long KEEP_FINISHED_MILLIS = 10 * 60 * 1000;
+
+  private static final ConcurrentMap<String, BuildStatus> builds =
+      new ConcurrentHashMap<String, BuildStatus>();
+  private static final ConcurrentMap<String, BuildStatus> latestByUser =
+      new ConcurrentHashMap<String, BuildStatus>();
+
+  private final String id = UUID.randomUUID().toString();
+  private final long startMillis = System.currentTimeMillis();
+  private volatile int progress = INITIAL_PROGRESS;
+  private volatile BuildPipeline pipeline;
+
+  // Guarded by this. The output is kept in one buffer that grows as needed,
+  // so that a read copies only the bytes it returns.
+  private byte[] log = new byte[8192];
+  private int logLength;
+  private long version;
+  private long finishMillis;
+  private boolean succeeded;
+
+  private final OutputStream logStream = new OutputStream() {
+    @Override
+    public void write(int b) {
+      synchronized (BuildStatus.this) {
+        ensureLogCapacity(1);
+        log[logLength++] = (byte) b;
+        changed();
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      synchronized (BuildStatus.this) {
+        ensureLogCapacity(len);
+        System.arraycopy(b, off, log, logLength, len);
+        logLength += len;
+        changed();
+      }
+    }
+  };
+
+  /**
+   * Registers a status so that it can be looked up by its id and as the
+   * latest build of the given user. Statuses of builds that finished a while
+   * ago are dropped.
+   *
+   * @param userName  the user who started the build
+   */
+  static void register(BuildStatus status, String userName) {
+    long now = System.currentTimeMillis();
+    for (Iterator<BuildStatus> i = builds.values().iterator(); i.hasNext(); ) {
+      BuildStatus build = i.next();
+      if (build.isFinished() && now - build.getFinishMillis() > KEEP_FINISHED_MILLIS) {
+        i.remove();
+        latestByUser.values().remove(build);
+      }
+    }
+    builds.put(status.id, status);
+    if (userName != null) {
+      latestByUser.put(userName, status);
+    }
+  }
+
+  /**
+   * Returns the registered status with the given id, or null if there is none.
+   */
+  static BuildStatus get(String id) {
+    return id == null ? null : builds.get(id);
+  }
+
+  /**
+   * Returns the status of the latest registered build of the given user, or
+   * null if there is none.
+   */
+  static BuildStatus getLatest(String userName) {
+    return userName == null ? null : latestByUser.get(userName);
+  }
+
+  String getId() {
+    return id;
+  }
+
+  int getProgress() {
+    return progress;
+  }
+
+  void setProgress(int progress) {
+    this.progress = progress;
+    synchronized (this) {
+      changed();
+    }
+  }
+
+  /**
+   * Sets the pipeline running the stages of the build.
+   */
+  void setPipeline(BuildPipeline pipeline) {
+    this.pipeline = pipeline;
+    pipeline.setListener(this);
+  }
+
+  @Override
+  public synchronized void stageStarted(String name) {
+    changed();
+  }
+
+  @Override
+  public synchronized void stageFinished(String name, long millis, boolean succeeded) {
+    changed();
+  }
+
+  /**
+   * Returns a stream that adds what is written to it to the output of the build.
+   */
+  OutputStream getLogStream() {
+    return logStream;
+  }
+
+  /**
+   * Returns the complete lines of output written since the given number of
+   * bytes, so that a line is never split in the middle of a character.
+   *
+   * @param offset  number of bytes of output already read
+   */
+  synchronized byte[] readLog(int offset) {
+    int end = logLength;
+    while (end > offset && log[end - 1] != '\n') {
+      end--;
+    }
+    return end <= offset ? new byte[0] : Arrays.copyOfRange(log, offset, end);
+  }
+
+  // Callers hold the lock.
+  private void ensureLogCapacity(int count) {
+    if (logLength + count > log.length) {
+      log = Arrays.copyOf(log, Math.max(2 * log.length, logLength + count));
+    }
+  }
+
+  /**
+   * Marks the build finished.
+   */
+  synchronized void finish(boolean succeeded) {
+    this.succeeded = succeeded;
+    finishMillis = System.currentTimeMillis();
+    changed();
+  }
+
+  synchronized boolean isFinished() {
+    return finishMillis != 0;
+  }
+
+  private synchronized long getFinishMillis() {
+    return finishMillis;
+  }
+
+  /**
+   * Waits until the status changes after the given version, or the build
+   * finishes, or the timeout passes.
+   *
+   * @param seen  the version last seen, 0 at first
+   * @param timeoutMillis  the longest time to wait
+   * @return the current version
+   */
+  synchronized long awaitChange(long seen, long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    long left = timeoutMillis;
+    while (version == seen && finishMillis == 0 && left > 0) {
+      wait(left);
+      left = deadline - System.currentTimeMillis();
+    }
+    return version;
+  }
+
+  // Callers hold the lock.
+  private void changed() {
+    version++;
+    notifyAll();
+  }
+
+  /**
+   * Returns the status as JSON: the progress, how long the build and each
+   * stage that has started have taken so far, and an estimate of the time
+   * left, or -1 if there is none yet.
+   */
+  JSONObject toJson() throws JSONException {
+    long now = System.currentTimeMillis();
+    JSONObject json = new JSONObject();
+    json.put("id", id);
+    json.put("progress", progress);
+    synchronized (this) {
+      json.put("elapsedMs", (finishMillis == 0 ? now : finishMillis) - startMillis);
+      json.put("finished", finishMillis != 0);
+      if (finishMillis != 0) {
+        json.put("succeeded", succeeded);
+      }
+    }
+    BuildPipeline pipeline = this.pipeline;
+    JSONArray stages = new JSONArray();
+    long remaining = isFinished() ? 0 : -1;
+    if (pipeline != null) {
+      Map<String, Long> started = pipeline.getStartMillis();
+      Map<String, Long> finished = pipeline.getStageMillis();
+      for (String name : pipeline.getStageNames()) {
+        JSONObject stage = new JSONObject();
+        stage.put("name", name);
+        if (finished.containsKey(name)) {
+          stage.put("state", "finished");
+          stage.put("elapsedMs", finished.get(name));
+        } else if (started.containsKey(name)) {
+          stage.put("state", "running");
+          stage.put("elapsedMs", now - started.get(name));
+        } else {
+          stage.put("state", "waiting");
+        }
+        stages.put(stage);
+      }
+      if (!isFinished()) {
+        remaining = pipeline.estimateRemainingMillis(now);
+      }
+    }
+    json.put("stages", stages);
+    json.put("remainingMs", remaining);
+    return json;
+  }
+}
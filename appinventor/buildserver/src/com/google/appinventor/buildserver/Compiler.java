@@ -28,7 +28,6 @@ import java.awt.image.BufferedImage;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -37,6 +36,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -45,8 +45,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -71,11 +76,20 @@ public final class Compiler {
    * Ext == External, ext == external, EXT == EXTERNAL
    */
 
-  public static int currentProgress = 10;
-
   // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
   private static final Object SYNC_KAWA_OR_DX = new Object();
 
+  // The number of stages of a build that may run at once.
+  private static int stageThreads = 4;
+
+  // The number of Kawa processes a build may split its screens between. Each uses up to
+  // childProcessRamMb of memory.
+  private static int kawaWorkers = 1;
+
+  // The directory AAR libraries are unpacked into once and shared between builds, or null to
+  // unpack them into each build directory.
+  private static File aarCacheDir = null;
+
   private static final String SLASH = File.separator;
   private static final String COLON = File.pathSeparator;
 
@@ -137,8 +151,6 @@ public final class Compiler {
     RUNTIME_FILES_DIR + "support-annotations.jar",
     RUNTIME_FILES_DIR + "support-v4.jar"
   };
-  private static final String COMP_BUILD_INFO =
-      RUNTIME_FILES_DIR + "simple_components_build_info.json";
   private static final String DX_JAR =
       RUNTIME_FILES_DIR + "dx.jar";
   private static final String KAWA_RUNTIME =
@@ -148,16 +160,10 @@ public final class Compiler {
 
   private static final String LINUX_AAPT_TOOL =
       "/tools/linux/aapt";
-  private static final String LINUX_ZIPALIGN_TOOL =
-      "/tools/linux/zipalign";
   private static final String MAC_AAPT_TOOL =
       "/tools/mac/aapt";
-  private static final String MAC_ZIPALIGN_TOOL =
-      "/tools/mac/zipalign";
   private static final String WINDOWS_AAPT_TOOL =
       "/tools/windows/aapt";
-  private static final String WINDOWS_ZIPALIGN_TOOL =
-      "/tools/windows/zipalign";
 
   @VisibleForTesting
   static final String YAIL_RUNTIME = RUNTIME_FILES_DIR + "runtime.scm";
@@ -234,9 +240,9 @@ public final class Compiler {
 
   private File libsDir; // The directory that will contain any native libraries for packaging
   private String dexCacheDir;
+  private BuildStatus status = new BuildStatus();
   private boolean hasSecondDex = false; // True if classes2.dex should be added to the APK
 
-  private JSONArray simpleCompsBuildInfo;
   private JSONArray extCompsBuildInfo;
   private Set<String> simpleCompTypes;  // types needed by the project
   private Set<String> extCompTypes; // types needed by the project
@@ -773,19 +779,22 @@ public final class Compiler {
    * @param userErrors stream to write user-visible error messages
    * @param keystoreFilePath
    * @param childProcessRam   maximum RAM for child processes, in MBs.
+   * @param status  status of the build, updated as the build progresses
    * @return  {@code true} if the compilation succeeds, {@code false} otherwise
    * @throws JSONException
    * @throws IOException
    */
   public static boolean compile(Project project, Set<String> compTypes,
-                                PrintStream out, PrintStream err, PrintStream userErrors,
-                                boolean isForCompanion, String keystoreFilePath,
-                                int childProcessRam, String dexCacheDir) throws IOException, JSONException {
+                                final PrintStream out, PrintStream err, PrintStream userErrors,
+                                boolean isForCompanion, final String keystoreFilePath,
+                                int childProcessRam, String dexCacheDir, BuildStatus status)
+      throws IOException, JSONException {
     long start = System.currentTimeMillis();
 
     // Create a new compiler instance for the compilation
-    Compiler compiler = new Compiler(project, compTypes, out, err, userErrors, isForCompanion,
-                                     childProcessRam, dexCacheDir);
+    final Compiler compiler = new Compiler(project, compTypes, out, err, userErrors, isForCompanion,
+                                           childProcessRam, dexCacheDir);
+    compiler.status = status;
 
     compiler.generateAssets();
     compiler.generateActivities();
@@ -802,128 +811,199 @@ public final class Compiler {
     compiler.generateBroadcastReceiver();
 
     // Create build directory.
-    File buildDir = createDir(project.getBuildDirectory());
-
-    // Prepare application icon.
-    out.println("________Preparing application icon");
-    File resDir = createDir(buildDir, "res");
-    File drawableDir = createDir(resDir, "drawable");
-    if (!compiler.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
-      return false;
-    }
-    setProgress(15);
-
-    // Create anim directory and animation xml files
-    out.println("________Creating animation xml");
-    File animDir = createDir(resDir, "anim");
-    if (!compiler.createAnimationXml(animDir)) {
-      return false;
-    }
-
-    // Create values directory and style xml files
-    out.println("________Creating style xml");
-    File styleDir = createDir(resDir, "values");
-    File style21Dir = createDir(resDir, "values-v21");
-    if (!compiler.createValuesXml(styleDir, "") ||
-        !compiler.createValuesXml(style21Dir, "-v21")) {
-      return false;
-    }
-
-    // Generate AndroidManifest.xml
-    out.println("________Generating manifest file");
-    File manifestFile = new File(buildDir, "AndroidManifest.xml");
-    if (!compiler.writeAndroidManifest(manifestFile)) {
-      return false;
-    }
-    setProgress(20);
-
-    // Insert native libraries
-    out.println("________Attaching native libraries");
-    if (!compiler.insertNativeLibs(buildDir)) {
-      return false;
-    }
-
-    // Attach Android AAR Library dependencies
-    out.println("________Attaching Android Archive (AAR) libraries");
-    if (!compiler.attachAarLibraries(buildDir)) {
-      return false;
-    }
-
-    // Add raw assets to sub-directory of project assets.
-    out.println("________Attaching component assets");
-    if (!compiler.attachCompAssets()) {
-      return false;
-    }
-
-    // Invoke aapt to package everything up
-    out.println("________Invoking AAPT");
-    File deployDir = createDir(buildDir, "deploy");
-    String tmpPackageName = deployDir.getAbsolutePath() + SLASH +
+    final File buildDir = createDir(project.getBuildDirectory());
+    final File resDir = createDir(buildDir, "res");
+    final File manifestFile = new File(buildDir, "AndroidManifest.xml");
+    final File deployDir = createDir(buildDir, "deploy");
+    final String tmpPackageName = deployDir.getAbsolutePath() + SLASH +
         project.getProjectName() + ".ap_";
-    File srcJavaDir = createDirectory(buildDir, "generated/src");
-    File rJavaDir = createDirectory(buildDir, "generated/symbols");
-    if (!compiler.runAaptPackage(manifestFile, resDir, tmpPackageName, srcJavaDir, rJavaDir)) {
-      return false;
-    }
-    setProgress(30);
-
-    // Create class files.
-    out.println("________Compiling source files");
-    File classesDir = createDir(buildDir, "classes");
-    if (!compiler.generateRClasses(classesDir)) {
-      return false;
-    }
-    if (!compiler.generateClasses(classesDir)) {
-      return false;
-    }
-    setProgress(35);
-
-    // Invoke dx on class files
-    out.println("________Invoking DX");
-    // TODO(markf): Running DX is now pretty slow (~25 sec overhead the first time and ~15 sec
-    // overhead for subsequent runs).  I think it's because of the need to dx the entire
-    // kawa runtime every time.  We should probably only do that once and then copy all the
-    // kawa runtime dx files into the generated classes.dex (which would only contain the
-    // files compiled for this project).
-    // Aargh.  It turns out that there's no way to manipulate .dex files to do the above.  An
-    // Android guy suggested an alternate approach of shipping the kawa runtime .dex file as
-    // data with the application and then creating a new DexClassLoader using that .dex file
-    // and with the original app class loader as the parent of the new one.
-    // TODONE(zhuowei): Now using the new Android DX tool to merge dex files
-    // Needs to specify a writable cache dir on the command line that persists after shutdown
-    // Each pre-dexed file is identified via its MD5 hash (since the standard Android SDK's
-    // method of identifying via a hash of the path won't work when files
-    // are copied into temporary storage) and processed via a hacked up version of
-    // Android SDK's Dex Ant task
+    final File classesDir = createDir(buildDir, "classes");
     File tmpDir = createDirectory(buildDir, "tmp");
-    String dexedClassesDir = tmpDir.getAbsolutePath();
-    if (!compiler.runDx(classesDir, dexedClassesDir, false)) {
-      return false;
-    }
-    setProgress(85);
-
-    // Seal the apk with ApkBuilder
-    out.println("________Invoking ApkBuilder");
-    String apkAbsolutePath = deployDir.getAbsolutePath() + SLASH +
+    final String dexedClassesDir = tmpDir.getAbsolutePath();
+    final String apkAbsolutePath = deployDir.getAbsolutePath() + SLASH +
         project.getProjectName() + ".apk";
-    if (!compiler.runApkBuilder(apkAbsolutePath, tmpPackageName, dexedClassesDir)) {
-      return false;
-    }
-    setProgress(95);
-
-    // Sign the apk file
-    out.println("________Signing the apk file");
-    if (!compiler.runJarSigner(apkAbsolutePath, keystoreFilePath)) {
-      return false;
-    }
+    final String unsignedApkPath = dexedClassesDir + SLASH + "unsigned.apk";
+
+    // Each stage names the artifacts it reads and writes, and starts once the stages writing its
+    // inputs have finished. The screens are compiled by Kawa while the resources are packaged.
+    BuildPipeline pipeline = new BuildPipeline(out);
+    status.setPipeline(pipeline);
+    pipeline.addStage("Icon", new String[] {}, new String[] {"res/drawable"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            out.println("________Preparing application icon");
+            File drawableDir = createDir(resDir, "drawable");
+            if (!compiler.prepareApplicationIcon(new File(drawableDir, "ya.png"))) {
+              return false;
+            }
+            compiler.setProgress(15);
+            return true;
+          }
+        });
+    pipeline.addStage("Animations", new String[] {}, new String[] {"res/anim"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            // Create anim directory and animation xml files
+            out.println("________Creating animation xml");
+            File animDir = createDir(resDir, "anim");
+            return compiler.createAnimationXml(animDir);
+          }
+        });
+    pipeline.addStage("Styles", new String[] {}, new String[] {"res/values"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            // Create values directory and style xml files
+            out.println("________Creating style xml");
+            File styleDir = createDir(resDir, "values");
+            File style21Dir = createDir(resDir, "values-v21");
+            return compiler.createValuesXml(styleDir, "") &&
+                compiler.createValuesXml(style21Dir, "-v21");
+          }
+        });
+    pipeline.addStage("Manifest", new String[] {}, new String[] {"manifest"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            out.println("________Generating manifest file");
+            if (!compiler.writeAndroidManifest(manifestFile)) {
+              return false;
+            }
+            compiler.setProgress(20);
+            return true;
+          }
+        });
+    pipeline.addStage("NativeLibraries", new String[] {}, new String[] {"libs"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            out.println("________Attaching native libraries");
+            return compiler.insertNativeLibs(buildDir);
+          }
+        });
+    pipeline.addStage("AarLibraries", new String[] {}, new String[] {"aars"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            out.println("________Attaching Android Archive (AAR) libraries");
+            return compiler.attachAarLibraries(buildDir);
+          }
+        });
+    pipeline.addStage("Assets", new String[] {}, new String[] {"assets"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            // Add raw assets to sub-directory of project assets.
+            out.println("________Attaching component assets");
+            return compiler.attachCompAssets();
+          }
+        });
+    pipeline.addStage("Aapt",
+        new String[] {"res/drawable", "res/anim", "res/values", "manifest", "libs", "aars",
+                      "assets"},
+        new String[] {"resources.ap_", "R.txt"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            // Invoke aapt to package everything up
+            out.println("________Invoking AAPT");
+            File srcJavaDir = createDirectory(buildDir, "generated/src");
+            File rJavaDir = createDirectory(buildDir, "generated/symbols");
+            if (!compiler.runAaptPackage(manifestFile, resDir, tmpPackageName, srcJavaDir,
+                rJavaDir)) {
+              return false;
+            }
+            compiler.setProgress(30);
+            return true;
+          }
+        });
+    pipeline.addStage("RClasses", new String[] {"aars", "R.txt"}, new String[] {"R.class"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            out.println("________Generating R classes");
+            return compiler.generateRClasses(classesDir);
+          }
+        });
+    // RClasses writes into classesDir, which is on the classpath Kawa compiles against.
+    pipeline.addStage("Kawa", new String[] {"aars", "R.class"}, new String[] {"classes"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            // Create class files.
+            out.println("________Compiling source files");
+            return compiler.generateClasses(classesDir);
+          }
+        });
+    pipeline.addStage("Dx", new String[] {"classes", "R.class"}, new String[] {"classes.dex"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            compiler.setProgress(35);
+            // Invoke dx on class files
+            out.println("________Invoking DX");
+            // TODO(markf): Running DX is now pretty slow (~25 sec overhead the first time and
+            // ~15 sec overhead for subsequent runs).  I think it's because of the need to dx the
+            // entire kawa runtime every time.  We should probably only do that once and then copy
+            // all the kawa runtime dx files into the generated classes.dex (which would only
+            // contain the files compiled for this project).
+            // Aargh.  It turns out that there's no way to manipulate .dex files to do the above.
+            // An Android guy suggested an alternate approach of shipping the kawa runtime .dex
+            // file as data with the application and then creating a new DexClassLoader using
+            // that .dex file and with the original app class loader as the parent of the new one.
+            // TODONE(zhuowei): Now using the new Android DX tool to merge dex files
+            // Needs to specify a writable cache dir on the command line that persists after
+            // shutdown. Each pre-dexed file is identified via its MD5 hash (since the standard
+            // Android SDK's method of identifying via a hash of the path won't work when files
+            // are copied into temporary storage) and processed via a hacked up version of
+            // Android SDK's Dex Ant task
+            if (!compiler.runDx(classesDir, dexedClassesDir, false)) {
+              return false;
+            }
+            compiler.setProgress(85);
+            return true;
+          }
+        });
+    pipeline.addStage("ApkBuilder", new String[] {"resources.ap_", "classes.dex"},
+        new String[] {"unsigned.apk"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            // Seal the apk with ApkBuilder
+            out.println("________Invoking ApkBuilder");
+            if (!compiler.runApkBuilder(unsignedApkPath, tmpPackageName, dexedClassesDir)) {
+              return false;
+            }
+            compiler.setProgress(95);
+            return true;
+          }
+        });
+    pipeline.addStage("ApkSigner", new String[] {"unsigned.apk"}, new String[] {"apk"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            // Sign and align the apk file
+            out.println("________Signing and aligning the apk file");
+            return compiler.runApkSigner(unsignedApkPath, apkAbsolutePath, keystoreFilePath);
+          }
+        });
 
-    // ZipAlign the apk file
-    out.println("________ZipAligning the apk file");
-    if (!compiler.runZipAlign(apkAbsolutePath, tmpDir)) {
+    ExecutorService executor = Executors.newFixedThreadPool(stageThreads);
+    try {
+      if (!pipeline.run(executor)) {
+        return false;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      userErrors.print(String.format(ERROR_IN_STAGE, "Build"));
       return false;
+    } finally {
+      executor.shutdown();
     }
 
-    setProgress(100);
+    compiler.setProgress(100);
 
     out.println("Build finished in " +
         ((System.currentTimeMillis() - start) / 1000.0) + " seconds");
@@ -1137,7 +1217,8 @@ public final class Compiler {
         }
       }
       if (explodedAarLibs.size() > 0) {
-        classpath.append(explodedAarLibs.getOutputDirectory().getAbsolutePath());
+        // The R classes of the AAR libraries are generated into the classes directory.
+        classpath.append(classesDir.getAbsolutePath());
         classpath.append(COLON);
       }
 
@@ -1158,30 +1239,77 @@ public final class Compiler {
           "-d", classesDir.getAbsolutePath(),
           "-P", Signatures.getPackageName(project.getMainClass()) + ".",
           "-C");
-      // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
-      // source file names. The resulting .class files contain references to the source file names,
-      // including the name of the tmp directory that contains them. We may be able to avoid that
-      // by using source file names that are relative to the project root and using the project
-      // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
-      String[] kawaCommandLine = kawaCommandArgs.toArray(new String[kawaCommandArgs.size()]);
+
+      // Split the screens between the Kawa processes. Every process loads the runtime, which
+      // names its module, so the screens compiled by each refer to the same runtime class. Only
+      // the first process compiles the runtime itself.
+      int workers = Math.max(1, Math.min(kawaWorkers, sourceFileNames.size()));
+      List<List<String>> groups = Lists.newArrayListWithCapacity(workers);
+      for (int i = 0; i < workers; i++) {
+        groups.add(new ArrayList<String>());
+      }
+      for (int i = 0; i < sourceFileNames.size(); i++) {
+        // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
+        // source file names. The resulting .class files contain references to the source file
+        // names, including the name of the tmp directory that contains them. We may be able to
+        // avoid that by using source file names that are relative to the project root and using
+        // the project root as the working directory for the Kawa compiler process.
+        groups.get(i % workers).add(sourceFileNames.get(i));
+      }
+      groups.get(0).add(yailRuntime);
+      final List<String[]> kawaCommandLines = Lists.newArrayListWithCapacity(workers);
+      for (List<String> group : groups) {
+        List<String> commandArgs = Lists.newArrayList(kawaCommandArgs);
+        commandArgs.addAll(group);
+        kawaCommandLines.add(commandArgs.toArray(new String[commandArgs.size()]));
+      }
 
       long start = System.currentTimeMillis();
       // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
       // them to the protocol buffer for logging purposes. (See
       // buildserver/ProjectBuilder.processCompilerOutout.
-      ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
-      boolean kawaSuccess;
+      final ByteArrayOutputStream[] kawaOutputStreams = new ByteArrayOutputStream[workers];
+      boolean kawaSuccess = true;
       synchronized (SYNC_KAWA_OR_DX) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream));
+        if (workers == 1) {
+          kawaOutputStreams[0] = new ByteArrayOutputStream();
+          kawaSuccess = Execution.execute(null, kawaCommandLines.get(0),
+              System.out, new PrintStream(kawaOutputStreams[0]));
+        } else {
+          ExecutorService kawaExecutor = Executors.newFixedThreadPool(workers);
+          try {
+            List<Future<Boolean>> results = Lists.newArrayListWithCapacity(workers);
+            for (int i = 0; i < workers; i++) {
+              final int worker = i;
+              kawaOutputStreams[worker] = new ByteArrayOutputStream();
+              results.add(kawaExecutor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                  return Execution.execute(null, kawaCommandLines.get(worker),
+                      System.out, new PrintStream(kawaOutputStreams[worker]));
+                }
+              }));
+            }
+            for (Future<Boolean> result : results) {
+              kawaSuccess &= result.get();
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            kawaSuccess = false;
+          } catch (ExecutionException e) {
+            LOG.log(Level.SEVERE, "Kawa compile has failed.", e.getCause());
+            kawaSuccess = false;
+          } finally {
+            kawaExecutor.shutdown();
+          }
+        }
       }
       if (!kawaSuccess) {
         LOG.log(Level.SEVERE, "Kawa compile has failed.");
       }
-      String kawaOutput = kawaOutputStream.toString();
-      out.print(kawaOutput);
+      for (ByteArrayOutputStream kawaOutputStream : kawaOutputStreams) {
+        out.print(kawaOutputStream.toString());
+      }
       String kawaCompileTimeMessage = "Kawa compile time: " +
           ((System.currentTimeMillis() - start) / 1000.0) + " seconds";
       out.println(kawaCompileTimeMessage);
@@ -1208,94 +1336,27 @@ public final class Compiler {
     return true;
   }
 
-  private boolean runJarSigner(String apkAbsolutePath, String keystoreAbsolutePath) {
-    // TODO(user): maybe make a command line flag for the jarsigner location
-    String javaHome = System.getProperty("java.home");
-    // This works on Mac OS X.
-    File jarsignerFile = new File(javaHome + SLASH + "bin" +
-        SLASH + "jarsigner");
-    if (!jarsignerFile.exists()) {
-      // This works when a JDK is installed with the JRE.
-      jarsignerFile = new File(javaHome + SLASH + ".." + SLASH + "bin" +
-          SLASH + "jarsigner");
-      if (System.getProperty("os.name").startsWith("Windows")) {
-        jarsignerFile = new File(javaHome + SLASH + ".." + SLASH + "bin" +
-            SLASH + "jarsigner.exe");
-      }
-      if (!jarsignerFile.exists()) {
-        LOG.warning("YAIL compiler - could not find jarsigner.");
-        err.println("YAIL compiler - could not find jarsigner.");
-        userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
-        return false;
-      }
-    }
-
-    String[] jarsignerCommandLine = {
-        jarsignerFile.getAbsolutePath(),
-        "-digestalg", "SHA1",
-        "-sigalg", "MD5withRSA",
-        "-keystore", keystoreAbsolutePath,
-        "-storepass", "android",
-        apkAbsolutePath,
-        "AndroidKey"
-    };
-    if (!Execution.execute(null, jarsignerCommandLine, System.out, System.err)) {
-      LOG.warning("YAIL compiler - jarsigner execution failed.");
-      err.println("YAIL compiler - jarsigner execution failed.");
+  /*
+   * Signs the apk with the key in the keystore and aligns it, writing it once instead of running
+   * jarsigner and zipalign, which each write a copy of it.
+   */
+  private boolean runApkSigner(String unsignedApkPath, String apkAbsolutePath,
+                               String keystoreAbsolutePath) {
+    long startSign = System.currentTimeMillis();
+    try {
+      ApkSigner signer = ApkSigner.fromKeyStore(keystoreAbsolutePath, "AndroidKey", "android");
+      signer.sign(new File(unsignedApkPath), new File(apkAbsolutePath));
+    } catch (IOException | GeneralSecurityException e) {
+      e.printStackTrace();
+      LOG.warning("YAIL compiler - signing the apk failed.");
+      err.println("YAIL compiler - signing the apk failed.");
       userErrors.print(String.format(ERROR_IN_STAGE, "JarSigner"));
       return false;
     }
-
-    return true;
-  }
-
-  private boolean runZipAlign(String apkAbsolutePath, File tmpDir) {
-    // TODO(user): add zipalign tool appinventor->lib->android->tools->linux and windows
-    // Need to make sure assets directory exists otherwise zipalign will fail.
-    createDir(project.getAssetsDirectory());
-    String zipAlignTool;
-    String osName = System.getProperty("os.name");
-    if (osName.equals("Mac OS X")) {
-      zipAlignTool = MAC_ZIPALIGN_TOOL;
-    } else if (osName.equals("Linux")) {
-      zipAlignTool = LINUX_ZIPALIGN_TOOL;
-    } else if (osName.startsWith("Windows")) {
-      zipAlignTool = WINDOWS_ZIPALIGN_TOOL;
-    } else {
-      LOG.warning("YAIL compiler - cannot run ZIPALIGN on OS " + osName);
-      err.println("YAIL compiler - cannot run ZIPALIGN on OS " + osName);
-      userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
-      return false;
-    }
-    // TODO: create tmp file for zipaling result
-    String zipAlignedPath = tmpDir.getAbsolutePath() + SLASH + "zipaligned.apk";
-    // zipalign -f -v 4 infile.zip outfile.zip
-    String[] zipAlignCommandLine = {
-        getResource(zipAlignTool),
-        "-f",
-        "4",
-        apkAbsolutePath,
-        zipAlignedPath
-    };
-    long startZipAlign = System.currentTimeMillis();
-    // Using System.err and System.out on purpose. Don't want to pollute build messages with
-    // tools output
-    if (!Execution.execute(null, zipAlignCommandLine, System.out, System.err)) {
-      LOG.warning("YAIL compiler - ZIPALIGN execution failed.");
-      err.println("YAIL compiler - ZIPALIGN execution failed.");
-      userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
-      return false;
-    }
-    if (!copyFile(zipAlignedPath, apkAbsolutePath)) {
-      LOG.warning("YAIL compiler - ZIPALIGN file copy failed.");
-      err.println("YAIL compiler - ZIPALIGN file copy failed.");
-      userErrors.print(String.format(ERROR_IN_STAGE, "ZIPALIGN"));
-      return false;
-    }
-    String zipALignTimeMessage = "ZIPALIGN time: " +
-        ((System.currentTimeMillis() - startZipAlign) / 1000.0) + " seconds";
-    out.println(zipALignTimeMessage);
-    LOG.info(zipALignTimeMessage);
+    String signTimeMessage = "Signing time: " +
+        ((System.currentTimeMillis() - startSign) / 1000.0) + " seconds";
+    out.println(signTimeMessage);
+    LOG.info(signTimeMessage);
     return true;
   }
 
@@ -1578,9 +1639,14 @@ public final class Compiler {
           if (libname.endsWith(".aar")) {
             i.remove();
             if (!processedLibs.contains(libname)) {
-              // explode libraries into ${buildDir}/exploded-aars/<package>/
+              // explode libraries into ${buildDir}/exploded-aars/<package>/, or reuse the copy
+              // in the shared cache
               AARLibrary aarLib = new AARLibrary(new File(getResource(RUNTIME_FILES_DIR + libname)));
-              aarLib.unpackToDirectory(explodedBaseDir);
+              if (aarCacheDir == null) {
+                aarLib.unpackToDirectory(explodedBaseDir);
+              } else {
+                aarLib.unpackToCache(aarCacheDir);
+              }
               explodedAarLibs.add(aarLib);
               processedLibs.add(libname);
             }
@@ -1716,12 +1782,16 @@ public final class Compiler {
         return;
       }
 
-      JSONArray buildInfo = new JSONArray(
-          "[" + simpleCompsBuildInfo.join(",") + "," +
-          extCompsBuildInfo.join(",") + "]");
+      // The built in components come from the shared index, already split by target.
+      for (Map.Entry<String, Set<String>> entry :
+          ComponentIndex.get().getBuildInfo(targetInfo).entrySet()) {
+        if (simpleCompTypes.contains(entry.getKey())) {
+          infoMap.put(entry.getKey(), Sets.newHashSet(entry.getValue()));
+        }
+      }
 
-      for (int i = 0; i < buildInfo.length(); ++i) {
-        JSONObject compJson = buildInfo.getJSONObject(i);
+      for (int i = 0; i < extCompsBuildInfo.length(); ++i) {
+        JSONObject compJson = extCompsBuildInfo.getJSONObject(i);
         JSONArray infoArray = null;
         String type = compJson.getString("type");
         try {
@@ -1760,32 +1830,6 @@ public final class Compiler {
     }
   }
 
-  /**
-   * Copy one file to another. If destination file does not exist, it is created.
-   *
-   * @param srcPath absolute path to source file
-   * @param dstPath absolute path to destination file
-   * @return  {@code true} if the copy succeeds, {@code false} otherwise
-   */
-  private static Boolean copyFile(String srcPath, String dstPath) {
-    try {
-      FileInputStream in = new FileInputStream(srcPath);
-      FileOutputStream out = new FileOutputStream(dstPath);
-      byte[] buf = new byte[1024];
-      int len;
-      while ((len = in.read(buf)) > 0) {
-        out.write(buf, 0, len);
-      }
-      in.close();
-      out.close();
-    }
-    catch (IOException e) {
-      e.printStackTrace();
-      return false;
-    }
-    return true;
-  }
-
   /**
    * Creates a new directory (if it doesn't exist already).
    *
@@ -1829,27 +1873,33 @@ public final class Compiler {
     return dir;
   }
 
-  private static int setProgress(int increments) {
-    Compiler.currentProgress = increments;
-    LOG.info("The current progress is "
-              + Compiler.currentProgress + "%");
-    return Compiler.currentProgress;
+  /**
+   * Sets how much of a build may run at once.
+   *
+   * @param stageThreads  number of build stages that may run at the same time
+   * @param kawaWorkers  number of Kawa processes a build may compile its screens with
+   */
+  static void setParallelism(int stageThreads, int kawaWorkers) {
+    Compiler.stageThreads = Math.max(1, stageThreads);
+    Compiler.kawaWorkers = Math.max(1, kawaWorkers);
+  }
+
+  /**
+   * Sets the directory that AAR libraries are unpacked into and shared from.
+   *
+   * @param aarCacheDir  cache directory, or null to unpack the libraries in every build
+   */
+  static void setAarCacheDir(File aarCacheDir) {
+    Compiler.aarCacheDir = aarCacheDir;
   }
 
-  public static int getProgress() {
-    if (Compiler.currentProgress==100) {
-      Compiler.currentProgress = 10;
-      return 100;
-    } else {
-      return Compiler.currentProgress;
-    }
+  private void setProgress(int increments) {
+    status.setProgress(increments);
+    LOG.info("The current progress is " + increments + "%");
   }
 
   private void readBuildInfo() {
     try {
-      simpleCompsBuildInfo = new JSONArray(Resources.toString(
-          Compiler.class.getResource(COMP_BUILD_INFO), Charsets.UTF_8));
-
       extCompsBuildInfo = new JSONArray();
       Set<String> readComponentInfos = new HashSet<String>();
       for (String type : extCompTypes) {
@@ -1894,25 +1944,13 @@ public final class Compiler {
   }
 
   private void prepareCompTypes(Set<String> neededTypes) {
-    try {
-      JSONArray buildInfo = new JSONArray(Resources.toString(
-          Compiler.class.getResource(COMP_BUILD_INFO), Charsets.UTF_8));
-
-      Set<String> allSimpleTypes = Sets.newHashSet();
-      for (int i = 0; i < buildInfo.length(); ++i) {
-        JSONObject comp = buildInfo.getJSONObject(i);
-        allSimpleTypes.add(comp.getString("type"));
-      }
+    Set<String> allSimpleTypes = ComponentIndex.get().getTypes();
 
-      simpleCompTypes = Sets.newHashSet(neededTypes);
-      simpleCompTypes.retainAll(allSimpleTypes);
+    simpleCompTypes = Sets.newHashSet(neededTypes);
+    simpleCompTypes.retainAll(allSimpleTypes);
 
-      extCompTypes = Sets.newHashSet(neededTypes);
-      extCompTypes.removeAll(allSimpleTypes);
-
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
+    extCompTypes = Sets.newHashSet(neededTypes);
+    extCompTypes.removeAll(allSimpleTypes);
   }
 
   private String getExtCompDirPath(String type) {
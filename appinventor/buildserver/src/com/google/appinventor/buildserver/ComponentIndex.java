@@ -0,0 +1,162 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * What the build server knows about the components built into App Inventor,
+ * read once from the resources of the build server and shared by every
+ * build.
+ *
+ * <p>The index cannot be modified. Extension components differ from project
+ * to project and are not part of it.
+ */
+final class ComponentIndex {
+  private static final String COMPONENTS =
+      Compiler.RUNTIME_FILES_DIR + "simple_components.json";
+  private static final String COMPONENT_TYPES =
+      Compiler.RUNTIME_FILES_DIR + "simple_components.txt";
+  private static final String COMPONENT_BUILD_INFO =
+      Compiler.RUNTIME_FILES_DIR + "simple_components_build_info.json";
+
+  private static ComponentIndex instance;
+
+  private final Set<String> types;
+  private final Set<String> companionTypes;
+  private final Map<String, String> typesByName;
+  // Build info target, such as "permissions", to component type to values.
+  private final Map<String, Map<String, Set<String>>> buildInfo;
+
+  /**
+   * Creates an index from the contents of the component resources.
+   *
+   * @param componentsJson  contents of simple_components.json
+   * @param componentTypes  contents of simple_components.txt, one type per line
+   * @param buildInfoJson  contents of simple_components_build_info.json
+   * @throws JSONException if one of the JSON documents is malformed
+   */
+  ComponentIndex(String componentsJson, String componentTypes, String buildInfoJson)
+      throws JSONException {
+    Map<String, String> typesByName = new HashMap<String, String>();
+    JSONArray components = new JSONArray(componentsJson);
+    for (int i = 0; i < components.length(); ++i) {
+      JSONObject component = components.getJSONObject(i);
+      typesByName.put(component.getString("name"), component.getString("type"));
+    }
+    this.typesByName = Collections.unmodifiableMap(typesByName);
+
+    Set<String> companionTypes = new HashSet<String>();
+    for (String type : componentTypes.split("\n")) {
+      companionTypes.add(type);
+    }
+    this.companionTypes = Collections.unmodifiableSet(companionTypes);
+
+    Set<String> types = new HashSet<String>();
+    Map<String, Map<String, Set<String>>> buildInfo =
+        new HashMap<String, Map<String, Set<String>>>();
+    JSONArray infos = new JSONArray(buildInfoJson);
+    for (int i = 0; i < infos.length(); ++i) {
+      JSONObject info = infos.getJSONObject(i);
+      String type = info.getString("type");
+      types.add(type);
+      Iterator<?> keys = info.keys();
+      while (keys.hasNext()) {
+        String target = (String) keys.next();
+        JSONArray values = info.optJSONArray(target);
+        if (values == null) {
+          continue;
+        }
+        Set<String> valueSet = new HashSet<String>();
+        for (int j = 0; j < values.length(); ++j) {
+          String value = values.getString(j);
+          if (!value.isEmpty()) {
+            valueSet.add(value);
+          }
+        }
+        if (!valueSet.isEmpty()) {
+          Map<String, Set<String>> byType = buildInfo.get(target);
+          if (byType == null) {
+            byType = new HashMap<String, Set<String>>();
+            buildInfo.put(target, byType);
+          }
+          byType.put(type, Collections.unmodifiableSet(valueSet));
+        }
+      }
+    }
+    this.types = Collections.unmodifiableSet(types);
+    for (Map.Entry<String, Map<String, Set<String>>> entry : buildInfo.entrySet()) {
+      entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+    }
+    this.buildInfo = Collections.unmodifiableMap(buildInfo);
+  }
+
+  /**
+   * Returns the index of the components built into App Inventor, reading it
+   * the first time it is needed.
+   *
+   * @throws IllegalStateException if the component resources cannot be read
+   */
+  static synchronized ComponentIndex get() {
+    if (instance == null) {
+      try {
+        instance = new ComponentIndex(read(COMPONENTS), read(COMPONENT_TYPES),
+            read(COMPONENT_BUILD_INFO));
+      } catch (IOException|JSONException e) {
+        throw new IllegalStateException("Unable to read the component resources", e);
+      }
+    }
+    return instance;
+  }
+
+  private static String read(String resourcePath) throws IOException {
+    return Resources.toString(ComponentIndex.class.getResource(resourcePath), Charsets.UTF_8);
+  }
+
+  /**
+   * Returns the types of the components that have build info, which are the
+   * components that can be used in a project without an extension.
+   */
+  Set<String> getTypes() {
+    return types;
+  }
+
+  /**
+   * Returns the types of the components built into the companion.
+   */
+  Set<String> getCompanionTypes() {
+    return companionTypes;
+  }
+
+  /**
+   * Returns the type of each component, by its name in the designer.
+   */
+  Map<String, String> getTypesByName() {
+    return typesByName;
+  }
+
+  /**
+   * Returns the values a build info target, such as "permissions", has for
+   * each component type. Empty values, and types without any, are left out.
+   */
+  Map<String, Set<String>> getBuildInfo(String target) {
+    Map<String, Set<String>> byType = buildInfo.get(target);
+    return byType == null ? Collections.<String, Set<String>>emptyMap() : byType;
+  }
+}
@@ -0,0 +1,219 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Disk cache of project assets keyed by the SHA-256 digest of their content.
+ *
+ * <p>App Inventor may leave out of a build request any asset that the build
+ * server says it already has (see {@link #getMissing}). Such assets are listed
+ * in a manifest entry of the request zip, one "digest path" pair per line, and
+ * are put back into the zip by {@link #restore} before the build starts.
+ *
+ * <p>Entries are evicted least recently used first once the cache grows past
+ * its size limit.
+ */
+final class ContentCache {
+
+  // Must match the name used by App Inventor when it sends a manifest
+  static final String MANIFEST_ENTRY = "youngandroidproject/content.manifest";
+
+  private static final Logger LOG = Logger.getLogger(ContentCache.class.getName());
+
+  private final File directory;
+  private final long maxBytes;
+
+  ContentCache(File directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    directory.mkdirs();
+  }
+
+  /**
+   * Returns the digests in {@code hashes} that are not in the cache. Digests
+   * that are in the cache are marked as recently used.
+   */
+  List<String> getMissing(Collection<String> hashes) {
+    List<String> missing = new ArrayList<String>();
+    long now = System.currentTimeMillis();
+    for (String hash : hashes) {
+      File file = fileFor(hash);
+      if (file == null || !file.setLastModified(now)) {
+        missing.add(hash);
+      }
+    }
+    return missing;
+  }
+
+  /**
+   * Returns a zip with the cached content listed in the manifest of
+   * {@code zip} put back, or {@code zip} itself if it has no manifest.
+   *
+   * @throws FileNotFoundException if listed content is no longer cached
+   */
+  File restore(File zip) throws IOException {
+    ZipFile zipFile = new ZipFile(zip);
+    try {
+      ZipEntry manifest = zipFile.getEntry(MANIFEST_ENTRY);
+      if (manifest == null) {
+        return zip;
+      }
+      File restored = File.createTempFile(zip.getName(), ".zip");
+      restored.deleteOnExit();  // In case build server is killed before cleanUp executes.
+      boolean done = false;
+      ZipOutputStream out =
+          new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(restored)));
+      try {
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+          ZipEntry entry = entries.nextElement();
+          if (entry.getName().equals(MANIFEST_ENTRY)) {
+            continue;
+          }
+          out.putNextEntry(new ZipEntry(entry.getName()));
+          InputStream in = zipFile.getInputStream(entry);
+          try {
+            ByteStreams.copy(in, out);
+          } finally {
+            in.close();
+          }
+        }
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(zipFile.getInputStream(manifest), "UTF-8"));
+        try {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            int space = line.indexOf(' ');
+            if (space <= 0) {
+              continue;
+            }
+            File cached = fileFor(line.substring(0, space));
+            if (cached == null || !cached.isFile()) {
+              throw new FileNotFoundException("Content " + line.substring(0, space)
+                  + " is no longer cached");
+            }
+            out.putNextEntry(new ZipEntry(line.substring(space + 1)));
+            Files.copy(cached, out);
+          }
+        } finally {
+          reader.close();
+        }
+        done = true;
+      } finally {
+        out.close();
+        if (!done) {
+          restored.delete();
+        }
+      }
+      return restored;
+    } finally {
+      zipFile.close();
+    }
+  }
+
+  /**
+   * Adds the assets in {@code zip} to the cache.
+   */
+  void remember(File zip) throws IOException {
+    ZipFile zipFile = new ZipFile(zip);
+    try {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.isDirectory() || !entry.getName().startsWith("assets/")) {
+          continue;
+        }
+        File temp = File.createTempFile("content", ".tmp", directory);
+        try {
+          InputStream in = zipFile.getInputStream(entry);
+          OutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+          try {
+            ByteStreams.copy(in, out);
+          } finally {
+            in.close();
+            out.close();
+          }
+          File file = fileFor(Files.hash(temp, Hashing.sha256()).toString());
+          if (file.exists()) {
+            file.setLastModified(System.currentTimeMillis());
+          } else if (!temp.renameTo(file)) {
+            LOG.warning("Unable to cache " + entry.getName());
+          }
+        } finally {
+          temp.delete();
+        }
+      }
+    } finally {
+      zipFile.close();
+    }
+    prune();
+  }
+
+  private synchronized void prune() {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    List<File> entries = new ArrayList<File>();
+    long total = 0;
+    for (File file : files) {
+      if (!file.getName().endsWith(".tmp")) {   // Still being written
+        entries.add(file);
+        total += file.length();
+      }
+    }
+    if (total <= maxBytes) {
+      return;
+    }
+    Collections.sort(entries, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+    for (File file : entries) {
+      if (total <= maxBytes) {
+        break;
+      }
+      long length = file.length();
+      if (file.delete()) {
+        total -= length;
+      }
+    }
+  }
+
+  private File fileFor(String hash) {
+    // Digests come from the network, only accept lower case hex
+    if (hash.length() != 64 || !hash.matches("[0-9a-f]+")) {
+      return null;
+    }
+    return new File(directory, hash);
+  }
+}
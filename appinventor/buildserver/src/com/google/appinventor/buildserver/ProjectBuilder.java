@@ -42,6 +42,7 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.TeeOutputStream;
 
 /**
  * Provides support for building Young Android projects.
@@ -53,6 +54,7 @@ public final class ProjectBuilder {
   private File outputApk;
   private File outputKeystore;
   private boolean saveKeystore;
+  private final BuildStatus status = new BuildStatus();
 
   // Logging support
   private static final Logger LOG = Logger.getLogger(ProjectBuilder.class.getName());
@@ -75,8 +77,6 @@ public final class ProjectBuilder {
   private static final String CODEBLOCKS_SOURCE_EXTENSION =
       YoungAndroidConstants.CODEBLOCKS_SOURCE_EXTENSION;
 
-  private static final String ALL_COMPONENT_TYPES =
-      Compiler.RUNTIME_FILES_DIR + "simple_components.txt";
 
   public File getOutputApk() {
     return outputApk;
@@ -157,9 +157,10 @@ public final class ProjectBuilder {
         File buildTmpDir = new File(projectRoot, "build/tmp");
         buildTmpDir.mkdirs();
 
-        // Prepare for redirection of compiler message output
+        // Prepare for redirection of compiler message output, which is also streamed to anyone
+        // following the status of the build
         ByteArrayOutputStream output = new ByteArrayOutputStream();
-        PrintStream console = new PrintStream(output);
+        PrintStream console = new PrintStream(new TeeOutputStream(output, status.getLogStream()));
         ByteArrayOutputStream errors = new ByteArrayOutputStream();
         PrintStream userErrors = new PrintStream(errors);
 
@@ -169,7 +170,7 @@ public final class ProjectBuilder {
         // Invoke YoungAndroid compiler
         boolean success =
             Compiler.compile(project, componentTypes, console, console, userErrors, isForCompanion,
-                             keyStorePath, childProcessRam, dexCachePath);
+                             keyStorePath, childProcessRam, dexCachePath, status);
         console.close();
         userErrors.close();
 
@@ -233,14 +234,8 @@ public final class ProjectBuilder {
     }
   }
 
-  private static Set<String> getAllComponentTypes() throws IOException {
-    Set<String> compSet = Sets.newHashSet();
-    String[] components = Resources.toString(
-        ProjectBuilder.class.getResource(ALL_COMPONENT_TYPES), Charsets.UTF_8).split("\n");
-    for (String component : components) {
-      compSet.add(component);
-    }
-    return compSet;
+  private static Set<String> getAllComponentTypes() {
+    return Sets.newHashSet(ComponentIndex.get().getCompanionTypes());
   }
 
   private ArrayList<String> extractProjectFiles(ZipFile inputZip, File projectRoot)
@@ -293,15 +288,7 @@ public final class ProjectBuilder {
    */
   private static Map<String, String> createNameTypeMap(File assetsDir)
       throws IOException, JSONException {
-    Map<String, String> nameTypeMap = Maps.newHashMap();
-
-    JSONArray simpleCompsJson = new JSONArray(Resources.toString(ProjectBuilder.
-        class.getResource("/files/simple_components.json"), Charsets.UTF_8));
-    for (int i = 0; i < simpleCompsJson.length(); ++i) {
-      JSONObject simpleCompJson = simpleCompsJson.getJSONObject(i);
-      nameTypeMap.put(simpleCompJson.getString("name"),
-          simpleCompJson.getString("type"));
-    }
+    Map<String, String> nameTypeMap = Maps.newHashMap(ComponentIndex.get().getTypesByName());
 
     File extCompsDir = new File(assetsDir, "external_comps");
     if (!extCompsDir.exists()) {
@@ -534,7 +521,14 @@ public final class ProjectBuilder {
     }
   }
 
+  /**
+   * Returns the status of the build made by this builder.
+   */
+  BuildStatus getStatus() {
+    return status;
+  }
+
   public int getProgress() {
-    return Compiler.getProgress();
+    return status.getProgress();
   }
 }
@@ -13,15 +13,19 @@ import java.io.OutputStream;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.UUID;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import javax.xml.xpath.XPathExpressionException;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
 import com.android.io.StreamException;
 import com.android.xml.AndroidManifest;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 
 /**
  * AARLibrary encapsulates important information about Android Archive (AAR) files so that they
@@ -38,6 +42,12 @@ public class AARLibrary {
   private static final String LIBS_DIR = "libs/";
   private static final String JNI_DIR = "jni/";
 
+  /**
+   * Version of the layout of the shared cache, changed whenever entries written by an older
+   * version of this class can no longer be used.
+   */
+  private static final String CACHE_VERSION = "v1";
+
   /**
    * Path to the AAR file modeled by the AARLibrary.
    */
@@ -265,6 +275,66 @@ public class AARLibrary {
     }
   }
 
+  /**
+   * Unpacks the Android Archive into a cache shared between builds, unless it has been unpacked
+   * there before. Each archive is kept in a directory named with its SHA-1 hash, so different
+   * versions of a library never share files. Callers must not modify the unpacked files.
+   *
+   * @param cacheDir the root directory of the cache.
+   * @throws IOException if any error occurs attempting to read the archive or write new files to
+   *                     the file system.
+   */
+  public void unpackToCache(final File cacheDir) throws IOException {
+    File versionDir = new File(cacheDir, CACHE_VERSION);
+    File entryDir = new File(versionDir, Files.hash(aarPath, Hashing.sha1()).toString());
+    if (!entryDir.isDirectory()) {
+      if (!versionDir.mkdirs() && !versionDir.isDirectory()) {
+        throw new IOException("Unable to create AAR cache directory " + versionDir);
+      }
+      // Unpack next to the entry and move it into place, so that a build running at the same
+      // time never sees a partly unpacked archive.
+      File partial = new File(versionDir, entryDir.getName() + "-" + UUID.randomUUID());
+      try {
+        unpackToDirectory(partial);
+        if (!partial.renameTo(entryDir) && !entryDir.isDirectory()) {
+          throw new IOException("Unable to move " + partial + " to " + entryDir);
+        }
+      } finally {
+        FileUtils.deleteQuietly(partial);
+      }
+    }
+    loadFromDirectory(entryDir);
+  }
+
+  /**
+   * Catalogs an archive already unpacked into the given directory by {@link #unpackToDirectory}.
+   *
+   * @param path the path the archive was unpacked to.
+   * @throws IOException if the directory does not hold exactly one unpacked archive.
+   */
+  private void loadFromDirectory(final File path) throws IOException {
+    File[] packages = path.listFiles();
+    if (packages == null || packages.length != 1 || !packages[0].isDirectory()) {
+      throw new IOException("Unable to find unpacked AAR package in " + path);
+    }
+    basedir = packages[0];
+    packageName = basedir.getName();
+    manifest = null;
+    classes = null;
+    rtxt = null;
+    resources.clear();
+    assets.clear();
+    libs.clear();
+    jni.clear();
+    for (File file : FileUtils.listFiles(basedir, null, true)) {
+      catalog(file);
+    }
+    resdir = new File(basedir, "res");
+    if (!resdir.exists()) {
+      resdir = null;
+    }
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
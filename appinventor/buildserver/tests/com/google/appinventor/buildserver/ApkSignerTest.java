@@ -0,0 +1,303 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ApkSigner class.
+ *
+ */
+public class ApkSignerTest extends TestCase {
+  private static final String KEYSTORE_FILE_NAME = "android.keystore";
+
+  private File directory;
+  private File unsignedApk;
+  private Map<String, byte[]> contents;
+  private String keystorePath;
+
+  @Override
+  protected void setUp() throws Exception {
+    directory = Files.createTempDir();
+    keystorePath = ProjectBuilder.createKeyStore("Test User", directory, KEYSTORE_FILE_NAME);
+    assertNotNull(keystorePath);
+
+    contents = new LinkedHashMap<String, byte[]>();
+    contents.put("AndroidManifest.xml", "<manifest/>".getBytes("UTF-8"));
+    contents.put("res/raw/a.ogg", new byte[] { 1, 2, 3 });
+    contents.put("res/raw/bb.ogg", new byte[1000]);
+    contents.put("assets/a folder with a rather long name/that needs more than one manifest"
+        + " line/été.txt", "summer".getBytes("UTF-8"));
+    byte[] dex = new byte[3 * 1024 * 1024 + 17];
+    for (int i = 0; i < dex.length; i++) {
+      dex[i] = (byte) (i * 31 % 253);
+    }
+    contents.put("classes.dex", dex);
+
+    unsignedApk = new File(directory, "unsigned.apk");
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(unsignedApk));
+    try {
+      // A manifest left by an earlier tool, which the signer must replace.
+      zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+      zip.write("Manifest-Version: 1.0\r\n\r\n".getBytes("UTF-8"));
+      for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+        ZipEntry zipEntry = new ZipEntry(entry.getKey());
+        if (entry.getKey().endsWith(".ogg")) {
+          // aapt stores media files uncompressed
+          CRC32 crc = new CRC32();
+          crc.update(entry.getValue());
+          zipEntry.setMethod(ZipEntry.STORED);
+          zipEntry.setSize(entry.getValue().length);
+          zipEntry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(zipEntry);
+        zip.write(entry.getValue());
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (File file : directory.listFiles()) {
+      file.delete();
+    }
+    directory.delete();
+  }
+
+  private File sign() throws Exception {
+    File signedApk = new File(directory, "signed.apk");
+    ApkSigner.fromKeyStore(keystorePath, "AndroidKey", "android").sign(unsignedApk, signedApk);
+    return signedApk;
+  }
+
+  private X509Certificate keystoreCertificate() throws Exception {
+    KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+    InputStream in = new FileInputStream(keystorePath);
+    try {
+      keyStore.load(in, "android".toCharArray());
+    } finally {
+      in.close();
+    }
+    return (X509Certificate) keyStore.getCertificate("AndroidKey");
+  }
+
+  public void testJarSignatureVerifies() throws Exception {
+    // The JDK no longer accepts SHA-1 jar signatures, which Android before 4.3 requires, so the
+    // signature is checked here rather than by JarFile.
+    X509Certificate certificate = keystoreCertificate();
+    ZipFile apk = new ZipFile(sign());
+    try {
+      for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+        assertTrue(entry.getKey(),
+            Arrays.equals(entry.getValue(), read(apk, entry.getKey())));
+      }
+      byte[] manifestBytes = read(apk, "META-INF/MANIFEST.MF");
+      Manifest manifest = new Manifest(new ByteArrayInputStream(manifestBytes));
+      assertEquals(contents.keySet(), manifest.getEntries().keySet());
+      for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+        assertEquals(entry.getKey(), sha1(entry.getValue()),
+            manifest.getAttributes(entry.getKey()).getValue("SHA1-Digest"));
+      }
+
+      byte[] signatureFileBytes = read(apk, "META-INF/CERT.SF");
+      Manifest signatureFile = new Manifest(new ByteArrayInputStream(signatureFileBytes));
+      assertEquals(sha1(manifestBytes),
+          signatureFile.getMainAttributes().getValue("SHA1-Digest-Manifest"));
+      assertEquals("2", signatureFile.getMainAttributes().getValue("X-Android-APK-Signed"));
+      assertEquals(contents.keySet(), signatureFile.getEntries().keySet());
+
+      CMSSignedData signatureBlock = new CMSSignedData(
+          new CMSProcessableByteArray(signatureFileBytes), read(apk, "META-INF/CERT.RSA"));
+      SignerInformation signer =
+          (SignerInformation) signatureBlock.getSignerInfos().getSigners().iterator().next();
+      assertTrue(signer.verify(new JcaSimpleSignerInfoVerifierBuilder().build(certificate)));
+    } finally {
+      apk.close();
+    }
+  }
+
+  private static byte[] read(ZipFile zip, String name) throws Exception {
+    ZipEntry entry = zip.getEntry(name);
+    assertNotNull(name, entry);
+    InputStream in = zip.getInputStream(entry);
+    try {
+      return ByteStreams.toByteArray(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static String sha1(byte[] data) throws Exception {
+    return BaseEncoding.base64().encode(MessageDigest.getInstance("SHA-1").digest(data));
+  }
+
+  public void testUncompressedEntriesAreAligned() throws Exception {
+    RandomAccessFile apk = new RandomAccessFile(sign(), "r");
+    try {
+      int stored = 0;
+      long offset = 0;
+      byte[] header = new byte[30];
+      while (true) {
+        apk.seek(offset);
+        apk.readFully(header);
+        ByteBuffer local = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        if (local.getInt(0) != 0x04034b50) {
+          break;
+        }
+        long dataOffset = offset + 30 + (local.getShort(26) & 0xFFFF)
+            + (local.getShort(28) & 0xFFFF);
+        if (local.getShort(8) == 0) {
+          assertEquals(0, dataOffset % 4);
+          stored++;
+        }
+        offset = dataOffset + (local.getInt(18) & 0xFFFFFFFFL);
+      }
+      assertEquals(2, stored);
+    } finally {
+      apk.close();
+    }
+  }
+
+  public void testV2SignatureVerifies() throws Exception {
+    byte[] apk = Files.toByteArray(sign());
+    ByteBuffer buffer = ByteBuffer.wrap(apk).order(ByteOrder.LITTLE_ENDIAN);
+    int endOffset = apk.length - 22;
+    assertEquals(0x06054b50, buffer.getInt(endOffset));
+    int centralDirectoryOffset = buffer.getInt(endOffset + 16);
+    assertEquals("APK Sig Block 42",
+        new String(apk, centralDirectoryOffset - 16, 16, "US-ASCII"));
+    long blockSize = buffer.getLong(centralDirectoryOffset - 24);
+    int blockOffset = (int) (centralDirectoryOffset - blockSize - 8);
+    assertEquals(blockSize, buffer.getLong(blockOffset));
+
+    // The only pair holds the v2 signature, with a single signer.
+    buffer.position(blockOffset + 8);
+    long pairLength = buffer.getLong();
+    assertEquals(0x7109871a, buffer.getInt());
+    ByteBuffer signers = slice(buffer, (int) pairLength - 4);
+    ByteBuffer signer = lengthPrefixed(lengthPrefixed(signers));
+    ByteBuffer signedData = lengthPrefixed(signer);
+    ByteBuffer signatures = lengthPrefixed(signer);
+    byte[] publicKey = bytes(lengthPrefixed(signer));
+
+    X509Certificate certificate = keystoreCertificate();
+    assertTrue(Arrays.equals(certificate.getPublicKey().getEncoded(), publicKey));
+    ByteBuffer signatureRecord = lengthPrefixed(signatures);
+    assertEquals(0x0103, signatureRecord.getInt());
+    Signature signature = Signature.getInstance("SHA256withRSA");
+    signature.initVerify(certificate.getPublicKey());
+    signature.update(bytes(signedData.duplicate()));
+    assertTrue(signature.verify(bytes(lengthPrefixed(signatureRecord))));
+
+    ByteBuffer digestRecord = lengthPrefixed(lengthPrefixed(signedData));
+    assertEquals(0x0103, digestRecord.getInt());
+    byte[] digest = bytes(lengthPrefixed(digestRecord));
+    ByteBuffer certificates = lengthPrefixed(signedData);
+    assertTrue(Arrays.equals(certificate.getEncoded(), bytes(lengthPrefixed(certificates))));
+
+    // Recompute the digest of the contents from the file as written.
+    MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+    List<byte[]> chunkDigests = new ArrayList<byte[]>();
+    ApkSigner.addChunkDigests(sha256, Arrays.copyOfRange(apk, 0, blockOffset), chunkDigests);
+    ApkSigner.addChunkDigests(sha256,
+        Arrays.copyOfRange(apk, centralDirectoryOffset, endOffset), chunkDigests);
+    byte[] end = Arrays.copyOfRange(apk, endOffset, apk.length);
+    ByteBuffer.wrap(end).order(ByteOrder.LITTLE_ENDIAN).putInt(16, blockOffset);
+    ApkSigner.addChunkDigests(sha256, end, chunkDigests);
+    assertTrue(Arrays.equals(ApkSigner.contentDigest(sha256, chunkDigests), digest));
+  }
+
+  public void testManifestMatchesJarSigner() throws Exception {
+    File jarsigner = new File(System.getProperty("java.home"), "../bin/jarsigner");
+    if (!jarsigner.exists()) {
+      jarsigner = new File(System.getProperty("java.home"), "bin/jarsigner");
+    }
+    if (!jarsigner.exists()) {
+      return;                   // Only a JRE, nothing to compare with
+    }
+    File jarsigned = new File(directory, "jarsigned.apk");
+    Files.copy(unsignedApk, jarsigned);
+    String[] command = {
+        jarsigner.getAbsolutePath(),
+        "-digestalg", "SHA1",
+        "-sigalg", "MD5withRSA",
+        "-keystore", keystorePath,
+        "-storepass", "android",
+        jarsigned.getAbsolutePath(),
+        "AndroidKey"
+    };
+    assertTrue(Execution.execute(null, command, System.out, System.err));
+
+    Manifest expected = manifest(jarsigned);
+    Manifest actual = manifest(sign());
+    assertEquals(expected.getEntries().keySet(), actual.getEntries().keySet());
+    for (String name : expected.getEntries().keySet()) {
+      assertEquals(name, expected.getAttributes(name).getValue("SHA1-Digest"),
+          actual.getAttributes(name).getValue("SHA1-Digest"));
+    }
+  }
+
+  private static Manifest manifest(File apk) throws Exception {
+    JarFile jar = new JarFile(apk);
+    try {
+      return jar.getManifest();
+    } finally {
+      jar.close();
+    }
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int length) {
+    ByteBuffer slice = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    slice.limit(length);
+    buffer.position(buffer.position() + length);
+    return slice;
+  }
+
+  private static ByteBuffer lengthPrefixed(ByteBuffer buffer) {
+    return slice(buffer, buffer.getInt());
+  }
+
+  private static byte[] bytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+}
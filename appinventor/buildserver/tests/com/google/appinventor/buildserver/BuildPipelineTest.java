@@ -0,0 +1,174 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildPipeline class.
+ *
+ */
+public class BuildPipelineTest extends TestCase {
+  private ExecutorService executor;
+  private PrintStream out;
+  private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+  @Override
+  protected void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    out = new PrintStream(new ByteArrayOutputStream());
+  }
+
+  @Override
+  protected void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private Callable<Boolean> record(final String name, final boolean result) {
+    return new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        ran.add(name);
+        return result;
+      }
+    };
+  }
+
+  public void testStagesRunAfterTheirInputsAreWritten() throws Exception {
+    BuildPipeline pipeline = new BuildPipeline(out);
+    pipeline.addStage("package", new String[] {"resources", "classes"}, new String[] {"apk"},
+        record("package", true));
+    pipeline.addStage("resources", new String[] {}, new String[] {"resources"},
+        record("resources", true));
+    pipeline.addStage("compile", new String[] {}, new String[] {"classes"},
+        record("compile", true));
+    pipeline.addStage("sign", new String[] {"apk"}, new String[] {"signed"},
+        record("sign", true));
+    assertTrue(pipeline.run(executor));
+    assertEquals(4, ran.size());
+    assertTrue(ran.indexOf("package") > ran.indexOf("resources"));
+    assertTrue(ran.indexOf("package") > ran.indexOf("compile"));
+    assertEquals("sign", ran.get(3));
+    assertEquals(4, pipeline.getStageMillis().size());
+    assertTrue(BuildPipeline.getTimings().get("sign").getCount() >= 1);
+  }
+
+  public void testIndependentStagesRunAtTheSameTime() throws Exception {
+    // Each stage waits for the other to start, so they only finish if run concurrently.
+    final CountDownLatch started = new CountDownLatch(2);
+    Callable<Boolean> waitForOther = new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws InterruptedException {
+        started.countDown();
+        return started.await(10, TimeUnit.SECONDS);
+      }
+    };
+    BuildPipeline pipeline = new BuildPipeline(out);
+    pipeline.addStage("kawa", new String[] {}, new String[] {"classes"}, waitForOther);
+    pipeline.addStage("aapt", new String[] {}, new String[] {"resources"}, waitForOther);
+    assertTrue(pipeline.run(executor));
+  }
+
+  public void testFailedStageStopsDependents() throws Exception {
+    BuildPipeline pipeline = new BuildPipeline(out);
+    pipeline.addStage("compile", new String[] {}, new String[] {"classes"},
+        record("compile", false));
+    pipeline.addStage("dx", new String[] {"classes"}, new String[] {"dex"}, record("dx", true));
+    pipeline.addStage("throws", new String[] {}, new String[] {"other"},
+        new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            throw new IllegalStateException("expected");
+          }
+        });
+    assertFalse(pipeline.run(executor));
+    assertEquals(Collections.singletonList("compile"), ran);
+  }
+
+  public void testRemainingTimeFollowsTheLongestChain() throws Exception {
+    BuildPipeline pipeline = new BuildPipeline(out);
+    assertEquals(-1, pipeline.estimateRemainingMillis(System.currentTimeMillis()));
+    pipeline.addStage("estimateSlow", new String[] {}, new String[] {"slow"},
+        sleep("estimateSlow", 60));
+    pipeline.addStage("estimateFast", new String[] {}, new String[] {"fast"},
+        sleep("estimateFast", 10));
+    pipeline.addStage("estimateLast", new String[] {"slow", "fast"}, new String[] {"done"},
+        sleep("estimateLast", 20));
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    pipeline.setListener(new BuildPipeline.Listener() {
+      @Override
+      public void stageStarted(String name) {
+        events.add("start " + name);
+      }
+
+      @Override
+      public void stageFinished(String name, long millis, boolean succeeded) {
+        events.add("finish " + name);
+      }
+    });
+    assertTrue(pipeline.run(executor));
+    assertEquals(6, events.size());
+    assertEquals("finish estimateLast", events.get(5));
+    assertEquals(0, pipeline.estimateRemainingMillis(System.currentTimeMillis()));
+
+    // Here the first stage fails, so the last stage, which took 20 ms before, is still left.
+    BuildPipeline next = new BuildPipeline(out);
+    next.addStage("estimateSlow", new String[] {}, new String[] {"slow"}, record("a", false));
+    next.addStage("estimateFast", new String[] {}, new String[] {"fast"}, record("b", true));
+    next.addStage("estimateLast", new String[] {"slow", "fast"}, new String[] {"done"},
+        record("c", true));
+    assertFalse(next.run(executor));
+    long left = next.estimateRemainingMillis(System.currentTimeMillis());
+    assertTrue("" + left, left >= 20 && left < 1000);
+  }
+
+  private Callable<Boolean> sleep(final String name, final long millis) {
+    return new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws InterruptedException {
+        Thread.sleep(millis);
+        ran.add(name);
+        return true;
+      }
+    };
+  }
+
+  public void testInvalidGraphsAreRejected() throws Exception {
+    BuildPipeline pipeline = new BuildPipeline(out);
+    pipeline.addStage("a", new String[] {"y"}, new String[] {"x"}, record("a", true));
+    try {
+      pipeline.addStage("b", new String[] {}, new String[] {"x"}, record("b", true));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      pipeline.run(executor);
+      fail();
+    } catch (IllegalStateException e) {
+      // expected, nothing writes y
+    }
+    pipeline.addStage("c", new String[] {"x"}, new String[] {"y"}, record("c", true));
+    try {
+      pipeline.run(executor);
+      fail();
+    } catch (IllegalStateException e) {
+      // expected, a and c depend on each other
+    }
+    assertTrue(ran.isEmpty());
+  }
+}
@@ -0,0 +1,116 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Tests BuildStatus class.
+ *
+ */
+public class BuildStatusTest extends TestCase {
+
+  public void testBuildsHaveSeparateStatuses() {
+    BuildStatus first = new BuildStatus();
+    BuildStatus second = new BuildStatus();
+    BuildStatus.register(first, "first@example.com");
+    BuildStatus.register(second, "second@example.com");
+    first.setProgress(35);
+    assertEquals(35, BuildStatus.get(first.getId()).getProgress());
+    assertEquals(BuildStatus.INITIAL_PROGRESS, BuildStatus.getLatest("second@example.com")
+        .getProgress());
+    assertNull(BuildStatus.get("unknown"));
+    assertNull(BuildStatus.getLatest(null));
+  }
+
+  public void testLogIsReadInWholeLines() throws Exception {
+    BuildStatus status = new BuildStatus();
+    PrintStream log = new PrintStream(status.getLogStream(), true, "UTF-8");
+    log.print("first line\nsecond ");
+    byte[] lines = status.readLog(0);
+    assertEquals("first line\n", new String(lines, "UTF-8"));
+    assertEquals(0, status.readLog(lines.length).length);
+    log.println("line é");
+    assertEquals("second line é\n", new String(status.readLog(lines.length), "UTF-8"));
+  }
+
+  public void testLogGrowsPastItsBuffer() throws Exception {
+    BuildStatus status = new BuildStatus();
+    PrintStream log = new PrintStream(status.getLogStream(), true, "UTF-8");
+    StringBuilder expected = new StringBuilder();
+    int offset = 0;
+    for (int i = 0; i < 5000; i++) {
+      String line = "line " + i + "\n";
+      log.print(line);
+      expected.append(line);
+      byte[] lines = status.readLog(offset);
+      assertEquals(line, new String(lines, "UTF-8"));
+      offset += lines.length;
+    }
+    assertEquals(expected.toString(), new String(status.readLog(0), "UTF-8"));
+  }
+
+  public void testChangesWakeWaiters() throws Exception {
+    final BuildStatus status = new BuildStatus();
+    long version = status.awaitChange(0, 1);
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        status.setProgress(50);
+      }
+    };
+    thread.start();
+    assertTrue(status.awaitChange(version, 10000) > version);
+    thread.join();
+    status.finish(true);
+    assertTrue(status.isFinished());
+    // A finished build never blocks.
+    status.awaitChange(status.awaitChange(0, 0), 10000);
+  }
+
+  public void testJsonReportsStages() throws Exception {
+    BuildStatus status = new BuildStatus();
+    BuildPipeline pipeline = new BuildPipeline(new PrintStream(new ByteArrayOutputStream()));
+    pipeline.addStage("statusFirst", new String[] {}, new String[] {"a"}, succeed());
+    pipeline.addStage("statusSecond", new String[] {"a"}, new String[] {"b"}, succeed());
+    status.setPipeline(pipeline);
+    JSONObject json = status.toJson();
+    assertEquals(status.getId(), json.getString("id"));
+    assertEquals("waiting", json.getJSONArray("stages").getJSONObject(0).getString("state"));
+    assertEquals(-1, json.getLong("remainingMs"));
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      assertTrue(pipeline.run(executor));
+    } finally {
+      executor.shutdown();
+    }
+    status.finish(true);
+    json = status.toJson();
+    assertTrue(json.getBoolean("finished"));
+    assertTrue(json.getBoolean("succeeded"));
+    assertEquals(0, json.getLong("remainingMs"));
+    assertEquals("statusSecond", json.getJSONArray("stages").getJSONObject(1).getString("name"));
+    assertEquals("finished", json.getJSONArray("stages").getJSONObject(1).getString("state"));
+  }
+
+  private static Callable<Boolean> succeed() {
+    return new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return true;
+      }
+    };
+  }
+}
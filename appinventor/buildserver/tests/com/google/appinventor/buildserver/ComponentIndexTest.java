@@ -0,0 +1,68 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ComponentIndex class.
+ *
+ */
+public class ComponentIndexTest extends TestCase {
+  private static final String COMPONENTS = "["
+      + "{\"name\": \"Button\", \"type\": \"com.example.Button\"},"
+      + "{\"name\": \"Sound\", \"type\": \"com.example.Sound\"}]";
+  private static final String TYPES = "com.example.Button\ncom.example.Sound";
+  private static final String BUILD_INFO = "["
+      + "{\"type\": \"com.example.Button\", \"permissions\": [],"
+      + " \"libraries\": [\"a.jar\", \"\", \"b.aar\"]},"
+      + "{\"type\": \"com.example.Sound\", \"permissions\": [\"android.permission.VIBRATE\"],"
+      + " \"androidMinSdk\": [\"7\"]}]";
+
+  private ComponentIndex index;
+
+  @Override
+  protected void setUp() throws Exception {
+    index = new ComponentIndex(COMPONENTS, TYPES, BUILD_INFO);
+  }
+
+  public void testTypes() {
+    assertEquals(2, index.getTypes().size());
+    assertTrue(index.getTypes().contains("com.example.Sound"));
+    assertEquals(index.getTypes(), index.getCompanionTypes());
+    assertEquals("com.example.Button", index.getTypesByName().get("Button"));
+  }
+
+  public void testBuildInfoLeavesOutEmptyValues() {
+    Map<String, Set<String>> permissions = index.getBuildInfo("permissions");
+    assertEquals(Collections.singleton("com.example.Sound"), permissions.keySet());
+    assertEquals(Collections.singleton("android.permission.VIBRATE"),
+        permissions.get("com.example.Sound"));
+    Set<String> libraries = index.getBuildInfo("libraries").get("com.example.Button");
+    assertEquals(2, libraries.size());
+    assertFalse(libraries.contains(""));
+    assertTrue(index.getBuildInfo("broadcastReceiver").isEmpty());
+  }
+
+  public void testIndexCannotBeModified() {
+    try {
+      index.getBuildInfo("libraries").get("com.example.Button").add("c.jar");
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      index.getTypesByName().put("Label", "com.example.Label");
+      fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+}
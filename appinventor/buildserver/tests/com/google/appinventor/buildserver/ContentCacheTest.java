@@ -0,0 +1,96 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ContentCache class.
+ */
+public class ContentCacheTest extends TestCase {
+  private static final byte[] ASSET = { (byte) 0, (byte) 1, (byte) 32, (byte) 255 };
+  private static final String ASSET_HASH = Hashing.sha256().hashBytes(ASSET).toString();
+
+  private File directory;
+  private ContentCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    directory = Files.createTempDir();
+    cache = new ContentCache(directory, 1024 * 1024);
+  }
+
+  public void testRememberAndRestore() throws Exception {
+    assertEquals(Collections.singletonList(ASSET_HASH),
+        cache.getMissing(Collections.singletonList(ASSET_HASH)));
+
+    File full = createZip("assets/kitty.png", ASSET);
+    cache.remember(full);
+    assertTrue(cache.getMissing(Collections.singletonList(ASSET_HASH)).isEmpty());
+    assertSame(full, cache.restore(full));
+
+    File partial = createZip(ContentCache.MANIFEST_ENTRY,
+        (ASSET_HASH + " assets/meow.png\n").getBytes("UTF-8"));
+    File restored = cache.restore(partial);
+    ZipFile zipFile = new ZipFile(restored);
+    try {
+      assertNull(zipFile.getEntry(ContentCache.MANIFEST_ENTRY));
+      InputStream in = zipFile.getInputStream(zipFile.getEntry("assets/meow.png"));
+      try {
+        assertTrue(Arrays.equals(ASSET, ByteStreams.toByteArray(in)));
+      } finally {
+        in.close();
+      }
+    } finally {
+      zipFile.close();
+    }
+  }
+
+  public void testRestoreEvictedContent() throws Exception {
+    File partial = createZip(ContentCache.MANIFEST_ENTRY,
+        (ASSET_HASH + " assets/kitty.png\n").getBytes("UTF-8"));
+    try {
+      cache.restore(partial);
+      fail();
+    } catch (FileNotFoundException e) {
+      // expected
+    }
+  }
+
+  public void testInvalidDigestIsMissing() {
+    assertEquals(Collections.singletonList("../secret"),
+        cache.getMissing(Collections.singletonList("../secret")));
+  }
+
+  private File createZip(String name, byte[] content) throws IOException {
+    File zip = File.createTempFile("content", ".zip");
+    zip.deleteOnExit();
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip));
+    try {
+      out.putNextEntry(new ZipEntry("src/com/example/Screen1.scm"));
+      out.write(new byte[] { (byte) 1 });
+      out.putNextEntry(new ZipEntry(name));
+      out.write(content);
+    } finally {
+      out.close();
+    }
+    return zip;
+  }
+}
@@ -421,8 +421,21 @@ public class YaVersion {
   // - FEATURE_COLLECTION_COMPONENT_VERSION was incremented to 2
   // For YOUNG_ANDROID_VERSION 167:
   // - FORM_COMPONENT_VERSION was incremented to 23
-
-  public static final int YOUNG_ANDROID_VERSION = 167;
+  // For YOUNG_ANDROID_VERSION 168:
+  // - FILE_COMPONENT_VERSION was incremented to 3
+  // For YOUNG_ANDROID_VERSION 169:
+  // - BLUETOOTHCLIENT_COMPONENT_VERSION was incremented to 6
+  // - BLUETOOTHSERVER_COMPONENT_VERSION was incremented to 6
+  // For YOUNG_ANDROID_VERSION 170:
+  // - ACCELEROMETERSENSOR_COMPONENT_VERSION was incremented to 5
+  // - GYROSCOPESENSOR_COMPONENT_VERSION was incremented to 2
+  // - ORIENTATIONSENSOR_COMPONENT_VERSION was incremented to 3
+  // For YOUNG_ANDROID_VERSION 171:
+  // - FILE_COMPONENT_VERSION was incremented to 4
+  // For YOUNG_ANDROID_VERSION 172:
+  // - MAP_COMPONENT_VERSION was incremented to 4
+
+  public static final int YOUNG_ANDROID_VERSION = 172;
 
   // ............................... Blocks Language Version Number ...............................
 
@@ -532,7 +545,10 @@ public class YaVersion {
   // - AccelerometerSensor.Sensitivty property was added.
   //For ACCELEROMETERSENSOR_COMPONENT_VERSION 4:
   // - Added the LegacyMode property.
-  public static final int ACCELEROMETERSENSOR_COMPONENT_VERSION = 4;
+  //For ACCELEROMETERSENSOR_COMPONENT_VERSION 5:
+  // - Added the SamplingInterval and Samples properties. AccelerationChanged is raised at
+  //   most once per screen refresh.
+  public static final int ACCELEROMETERSENSOR_COMPONENT_VERSION = 5;
 
   // For ACTIVITYSTARTER_COMPONENT_VERSION 2:
   // - The ActivityStarter.DataType, ActivityStarter.ResultType, and ActivityStarter.ResultUri
@@ -573,7 +589,10 @@ public class YaVersion {
   // - The BluetoothClient.DelimiterByte property was added.
   // For BLUETOOTHCLIENT_COMPONENT_VERSION 5:
   // - The BluetoothClient.Secure property was added.
-  public static final int BLUETOOTHCLIENT_COMPONENT_VERSION = 5;
+  // For BLUETOOTHCLIENT_COMPONENT_VERSION 6:
+  // - The ReceiveInBackground, ReceiveBufferSize, BytesReceived and BytesDropped properties
+  //   and the DataReceived event were added.
+  public static final int BLUETOOTHCLIENT_COMPONENT_VERSION = 6;
 
   // For BLUETOOTHSERVER_COMPONENT_VERSION 2:
   // - The BluetoothServer.Enabled property was added.
@@ -583,7 +602,10 @@ public class YaVersion {
   // - The BluetoothServer.DelimiterByte property was added.
   // For BLUETOOTHSERVER_COMPONENT_VERSION 5:
   // - The BluetoothServer.Secure property was added.
-  public static final int BLUETOOTHSERVER_COMPONENT_VERSION = 5;
+  // For BLUETOOTHSERVER_COMPONENT_VERSION 6:
+  // - The ReceiveInBackground, ReceiveBufferSize, BytesReceived and BytesDropped properties
+  //   and the DataReceived event were added.
+  public static final int BLUETOOTHSERVER_COMPONENT_VERSION = 6;
 
   // For BUTTON_COMPONENT_VERSION 2:
   // - The Alignment property was renamed to TextAlignment.
@@ -685,7 +707,14 @@ public class YaVersion {
 
   // For FILE_COMPONENT_VERSION 2:
   // - The AfterFileSaved event was added.
-  public static final int FILE_COMPONENT_VERSION = 2;
+  // For FILE_COMPONENT_VERSION 3:
+  // - The ReadCsvFrom and SaveCsvFile methods were added.
+  // - The GotCsvRow and AfterCsvRead events were added.
+  // For FILE_COMPONENT_VERSION 4:
+  // - The AppendFlushInterval property was added.
+  // - The Flush, ReadLines, ReadTail and ReadRange methods were added.
+  // - The GotLines, AfterLinesRead and GotTextRange events were added.
+  public static final int FILE_COMPONENT_VERSION = 4;
 
   // For FORM_COMPONENT_VERSION 2:
   // - The Screen.Scrollable property was added.
@@ -750,7 +779,10 @@ public class YaVersion {
 
   public static final int GAMECLIENT_COMPONENT_VERSION = 1;
 
-  public static final int GYROSCOPESENSOR_COMPONENT_VERSION = 1;
+  // For GYROSCOPESENSOR_COMPONENT_VERSION 2:
+  // - Added the SamplingInterval and Samples properties. GyroscopeChanged is raised at most
+  //   once per screen refresh.
+  public static final int GYROSCOPESENSOR_COMPONENT_VERSION = 2;
 
   // For HORIZONTALARRANGEMENT_COMPONENT_VERSION 2:
   // - The AlignHorizontal property was added
@@ -852,7 +884,10 @@ public class YaVersion {
   // For MAP_COMPONENT_VERSION 3:
   // - GotGeoJSON was renamed to GotFeatures
   // - GeoJSONError was renamed to LoadError
-  public static final int MAP_COMPONENT_VERSION = 3;
+  // For MAP_COMPONENT_VERSION 4:
+  // - Added ClusterMarkers property
+  // - Added NearestFeature method
+  public static final int MAP_COMPONENT_VERSION = 4;
 
   // For MARKER_COMPONENT_VERSION 1:
   // - Initial Marker implementation using OpenStreetMap
@@ -904,7 +939,10 @@ public class YaVersion {
   // For ORIENTATIONSENSOR_COMPONENT_VERSION = 2:
   // - The Yaw property was renamed to Azimuth.
   // - The yaw parameter to OrientationChanged was renamed to azimuth.
-  public static final int ORIENTATIONSENSOR_COMPONENT_VERSION = 2;
+  // For ORIENTATIONSENSOR_COMPONENT_VERSION = 3:
+  // - Added the SamplingInterval property. OrientationChanged is raised at most once per
+  //   screen refresh.
+  public static final int ORIENTATIONSENSOR_COMPONENT_VERSION = 3;
 
   // For PASSWORDTEXTBOX_COMPONENT_VERSION 2:
   // - The Alignment property was renamed to TextAlignment.
@@ -18,13 +18,13 @@ import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
+import com.google.appinventor.components.runtime.util.SensorEventCoalescer;
+import com.google.appinventor.components.runtime.util.YailList;
 
 import android.content.Context;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
 import android.os.Handler;
@@ -34,6 +34,8 @@ import android.util.Log;
 import android.view.Surface;
 import android.view.WindowManager;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
@@ -78,7 +80,8 @@ import java.util.Queue;
     iconName = "images/accelerometersensor.png")
 @SimpleObject
 public class AccelerometerSensor extends AndroidNonvisibleComponent
-    implements OnStopListener, OnResumeListener, SensorComponent, SensorEventListener, Deleteable {
+    implements OnStopListener, OnResumeListener, SensorComponent, SensorEventCoalescer.Listener,
+    Deleteable {
 
   // Logging and Debugging
   private final static String LOG_TAG = "AccelerometerSensor";
@@ -99,6 +102,8 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
   private float xAccel;
   private float yAccel;
   private float zAccel;
+  // Samples delivered with the latest AccelerationChanged event
+  private List<SensorEventCoalescer.Sample> samples = Collections.emptyList();
 
   private int accuracy;
   private int sensitivity;
@@ -119,6 +124,7 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
   private long timeLastShook;
 
   private Sensor accelerometerSensor;
+  private final SensorEventCoalescer coalescer;
 
   // Set to true to disable landscape mode tablet fix
   private boolean legacyMode = false;
@@ -142,6 +148,8 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
     sensorManager = (SensorManager) container.$context().getSystemService(Context.SENSOR_SERVICE);
     accelerometerSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
     androidUIHandler = new Handler();
+    coalescer = new SensorEventCoalescer(sensorManager, this, accelerometerSensor);
+    SamplingInterval(20);
     startListening();
     MinimumInterval(400);
     Sensitivity(Component.ACCELEROMETER_SENSITIVITY_MODERATE);
@@ -176,6 +184,57 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
     minimumInterval = interval;
   }
 
+  /**
+   * Returns the minimum time between two readings of the sensor, in
+   * milliseconds.
+   *
+   * @return  sampling interval in ms
+   */
+  @SimpleProperty(
+      category = PropertyCategory.BEHAVIOR,
+      description = "The minimum time in milliseconds between two readings of the sensor. " +
+      "0 means as often as the sensor allows.")
+  public int SamplingInterval() {
+    return coalescer.getSamplingInterval();
+  }
+
+  /**
+   * Specifies the minimum time between two readings of the sensor, in
+   * milliseconds. AccelerationChanged is raised at most once per screen
+   * refresh whatever the interval; a shorter interval gives more Samples
+   * and finer shake detection.
+   *
+   * @param interval  sampling interval in ms
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "20")
+  @SimpleProperty
+  public void SamplingInterval(int interval) {
+    coalescer.setSamplingInterval(Math.max(interval, 0));
+  }
+
+  /**
+   * Returns the readings received since the previous AccelerationChanged
+   * event.
+   *
+   * @return  a list of (x, y, z, timestamp) lists, oldest first
+   */
+  @SimpleProperty(
+      category = PropertyCategory.BEHAVIOR,
+      description = "The readings received since the previous AccelerationChanged event, " +
+      "oldest first. Each reading is a list of the X, Y and Z acceleration and the " +
+      "timestamp in nanoseconds.")
+  public YailList Samples() {
+    List<YailList> readings = new ArrayList<YailList>(samples.size());
+    float[] accel = new float[3];
+    for (SensorEventCoalescer.Sample sample : samples) {
+      toScreenAxes(sample.values, accel);
+      readings.add(YailList.makeList(new Object[] {
+          accel[0], accel[1], accel[2], sample.timestamp }));
+    }
+    return YailList.makeList(readings);
+  }
+
   /**
    * Returns a number that encodes how sensitive the AccelerometerSensor is.
    * The choices are: 1 = weak, 2 = moderate, 3 = strong.
@@ -217,12 +276,21 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
   /**
    * Indicates the acceleration changed in the X, Y, and/or Z dimensions.
    */
-  @SimpleEvent
+  @SimpleEvent(description = "Indicates the acceleration changed in the X, Y, and/or Z " +
+      "dimensions. The event is raised at most once per screen refresh, with the latest " +
+      "values; the Samples property holds every reading since the previous event.")
   public void AccelerationChanged(float xAccel, float yAccel, float zAccel) {
     this.xAccel = xAccel;
     this.yAccel = yAccel;
     this.zAccel = zAccel;
 
+    EventDispatcher.dispatchEvent(this, "AccelerationChanged", xAccel, yAccel, zAccel);
+  }
+
+  /*
+   * Feeds one reading to shake detection, raising Shaking if needed.
+   */
+  private void detectShaking(float xAccel, float yAccel, float zAccel) {
     addToSensorCache(X_CACHE, xAccel);
     addToSensorCache(Y_CACHE, yAccel);
     addToSensorCache(Z_CACHE, zAccel);
@@ -236,8 +304,6 @@ public class AccelerometerSensor extends AndroidNonvisibleComponent
       timeLastShook = currentTime;
       Shaking();
     }
-
-    EventDispatcher.dispatchEvent(this, "AccelerationChanged", xAccel, yAccel, zAccel);
   }
 
 public int getDeviceDefaultOrientation() {
@@ -308,12 +374,13 @@ public int getDeviceDefaultOrientation() {
         }
       }, 32);                   // Wait 32ms for the UI to settle down
 
-    sensorManager.registerListener(this, accelerometerSensor, SensorManager.SENSOR_DELAY_GAME);
+    coalescer.start();
   }
 
   // Assumes that sensorManager has been initialized, which happens in constructor
   private void stopListening() {
-    sensorManager.unregisterListener(this);
+    coalescer.stop();
+    samples = Collections.emptyList();
   }
 
   /**
@@ -433,30 +500,36 @@ public int getDeviceDefaultOrientation() {
     return legacyMode;
   }
 
-  // SensorListener implementation
-  @Override
-  public void onSensorChanged(SensorEvent sensorEvent) {
-    if (enabled) {
-      final float[] values = sensorEvent.values;
-      // make landscapePrimary devices report acceleration as if they were
-      // portraitPrimary
-      if ((deviceDefaultOrientation == Configuration.ORIENTATION_LANDSCAPE) &&
-          !legacyMode) {
-        xAccel = values[1];
-        yAccel = -values[0];
-      } else {
-        xAccel = values[0];
-        yAccel = values[1];
-      }
-      zAccel = values[2];
-      accuracy = sensorEvent.accuracy;
-      AccelerationChanged(xAccel, yAccel, zAccel);
+  /*
+   * Copies raw sensor values to accel, making landscapePrimary devices
+   * report acceleration as if they were portraitPrimary.
+   */
+  private void toScreenAxes(float[] values, float[] accel) {
+    if ((deviceDefaultOrientation == Configuration.ORIENTATION_LANDSCAPE) &&
+        !legacyMode) {
+      accel[0] = values[1];
+      accel[1] = -values[0];
+    } else {
+      accel[0] = values[0];
+      accel[1] = values[1];
     }
+    accel[2] = values[2];
   }
 
+  // SensorEventCoalescer.Listener implementation
   @Override
-  public void onAccuracyChanged(Sensor sensor, int accuracy) {
-    // TODO(markf): Figure out if we actually need to do something here.
+  public void onSensorSamples(List<SensorEventCoalescer.Sample> samples) {
+    if (enabled) {
+      this.samples = samples;
+      float[] accel = new float[3];
+      // Every reading counts for shake detection, but only the latest is reported.
+      for (SensorEventCoalescer.Sample sample : samples) {
+        toScreenAxes(sample.values, accel);
+        detectShaking(accel[0], accel[1], accel[2]);
+        accuracy = sample.accuracy;
+      }
+      AccelerationChanged(accel[0], accel[1], accel[2]);
+    }
   }
 
   // OnResumeListener implementation
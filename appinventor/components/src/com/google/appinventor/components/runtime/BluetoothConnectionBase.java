@@ -14,6 +14,7 @@ import com.google.appinventor.components.annotations.SimpleObject;
 import com.google.appinventor.components.annotations.SimpleProperty;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.runtime.util.BluetoothReflection;
+import com.google.appinventor.components.runtime.util.ByteRingBuffer;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.SdkLevel;
 import com.google.appinventor.components.runtime.util.YailList;
@@ -25,11 +26,14 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * An abstract base class for the BluetoothClient and BluetoothServer
@@ -41,6 +45,10 @@ import java.util.List;
 public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     implements Component, OnDestroyListener, Deleteable {
 
+  // Number of bytes the background reader asks the socket for at a time
+  private static final int READ_CHUNK_SIZE = 1024;
+  private static final int MAX_RECEIVE_BUFFER_SIZE = 1 << 20;
+
   protected final String logTag;
   private final List<BluetoothConnectionListener> bluetoothConnectionListeners =
       new ArrayList<BluetoothConnectionListener>();
@@ -54,6 +62,13 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
   private InputStream inputStream;
   private OutputStream outputStream;
 
+  private boolean receiveInBackground;
+  private int receiveBufferSize;
+  // Non-null while connected with ReceiveInBackground set; also serves as inputStream
+  private BackgroundReader backgroundReader;
+  private final AtomicLong bytesReceived = new AtomicLong();
+  private final AtomicLong bytesDropped = new AtomicLong();
+
   /**
    * Creates a new BluetoothConnectionBase.
    */
@@ -70,6 +85,8 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     CharacterEncoding("UTF-8");
     DelimiterByte(0);
     Secure(true);
+    ReceiveInBackground(false);
+    ReceiveBufferSize(4096);
   }
 
   /**
@@ -162,8 +179,16 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
 
   protected final void setConnection(Object bluetoothSocket) throws IOException {
     connectedBluetoothSocket = bluetoothSocket;
-    inputStream = new BufferedInputStream(
-        BluetoothReflection.getInputStream(connectedBluetoothSocket));
+    InputStream socketInputStream = BluetoothReflection.getInputStream(connectedBluetoothSocket);
+    bytesReceived.set(0);
+    bytesDropped.set(0);
+    if (receiveInBackground) {
+      backgroundReader = new BackgroundReader(socketInputStream, receiveBufferSize);
+      inputStream = backgroundReader;
+      backgroundReader.start();
+    } else {
+      inputStream = new BufferedInputStream(socketInputStream);
+    }
     outputStream = new BufferedOutputStream(
         BluetoothReflection.getOutputStream(connectedBluetoothSocket));
     fireAfterConnectEvent();
@@ -176,6 +201,11 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
   public final void Disconnect() {
     if (connectedBluetoothSocket != null) {
       fireBeforeDisconnectEvent();
+      if (backgroundReader != null) {
+        // Closing the socket below wakes the reader thread up.
+        backgroundReader.stop();
+        backgroundReader = null;
+      }
       try {
         BluetoothReflection.closeBluetoothSocket(connectedBluetoothSocket);
         Log.i(logTag, "Disconnected from Bluetooth device.");
@@ -301,6 +331,87 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     return delimiter;
   }
 
+  /**
+   * Returns whether incoming data is read on a background thread.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "Whether incoming data is read on a background thread into a buffer of " +
+      "ReceiveBufferSize bytes. When True, each complete message ending with the DelimiterByte " +
+      "is delivered by the DataReceived event if it is handled, and the Receive blocks read " +
+      "from the buffer. Changes take effect on the next connection.")
+  public boolean ReceiveInBackground() {
+    return receiveInBackground;
+  }
+
+  /**
+   * Specifies whether incoming data is read on a background thread. Takes
+   * effect on the next connection.
+   *
+   * @param receiveInBackground {@code true} to read in the background
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN,
+      defaultValue = "False")
+  @SimpleProperty
+  public void ReceiveInBackground(boolean receiveInBackground) {
+    this.receiveInBackground = receiveInBackground;
+  }
+
+  /**
+   * Returns the size in bytes of the buffer used when ReceiveInBackground is
+   * true.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The number of received bytes that can be held while waiting to be read " +
+      "when ReceiveInBackground is True. Bytes that arrive while the buffer is full are " +
+      "dropped and counted in BytesDropped.")
+  public int ReceiveBufferSize() {
+    return receiveBufferSize;
+  }
+
+  /**
+   * Specifies the size in bytes of the buffer used when ReceiveInBackground
+   * is true. Takes effect on the next connection.
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "4096")
+  @SimpleProperty
+  public void ReceiveBufferSize(int size) {
+    receiveBufferSize = Math.min(Math.max(size, 1), MAX_RECEIVE_BUFFER_SIZE);
+  }
+
+  /**
+   * Returns the number of bytes received on the current connection.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The number of bytes received in the background since the last " +
+      "connection was made.")
+  public long BytesReceived() {
+    return bytesReceived.get();
+  }
+
+  /**
+   * Returns the number of received bytes that did not fit in the buffer.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The number of bytes received in the background since the last " +
+      "connection was made that were dropped because the buffer was full.")
+  public long BytesDropped() {
+    return bytesDropped.get();
+  }
+
+  /**
+   * Indicates that messages ending with the DelimiterByte have been received
+   * in the background.
+   *
+   * @param messages the text of each message, without the delimiter
+   */
+  @SimpleEvent(description = "Event indicating that one or more messages ending with the " +
+      "DelimiterByte have been received while ReceiveInBackground is True. The messages " +
+      "are given in order as a list of text, without the delimiter.")
+  public void DataReceived(YailList messages) {
+    EventDispatcher.dispatchEvent(this, "DataReceived", messages);
+  }
+
   /**
    * Converts the given text to bytes and writes them to the output stream.
    *
@@ -793,6 +904,167 @@ public abstract class BluetoothConnectionBase extends AndroidNonvisibleComponent
     return buffer.toByteArray();
   }
 
+  /**
+   * Hands the complete messages in the background reader's buffer to the
+   * DataReceived event. Runs on the UI thread, at most once per batch of
+   * data that arrived while the previous call was pending, so a fast sender
+   * produces one event per UI frame rather than one per message.
+   *
+   * <p>Messages are only taken from the buffer if the event is handled, so
+   * apps that use the Receive blocks still see them.
+   */
+  private void deliverMessages(BackgroundReader reader) {
+    if (reader != backgroundReader) {
+      return; // disconnected since this was scheduled
+    }
+    ByteRingBuffer buffer = reader.buffer;
+    List<String> messages = new ArrayList<String>();
+    int consumed = 0;
+    int end;
+    while ((end = buffer.indexOf(delimiter, consumed)) != -1) {
+      byte[] bytes = new byte[end - consumed];
+      buffer.peek(consumed, bytes, 0, bytes.length);
+      messages.add(decode(bytes));
+      consumed = end + 1;
+    }
+    boolean full = buffer.available() == buffer.capacity();
+    if (messages.isEmpty() && !full) {
+      return;
+    }
+    // Without a handler, leave the messages for the Receive blocks.
+    if (!EventDispatcher.dispatchEvent(this, "DataReceived", YailList.makeList(messages))) {
+      return;
+    }
+    buffer.skip(consumed);
+    if (messages.isEmpty()) {
+      // A message longer than the buffer can never be completed.
+      bytesDropped.addAndGet(buffer.clear());
+    }
+  }
+
+  private String decode(byte[] bytes) {
+    try {
+      return new String(bytes, encoding);
+    } catch (UnsupportedEncodingException e) {
+      Log.w(logTag, "UnsupportedEncodingException: " + e.getMessage());
+      return new String(bytes);
+    }
+  }
+
+  /**
+   * Reads from the socket on its own thread into a {@link ByteRingBuffer},
+   * and serves the Receive functions from that buffer. Reads from this
+   * stream block until data arrives or the connection ends, like reads from
+   * the socket would.
+   */
+  private final class BackgroundReader extends InputStream implements Runnable {
+    private final InputStream socketInputStream;
+    private final ByteRingBuffer buffer;
+    private final Thread thread;
+    // Lets a blocked read sleep until the reader thread stores more bytes
+    private final Object dataArrived = new Object();
+    private final AtomicBoolean deliveryPending = new AtomicBoolean();
+    private final byte[] oneByte = new byte[1];
+    private volatile boolean stopped;
+    private volatile boolean endOfStream;
+
+    BackgroundReader(InputStream socketInputStream, int bufferSize) {
+      this.socketInputStream = socketInputStream;
+      buffer = new ByteRingBuffer(bufferSize);
+      thread = new Thread(this, logTag + " reader");
+    }
+
+    void start() {
+      thread.start();
+    }
+
+    void stop() {
+      stopped = true;
+      signal();
+    }
+
+    @Override
+    public void run() {
+      byte[] chunk = new byte[READ_CHUNK_SIZE];
+      try {
+        while (!stopped) {
+          int count = socketInputStream.read(chunk);
+          if (count == -1) {
+            break;
+          }
+          int stored = buffer.write(chunk, 0, count);
+          bytesReceived.addAndGet(count);
+          if (stored < count) {
+            bytesDropped.addAndGet(count - stored);
+          }
+          signal();
+          scheduleDelivery();
+        }
+      } catch (IOException e) {
+        if (!stopped) {
+          Log.w(logTag, "Error while receiving: " + e.getMessage());
+        }
+      } finally {
+        endOfStream = true;
+        signal();
+      }
+    }
+
+    private void signal() {
+      synchronized (dataArrived) {
+        dataArrived.notifyAll();
+      }
+    }
+
+    private void scheduleDelivery() {
+      if (deliveryPending.compareAndSet(false, true)) {
+        form.runOnUiThread(new Runnable() {
+          @Override
+          public void run() {
+            deliveryPending.set(false);
+            deliverMessages(BackgroundReader.this);
+          }
+        });
+      }
+    }
+
+    @Override
+    public int available() {
+      return buffer.available();
+    }
+
+    @Override
+    public int read() throws IOException {
+      return read(oneByte, 0, 1) == -1 ? -1 : oneByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      synchronized (dataArrived) {
+        while (true) {
+          // Check for the end first so bytes stored just before it are not lost.
+          boolean ended = endOfStream || stopped;
+          int count = buffer.read(bytes, offset, length);
+          if (count > 0) {
+            return count;
+          }
+          if (ended) {
+            return -1;
+          }
+          try {
+            dataArrived.wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+          }
+        }
+      }
+    }
+  }
+
   // OnDestroyListener implementation
 
   @Override
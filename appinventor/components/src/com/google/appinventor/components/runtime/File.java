@@ -18,16 +18,23 @@ import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.util.AsynchUtil;
+import com.google.appinventor.components.runtime.util.CsvUtil;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.FileUtil;
+import com.google.appinventor.components.runtime.util.YailList;
 import com.google.appinventor.components.runtime.Form;
 import com.google.appinventor.components.runtime.ReplForm;
 
 import android.app.Activity;
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.os.Environment;
+import android.os.Handler;
 import android.util.Log;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileInputStream;
@@ -35,7 +42,21 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 
 /**
  * A Component for working with files and directories on the device.
@@ -53,13 +74,123 @@ import java.io.StringWriter;
     iconName = "images/file.png")
 @SimpleObject
 @UsesPermissions(permissionNames = "android.permission.WRITE_EXTERNAL_STORAGE, android.permission.READ_EXTERNAL_STORAGE")
-public class File extends AndroidNonvisibleComponent implements Component {
+public class File extends AndroidNonvisibleComponent implements Component, Deleteable,
+    OnPauseListener, OnDestroyListener {
   public static final String NO_ASSETS = "No_Assets";
   private final Activity activity;
   private boolean isRepl = false;
   private final int BUFFER_LENGTH = 4096;
   private static final String LOG_TAG = "FileComponent";
 
+  // ReadCsvFrom raises GotCsvRow for this many rows per message to the main thread, and waits
+  // while this many of those messages are still queued.
+  private static final int CSV_BATCH_SIZE = 100;
+  private static final int CSV_BATCHES_IN_FLIGHT = 4;
+
+  // Files at least this large are memory mapped rather than read through a stream
+  private static final int MAP_THRESHOLD = 256 * 1024;
+  // How far ReadTail steps back at a time while looking for the start of the tail
+  private static final int TAIL_CHUNK = 8192;
+
+  // Buffered appends, see AppendFlushInterval
+  private final Handler handler = new Handler();
+  private int appendFlushInterval = 0;
+  // Text appended to each file since the last flush, in the order the files were first appended to
+  private final Map<String, StringBuilder> pendingAppends =
+      new LinkedHashMap<String, StringBuilder>();
+  private boolean flushScheduled;
+  private final Runnable flushAppends = new Runnable() {
+    @Override
+    public void run() {
+      Flush();
+    }
+  };
+
+  // Reads and writes files one task at a time, in the order they were asked for, so that a file
+  // is never read, replaced or deleted before the writes asked for earlier are done.
+  private final Executor fileTasks = new Executor() {
+    private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+    private boolean running;
+
+    private final Runnable runTasks = new Runnable() {
+      @Override
+      public void run() {
+        while (true) {
+          Runnable task;
+          synchronized (tasks) {
+            task = tasks.poll();
+            if (task == null) {
+              running = false;
+              return;
+            }
+          }
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "File task failed", e);
+          }
+        }
+      }
+    };
+
+    @Override
+    public void execute(Runnable task) {
+      synchronized (tasks) {
+        tasks.add(task);
+        if (running) {
+          return;
+        }
+        running = true;
+      }
+      AsynchUtil.runAsynchronously(runTasks);
+    }
+  };
+
+  /**
+   * A range of bytes of a file or of an uncompressed asset, which can be read
+   * at any position.
+   */
+  private static final class FileRegion implements Closeable {
+    final FileChannel channel;
+    final long start;
+    final long length;
+    private final Closeable source;
+
+    FileRegion(FileChannel channel, long start, long length, Closeable source) {
+      this.channel = channel;
+      this.start = start;
+      this.length = length;
+      this.source = source;
+    }
+
+    /**
+     * Reads {@code count} bytes from {@code offset}, relative to the start of
+     * the region. Large ranges are memory mapped rather than copied.
+     */
+    ByteBuffer read(long offset, int count) throws IOException {
+      if (count >= MAP_THRESHOLD) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start + offset, count);
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(count);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, start + offset + buffer.position()) < 0) {
+          break;
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+
+    @Override
+    public void close() {
+      try {
+        source.close();
+      } catch (IOException e) {
+        // do nothing...
+      }
+    }
+  }
+
   /**
    * Creates a new File component.
    * @param container the Form that this component is contained in.
@@ -70,6 +201,36 @@ public class File extends AndroidNonvisibleComponent implements Component {
       isRepl = true;
     }
     activity = (Activity) container.$context();
+    form.registerForOnPause(this);
+    form.registerForOnDestroy(this);
+  }
+
+  /**
+   * Returns how long, in milliseconds, AppendToFile keeps text in memory
+   * before writing it to the file.
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "How long, in milliseconds, AppendToFile collects text before writing it to " +
+      "the file. 0 writes the text at once.")
+  public int AppendFlushInterval() {
+    return appendFlushInterval;
+  }
+
+  /**
+   * Sets how long AppendToFile keeps text in memory before writing it. An
+   * app that logs data every second opens, writes and closes the file once
+   * per interval instead of once per append.
+   *
+   * @param interval the interval in milliseconds, or 0 to write at once
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "0")
+  @SimpleProperty
+  public void AppendFlushInterval(int interval) {
+    appendFlushInterval = Math.max(0, interval);
+    if (appendFlushInterval == 0) {
+      Flush();
+    }
   }
 
   /**
@@ -92,6 +253,7 @@ public class File extends AndroidNonvisibleComponent implements Component {
     if (fileName.startsWith("/")) {
       FileUtil.checkExternalStorageWriteable(); // Only check if writing to sdcard
     }
+    pendingAppends.remove(fileName);  // Would be overwritten anyway
     Write(fileName, text, false);
   }
 
@@ -109,7 +271,49 @@ public class File extends AndroidNonvisibleComponent implements Component {
     if (fileName.startsWith("/")) {
       FileUtil.checkExternalStorageWriteable(); // Only check if writing to sdcard
     }
-    Write(fileName, text, true);
+    if (appendFlushInterval == 0 || fileName.startsWith("//")) {
+      Write(fileName, text, true);
+      return;
+    }
+    StringBuilder pending = pendingAppends.get(fileName);
+    if (pending == null) {
+      pending = new StringBuilder();
+      pendingAppends.put(fileName, pending);
+    }
+    pending.append(text);
+    if (!flushScheduled) {
+      flushScheduled = true;
+      handler.postDelayed(flushAppends, appendFlushInterval);
+    }
+  }
+
+  /**
+   * Writes the text that AppendToFile collected to the files.
+   */
+  @SimpleFunction(description = "Writes any text that AppendToFile is still collecting, " +
+      "because of the AppendFlushInterval, to its file right away. AfterFileSaved is raised " +
+      "for each file once it has been written.")
+  public void Flush() {
+    handler.removeCallbacks(flushAppends);
+    flushScheduled = false;
+    if (pendingAppends.isEmpty()) {
+      return;
+    }
+    for (Map.Entry<String, StringBuilder> entry : pendingAppends.entrySet()) {
+      fileTasks.execute(writeTask(entry.getKey(), entry.getValue().toString(), true));
+    }
+    pendingAppends.clear();
+  }
+
+  /**
+   * Queues the text AppendToFile collected for one file, so that it is
+   * written before the file is read.
+   */
+  private void flushPending(String fileName) {
+    StringBuilder pending = pendingAppends.remove(fileName);
+    if (pending != null) {
+      fileTasks.execute(writeTask(fileName, pending.toString(), true));
+    }
   }
 
   /**
@@ -127,39 +331,351 @@ public class File extends AndroidNonvisibleComponent implements Component {
       "slash, it will be read from the applications private storage (for packaged " +
       "apps) and from /sdcard/AppInventor/data for the Companion.")
   public void ReadFrom(final String fileName) {
-    try {
-      InputStream inputStream;
-      if (fileName.startsWith("//")) {
-        if (isRepl) {
-          inputStream = new FileInputStream(Environment.getExternalStorageDirectory().getPath() +
-              "/AppInventor/assets/" + fileName);
-        } else {
-          inputStream = form.getAssets().open(fileName.substring(2));
+    flushPending(fileName);
+    fileTasks.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          FileRegion region = openLargeRegion(fileName);
+          if (region != null) {
+            AsyncReadMapped(region, fileName);
+          } else {
+            AsyncRead(openForRead(fileName), fileName);
+          }
+        } catch (FileNotFoundException e) {
+          Log.e(LOG_TAG, "FileNotFoundException", e);
+          form.dispatchErrorOccurredEvent(File.this, "ReadFrom",
+              ErrorMessages.ERROR_CANNOT_FIND_FILE, fileName);
+        } catch (IOException e) {
+          Log.e(LOG_TAG, "IOException", e);
+          form.dispatchErrorOccurredEvent(File.this, "ReadFrom",
+              ErrorMessages.ERROR_CANNOT_FIND_FILE, fileName);
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads a text file line by line without loading the whole file into memory.
+   *
+   * @param fileName the file from which the lines are read
+   * @param batchSize how many lines to pass to each GotLines event
+   */
+  @SimpleFunction(description = "Reads a text file from storage line by line. The GotLines " +
+      "event is raised with up to batchSize lines at a time, as they are read, and the " +
+      "AfterLinesRead event once the whole file has been read. Unlike ReadFrom, the file is " +
+      "never held in memory as a whole. See the help text under ReadFrom for information " +
+      "about where files are read from.")
+  public void ReadLines(final String fileName, int batchSize) {
+    final int linesPerBatch = Math.max(1, batchSize);
+    flushPending(fileName);
+    fileTasks.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          AsyncReadLines(openForRead(fileName), fileName, linesPerBatch);
+        } catch (FileNotFoundException e) {
+          Log.e(LOG_TAG, "FileNotFoundException", e);
+          form.dispatchErrorOccurredEvent(File.this, "ReadLines",
+              ErrorMessages.ERROR_CANNOT_FIND_FILE, fileName);
+        } catch (IOException e) {
+          Log.e(LOG_TAG, "IOException", e);
+          form.dispatchErrorOccurredEvent(File.this, "ReadLines",
+              ErrorMessages.ERROR_CANNOT_FIND_FILE, fileName);
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads the last lines of a file, without reading the rest of it.
+   *
+   * @param fileName the file to read
+   * @param lineCount how many lines to read from the end of the file
+   */
+  @SimpleFunction(description = "Reads the last lineCount lines of a text file, such as a " +
+      "log, without reading the rest of the file. The GotTextRange event is raised with the " +
+      "text and the byte offset in the file where it starts. Assets compressed in the app " +
+      "cannot be read this way. See the help text under ReadFrom for information about where " +
+      "files are read from.")
+  public void ReadTail(final String fileName, final int lineCount) {
+    flushPending(fileName);
+    fileTasks.execute(new Runnable() {
+      @Override
+      public void run() {
+        FileRegion region = openRegion(fileName, "ReadTail");
+        if (region == null) {
+          return;
+        }
+        try {
+          long offset = findTail(region, Math.max(0, lineCount));
+          raiseGotTextRange(fileName, offset, decode(region.read(offset,
+              (int) Math.min(Integer.MAX_VALUE, region.length - offset))));
+        } catch (IOException e) {
+          Log.e(LOG_TAG, "IOException", e);
+          form.dispatchErrorOccurredEvent(File.this, "ReadTail",
+              ErrorMessages.ERROR_CANNOT_READ_FILE, fileName);
+        } finally {
+          region.close();
+        }
+      }
+    });
+  }
+
+  /**
+   * Reads part of a file.
+   *
+   * @param fileName the file to read
+   * @param offset the offset, in bytes, of the first byte to read
+   * @param length how many bytes to read at most
+   */
+  @SimpleFunction(description = "Reads length bytes of a text file, starting at the byte " +
+      "offset, where 0 is the start of the file, without reading the rest of the file. The " +
+      "GotTextRange event is raised with the text, which is shorter if the file ends first. " +
+      "Together with ReadTail this lets an app follow a file as it grows. Assets compressed " +
+      "in the app cannot be read this way. See the help text under ReadFrom for information " +
+      "about where files are read from.")
+  public void ReadRange(final String fileName, final long offset, final int length) {
+    flushPending(fileName);
+    fileTasks.execute(new Runnable() {
+      @Override
+      public void run() {
+        FileRegion region = openRegion(fileName, "ReadRange");
+        if (region == null) {
+          return;
+        }
+        try {
+          long start = Math.min(Math.max(0, offset), region.length);
+          int count = (int) Math.min(Math.max(0, length), region.length - start);
+          raiseGotTextRange(fileName, start, decode(region.read(start, count)));
+        } catch (IOException e) {
+          Log.e(LOG_TAG, "IOException", e);
+          form.dispatchErrorOccurredEvent(File.this, "ReadRange",
+              ErrorMessages.ERROR_CANNOT_READ_FILE, fileName);
+        } finally {
+          region.close();
         }
-      } else {
-        String filepath = AbsoluteFileName(fileName);
-        Log.d(LOG_TAG, "filepath = " + filepath);
-        inputStream = new FileInputStream(filepath);
       }
+    });
+  }
 
-      final InputStream asyncInputStream = inputStream;
-      AsynchUtil.runAsynchronously(new Runnable() {
-          @Override
-          public void run() {
-            AsyncRead(asyncInputStream, fileName);
+  /**
+   * Parses a CSV file row by row without loading the whole file into memory.
+   *
+   * @param fileName the file from which the table is read
+   */
+  @SimpleFunction(description = "Reads a CSV table from a file in storage, one row at a " +
+      "time. The GotCsvRow event is raised for each row as it is read and the AfterCsvRead " +
+      "event is raised once the whole file has been read. Unlike ReadFrom followed by " +
+      "\"list from csv table\", the file is never held in memory as a whole, so this works " +
+      "for very large files. See the help text under ReadFrom for information about where " +
+      "files are read from.")
+  public void ReadCsvFrom(final String fileName) {
+    flushPending(fileName);
+    fileTasks.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          AsyncReadCsv(openForRead(fileName), fileName);
+        } catch (FileNotFoundException e) {
+          Log.e(LOG_TAG, "FileNotFoundException", e);
+          form.dispatchErrorOccurredEvent(File.this, "ReadCsvFrom",
+              ErrorMessages.ERROR_CANNOT_FIND_FILE, fileName);
+        } catch (IOException e) {
+          Log.e(LOG_TAG, "IOException", e);
+          form.dispatchErrorOccurredEvent(File.this, "ReadCsvFrom",
+              ErrorMessages.ERROR_CANNOT_FIND_FILE, fileName);
+        }
+      }
+    });
+  }
+
+  /**
+   * Writes a table to a file in CSV format, streaming it row by row.
+   *
+   * @param table a list of rows, each of which is a list of fields
+   * @param fileName the file to which the table will be written
+   */
+  @SimpleFunction(description = "Saves a table (a list of lists) to a file in CSV format. " +
+      "The table is written row by row so that large tables do not need to be converted " +
+      "to text first. See the help text under SaveFile for information about where files " +
+      "are written. Note that this block will overwrite a file if it already exists.")
+  public void SaveCsvFile(final YailList table, final String fileName) {
+    if (fileName.startsWith("//")) {
+      form.dispatchErrorOccurredEvent(File.this, "SaveCsvFile",
+          ErrorMessages.ERROR_CANNOT_WRITE_ASSET, fileName);
+      return;
+    }
+    if (fileName.startsWith("/")) {
+      FileUtil.checkExternalStorageWriteable(); // Only check if writing to sdcard
+    }
+    pendingAppends.remove(fileName);  // Would be overwritten anyway
+    fileTasks.execute(new Runnable() {
+      @Override
+      public void run() {
+        final String filepath = AbsoluteFileName(fileName);
+        Writer out = null;
+        try {
+          out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(filepath)),
+              BUFFER_LENGTH);
+          CsvUtil.toCsvTable(table, out);
+          out.flush();
+          activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+              AfterFileSaved(fileName);
+            }
+          });
+        } catch (IOException e) {
+          Log.e(LOG_TAG, "IOException", e);
+          form.dispatchErrorOccurredEvent(File.this, "SaveCsvFile",
+              ErrorMessages.ERROR_CANNOT_WRITE_TO_FILE, filepath);
+        } catch (ClassCastException e) {
+          // One of the rows of the table was not a list.
+          Log.e(LOG_TAG, "ClassCastException", e);
+          form.dispatchErrorOccurredEvent(File.this, "SaveCsvFile",
+              ErrorMessages.ERROR_CANNOT_WRITE_TO_FILE, filepath);
+        } finally {
+          if (out != null) {
+            try {
+              out.close();
+            } catch (IOException e) {
+              // do nothing...
+            }
           }
-        });
+        }
+      }
+    });
+  }
+
+  /**
+   * Opens the named file for reading, resolving the // (asset) and / (sdcard)
+   * prefixes in the same way as {@link #ReadFrom(String)}.
+   *
+   * @param fileName the file to open
+   * @throws IOException if the file cannot be opened
+   */
+  private InputStream openForRead(String fileName) throws IOException {
+    if (fileName.startsWith("//")) {
+      if (isRepl) {
+        return new FileInputStream(Environment.getExternalStorageDirectory().getPath() +
+            "/AppInventor/assets/" + fileName);
+      } else {
+        return form.getAssets().open(fileName.substring(2));
+      }
+    } else {
+      String filepath = AbsoluteFileName(fileName);
+      Log.d(LOG_TAG, "filepath = " + filepath);
+      return new FileInputStream(filepath);
+    }
+  }
+
+  /**
+   * Opens the named file, resolving the // (asset) and / (sdcard) prefixes in
+   * the same way as {@link #ReadFrom(String)}, for reading at any position.
+   * Assets are only available this way if they are stored uncompressed.
+   *
+   * @param fileName the file to open
+   * @throws IOException if the file cannot be opened
+   */
+  private FileRegion openRegion(String fileName) throws IOException {
+    if (fileName.startsWith("//") && !isRepl) {
+      AssetFileDescriptor fd = form.getAssets().openFd(fileName.substring(2));
+      FileInputStream in = fd.createInputStream();
+      return new FileRegion(in.getChannel(), fd.getStartOffset(), fd.getLength(), in);
+    }
+    String filepath;
+    if (fileName.startsWith("//")) {
+      filepath = Environment.getExternalStorageDirectory().getPath() +
+          "/AppInventor/assets/" + fileName;
+    } else {
+      filepath = AbsoluteFileName(fileName);
+    }
+    RandomAccessFile file = new RandomAccessFile(filepath, "r");
+    return new FileRegion(file.getChannel(), 0, file.length(), file);
+  }
+
+  /**
+   * Opens a file with {@link #openRegion(String)}, reporting failure to the
+   * app as an error of {@code functionName}.
+   *
+   * @return the opened file, or null if it could not be opened
+   */
+  private FileRegion openRegion(String fileName, String functionName) {
+    try {
+      return openRegion(fileName);
     } catch (FileNotFoundException e) {
       Log.e(LOG_TAG, "FileNotFoundException", e);
-      form.dispatchErrorOccurredEvent(File.this, "ReadFrom",
+      form.dispatchErrorOccurredEvent(File.this, functionName,
           ErrorMessages.ERROR_CANNOT_FIND_FILE, fileName);
     } catch (IOException e) {
       Log.e(LOG_TAG, "IOException", e);
-      form.dispatchErrorOccurredEvent(File.this, "ReadFrom",
-          ErrorMessages.ERROR_CANNOT_FIND_FILE, fileName);
+      form.dispatchErrorOccurredEvent(File.this, functionName,
+          ErrorMessages.ERROR_CANNOT_READ_FILE, fileName);
+    }
+    return null;
+  }
+
+  /**
+   * Opens the named file for memory mapping if it is large enough to be
+   * worth it.
+   *
+   * @return the opened file, or null if it is small or cannot be mapped, in
+   *     which case it should be read as a stream
+   */
+  private FileRegion openLargeRegion(String fileName) {
+    FileRegion region;
+    try {
+      region = openRegion(fileName);
+    } catch (IOException e) {
+      return null;              // Missing, or a compressed asset; the stream reports errors
+    }
+    if (region.length < MAP_THRESHOLD || region.length > Integer.MAX_VALUE) {
+      region.close();
+      return null;
+    }
+    return region;
+  }
+
+  /**
+   * Returns the offset of the start of the last {@code lineCount} lines of
+   * the region, stepping back from its end a chunk at a time. A line break
+   * at the very end of the file does not start another line.
+   */
+  private static long findTail(FileRegion region, int lineCount) throws IOException {
+    if (lineCount == 0) {
+      return region.length;
+    }
+    long end = region.length;
+    int breaks = 0;
+    while (end > 0) {
+      int count = (int) Math.min(TAIL_CHUNK, end);
+      long chunkStart = end - count;
+      ByteBuffer chunk = region.read(chunkStart, count);
+      for (int i = chunk.limit() - 1; i >= 0; i--) {
+        if (chunk.get(i) == '\n' && chunkStart + i != region.length - 1) {
+          if (++breaks == lineCount) {
+            return chunkStart + i + 1;
+          }
+        }
+      }
+      end = chunkStart;
     }
+    return 0;
   }
 
+  private String decode(ByteBuffer bytes) {
+    return normalizeNewLines(Charset.defaultCharset().decode(bytes).toString());
+  }
+
+  private void raiseGotTextRange(final String fileName, final long offset, final String text) {
+    activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        GotTextRange(fileName, offset, text);
+      }
+    });
+  }
 
   /**
    * Delete the specified file.
@@ -177,9 +693,14 @@ public class File extends AndroidNonvisibleComponent implements Component {
           ErrorMessages.ERROR_CANNOT_DELETE_ASSET, fileName);
       return;
     }
-    String filepath = AbsoluteFileName(fileName);
-    java.io.File file = new java.io.File(filepath);
-    file.delete();
+    pendingAppends.remove(fileName);
+    final String filepath = AbsoluteFileName(fileName);
+    fileTasks.execute(new Runnable() {
+      @Override
+      public void run() {
+        new java.io.File(filepath).delete();
+      }
+    });
   }
 
   /**
@@ -200,7 +721,15 @@ public class File extends AndroidNonvisibleComponent implements Component {
       }
       return;
     }
-    AsynchUtil.runAsynchronously(new Runnable() {
+    fileTasks.execute(writeTask(filename, text, append));
+  }
+
+  /**
+   * Returns a task that writes to the specified file, and raises
+   * AfterFileSaved once done.
+   */
+  private Runnable writeTask(final String filename, final String text, final boolean append) {
+    return new Runnable() {
       @Override
       public void run() {
         final String filepath = AbsoluteFileName(filename);
@@ -244,7 +773,7 @@ public class File extends AndroidNonvisibleComponent implements Component {
           }
         }
       }
-    });
+    };
   }
 
   /**
@@ -315,6 +844,171 @@ public class File extends AndroidNonvisibleComponent implements Component {
     }
   }
 
+  /**
+   * Decodes a memory mapped file. Mapping avoids copying the file through a
+   * stream buffer and growing a StringWriter as it is read.
+   * @param region the file to read, which is closed afterwards
+   * @param fileName the file to read
+   */
+  private void AsyncReadMapped(FileRegion region, final String fileName) {
+    try {
+      final String text = decode(region.read(0, (int) region.length));
+      activity.runOnUiThread(new Runnable() {
+        @Override
+        public void run() {
+          GotText(text);
+        }
+      });
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "IOException", e);
+      form.dispatchErrorOccurredEvent(File.this, "ReadFrom",
+          ErrorMessages.ERROR_CANNOT_READ_FILE, fileName);
+    } finally {
+      region.close();
+    }
+  }
+
+  /**
+   * Asynchronously reads lines from the given stream, posting them to the
+   * main event thread in batches as they are read.
+   * @param fileInput the stream to read from
+   * @param fileName the file to read
+   * @param batchSize the most lines to post at once
+   */
+  private void AsyncReadLines(InputStream fileInput, final String fileName, int batchSize) {
+    BufferedReader input = null;
+    try {
+      input = new BufferedReader(new InputStreamReader(fileInput), BUFFER_LENGTH);
+      List<String> batch = new ArrayList<String>(batchSize);
+      int lineCount = 0;
+      String line;
+      while ((line = input.readLine()) != null) {
+        batch.add(line);
+        lineCount++;
+        if (batch.size() == batchSize) {
+          postLines(fileName, batch, lineCount - batch.size() + 1);
+          batch = new ArrayList<String>(batchSize);
+        }
+      }
+      if (!batch.isEmpty()) {
+        postLines(fileName, batch, lineCount - batch.size() + 1);
+      }
+      final int totalLines = lineCount;
+      activity.runOnUiThread(new Runnable() {
+        @Override
+        public void run() {
+          AfterLinesRead(fileName, totalLines);
+        }
+      });
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "IOException", e);
+      form.dispatchErrorOccurredEvent(File.this, "ReadLines",
+          ErrorMessages.ERROR_CANNOT_READ_FILE, fileName);
+    } finally {
+      if (input != null) {
+        try {
+          input.close();
+        } catch (IOException e) {
+          // do nothing...
+        }
+      }
+    }
+  }
+
+  private void postLines(final String fileName, List<String> lines, final int firstLine) {
+    final YailList list = YailList.makeList(lines);
+    activity.runOnUiThread(new Runnable() {
+      @Override
+      public void run() {
+        GotLines(fileName, list, firstLine);
+      }
+    });
+  }
+
+  /**
+   * Posts the rows parsed by ReadCsvFrom to the main event thread in batches.
+   * The parser waits while CSV_BATCHES_IN_FLIGHT batches are still to be
+   * raised as events, so a large file cannot flood the event queue.
+   */
+  private class CsvRowPoster implements CsvUtil.RowHandler {
+    private final Semaphore inFlight = new Semaphore(CSV_BATCHES_IN_FLIGHT);
+    private List<YailList> batch = new ArrayList<YailList>(CSV_BATCH_SIZE);
+    private int firstRow;
+
+    @Override
+    public boolean handleRow(int rowIndex, YailList row) throws InterruptedException {
+      if (batch.isEmpty()) {
+        firstRow = rowIndex;
+      }
+      batch.add(row);
+      if (batch.size() == CSV_BATCH_SIZE) {
+        post();
+      }
+      return true;
+    }
+
+    void post() throws InterruptedException {
+      if (batch.isEmpty()) {
+        return;
+      }
+      final List<YailList> rows = batch;
+      final int first = firstRow;
+      batch = new ArrayList<YailList>(CSV_BATCH_SIZE);
+      inFlight.acquire();
+      activity.runOnUiThread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < rows.size(); i++) {
+              GotCsvRow(first + i, rows.get(i));
+            }
+          } finally {
+            inFlight.release();
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Asynchronously parses CSV rows from the given stream, posting them to
+   * the main event thread in batches as they are parsed.
+   * @param fileInput the stream to read from
+   * @param fileName the file to read
+   */
+  private void AsyncReadCsv(InputStream fileInput, final String fileName) {
+    Reader input = null;
+    try {
+      input = new BufferedReader(new InputStreamReader(fileInput), BUFFER_LENGTH);
+      CsvRowPoster poster = new CsvRowPoster();
+      final int rowCount = CsvUtil.parseCsvTable(input, poster);
+      poster.post();
+      activity.runOnUiThread(new Runnable() {
+        @Override
+        public void run() {
+          AfterCsvRead(fileName, rowCount);
+        }
+      });
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "IOException", e);
+      form.dispatchErrorOccurredEvent(File.this, "ReadCsvFrom",
+          ErrorMessages.ERROR_CANNOT_READ_FILE, fileName);
+    } catch (Exception e) {
+      // The parser reports malformed CSV as a generic exception.
+      Log.e(LOG_TAG, "Exception", e);
+      form.dispatchErrorOccurredEvent(File.this, "ReadCsvFrom",
+          ErrorMessages.ERROR_CANNOT_READ_FILE, fileName);
+    } finally {
+      if (input != null) {
+        try {
+          input.close();
+        } catch (IOException e) {
+          // do nothing...
+        }
+      }
+    }
+  }
+
   /**
    * Event indicating that a request has finished.
    *
@@ -337,6 +1031,91 @@ public class File extends AndroidNonvisibleComponent implements Component {
     EventDispatcher.dispatchEvent(this, "AfterFileSaved", fileName);
   }
 
+  /**
+   * Event raised for each row read by ReadCsvFrom.
+   *
+   * @param rowNumber the 1-based index of the row within the file
+   * @param row the fields of the row
+   */
+  @SimpleEvent (description = "Event raised by ReadCsvFrom for each row of the CSV file, " +
+      "in order. The row number starts at 1.")
+  public void GotCsvRow(int rowNumber, YailList row) {
+    EventDispatcher.dispatchEvent(this, "GotCsvRow", rowNumber, row);
+  }
+
+  /**
+   * Event indicating that ReadCsvFrom has read the whole file.
+   *
+   * @param fileName the file that was read
+   * @param rowCount the number of rows in the file
+   */
+  @SimpleEvent (description = "Event indicating that ReadCsvFrom has finished reading the " +
+      "file. All GotCsvRow events for the file are raised before this event.")
+  public void AfterCsvRead(String fileName, int rowCount) {
+    EventDispatcher.dispatchEvent(this, "AfterCsvRead", fileName, rowCount);
+  }
+
+  /**
+   * Event raised by ReadLines for each batch of lines.
+   *
+   * @param fileName the file being read
+   * @param lines the lines, without their line breaks
+   * @param firstLineNumber the 1-based number of the first of the lines in the file
+   */
+  @SimpleEvent (description = "Event raised by ReadLines for each batch of lines, in order. " +
+      "The lines do not include their line breaks. firstLineNumber is the number of the " +
+      "first of the lines in the file, starting at 1.")
+  public void GotLines(String fileName, YailList lines, int firstLineNumber) {
+    EventDispatcher.dispatchEvent(this, "GotLines", fileName, lines, firstLineNumber);
+  }
+
+  /**
+   * Event indicating that ReadLines has read the whole file.
+   *
+   * @param fileName the file that was read
+   * @param lineCount the number of lines in the file
+   */
+  @SimpleEvent (description = "Event indicating that ReadLines has finished reading the " +
+      "file. All GotLines events for the file are raised before this event.")
+  public void AfterLinesRead(String fileName, int lineCount) {
+    EventDispatcher.dispatchEvent(this, "AfterLinesRead", fileName, lineCount);
+  }
+
+  /**
+   * Event raised by ReadTail and ReadRange.
+   *
+   * @param fileName the file that was read
+   * @param offset the offset, in bytes, of the start of the text in the file
+   * @param text the text that was read
+   */
+  @SimpleEvent (description = "Event raised by ReadTail and ReadRange with the text read and " +
+      "the byte offset in the file where it starts.")
+  public void GotTextRange(String fileName, long offset, String text) {
+    EventDispatcher.dispatchEvent(this, "GotTextRange", fileName, offset, text);
+  }
+
+  // Deleteable implementation
+
+  @Override
+  public void onDelete() {
+    Flush();
+  }
+
+  // OnPauseListener implementation
+
+  @Override
+  public void onPause() {
+    // The app may be killed while in the background, so don't keep appended text in memory.
+    Flush();
+  }
+
+  // OnDestroyListener implementation
+
+  @Override
+  public void onDestroy() {
+    Flush();  // The queued tasks finish on their own
+  }
+
   /**
    * Returns absolute file path.
    *
@@ -656,6 +656,14 @@ public class Form extends AppInventorCompatActivity
     onStopListeners.add(component);
   }
 
+  @Override
+  public void onLowMemory() {
+    super.onLowMemory();
+    Log.i(LOG_TAG, "Form " + formName + " got onLowMemory");
+    // Decoded images can be loaded again when needed.
+    MediaUtil.trimBitmapCache();
+  }
+
   public void registerForOnClear(OnClearListener component) {
     onClearListeners.add(component);
   }
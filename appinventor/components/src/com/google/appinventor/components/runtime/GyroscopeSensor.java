@@ -15,13 +15,17 @@ import com.google.appinventor.components.annotations.SimpleProperty;
 import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.components.runtime.util.SensorEventCoalescer;
+import com.google.appinventor.components.runtime.util.YailList;
 
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Component providing data from the device's gyroscope sensor.
  */
@@ -36,18 +40,20 @@ import android.hardware.SensorManager;
 
 @SimpleObject
 public class GyroscopeSensor extends AndroidNonvisibleComponent
-    implements SensorEventListener, Deleteable, OnPauseListener, OnResumeListener {
+    implements SensorEventCoalescer.Listener, Deleteable, OnPauseListener, OnResumeListener {
 
   // Properties
   private boolean enabled;
   private float xAngularVelocity; // degrees per second
   private float yAngularVelocity; // degrees per second
   private float zAngularVelocity; // degrees per second
+  // Samples delivered with the latest GyroscopeChanged event
+  private List<SensorEventCoalescer.Sample> samples = Collections.emptyList();
 
   // Sensor information
   private final SensorManager sensorManager;
   private final Sensor gyroSensor;
-  private boolean listening;
+  private final SensorEventCoalescer coalescer;
 
   /**
    * Creates a new GyroscopeSensor component.
@@ -58,32 +64,29 @@ public class GyroscopeSensor extends AndroidNonvisibleComponent
     // Get sensors, and start listening.
     sensorManager = (SensorManager) form.getSystemService(Context.SENSOR_SERVICE);
     gyroSensor = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+    coalescer = new SensorEventCoalescer(sensorManager, this, gyroSensor);
 
     // Begin listening in onResume() and stop listening in onPause().
     form.registerForOnResume(this);
     form.registerForOnPause(this);
 
     // Set default property values.
+    SamplingInterval(0);
     Enabled(true);
   }
 
   private void startListening() {
-    if (!listening) {
-      sensorManager.registerListener(this, gyroSensor, SensorManager.SENSOR_DELAY_FASTEST);
-      listening = true;
-    }
+    coalescer.start();
   }
 
   private void stopListening() {
-    if (listening) {
-      sensorManager.unregisterListener(this);
-      listening = false;
-
-      // Throw out sensor information that will go stale.
-      xAngularVelocity = 0;
-      yAngularVelocity = 0;
-      zAngularVelocity = 0;
-    }
+    coalescer.stop();
+
+    // Throw out sensor information that will go stale.
+    xAngularVelocity = 0;
+    yAngularVelocity = 0;
+    zAngularVelocity = 0;
+    samples = Collections.emptyList();
   }
 
   // Events
@@ -92,7 +95,9 @@ public class GyroscopeSensor extends AndroidNonvisibleComponent
    * GyroscopeChanged event handler.
    */
   @SimpleEvent(description = "Indicates that the gyroscope sensor data has changed. The " +
-      "timestamp parameter is the time in nanoseconds at which the event occurred.")
+      "timestamp parameter is the time in nanoseconds at which the event occurred. " +
+      "The event is raised at most once per screen refresh, with the latest values; the " +
+      "Samples property holds every reading since the previous event.")
   public void GyroscopeChanged(
       float xAngularVelocity, float yAngularVelocity, float zAngularVelocity, long timestamp) {
     EventDispatcher.dispatchEvent(this, "GyroscopeChanged",
@@ -146,6 +151,51 @@ public class GyroscopeSensor extends AndroidNonvisibleComponent
     }
   }
 
+  /**
+   * SamplingInterval property getter method.
+   *
+   * @return  the minimum time between two readings, in milliseconds
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The minimum time in milliseconds between two readings of the sensor. " +
+      "0 means as often as the sensor allows.")
+  public int SamplingInterval() {
+    return coalescer.getSamplingInterval();
+  }
+
+  /**
+   * SamplingInterval property setter method.
+   *
+   * @param interval  the minimum time between two readings, in milliseconds
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "0")
+  @SimpleProperty
+  public void SamplingInterval(int interval) {
+    coalescer.setSamplingInterval(Math.max(interval, 0));
+  }
+
+  /**
+   * Samples property getter method (read-only property).
+   *
+   * @return  the readings since the previous GyroscopeChanged event
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The readings received since the previous GyroscopeChanged event, " +
+      "oldest first. Each reading is a list of the X, Y and Z angular velocities in degrees " +
+      "per second and the timestamp in nanoseconds.")
+  public YailList Samples() {
+    List<YailList> readings = new ArrayList<YailList>(samples.size());
+    for (SensorEventCoalescer.Sample sample : samples) {
+      readings.add(YailList.makeList(new Object[] {
+          (float) Math.toDegrees(sample.values[0]),
+          (float) Math.toDegrees(sample.values[1]),
+          (float) Math.toDegrees(sample.values[2]),
+          sample.timestamp }));
+    }
+    return YailList.makeList(readings);
+  }
+
   /**
    * XAngularVelocity property getter method (read-only property).
    *
@@ -185,31 +235,29 @@ public class GyroscopeSensor extends AndroidNonvisibleComponent
     return zAngularVelocity;
   }
 
-  // SensorListener implementation
+  // SensorEventCoalescer.Listener implementation
 
   /**
    * Responds to changes in the gyroscope sensors.
    *
-   * @param sensorEvent an event from the gyroscope sensor
+   * @param samples the readings from the gyroscope sensor since the last call
    */
   @Override
-  public void onSensorChanged(SensorEvent sensorEvent) {
+  public void onSensorSamples(List<SensorEventCoalescer.Sample> samples) {
     if (enabled) {
+      this.samples = samples;
+      SensorEventCoalescer.Sample latest = samples.get(samples.size() - 1);
 
-      xAngularVelocity = (float) Math.toDegrees(sensorEvent.values[0]);
-      yAngularVelocity = (float) Math.toDegrees(sensorEvent.values[1]);
-      zAngularVelocity = (float) Math.toDegrees(sensorEvent.values[2]);
+      xAngularVelocity = (float) Math.toDegrees(latest.values[0]);
+      yAngularVelocity = (float) Math.toDegrees(latest.values[1]);
+      zAngularVelocity = (float) Math.toDegrees(latest.values[2]);
 
       // Raise event.
       GyroscopeChanged(xAngularVelocity, yAngularVelocity, zAngularVelocity,
-          sensorEvent.timestamp);
+          latest.timestamp);
     }
   }
 
-  @Override
-  public void onAccuracyChanged(Sensor sensor, int accuracy) {
-  }
-
   // Deleteable implementation
 
   @Override
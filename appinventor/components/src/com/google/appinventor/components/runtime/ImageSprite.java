@@ -21,6 +21,7 @@ import com.google.appinventor.components.annotations.UsesPermissions;
 import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
+import com.google.appinventor.components.runtime.util.AsyncCallbackPair;
 import com.google.appinventor.components.runtime.util.MediaUtil;
 
 /**
@@ -55,6 +56,11 @@ public class ImageSprite extends Sprite {
   private BitmapDrawable drawable;
   private int widthHint = LENGTH_PREFERRED;
   private int heightHint = LENGTH_PREFERRED;
+  // The sample size the picture was decoded with, or 0 if it is not known
+  private int pictureSampleSize;
+  // Counts the loads of the picture, so that a reload that finishes after a
+  // later load is dropped
+  private int pictureLoads;
   private String picturePath = "";  // Picture property
   private boolean rotates;
 
@@ -70,6 +76,14 @@ public class ImageSprite extends Sprite {
     rotates = true;
   }
 
+  @Override
+  public void Initialize() {
+    // The picture is decoded once the designer has set Width and Height, so
+    // that it is decoded for the size the sprite is drawn at.
+    loadPicture();
+    super.Initialize();
+  }
+
   /**
    * This method uses getWidth and getHeight directly from the bitmap,
    * so we apply corrections for density for coordinates and size.
@@ -125,14 +139,71 @@ public class ImageSprite extends Sprite {
   @SimpleProperty
   public void Picture(String path) {
     picturePath = (path == null) ? "" : path;
+    if (initialized) {
+      loadPicture();
+    }
+    // note: drawable can be null!
+    registerChange();
+  }
+
+  private void loadPicture() {
+    pictureLoads++;
+    int width = desiredPictureWidth();
+    int height = desiredPictureHeight();
     try {
-      drawable = MediaUtil.getBitmapDrawable(form, picturePath);
+      drawable = MediaUtil.getBitmapDrawable(form, picturePath, width, height);
     } catch (IOException ioe) {
       Log.e("ImageSprite", "Unable to load " + picturePath);
       drawable = null;
     }
-    // note: drawable can be null!
-    registerChange();
+    pictureSampleSize = MediaUtil.getSampleSize(form, picturePath, width, height);
+  }
+
+  // If both Width and Height are given, the picture need not be decoded at a higher resolution
+  // than the sprite is drawn at. Otherwise the sprite takes its size from the picture.
+  private int desiredPictureWidth() {
+    return widthHint > 0 && heightHint > 0 ? widthHint : 0;
+  }
+
+  private int desiredPictureHeight() {
+    return widthHint > 0 && heightHint > 0 ? heightHint : 0;
+  }
+
+  // Decodes the picture again if the sprite's size needs a different sample size. The decoding
+  // happens off the UI thread, and the sprite is drawn with the old picture until it is done.
+  private void reloadPictureIfResized() {
+    if (!initialized || drawable == null) {
+      return;
+    }
+    int width = desiredPictureWidth();
+    int height = desiredPictureHeight();
+    final int sampleSize = MediaUtil.getSampleSize(form, picturePath, width, height);
+    if (sampleSize == 0 || sampleSize == pictureSampleSize) {
+      return;
+    }
+    final int load = ++pictureLoads;
+    final String path = picturePath;
+    MediaUtil.getBitmapDrawableAsync(form, path, width, height,
+        new AsyncCallbackPair<BitmapDrawable>() {
+          @Override
+          public void onSuccess(final BitmapDrawable result) {
+            form.runOnUiThread(new Runnable() {
+              @Override
+              public void run() {
+                if (load == pictureLoads) {
+                  drawable = result;
+                  pictureSampleSize = sampleSize;
+                  registerChange();
+                }
+              }
+            });
+          }
+
+          @Override
+          public void onFailure(String message) {
+            Log.e("ImageSprite", "Unable to load " + path + ": " + message);
+          }
+        });
   }
 
   // The actual width/height of an ImageSprite whose Width/Height property is set to Automatic or
@@ -152,6 +223,7 @@ public class ImageSprite extends Sprite {
   @SimpleProperty
   public void Height(int height) {
     heightHint = height;
+    reloadPictureIfResized();
     registerChange();
   }
 
@@ -174,6 +246,7 @@ public class ImageSprite extends Sprite {
   @SimpleProperty
   public void Width(int width) {
     widthHint = width;
+    reloadPictureIfResized();
     registerChange();
   }
 
@@ -9,15 +9,9 @@ package com.google.appinventor.components.runtime;
 import android.graphics.Color;
 import android.graphics.drawable.GradientDrawable;
 import android.text.Editable;
-import android.text.Spannable;
-import android.text.SpannableString;
 import android.text.TextWatcher;
-import android.text.style.AbsoluteSizeSpan;
-import android.text.style.ForegroundColorSpan;
 import android.view.View;
-import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.ArrayAdapter;
 import android.widget.EditText;
 import android.widget.LinearLayout;
 
@@ -32,8 +26,11 @@ import com.google.appinventor.components.common.ComponentCategory;
 import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.util.ElementsUtil;
+import com.google.appinventor.components.runtime.util.FilterableListAdapter;
 import com.google.appinventor.components.runtime.util.YailList;
 
+import java.util.Arrays;
+
 /**
  * ListView Component. Non-Visible component to create a ListView in the Screen from a series of
  * elements added from a comma separated set of text elements. It is similar to the ListPicker
@@ -60,10 +57,8 @@ public final class ListView extends AndroidViewComponent implements AdapterView.
   protected final ComponentContainer container;
   private final LinearLayout listViewLayout;
 
-  // The adapter contains spannables rather than strings, since we will be changing the item
-  // colors using ForegroundColorSpan
-  private ArrayAdapter<Spannable> adapter;
-  private ArrayAdapter<Spannable> adapterCopy;
+  // Formats rows only when they are shown, so that long lists are quick to set and filter
+  private final FilterableListAdapter adapter;
   private YailList items;
   private int selectionIndex;
   private String selection;
@@ -97,6 +92,8 @@ public final class ListView extends AndroidViewComponent implements AdapterView.
     view.setOnItemClickListener(this);
     view.setChoiceMode(android.widget.ListView.CHOICE_MODE_SINGLE);
     view.setScrollingCacheEnabled(false);
+    adapter = new FilterableListAdapter(container.$context());
+    view.setAdapter(adapter);
     listViewLayout = new LinearLayout(container.$context());
     listViewLayout.setOrientation(LinearLayout.VERTICAL);
 
@@ -258,39 +255,22 @@ public final class ListView extends AndroidViewComponent implements AdapterView.
    * Sets the items of the ListView through an adapter
    */
   public void setAdapterData(){
-    adapter = new ArrayAdapter<Spannable>(container.$context(), android.R.layout.simple_list_item_1,
-        itemsToColoredText());
-    view.setAdapter(adapter);
-
-    adapterCopy = new ArrayAdapter<Spannable>(container.$context(), android.R.layout.simple_list_item_1);
-    for (int i = 0; i < adapter.getCount(); ++i) {
-      adapterCopy.insert(adapter.getItem(i), i);
-    }
+    setTextStyle();
+    // Note that the ListPicker and otherPickers pickers convert Yail lists to string by calling
+    // YailList.ToStringArray.
+    // ListView however, does the string conversion via the adapter, which uses
+    // YailListElementToString. The adapter only replaces the elements that changed.
+    adapter.setElements(Arrays.asList(items.toArray()));
   }
 
-  public Spannable[] itemsToColoredText() {
-    // TODO(hal): Generalize this so that different items could have different
-    // colors and even fonts and sizes
-    int size = items.size();
+  // TODO(hal): Generalize this so that different items could have different
+  // colors and even fonts and sizes
+  private void setTextStyle() {
     int displayTextSize = textSize;
-    Spannable [] objects = new Spannable[size];
-    for (int i = 1; i <= size; i++) {
-      // Note that the ListPicker and otherPickers pickers convert Yail lists to string by calling
-      // YailList.ToStringArray.
-      // ListView however, does the string conversion via the adapter, so we must ensure
-      // that the adapter uses YailListElementToSring
-      String itemString = YailList.YailListElementToString(items.get(i));
-      // Is there a more efficient way to do conversion to spannable strings that does not
-      // need to allocate new objects?
-      Spannable chars = new SpannableString(itemString);
-      chars.setSpan(new ForegroundColorSpan(textColor),0,chars.length(),0);
-      if (!container.$form().getCompatibilityMode()) {
-        displayTextSize = (int) (textSize * container.$form().deviceDensity());
-      }
-      chars.setSpan(new AbsoluteSizeSpan(displayTextSize),0,chars.length(),0);
-      objects[i - 1] = chars;
+    if (!container.$form().getCompatibilityMode()) {
+      displayTextSize = (int) (textSize * container.$form().deviceDensity());
     }
-    return objects;
+    adapter.setTextStyle(textColor, displayTextSize);
   }
 
   /**
@@ -352,9 +332,9 @@ public final class ListView extends AndroidViewComponent implements AdapterView.
    */
   @Override
   public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-    Spannable item = (Spannable) parent.getAdapter().getItem(position);
-    this.selection = item.toString();
-    this.selectionIndex = adapterCopy.getPosition(item) + 1; // AI lists are 1-based
+    // The id is the position in the whole list, even when it is filtered.
+    this.selection = adapter.getItem(position);
+    this.selectionIndex = (int) id + 1; // AI lists are 1-based
 
     AfterPicking();
   }
@@ -474,7 +454,7 @@ public final class ListView extends AndroidViewComponent implements AdapterView.
   @SimpleProperty
   public void TextColor(int argb) {
       textColor = argb;
-      setAdapterData();
+      setTextStyle();
   }
 
   /**
@@ -502,7 +482,7 @@ public final class ListView extends AndroidViewComponent implements AdapterView.
         textSize = 999;
       else
         textSize = fontSize;
-      setAdapterData();
+      setTextStyle();
   }
 
 }
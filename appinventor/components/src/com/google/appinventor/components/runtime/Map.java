@@ -11,6 +11,7 @@ import com.google.appinventor.components.runtime.util.AsynchUtil;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.GeoJSONUtil;
 import com.google.appinventor.components.runtime.util.MapFactory;
+import com.google.appinventor.components.runtime.util.SpatialIndex;
 import com.google.appinventor.components.runtime.util.YailList;
 import org.osmdroid.util.BoundingBox;
 
@@ -400,6 +401,31 @@ public class Map extends MapFeatureContainerBase implements MapEventListener {
     return mapController.isPanEnabled();
   }
 
+  /**
+   * Draw markers that are close to one another on screen as a single marker.
+   *
+   * @param cluster True if markers should be clustered, otherwise false.
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_BOOLEAN,
+      defaultValue = "False")
+  @SimpleProperty
+  public void ClusterMarkers(boolean cluster) {
+    mapController.setClusterMarkersEnabled(cluster);
+  }
+
+  /**
+   * Get whether markers that are close to one another on screen are drawn as a single marker.
+   *
+   * @return True if markers are clustered, otherwise false.
+   */
+  @SimpleProperty(category = PropertyCategory.APPEARANCE,
+      description = "If set to true, markers that are close to one another at the current zoom " +
+          "level are drawn as a single marker showing how many there are. Tapping it zooms in " +
+          "on them. Markers are never clustered at the highest zoom level.")
+  public boolean ClusterMarkers() {
+    return mapController.isClusterMarkersEnabled();
+  }
+
   @SimpleProperty
   public void BoundingBox(YailList boundingbox) {
     double latNorth = (Double)((YailList)boundingbox.get(1)).get(1);
@@ -463,6 +489,21 @@ public class Map extends MapFeatureContainerBase implements MapEventListener {
     return marker;
   }
 
+  @SimpleFunction(description = "Find the feature on the map nearest to the given latitude and " +
+      "longitude, measuring the distance to its centroid if centroids is true, or to its nearest " +
+      "edge otherwise. Returns false if the map has no features.")
+  public Object NearestFeature(final double latitude, final double longitude,
+      final boolean centroids) {
+    MapFeature nearest = mapController.getNearestFeature(latitude, longitude,
+        new SpatialIndex.Metric<MapFeature>() {
+          @Override
+          public double distance(MapFeature feature) {
+            return ((MapFeatureBase) feature).DistanceToPoint(latitude, longitude, centroids);
+          }
+        });
+    return nearest == null ? Boolean.FALSE : nearest;
+  }
+
   @SimpleFunction(description = "Save the contents of the Map to the specified path.")
   public void Save(final String path) {
     final List<MapFeature> featuresToSave = new ArrayList<MapFeature>(features);
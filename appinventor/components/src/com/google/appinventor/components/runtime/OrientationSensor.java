@@ -18,17 +18,18 @@ import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.util.FroyoUtil;
 import com.google.appinventor.components.runtime.util.OrientationSensorUtil;
 import com.google.appinventor.components.runtime.util.SdkLevel;
+import com.google.appinventor.components.runtime.util.SensorEventCoalescer;
 
 import android.content.Context;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.util.Log;
 import android.view.Display;
 import android.view.Surface;
 import android.view.WindowManager;
 
+import java.util.List;
+
 /**
  * Sensor that can measure absolute orientation in 3 dimensions.
  *
@@ -57,7 +58,7 @@ import android.view.WindowManager;
 
 @SimpleObject
 public class OrientationSensor extends AndroidNonvisibleComponent
-    implements SensorEventListener, Deleteable, OnPauseListener, OnResumeListener {
+    implements SensorEventCoalescer.Listener, Deleteable, OnPauseListener, OnResumeListener {
   // Constants
   private static final String LOG_TAG = "OrientationSensor";
   // offsets in array returned by SensorManager.getOrientation()
@@ -77,14 +78,14 @@ public class OrientationSensor extends AndroidNonvisibleComponent
   private final SensorManager sensorManager;
   private final Sensor accelerometerSensor;
   private final Sensor magneticFieldSensor;
-  private boolean listening;
+  private final SensorEventCoalescer coalescer;
 
   // Pre-allocated arrays to hold sensor data so that we don't cause so many garbage collections
-  // while processing sensor events. All are used only in onSensorChanged.
+  // while processing sensor events. All are used only in onSensorSamples.
   private final float[] accels = new float[DIMENSIONS];  // acceleration vector
   private final float[] mags = new float[DIMENSIONS];    // magnetic field vector
 
-  // Flags to tell whether the above arrays are filled. They are set in onSensorChanged and cleared
+  // Flags to tell whether the above arrays are filled. They are set in onSensorSamples and cleared
   // in stopListening.
   private boolean accelsFilled;
   private boolean magsFilled;
@@ -108,34 +109,28 @@ public class OrientationSensor extends AndroidNonvisibleComponent
       (SensorManager) container.$context().getSystemService(Context.SENSOR_SERVICE);
     accelerometerSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
     magneticFieldSensor = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+    coalescer = new SensorEventCoalescer(sensorManager, this,
+        accelerometerSensor, magneticFieldSensor);
 
     // Begin listening in onResume() and stop listening in onPause().
     form.registerForOnResume(this);
     form.registerForOnPause(this);
 
     // Set default property values.
+    SamplingInterval(200);
     Enabled(true);
   }
 
   private void startListening() {
-    if (!listening) {
-      sensorManager.registerListener(this, accelerometerSensor,
-                                     SensorManager.SENSOR_DELAY_NORMAL);
-      sensorManager.registerListener(this, magneticFieldSensor,
-                                     SensorManager.SENSOR_DELAY_NORMAL);
-      listening = true;
-    }
+    coalescer.start();
   }
 
   private void stopListening() {
-    if (listening) {
-      sensorManager.unregisterListener(this);
-      listening = false;
+    coalescer.stop();
 
-      // Throw out sensor information that will go stale.
-      accelsFilled = false;
-      magsFilled = false;
-    }
+    // Throw out sensor information that will go stale.
+    accelsFilled = false;
+    magsFilled = false;
   }
 
   // Events
@@ -200,6 +195,33 @@ public class OrientationSensor extends AndroidNonvisibleComponent
     }
   }
 
+  /**
+   * SamplingInterval property getter method.
+   *
+   * @return  the minimum time between two readings of each sensor, in
+   *          milliseconds
+   */
+  @SimpleProperty(category = PropertyCategory.BEHAVIOR,
+      description = "The minimum time in milliseconds between two readings of the " +
+      "accelerometer and magnetic field sensors. 0 means as often as the sensors allow. " +
+      "OrientationChanged is raised at most once per screen refresh.")
+  public int SamplingInterval() {
+    return coalescer.getSamplingInterval();
+  }
+
+  /**
+   * SamplingInterval property setter method.
+   *
+   * @param interval  the minimum time between two readings of each sensor,
+   *                  in milliseconds
+   */
+  @DesignerProperty(editorType = PropertyTypeConstants.PROPERTY_TYPE_NON_NEGATIVE_INTEGER,
+      defaultValue = "200")
+  @SimpleProperty
+  public void SamplingInterval(int interval) {
+    coalescer.setSamplingInterval(Math.max(interval, 0));
+  }
+
   /**
    * Pitch property getter method (read-only property).
    *
@@ -298,7 +320,7 @@ public class OrientationSensor extends AndroidNonvisibleComponent
     return (float) (1.0 - Math.cos(npitch) * Math.cos(nroll));
   }
 
-  // SensorListener implementation
+  // SensorEventCoalescer.Listener implementation
 
   /*
    * Returns the rotation of the screen from its "natural" orientation.
@@ -326,32 +348,34 @@ public class OrientationSensor extends AndroidNonvisibleComponent
    * raises the OrientationChanged event if both sensors have reported in
    * at least once.
    *
-   * @param sensorEvent an event from the accelerometer or magnetic field sensor
+   * @param samples readings from the accelerometer and magnetic field sensors
+   *        since the last call
    */
   @Override
-  public void onSensorChanged(SensorEvent sensorEvent) {
+  public void onSensorSamples(List<SensorEventCoalescer.Sample> samples) {
     if (enabled) {
-      int eventType = sensorEvent.sensor.getType();
-
-      // Save the new sensor information about acceleration or the magnetic field.
-      switch (eventType) {
-        case Sensor.TYPE_ACCELEROMETER:
-          // Update acceleration array.
-          System.arraycopy(sensorEvent.values, 0, accels, 0, DIMENSIONS);
-          accelsFilled = true;
-          // Only update the accuracy property for the accelerometer.
-          accuracy = sensorEvent.accuracy;
-          break;
-
-        case Sensor.TYPE_MAGNETIC_FIELD:
-          // Update magnetic field array.
-          System.arraycopy(sensorEvent.values, 0, mags, 0, DIMENSIONS);
-          magsFilled = true;
-          break;
-
-        default:
-          Log.e(LOG_TAG, "Unexpected sensor type: " + eventType);
-          return;
+      // Save the latest sensor information about acceleration and the magnetic field. Only
+      // the latest orientation is reported, so there is no need to compute the others.
+      for (SensorEventCoalescer.Sample sample : samples) {
+        switch (sample.sensorType) {
+          case Sensor.TYPE_ACCELEROMETER:
+            // Update acceleration array.
+            System.arraycopy(sample.values, 0, accels, 0, DIMENSIONS);
+            accelsFilled = true;
+            // Only update the accuracy property for the accelerometer.
+            accuracy = sample.accuracy;
+            break;
+
+          case Sensor.TYPE_MAGNETIC_FIELD:
+            // Update magnetic field array.
+            System.arraycopy(sample.values, 0, mags, 0, DIMENSIONS);
+            magsFilled = true;
+            break;
+
+          default:
+            Log.e(LOG_TAG, "Unexpected sensor type: " + sample.sensorType);
+            break;
+        }
       }
 
       // If we have both acceleration and magnetic information, recompute values.
@@ -402,11 +426,6 @@ public class OrientationSensor extends AndroidNonvisibleComponent
     }
   }
 
-  @Override
-  public void onAccuracyChanged(Sensor sensor, int accuracy) {
-    // TODO(markf): Figure out if we actually need to do something here.
-  }
-
   // Deleteable implementation
 
   @Override
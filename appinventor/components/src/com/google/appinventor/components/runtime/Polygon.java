@@ -141,6 +141,7 @@ public class Polygon extends PolygonBase implements MapPolygon {
             "Unable to determine the structure of the points argument.");
       }
       clearGeometry();
+      map.getController().updateFeaturePosition(this);
     } catch(DispatchableError e) {
       container.$form().dispatchErrorOccurredEvent(this, "Points", e.getErrorCode(), e.getArguments());
     }
@@ -19,23 +19,21 @@ import com.google.appinventor.components.common.PropertyTypeConstants;
 import com.google.appinventor.components.common.YaVersion;
 import com.google.appinventor.components.runtime.util.ErrorMessages;
 import com.google.appinventor.components.runtime.util.MediaUtil;
-import com.google.appinventor.components.runtime.util.SdkLevel;
+import com.google.appinventor.components.runtime.util.SharedSoundPool;
 
 import android.content.Context;
 import android.media.AudioManager;
-import android.media.SoundPool;
 import android.os.Handler;
 import android.os.Vibrator;
 import android.util.Log;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Multimedia component that plays sounds and optionally vibrates.  A
  * sound is specified via filename.  See also
- * {@link android.media.SoundPool}.
+ * {@link android.media.SoundPool}. All Sound components share one pool,
+ * see {@link SharedSoundPool}.
  *
  * @author sharon@google.com (Sharon Perl)
  * @author hal@mit.edu (Hal Abelson) added wait for load to complete
@@ -61,45 +59,15 @@ import java.util.Map;
 public class Sound extends AndroidNonvisibleComponent
     implements Component, OnResumeListener, OnStopListener, OnDestroyListener, Deleteable {
 
-  private boolean loadComplete;    // did the sound finish loading
-
-  // The purpose of this class is to avoid getting rejected by the Android verifier when the
-  // Sound component code is loaded into a device with API level less than 8, where the verifier
-  // will reject OnLoadCompleteListener.  We do this trick by putting
-  // the use of OnLoadCompleteListener in the class OnLoadHelper and arranging (see below) for
-  // the class to be compiled only if the API level is at least 8.
-  private class OnLoadHelper {
-    public void setOnloadCompleteListener (SoundPool soundPool) {
-      soundPool.setOnLoadCompleteListener(new android.media.SoundPool.OnLoadCompleteListener() {
-        public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
-          loadComplete = true;
-        }
-      });
-    }
-  }
-
-  private static final int MAX_STREAMS = 10;
-
-  // max number of consecutive delays to wait for a sound to load
-  private static final int MAX_PLAY_DELAY_RETRIES = 10;
-  // number of ms in each delay before retrying
-  private static final int PLAY_DELAY_LENGTH = 50;
+  // how long to wait for a sound to load before giving up on playing it, in ms
+  private static final int MAX_PLAY_DELAY = 500;
 
-  private static final float VOLUME_FULL = 1.0f;
-  private static final int LOOP_MODE_NO_LOOP = 0;
-  private static final float PLAYBACK_RATE_NORMAL = 1.0f;
-  private SoundPool soundPool;
-
-  // soundMap maps sounds (assets, etc) that are loaded into soundPool to their respective
-  // soundIds.
-  private final Map<String, Integer> soundMap;
-
-  // We will wait for Sound loading to complete before trying to play, but only
-  // if the API level is at least 8, because onLoadCompleteListener is not available
-  // in earlier APIs. For those early systems, attempting to play a sound before it is loaded
-  // will fail to play the sound and there will be no retry, although there might be a "cannot
-  // play" error.
-  private final boolean waitForLoadToComplete = (SdkLevel.getLevel() >= SdkLevel.LEVEL_FROYO);
+  // The pool shared by all Sound components. We will wait for Sound loading to complete before
+  // trying to play, but only if the API level is at least 8, because onLoadCompleteListener is
+  // not available in earlier APIs. For those early systems, the pool considers sounds loaded
+  // right away, and attempting to play a sound before it is loaded will fail to play the sound,
+  // although there might be a "cannot play" error.
+  private SharedSoundPool soundPool;
 
   private String sourcePath;              // name of source
   private int soundId;                    // id of sound in the soundPool
@@ -108,6 +76,9 @@ public class Sound extends AndroidNonvisibleComponent
   private long timeLastPlayed;            // the system time when Play() was last called
   private final Vibrator vibe;
   private final Handler playWaitHandler = new Handler();
+  // The play waiting for the sound to load, if any, and when it was requested
+  private Runnable pendingPlay;
+  private long playRequestTime;
 
   //save a pointer to this Sound component to use in the error in postDelayed below
   private final Component thisComponent;
@@ -116,11 +87,9 @@ public class Sound extends AndroidNonvisibleComponent
   public Sound(ComponentContainer container) {
     super(container.$form());
     thisComponent = this;
-    soundPool = new SoundPool(MAX_STREAMS, AudioManager.STREAM_MUSIC, 0);
-    soundMap = new HashMap<String, Integer>();
+    soundPool = SharedSoundPool.acquire();
     vibe = (Vibrator) form.getSystemService(Context.VIBRATOR_SERVICE);
     sourcePath = "";
-    loadComplete = true;  //nothing to wait for until we attempt to load
     form.registerForOnResume(this);
     form.registerForOnStop(this);
     form.registerForOnDestroy(this);
@@ -130,10 +99,6 @@ public class Sound extends AndroidNonvisibleComponent
 
     // Default property values
     MinimumInterval(500);
-
-    if (waitForLoadToComplete) {
-      new OnLoadHelper().setOnloadCompleteListener(soundPool);
-    }
   }
 
 
@@ -164,39 +129,38 @@ public class Sound extends AndroidNonvisibleComponent
     sourcePath = (path == null) ? "" : path;
 
     // Clear the previous sound.
-    if (streamId != 0) {
-      soundPool.stop(streamId);
-      streamId = 0;
-    }
-    soundId = 0;
+    clearSound();
 
     if (sourcePath.length() != 0) {
-      Integer existingSoundId = soundMap.get(sourcePath);
-      if (existingSoundId != null) {
-        soundId = existingSoundId;
-
-      } else {
-        Log.i("Sound", "No existing sound with path " + sourcePath + ".");
-        try {
-          int newSoundId = MediaUtil.loadSoundPool(soundPool, form, sourcePath);
-          if (newSoundId != 0) {
-            soundMap.put(sourcePath, newSoundId);
-            Log.i("Sound", "Successfully began loading sound: setting soundId to " + newSoundId + ".");
-            soundId = newSoundId;
-            // set flag to show that loading has begun
-            loadComplete = false;
-          } else {
-            form.dispatchErrorOccurredEvent(this, "Source",
-                ErrorMessages.ERROR_UNABLE_TO_LOAD_MEDIA, sourcePath);
-          }
-        } catch (IOException e) {
+      // The shared pool reuses the sound if any Sound component has loaded it already.
+      try {
+        soundId = soundPool.load(form, sourcePath);
+        if (soundId != 0) {
+          Log.i("Sound", "Setting soundId to " + soundId + ".");
+        } else {
           form.dispatchErrorOccurredEvent(this, "Source",
               ErrorMessages.ERROR_UNABLE_TO_LOAD_MEDIA, sourcePath);
         }
+      } catch (IOException e) {
+        form.dispatchErrorOccurredEvent(this, "Source",
+            ErrorMessages.ERROR_UNABLE_TO_LOAD_MEDIA, sourcePath);
       }
     }
   }
 
+  // Stops the current sound and gives it back to the pool.
+  private void clearSound() {
+    cancelPendingPlay();
+    if (streamId != 0) {
+      soundPool.stop(streamId);
+      streamId = 0;
+    }
+    if (soundId != 0) {
+      soundPool.unload(soundId);
+      soundId = 0;
+    }
+  }
+
   /**
    * Returns the minimum interval required between calls to Play(), in
    * milliseconds.
@@ -227,9 +191,6 @@ public class Sound extends AndroidNonvisibleComponent
   }
 
 
-  // number of retries remaining before signaling an error
-  private int delayRetries;
-
   /**
    * Plays the sound.
    */
@@ -239,7 +200,7 @@ public class Sound extends AndroidNonvisibleComponent
       long currentTime = System.currentTimeMillis();
       if (timeLastPlayed == 0 || currentTime >= timeLastPlayed + minimumInterval) {
         timeLastPlayed = currentTime;
-        delayRetries =  MAX_PLAY_DELAY_RETRIES;
+        playRequestTime = currentTime;
         playWhenLoadComplete();
       } else {
         // fail silently
@@ -254,35 +215,49 @@ public class Sound extends AndroidNonvisibleComponent
     }
   }
 
-  // Attempt to play the sound, possibly after a delay to allow the sound to load.
+  // Attempt to play the sound, possibly once the sound has loaded.
   private void playWhenLoadComplete() {
-    if (loadComplete || !waitForLoadToComplete) {
+    if (soundPool.isLoaded(soundId)) {
       playAndCheckResult();
-    } else {
-      Log.i("Sound", "Sound not ready:  retrying.  Remaining retries = " + delayRetries);
-      // if the sound wasn't ready we retry after a delay. We implement the delay by posting
-      // to a separate handler: using a loop with a sleep might seem simpler, but it would block
-      // the UI thread.
-      playWaitHandler.postDelayed(new Runnable() {
+    } else if (pendingPlay == null) {
+      Log.i("Sound", "Sound not ready:  waiting for it to load.");
+      // The pool runs pendingPlay as soon as the sound has loaded. If that takes too long, give
+      // up. Posting to a handler keeps the UI thread free while we wait.
+      pendingPlay = new Runnable() {
         @Override
         public void run() {
-          if (loadComplete) {
-            playAndCheckResult();
-          } else if (delayRetries > 0) {
-            delayRetries--;
-            playWhenLoadComplete();
-          } else {
-            form.dispatchErrorOccurredEvent(thisComponent, "Play",
-                ErrorMessages.ERROR_SOUND_NOT_READY, sourcePath);
-          }
+          playWaitHandler.removeCallbacks(playTimeout);
+          pendingPlay = null;
+          playAndCheckResult();
         }
-      }, PLAY_DELAY_LENGTH);
+      };
+      soundPool.whenLoaded(soundId, pendingPlay);
+      // The pool has already run it if the sound was evicted or failed to load.
+      if (pendingPlay != null) {
+        playWaitHandler.postDelayed(playTimeout, MAX_PLAY_DELAY);
+      }
+    }
+  }
+
+  private final Runnable playTimeout = new Runnable() {
+    @Override
+    public void run() {
+      cancelPendingPlay();
+      form.dispatchErrorOccurredEvent(thisComponent, "Play",
+          ErrorMessages.ERROR_SOUND_NOT_READY, sourcePath);
+    }
+  };
+
+  private void cancelPendingPlay() {
+    if (pendingPlay != null) {
+      soundPool.cancelWhenLoaded(soundId, pendingPlay);
+      playWaitHandler.removeCallbacks(playTimeout);
+      pendingPlay = null;
     }
   }
 
   private void playAndCheckResult() {
-    streamId = soundPool.play(soundId, VOLUME_FULL, VOLUME_FULL, 0, LOOP_MODE_NO_LOOP,
-        PLAYBACK_RATE_NORMAL);
+    streamId = soundPool.play(soundId, playRequestTime);
   Log.i("Sound", "SoundPool.play returned stream id " + streamId);
   if (streamId == 0) {
     form.dispatchErrorOccurredEvent(this, "Play",
@@ -377,11 +352,11 @@ public class Sound extends AndroidNonvisibleComponent
   }
 
   private void prepareToDie() {
-    if (streamId != 0) {
-      soundPool.stop(streamId);
-      soundPool.unload(streamId);
+    if (soundPool == null) {
+      return;
     }
-    soundPool.release();
+    clearSound();
+    SharedSoundPool.release(soundPool);
     vibe.cancel();
     // The documentation for SoundPool suggests setting the reference to null;
     soundPool = null;
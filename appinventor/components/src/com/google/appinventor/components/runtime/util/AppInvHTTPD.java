@@ -43,6 +43,7 @@ public class AppInvHTTPD extends NanoHTTPD {
 
   private File rootDir;
   private Language scheme;
+  private ReplEvalCache evalCache;
   private ReplForm form;
   private boolean secure;       // Should we only accept from 127.0.0.1?
 
@@ -59,6 +60,7 @@ public class AppInvHTTPD extends NanoHTTPD {
     super(port, wwwroot);
     this.rootDir = wwwroot;
     this.scheme = Scheme.getInstance("scheme");
+    this.evalCache = new ReplEvalCache(scheme);
     this.form = form;
     this.secure = secure;
     gnu.expr.ModuleExp.mustNeverCompile();
@@ -121,86 +123,27 @@ public class AppInvHTTPD extends NanoHTTPD {
     if (uri.equals("/_newblocks")) { // Handle AJAX calls from the newblocks code
       adoptMainThreadClassLoader();
       String inSeq = parms.getProperty("seq", "0");
-      int iseq = Integer.parseInt(inSeq);
       String blockid = parms.getProperty("blockid");
       String code = parms.getProperty("code");
       String inMac = parms.getProperty("mac", "no key provided");
-      String compMac = "";
-      String input_code = code;
-      if (hmacKey != null) {
-        try {
-          Mac hmacSha1 = Mac.getInstance("HmacSHA1");
-          SecretKeySpec key = new SecretKeySpec(hmacKey, "RAW");
-          hmacSha1.init(key);
-          byte [] tmpMac = hmacSha1.doFinal((code + inSeq + blockid).getBytes());
-          StringBuffer sb = new StringBuffer(tmpMac.length * 2);
-          Formatter formatter = new Formatter(sb);
-          for (byte b : tmpMac)
-            formatter.format("%02x", b);
-          compMac = sb.toString();
-        } catch (Exception e) {
-          Log.e(LOG_TAG, "Error working with hmac", e);
-          form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
-            ErrorMessages.ERROR_REPL_SECURITY_ERROR, "Exception working on HMAC");
-          Response res = new Response(HTTP_OK, MIME_PLAINTEXT, "NOT");
-          return(res);
-        }
-        Log.d(LOG_TAG, "Incoming Mac = " + inMac);
-        Log.d(LOG_TAG, "Computed Mac = " + compMac);
-        Log.d(LOG_TAG, "Incoming seq = " + inSeq);
-        Log.d(LOG_TAG, "Computed seq = " + seq);
-        Log.d(LOG_TAG, "blockid = " + blockid);
-        if (!inMac.equals(compMac)) {
-          Log.e(LOG_TAG, "Hmac does not match");
-          form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
-            ErrorMessages.ERROR_REPL_SECURITY_ERROR, "Invalid HMAC");
-          Response res = new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"Security Error: Invalid MAC\"}");
-          return(res);
-        }
-        if ((seq != iseq) && (seq != (iseq+1))) {
-          Log.e(LOG_TAG, "Seq does not match");
-          form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
-            ErrorMessages.ERROR_REPL_SECURITY_ERROR, "Invalid Seq");
-          Response res = new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"Security Error: Invalid Seq\"}");
-          return(res);
-        }
-        // Seq Fixup: Sometimes the Companion doesn't increment it's seq if it is in the middle of a project switch
-        // so we tolerate an off-by-one here.
-        if (seq == (iseq+1))
-          Log.e(LOG_TAG, "Seq Fixup Invoked");
-        seq = iseq + 1;
-      } else {                  // No hmacKey
-        Log.e(LOG_TAG, "No HMAC Key");
-        form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
-          ErrorMessages.ERROR_REPL_SECURITY_ERROR, "No HMAC Key");
-        Response res = new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"Security Error: No HMAC Key\"}");
+      String securityError = checkCode(code, inSeq, blockid, inMac);
+      if (securityError != null) {
+        Response res = new Response(HTTP_OK, MIME_JSON, "{\"status\" : \"BAD\", \"message\" : \"" + securityError + "\"}");
         return(res);
       }
-
-      code = "(begin (require <com.google.youngandroid.runtime>) (process-repl-input " + blockid + " (begin " +
-        code + " )))";
-
-      Log.d(LOG_TAG, "To Eval: " + code);
-
-      Response res;
-      try {
-        // Don't evaluate a simple "#f" which is used by the poller
-        if (input_code.equals("#f")) {
-          Log.e(LOG_TAG, "Skipping evaluation of #f");
-        } else {
-          scheme.eval(code);
-        }
-        res = new Response(HTTP_OK, MIME_JSON, RetValManager.fetch(false));
-      } catch (Throwable ex) {
-        Log.e(LOG_TAG, "newblocks: Scheme Failure", ex);
-        RetValManager.appendReturnValue(blockid, "BAD", ex.toString());
-        res = new Response(HTTP_OK, MIME_JSON, RetValManager.fetch(false));
-      }
+      evalCode(blockid, code);
+      takeSyncReport();         // Only the channel reports syncs, the log has it too
+      Response res = new Response(HTTP_OK, MIME_JSON, RetValManager.fetch(false));
       res.addHeader("Access-Control-Allow-Origin", "*");
       res.addHeader("Access-Control-Allow-Headers", "origin, content-type");
       res.addHeader("Access-Control-Allow-Methods", "POST,OPTIONS,GET,HEAD,PUT");
       res.addHeader("Allow", "POST,OPTIONS,GET,HEAD,PUT");
       return(res);
+    } else if (uri.equals("/_channel")) { // WebSocket for code and values, see ReplChannel
+      if (!ReplChannel.isUpgradeRequest(header)) {
+        return error("Not a WebSocket request");
+      }
+      return ReplChannel.accept(this, header);
     } else if (uri.equals("/_values")) {
       Response res = new Response(HTTP_OK, MIME_JSON, RetValManager.fetch(true)); // Blocking Fetch
       res.addHeader("Access-Control-Allow-Origin", "*");
@@ -231,7 +174,9 @@ public class AppInvHTTPD extends NanoHTTPD {
         res = new Response(HTTP_OK, MIME_JSON, "{\"version\" : \"" + versionName +
           "\", \"fingerprint\" : \"" + Build.FINGERPRINT + "\"," +
           " \"installer\" : \"" + installer + "\", \"package\" : \"" +
-          packageName + "\", \"fqcn\" : true }");
+          packageName + "\", \"fqcn\" : true" +
+          // channel = true indicates we accept a WebSocket on /_channel
+          ", \"channel\" : " + (SdkLevel.getLevel() >= SdkLevel.LEVEL_FROYO) + " }");
       } catch (NameNotFoundException n) {
         n.printStackTrace();
         res = new Response(HTTP_OK, MIME_JSON, "{\"verison\" : \"Unknown\"");
@@ -470,7 +415,7 @@ public class AppInvHTTPD extends NanoHTTPD {
    * that Scheme code spawned by AppInvHTTPD can find extensions previously loaded by another
    * thread.
    */
-  private void adoptMainThreadClassLoader() {
+  void adoptMainThreadClassLoader() {
     ClassLoader mainClassLoader = Looper.getMainLooper().getThread().getContextClassLoader();
     Thread myThread = Thread.currentThread();
     if (myThread.getContextClassLoader() != mainClassLoader) {
@@ -478,6 +423,92 @@ public class AppInvHTTPD extends NanoHTTPD {
     }
   }
 
+  /**
+   * Checks the HMAC and sequence number sent with code from the blocks editor.
+   *
+   * @return null if the code may be evaluated, otherwise why it may not
+   */
+  synchronized String checkCode(String code, String inSeq, String blockid, String inMac) {
+    if (hmacKey == null) {
+      Log.e(LOG_TAG, "No HMAC Key");
+      form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
+        ErrorMessages.ERROR_REPL_SECURITY_ERROR, "No HMAC Key");
+      return "Security Error: No HMAC Key";
+    }
+    int iseq;
+    String compMac;
+    try {
+      iseq = Integer.parseInt(inSeq);
+      Mac hmacSha1 = Mac.getInstance("HmacSHA1");
+      SecretKeySpec key = new SecretKeySpec(hmacKey, "RAW");
+      hmacSha1.init(key);
+      byte [] tmpMac = hmacSha1.doFinal((code + inSeq + blockid).getBytes());
+      StringBuffer sb = new StringBuffer(tmpMac.length * 2);
+      Formatter formatter = new Formatter(sb);
+      for (byte b : tmpMac)
+        formatter.format("%02x", b);
+      compMac = sb.toString();
+    } catch (Exception e) {
+      Log.e(LOG_TAG, "Error working with hmac", e);
+      form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
+        ErrorMessages.ERROR_REPL_SECURITY_ERROR, "Exception working on HMAC");
+      return "Security Error: Exception working on HMAC";
+    }
+    Log.d(LOG_TAG, "Incoming Mac = " + inMac);
+    Log.d(LOG_TAG, "Computed Mac = " + compMac);
+    Log.d(LOG_TAG, "Incoming seq = " + inSeq);
+    Log.d(LOG_TAG, "Computed seq = " + seq);
+    Log.d(LOG_TAG, "blockid = " + blockid);
+    if (!inMac.equals(compMac)) {
+      Log.e(LOG_TAG, "Hmac does not match");
+      form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
+        ErrorMessages.ERROR_REPL_SECURITY_ERROR, "Invalid HMAC");
+      return "Security Error: Invalid MAC";
+    }
+    if ((seq != iseq) && (seq != (iseq+1))) {
+      Log.e(LOG_TAG, "Seq does not match");
+      form.dispatchErrorOccurredEvent(form, "AppInvHTTPD",
+        ErrorMessages.ERROR_REPL_SECURITY_ERROR, "Invalid Seq");
+      return "Security Error: Invalid Seq";
+    }
+    // Seq Fixup: Sometimes the Companion doesn't increment it's seq if it is in the middle of a project switch
+    // so we tolerate an off-by-one here.
+    if (seq == (iseq+1))
+      Log.e(LOG_TAG, "Seq Fixup Invoked");
+    seq = iseq + 1;
+    return null;
+  }
+
+  /**
+   * Evaluates code from the blocks editor. Its results, including any
+   * error, are left in the RetValManager. Code that was evaluated before is
+   * not expanded again, see ReplEvalCache.
+   *
+   * @return whether the code was expanded before
+   */
+  boolean evalCode(String blockid, String code) {
+    // Don't evaluate a simple "#f" which is used by the poller
+    if (code.equals("#f")) {
+      Log.e(LOG_TAG, "Skipping evaluation of #f");
+      return false;
+    }
+    try {
+      return evalCache.eval(blockid, code);
+    } catch (Throwable ex) {
+      Log.e(LOG_TAG, "newblocks: Scheme Failure", ex);
+      RetValManager.appendReturnValue(blockid, "BAD", ex.toString());
+      return false;
+    }
+  }
+
+  /**
+   * Returns the eval counts and times of the full sync that ended last, or
+   * null if none ended since the previous call.
+   */
+  JSONObject takeSyncReport() {
+    return evalCache.takeSyncReport();
+  }
+
   private Response message(String txt) {
     return addHeaders(new Response(HTTP_OK, MIME_PLAINTEXT, txt));
   }
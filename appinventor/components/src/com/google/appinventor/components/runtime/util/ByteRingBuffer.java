@@ -0,0 +1,155 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+/**
+ * A fixed size circular byte buffer for handing bytes from one producer
+ * thread to one consumer thread without locking.
+ *
+ * <p>Only the producer may call {@link #write}, and only the consumer may
+ * call {@link #read}, {@link #peek}, {@link #skip}, {@link #indexOf} and
+ * {@link #clear}. {@link #available} may be called from either thread.
+ * Each position is written by one thread only and published through a
+ * volatile field, so the consumer never sees bytes before they have been
+ * copied in.
+ *
+ * <p>When the buffer is full, {@link #write} stores as many bytes as fit
+ * and returns that count; it is up to the producer to account for the
+ * rest.
+ *
+ */
+public final class ByteRingBuffer {
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private final byte[] buffer;
+  private final int mask;
+
+  // Total number of bytes ever written; only changed by the producer
+  private volatile long writePosition;
+  // Total number of bytes ever consumed; only changed by the consumer
+  private volatile long readPosition;
+
+  /**
+   * Creates a buffer holding at least {@code minCapacity} bytes. The
+   * capacity is rounded up to a power of two.
+   */
+  public ByteRingBuffer(int minCapacity) {
+    if (minCapacity <= 0 || minCapacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException("Invalid capacity: " + minCapacity);
+    }
+    int capacity = 1;
+    while (capacity < minCapacity) {
+      capacity <<= 1;
+    }
+    buffer = new byte[capacity];
+    mask = capacity - 1;
+  }
+
+  public int capacity() {
+    return buffer.length;
+  }
+
+  /**
+   * Returns the number of bytes that can be read.
+   */
+  public int available() {
+    // Read the consumer's position first so the difference never exceeds
+    // the capacity.
+    long read = readPosition;
+    return (int) (writePosition - read);
+  }
+
+  /**
+   * Copies up to {@code length} bytes into the buffer.
+   *
+   * @return the number of bytes stored, which is less than {@code length}
+   *         if the buffer filled up
+   */
+  public int write(byte[] bytes, int offset, int length) {
+    long write = writePosition;
+    int free = buffer.length - (int) (write - readPosition);
+    int count = Math.min(length, free);
+    if (count <= 0) {
+      return 0;
+    }
+    int start = (int) (write & mask);
+    int first = Math.min(count, buffer.length - start);
+    System.arraycopy(bytes, offset, buffer, start, first);
+    System.arraycopy(bytes, offset + first, buffer, 0, count - first);
+    writePosition = write + count;
+    return count;
+  }
+
+  /**
+   * Moves up to {@code length} bytes out of the buffer without blocking.
+   *
+   * @return the number of bytes read, 0 if the buffer is empty
+   */
+  public int read(byte[] bytes, int offset, int length) {
+    int count = peek(0, bytes, offset, length);
+    readPosition += count;
+    return count;
+  }
+
+  /**
+   * Copies up to {@code length} bytes, starting {@code from} bytes past the
+   * read position, without consuming them.
+   *
+   * @return the number of bytes copied
+   */
+  public int peek(int from, byte[] bytes, int offset, int length) {
+    long start = readPosition + from;
+    int count = Math.min(length, (int) (writePosition - start));
+    if (count <= 0) {
+      return 0;
+    }
+    int index = (int) (start & mask);
+    int first = Math.min(count, buffer.length - index);
+    System.arraycopy(buffer, index, bytes, offset, first);
+    System.arraycopy(buffer, 0, bytes, offset + first, count - first);
+    return count;
+  }
+
+  /**
+   * Discards up to {@code length} bytes.
+   *
+   * @return the number of bytes discarded
+   */
+  public int skip(int length) {
+    long read = readPosition;
+    int count = Math.min(length, (int) (writePosition - read));
+    if (count <= 0) {
+      return 0;
+    }
+    readPosition = read + count;
+    return count;
+  }
+
+  /**
+   * Returns how many bytes precede the first occurrence of {@code value}
+   * at or after {@code from} bytes past the read position, or -1 if it does
+   * not occur.
+   */
+  public int indexOf(byte value, int from) {
+    long read = readPosition;
+    long write = writePosition;
+    for (long position = read + from; position < write; position++) {
+      if (buffer[(int) (position & mask)] == value) {
+        return (int) (position - read);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Discards all readable bytes.
+   *
+   * @return the number of bytes discarded
+   */
+  public int clear() {
+    return skip(Integer.MAX_VALUE);
+  }
+}
@@ -11,6 +11,8 @@ import com.google.appinventor.components.runtime.collect.Lists;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -23,17 +25,66 @@ import java.util.regex.Pattern;
  */
 public final class CsvUtil {
 
+  /**
+   * Receives the rows of a CSV table one at a time as they are parsed.
+   */
+  public interface RowHandler {
+    /**
+     * Called once for each row of the table, in order.
+     *
+     * @param rowIndex the 1-based index of the row within the table
+     * @param row the fields of the row
+     * @return true to continue parsing, false to stop
+     */
+    boolean handleRow(int rowIndex, YailList row) throws Exception;
+  }
+
   private CsvUtil() {
   }
 
   public static YailList fromCsvTable(String csvString) throws Exception {
-    CsvParser csvParser = new CsvParser(new StringReader(csvString));
-    ArrayList<YailList> csvList = new ArrayList<YailList>();
+    return fromCsvTable(new StringReader(csvString));
+  }
+
+  /**
+   * Parses a CSV table from the given reader without first reading the
+   * whole input into memory.
+   *
+   * @param in the source of the CSV text; it is not closed by this method
+   * @return a list of rows, each of which is a list of fields
+   */
+  public static YailList fromCsvTable(Reader in) throws Exception {
+    final ArrayList<YailList> csvList = new ArrayList<YailList>();
+    parseCsvTable(in, new RowHandler() {
+      @Override
+      public boolean handleRow(int rowIndex, YailList row) {
+        csvList.add(row);
+        return true;
+      }
+    });
+    return YailList.makeList(csvList);
+  }
+
+  /**
+   * Parses a CSV table from the given reader, handing each row to
+   * {@code handler} as soon as it has been read. Only the row currently being
+   * parsed is held in memory, so arbitrarily large tables can be processed.
+   *
+   * @param in the source of the CSV text; it is not closed by this method
+   * @param handler receives each parsed row
+   * @return the number of rows handed to {@code handler}
+   */
+  public static int parseCsvTable(Reader in, RowHandler handler) throws Exception {
+    CsvParser csvParser = new CsvParser(in);
+    int rowCount = 0;
     while (csvParser.hasNext()) {
-      csvList.add(YailList.makeList(csvParser.next()));
+      rowCount++;
+      if (!handler.handleRow(rowCount, YailList.makeList(csvParser.next()))) {
+        return rowCount;
+      }
     }
     csvParser.throwAnyProblem();
-    return YailList.makeList(csvList);
+    return rowCount;
   }
 
   public static YailList fromCsvRow(String csvString) throws Exception {
@@ -52,33 +103,66 @@ public final class CsvUtil {
 
   // Requires: elements of csvRow are strings
   public static String toCsvRow(YailList csvRow) {
-    StringBuilder csvStringBuilder = new StringBuilder();
-    makeCsvRow(csvRow, csvStringBuilder);
-    return csvStringBuilder.toString();
+    StringWriter csvWriter = new StringWriter();
+    try {
+      makeCsvRow(csvRow, csvWriter);
+    } catch (IOException e) {
+      // StringWriter does not throw IOException.
+      throw new IllegalStateException(e);
+    }
+    return csvWriter.toString();
   }
 
   // Requires: elements of rows are strings
   // TODO(sharon): do we want to enforce any consistency constraints here, e.g.,
   // all rows have same number of elements?
   public static String toCsvTable(YailList csvList) {
-    StringBuilder csvStringBuilder = new StringBuilder();
+    StringWriter csvWriter = new StringWriter();
+    try {
+      toCsvTable(csvList, csvWriter);
+    } catch (IOException e) {
+      // StringWriter does not throw IOException.
+      throw new IllegalStateException(e);
+    }
+    return csvWriter.toString();
+  }
+
+  /**
+   * Writes the given table to {@code out} one row at a time, so that the
+   * complete CSV text never needs to be built in memory.
+   *
+   * @param csvList a list of rows, each of which is a list of fields
+   * @param out the destination of the CSV text; it is not closed by this method
+   */
+  public static void toCsvTable(YailList csvList, Writer out) throws IOException {
     for (Object rowObj : csvList.toArray()) {
-      makeCsvRow((YailList) rowObj, csvStringBuilder);
+      makeCsvRow((YailList) rowObj, out);
       // http://tools.ietf.org/html/rfc4180 suggests that CSV lines should be
       // terminated
       // by CRLF, hence the \r\n.
-      csvStringBuilder.append("\r\n");
+      out.write("\r\n");
     }
-    return csvStringBuilder.toString();
   }
 
-  private static void makeCsvRow(YailList row, StringBuilder csvStringBuilder) {
-    String fieldDelim = "";
+  private static void makeCsvRow(YailList row, Writer out) throws IOException {
+    boolean firstField = true;
     for (Object fieldObj : row.toArray()) {
+      if (!firstField) {
+        out.write(',');
+      }
+      firstField = false;
       String field = fieldObj.toString();
-      field = field.replaceAll("\"", "\"\"");
-      csvStringBuilder.append(fieldDelim).append("\"").append(field).append("\"");
-      fieldDelim = ",";
+      out.write('"');
+      int start = 0;
+      int quote;
+      // Double any embedded quotes without building an intermediate string.
+      while ((quote = field.indexOf('"', start)) >= 0) {
+        out.write(field, start, quote + 1 - start);
+        out.write('"');
+        start = quote + 1;
+      }
+      out.write(field, start, field.length() - start);
+      out.write('"');
     }
   }
 
@@ -95,13 +179,17 @@ public final class CsvUtil {
     private final Pattern ESCAPED_QUOTE_PATTERN = Pattern.compile("\"\"");
 
     /**
-     * Character buffer for cell parsing. The size limits the largest parsable
-     * cell. Specifically, if an unquoted cell and its trailing delimiter exceed
-     * this limit, the cell will be split at the limit. Moreover, a quoted large
-     * cell will cause a syntax error as when we reach end-of-file without
-     * reading a closing quote.
+     * Initial size of the character buffer used for cell parsing.
      */
-    private final char[] buf = new char[10240];
+    private static final int INITIAL_BUFFER_SIZE = 10240;
+
+    /**
+     * Character buffer for cell parsing. The buffer starts out at
+     * {@link #INITIAL_BUFFER_SIZE} characters and is doubled whenever a single
+     * cell and its trailing delimiter do not fit, so cells of any size can be
+     * parsed.
+     */
+    private char[] buf = new char[INITIAL_BUFFER_SIZE];
 
     private final Reader in;
 
@@ -180,7 +268,11 @@ public final class CsvUtil {
           result.add(new String(buf, pos, cellLength).trim());
         } else {
           String cell = new String(buf, pos + 1, cellLength - 2);
-          result.add(ESCAPED_QUOTE_PATTERN.matcher(cell).replaceAll("\"").trim());
+          // Only cells holding an escaped quote need the pattern.
+          if (cell.indexOf("\"\"") >= 0) {
+            cell = ESCAPED_QUOTE_PATTERN.matcher(cell).replaceAll("\"");
+          }
+          result.add(cell.trim());
         }
         trailingComma = delimitedCellLength > 0 && buf[pos + delimitedCellLength - 1] == ',';
         pos += delimitedCellLength;
@@ -201,11 +293,23 @@ public final class CsvUtil {
     private int indexAfterCompactionAndFilling(int i) {
       if (pos > 0) {
         i = compact(i);
+      } else if (limit == buf.length && opened) {
+        grow();
       }
       fill();
       return i;
     }
 
+    /**
+     * Doubles the size of {@code buf}, keeping its contents. Called when the
+     * cell being parsed fills the whole buffer.
+     */
+    private void grow() {
+      char[] newBuf = new char[buf.length * 2];
+      System.arraycopy(buf, 0, newBuf, 0, limit);
+      buf = newBuf;
+    }
+
     /**
      * Moves the contents between {@code pos} and {@code limit} to the beginning
      * of {@code buf}. Returns the new position of the given index.
@@ -276,7 +380,7 @@ public final class CsvUtil {
             // In standard CSV \r\n terminates a cell. However, Macintosh uses
             // one \r instead of \n.
             int j = checkedIndex(i + 1);
-            delimitedCellLength = (buf[j] == '\n' ? checkedIndex(j + 1) : j) - pos;
+            delimitedCellLength = (j < limit && buf[j] == '\n' ? checkedIndex(j + 1) : j) - pos;
             return true;
           case ',':
           case '\n':
@@ -314,7 +418,7 @@ public final class CsvUtil {
             // one \r instead of \n.
             cellLength = i - pos;
             int j = checkedIndex(i + 1);
-            delimitedCellLength = (buf[j] == '\n' ? checkedIndex(j + 1) : j) - pos;
+            delimitedCellLength = (j < limit && buf[j] == '\n' ? checkedIndex(j + 1) : j) - pos;
             return true;
           case '"':
             lastException = new IllegalArgumentException("Syntax Error: quote in unquoted cell");
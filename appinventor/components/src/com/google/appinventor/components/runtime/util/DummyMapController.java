@@ -240,6 +240,22 @@ class DummyMapController implements MapController {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public void setClusterMarkersEnabled(boolean enabled) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public boolean isClusterMarkersEnabled() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public MapFeature getNearestFeature(double latitude, double longitude,
+      SpatialIndex.Metric<MapFeature> metric) {
+    throw new UnsupportedOperationException();
+  }
+
   @Override
   public LocationSensor.LocationSensorListener getLocationListener() {
     throw new UnsupportedOperationException();
@@ -0,0 +1,173 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import android.content.Context;
+import android.util.TypedValue;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An adapter for a list of text elements that may be very long.
+ *
+ * <p>Nothing is done per element until its row is shown: the text is
+ * formatted when a row is bound, rows are recycled, and every row gets the
+ * same color and size by setting them on its TextView, instead of
+ * allocating styled text for each element up front. Filtering runs on
+ * Filter's background thread with a {@link ListFilterIndex}. Changing the
+ * elements with {@link #setElements} only replaces the range that differs
+ * from the current elements, so adding or removing a few elements neither
+ * copies nor filters the rest again.
+ *
+ * <p>Positions in the adapter are those of the visible, filtered rows. The
+ * item id of a row is the position of its element in the whole list.
+ *
+ * <p>All methods but the filtering must be called on the UI thread.
+ *
+ */
+public final class FilterableListAdapter extends BaseAdapter implements Filterable {
+  private final Context context;
+  private final List<Object> elements = new ArrayList<Object>();
+  private final ListFilterIndex index = new ListFilterIndex();
+  private final Filter filter = new ElementFilter();
+
+  // Positions of the visible elements, or null if the list is not filtered
+  private int[] visible;
+  private CharSequence query = "";
+
+  private int textColor;
+  private float textSizePx;
+
+  public FilterableListAdapter(Context context) {
+    this.context = context;
+  }
+
+  /**
+   * Sets the color and size, in pixels, of the text of every row.
+   */
+  public void setTextStyle(int textColor, float textSizePx) {
+    if (textColor != this.textColor || textSizePx != this.textSizePx) {
+      this.textColor = textColor;
+      this.textSizePx = textSizePx;
+      notifyDataSetChanged();
+    }
+  }
+
+  /**
+   * Changes the elements to {@code newElements}, keeping whatever they have
+   * in common with the current elements at their start and end.
+   */
+  public void setElements(List<?> newElements) {
+    int oldSize = elements.size();
+    int newSize = newElements.size();
+    int start = 0;
+    while (start < oldSize && start < newSize
+        && elements.get(start).equals(newElements.get(start))) {
+      start++;
+    }
+    int oldEnd = oldSize;
+    int newEnd = newSize;
+    while (oldEnd > start && newEnd > start
+        && elements.get(oldEnd - 1).equals(newElements.get(newEnd - 1))) {
+      oldEnd--;
+      newEnd--;
+    }
+    if (start == oldEnd && start == newEnd) {
+      return;                   // Nothing changed
+    }
+    List<?> replacement = newElements.subList(start, newEnd);
+    elements.subList(start, oldEnd).clear();
+    elements.addAll(start, replacement);
+    index.replace(start, oldEnd, replacement);
+
+    if (visible != null) {
+      // Until the new elements have been filtered, keep showing the unchanged ones.
+      int shift = newEnd - oldEnd;
+      int[] kept = new int[visible.length];
+      int count = 0;
+      for (int position : visible) {
+        if (position < start) {
+          kept[count++] = position;
+        } else if (position >= oldEnd) {
+          kept[count++] = position + shift;
+        }
+      }
+      visible = Arrays.copyOf(kept, count);
+      filter.filter(query);
+    }
+    notifyDataSetChanged();
+  }
+
+  private int elementPosition(int position) {
+    return visible == null ? position : visible[position];
+  }
+
+  @Override
+  public int getCount() {
+    return visible == null ? elements.size() : visible.length;
+  }
+
+  @Override
+  public String getItem(int position) {
+    return YailList.YailListElementToString(elements.get(elementPosition(position)));
+  }
+
+  @Override
+  public long getItemId(int position) {
+    return elementPosition(position);
+  }
+
+  @Override
+  public View getView(int position, View convertView, ViewGroup parent) {
+    TextView view = (TextView) convertView;
+    if (view == null) {
+      view = (TextView) LayoutInflater.from(context)
+          .inflate(android.R.layout.simple_list_item_1, parent, false);
+    }
+    view.setText(getItem(position));
+    view.setTextColor(textColor);
+    view.setTextSize(TypedValue.COMPLEX_UNIT_PX, textSizePx);
+    return view;
+  }
+
+  @Override
+  public Filter getFilter() {
+    return filter;
+  }
+
+  private class ElementFilter extends Filter {
+    @Override
+    protected FilterResults performFiltering(CharSequence constraint) {
+      FilterResults results = new FilterResults();
+      if (constraint != null && constraint.length() > 0) {
+        ListFilterIndex.Result result = index.filter(constraint);
+        results.values = result;
+        results.count = result.positions.length;
+      }
+      return results;
+    }
+
+    @Override
+    protected void publishResults(CharSequence constraint, FilterResults results) {
+      ListFilterIndex.Result result = (ListFilterIndex.Result) results.values;
+      if (result != null && result.version != index.version()) {
+        return;                 // The elements changed, a newer filter is on its way
+      }
+      query = constraint == null ? "" : constraint;
+      visible = result == null ? null : result.positions;
+      notifyDataSetChanged();
+    }
+  }
+}
@@ -0,0 +1,153 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The searchable text of a list's elements, for filtering the list as the
+ * user types.
+ *
+ * <p>An element matches a query if the element, or any of its words,
+ * starts with the query, ignoring case, which is how ArrayAdapter's filter
+ * matches. The lower case text of an element is only computed the first
+ * time the list is filtered, on the filtering thread, and kept until the
+ * element is replaced. When the query only adds characters to the end of
+ * the previous one, as it does while the user types, only the elements that
+ * matched the previous query are searched again.
+ *
+ * <p>The elements are changed with {@link #replace} on one thread while
+ * {@link #filter} may run on another. A filter works on a snapshot of the
+ * elements and reports the {@link #version} it was computed for, so that a
+ * result that is out of date can be recognized and dropped.
+ *
+ */
+public final class ListFilterIndex {
+
+  /**
+   * The positions of the elements that matched a query.
+   */
+  public static final class Result {
+    /** The version of the elements the result was computed for. */
+    public final int version;
+    /** The positions of the matching elements, in increasing order. */
+    public final int[] positions;
+
+    Result(int version, int[] positions) {
+      this.version = version;
+      this.positions = positions;
+    }
+  }
+
+  // Guarded by this
+  private final List<Object> elements = new ArrayList<Object>();
+  // The lower case text of each element, or null if not computed yet
+  private final List<String> keys = new ArrayList<String>();
+  private int version;
+  private String lastQuery;
+  private Result lastResult;
+
+  /**
+   * Replaces the elements from {@code start} up to but not including
+   * {@code end} by {@code replacement}.
+   */
+  public synchronized void replace(int start, int end, List<?> replacement) {
+    elements.subList(start, end).clear();
+    keys.subList(start, end).clear();
+    elements.addAll(start, replacement);
+    keys.addAll(start, Arrays.asList(new String[replacement.size()]));
+    version++;
+    lastResult = null;
+  }
+
+  public synchronized int size() {
+    return elements.size();
+  }
+
+  public synchronized int version() {
+    return version;
+  }
+
+  /**
+   * Finds the elements matching {@code query}.
+   */
+  public Result filter(CharSequence query) {
+    String prefix = query.toString().toLowerCase(Locale.getDefault());
+    Object[] snapshot;
+    String[] snapshotKeys;
+    int snapshotVersion;
+    Result previous = null;
+    synchronized (this) {
+      snapshot = elements.toArray();
+      snapshotKeys = keys.toArray(new String[keys.size()]);
+      snapshotVersion = version;
+      if (lastResult != null && prefix.startsWith(lastQuery)) {
+        previous = lastResult;
+      }
+    }
+
+    int[] matches;
+    int count = 0;
+    if (previous != null) {
+      matches = new int[previous.positions.length];
+      for (int position : previous.positions) {
+        if (matches(key(snapshot, snapshotKeys, position), prefix)) {
+          matches[count++] = position;
+        }
+      }
+    } else {
+      matches = new int[snapshot.length];
+      for (int position = 0; position < snapshot.length; position++) {
+        if (matches(key(snapshot, snapshotKeys, position), prefix)) {
+          matches[count++] = position;
+        }
+      }
+    }
+    Result result = new Result(snapshotVersion, Arrays.copyOf(matches, count));
+
+    synchronized (this) {
+      if (version == snapshotVersion) {
+        for (int i = 0; i < snapshotKeys.length; i++) {
+          if (keys.get(i) == null) {
+            keys.set(i, snapshotKeys[i]);
+          }
+        }
+        lastQuery = prefix;
+        lastResult = result;
+      }
+    }
+    return result;
+  }
+
+  private static String key(Object[] elements, String[] keys, int position) {
+    String key = keys[position];
+    if (key == null) {
+      key = YailList.YailListElementToString(elements[position])
+          .toLowerCase(Locale.getDefault());
+      keys[position] = key;
+    }
+    return key;
+  }
+
+  /**
+   * Returns whether {@code key}, or any word in it, starts with
+   * {@code prefix}. Both must already be lower case.
+   */
+  static boolean matches(String key, String prefix) {
+    if (key.startsWith(prefix)) {
+      return true;
+    }
+    for (int space = key.indexOf(' '); space >= 0; space = key.indexOf(' ', space + 1)) {
+      if (key.startsWith(prefix, space + 1)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -498,6 +498,32 @@ public final class MapFactory {
      */
     void updateFeatureSize(MapMarker marker);
 
+    /**
+     * Set whether markers close to one another on screen are drawn as a single marker
+     * showing their number.
+     *
+     * @param enabled true if markers should be clustered, otherwise false
+     */
+    void setClusterMarkersEnabled(boolean enabled);
+
+    /**
+     * Get whether markers close to one another on screen are drawn as a single marker.
+     *
+     * @return true if markers are clustered, otherwise false
+     */
+    boolean isClusterMarkersEnabled();
+
+    /**
+     * Find the feature on the map nearest to a point.
+     *
+     * @param latitude the latitude of the point
+     * @param longitude the longitude of the point
+     * @param metric the distance, in meters, from the point to a feature
+     * @return the nearest feature, or null if the map has no features
+     */
+    MapFeature getNearestFeature(double latitude, double longitude,
+        SpatialIndex.Metric<MapFeature> metric);
+
     /**
      * Get the location sensor implementation used to link the LocationSensorListener interface
      * to the underlying implementation's location sensor mechanism.
@@ -20,6 +20,7 @@ import android.media.SoundPool;
 import android.net.Uri;
 import android.os.Environment;
 import android.provider.Contacts;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.Display;
 import android.view.WindowManager;
@@ -330,6 +331,143 @@ public class MediaUtil {
 
   // Image related methods
 
+  // Decoded images, keyed by bitmapCacheKey. A cached bitmap is shared by
+  // every drawable made from it, which is safe because nothing recycles them.
+  private static SizedLruCache<String, Bitmap> bitmapCache;
+
+  // The width and height of images that have been loaded, keyed by path and
+  // version, so that the sample size of an image is known before decoding it.
+  private static final SizedLruCache<String, int[]> imageSizes =
+      new SizedLruCache<String, int[]>(1024) {
+        @Override
+        protected int sizeOf(String key, int[] size) {
+          return 1;
+        }
+      };
+
+  private static synchronized SizedLruCache<String, Bitmap> getBitmapCache() {
+    if (bitmapCache == null) {
+      // Use an eighth of the heap, which leaves plenty for everything else.
+      int maxSize = (int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE);
+      bitmapCache = new SizedLruCache<String, Bitmap>(maxSize) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+          return bitmap.getRowBytes() * bitmap.getHeight();
+        }
+      };
+    }
+    return bitmapCache;
+  }
+
+  /**
+   * Drops all cached images, for instance when the system runs low on
+   * memory.
+   */
+  public static void trimBitmapCache() {
+    SizedLruCache<String, Bitmap> cache;
+    synchronized (MediaUtil.class) {
+      cache = bitmapCache;
+    }
+    if (cache != null) {
+      Log.i(LOG_TAG, "Trimming bitmap cache " + cache);
+      cache.evictAll();
+    }
+  }
+
+  /**
+   * Returns the version of the image at mediaPath, or null if it must not
+   * be cached.
+   *
+   * <p/>Files are versioned by their modification time and length, so that
+   * an asset replaced by the companion, or a picture just taken, is decoded
+   * again.
+   */
+  private static String mediaVersion(String mediaPath, MediaSource mediaSource) {
+    String version;
+    switch (mediaSource) {
+      case ASSET:
+        version = "";
+        break;
+
+      case REPL_ASSET:
+        version = fileVersion(replAssetPath(mediaPath));
+        break;
+
+      case SDCARD:
+        version = fileVersion(mediaPath);
+        break;
+
+      case FILE_URL:
+        try {
+          version = fileVersion(fileUrlToFilePath(mediaPath));
+        } catch (IOException e) {
+          version = null;
+        }
+        break;
+
+      default:
+        // The image at a URL, such as an image from a web cam, or the photo of a contact may
+        // change at any time, so it is always fetched again.
+        version = null;
+        break;
+    }
+    return version;
+  }
+
+  /**
+   * Returns the key under which the image at mediaPath, decoded with the
+   * given sample size, is cached. Sizes that decode to the same bitmap
+   * share an entry.
+   */
+  private static String bitmapCacheKey(Form form, String mediaPath, String version,
+      int sampleSize) {
+    return mediaPath + "|" + version + "|" + sampleSize + "@" + form.deviceDensity();
+  }
+
+  // Images whose version is not known are only looked up by path. They are
+  // fetched again anyway, so at worst one is decoded with a stale sample size.
+  private static String imageSizeKey(String mediaPath, String version) {
+    return mediaPath + "|" + (version == null ? "" : version);
+  }
+
+  /**
+   * Returns the sample size with which the image at mediaPath is decoded to
+   * be shown at desiredWidth by desiredHeight, or 0 if it is not known
+   * because the image has not been loaded yet.
+   *
+   * @param form the Form
+   * @param mediaPath the path to the media
+   * @param desiredWidth the width, in pixels of the app, at which the image
+   * will be shown, or 0 if not known
+   * @param desiredHeight the height, in pixels of the app, at which the
+   * image will be shown, or 0 if not known
+   */
+  public static int getSampleSize(Form form, String mediaPath, int desiredWidth,
+      int desiredHeight) {
+    if (mediaPath == null || mediaPath.length() == 0) {
+      return 0;
+    }
+    String version = mediaVersion(mediaPath, determineMediaSource(form, mediaPath));
+    int[] imageSize = imageSizes.get(imageSizeKey(mediaPath, version));
+    if (imageSize == null) {
+      return 0;
+    }
+    int[] maxSize = getMaxImageSize(form, desiredWidth, desiredHeight);
+    return sampleSize(imageSize[0], imageSize[1], maxSize[0], maxSize[1]);
+  }
+
+  private static String fileVersion(String path) {
+    File file = new File(path);
+    return file.exists() ? file.lastModified() + ":" + file.length() : null;
+  }
+
+  private static BitmapDrawable newBitmapDrawable(Form form, Bitmap bitmap) {
+    // Drawables hold state such as their bounds, so each caller gets its own.
+    BitmapDrawable drawable = new BitmapDrawable(form.getResources(), bitmap);
+    drawable.setTargetDensity(form.getResources().getDisplayMetrics());
+    return drawable;
+  }
+
   /**
    * Loads the image specified by mediaPath and returns a Drawable.
    *
@@ -349,6 +487,26 @@ public class MediaUtil {
    */
   public static BitmapDrawable getBitmapDrawable(Form form, String mediaPath)
     throws IOException {
+    return getBitmapDrawable(form, mediaPath, 0, 0);
+  }
+
+  /**
+   * Loads the image specified by mediaPath and returns a Drawable, decoded
+   * at a resolution no higher than needed to show it at desiredWidth by
+   * desiredHeight.
+   *
+   * <p/>If mediaPath is null or empty, null is returned.
+   *
+   * @param form the Form
+   * @param mediaPath the path to the media
+   * @param desiredWidth the width, in pixels of the app, at which the image
+   * will be shown, or 0 if not known
+   * @param desiredHeight the height, in pixels of the app, at which the
+   * image will be shown, or 0 if not known
+   * @return a Drawable or null
+   */
+  public static BitmapDrawable getBitmapDrawable(Form form, String mediaPath,
+      int desiredWidth, int desiredHeight) throws IOException {
     if (mediaPath == null || mediaPath.length() == 0) {
       return null;
     }
@@ -363,7 +521,7 @@ public class MediaUtil {
           syncer.wakeup(result);
         }
       };
-    getBitmapDrawableAsync(form, mediaPath, continuation);
+    getBitmapDrawableAsync(form, mediaPath, desiredWidth, desiredHeight, continuation);
     syncer.waitfor();
     BitmapDrawable result = (BitmapDrawable) syncer.getResult();
     if (result == null) {
@@ -386,12 +544,51 @@ public class MediaUtil {
    * handler will be triggered.
    */
   public static void getBitmapDrawableAsync(final Form form, final String mediaPath, final AsyncCallbackPair<BitmapDrawable> continuation) {
+    getBitmapDrawableAsync(form, mediaPath, 0, 0, continuation);
+  }
+
+  /**
+   * Loads the image specified by mediaPath and returns a Drawable, decoded
+   * at a resolution no higher than needed to show it at desiredWidth by
+   * desiredHeight.
+   *
+   * <p/>If mediaPath is null or empty, null is returned. If the image is
+   * cached, the continuation is called before this method returns.
+   *
+   * @param form the Form
+   * @param mediaPath the path to the media
+   * @param desiredWidth the width, in pixels of the app, at which the image
+   * will be shown, or 0 if not known
+   * @param desiredHeight the height, in pixels of the app, at which the
+   * image will be shown, or 0 if not known
+   * @param continuation An AsyncCallbackPair that will receive a
+   * BitmapDrawable on success. On exception or failure the appropriate
+   * handler will be triggered.
+   */
+  public static void getBitmapDrawableAsync(final Form form, final String mediaPath,
+      int desiredWidth, int desiredHeight, final AsyncCallbackPair<BitmapDrawable> continuation) {
     if (mediaPath == null || mediaPath.length() == 0) {
       continuation.onSuccess(null);
       return;
     }
 
     final MediaSource mediaSource = determineMediaSource(form, mediaPath);
+    int[] maxSize = getMaxImageSize(form, desiredWidth, desiredHeight);
+    final int maxWidth = maxSize[0];
+    final int maxHeight = maxSize[1];
+    final String version = mediaVersion(mediaPath, mediaSource);
+    if (version != null) {
+      // If the image has been loaded before, its sample size is known without reading it
+      int[] imageSize = imageSizes.get(imageSizeKey(mediaPath, version));
+      if (imageSize != null) {
+        Bitmap cached = getBitmapCache().get(bitmapCacheKey(form, mediaPath, version,
+            sampleSize(imageSize[0], imageSize[1], maxWidth, maxHeight)));
+        if (cached != null) {
+          continuation.onSuccess(newBitmapDrawable(form, cached));
+          return;
+        }
+      }
+    }
 
     Runnable loadImage = new Runnable() {
       @Override
@@ -447,39 +644,46 @@ public class MediaUtil {
         buf = null;
         try {
           bis.mark(read);
-          BitmapFactory.Options options = getBitmapOptions(form, bis, mediaPath);
+          BitmapFactory.Options options = getBitmapOptions(bis, mediaPath, version, maxWidth,
+              maxHeight);
           bis.reset();
-          BitmapDrawable originalBitmapDrawable = new BitmapDrawable(form.getResources(), decodeStream(bis, null, options));
+          String cacheKey = version == null ? null
+              : bitmapCacheKey(form, mediaPath, version, options.inSampleSize);
+          if (cacheKey != null) {
+            // Another size may have needed the same sample size
+            Bitmap cached = getBitmapCache().get(cacheKey);
+            if (cached != null) {
+              continuation.onSuccess(newBitmapDrawable(form, cached));
+              return;
+            }
+          }
           // If options.inSampleSize == 1, then the image was not unreasonably large and may represent
           // the actual size the user intended for the image. However we still have to scale it by
           // the device density.
           // However if we *did* sample the image to make it smaller, then that means that the image
           // was not sized specifically for the application. In that case it makes no sense to
           // scale it, so we don't.
-          // When we scale the image we do the following steps:
-          //   1. set the density in the returned bitmap drawable.
-          //   2. calculate scaled width and height
-          //   3. create a scaled bitmap with the scaled measures
-          //   4. create a new bitmap drawable with the scaled bitmap
-          //   5. set the density in the scaled bitmap.
-
-          originalBitmapDrawable.setTargetDensity(form.getResources().getDisplayMetrics());
-          if ((options.inSampleSize != 1) || (form.deviceDensity() == 1.0f)) {
-            continuation.onSuccess(originalBitmapDrawable);
-            return;
+          // The scaling is done by the decoder, rather than by scaling a decoded copy, so that the
+          // image is only held in memory once.
+          DisplayMetrics metrics = form.getResources().getDisplayMetrics();
+          if ((options.inSampleSize == 1) && (form.deviceDensity() != 1.0f)) {
+            options.inScaled = true;
+            options.inDensity = DisplayMetrics.DENSITY_DEFAULT;
+            options.inTargetDensity = metrics.densityDpi;
+          }
+          Bitmap bitmap = decodeStream(bis, null, options);
+          if (bitmap == null) {
+            throw new IOException("Unable to decode image " + mediaPath);
+          }
+          bitmap.setDensity(metrics.densityDpi);
+          Log.d(LOG_TAG, "Decoded " + mediaPath + " at " + bitmap.getWidth() + "x"
+              + bitmap.getHeight() + " with sample size " + options.inSampleSize);
+          if (cacheKey != null) {
+            SizedLruCache<String, Bitmap> cache = getBitmapCache();
+            cache.put(cacheKey, bitmap);
+            Log.d(LOG_TAG, "Bitmap cache: " + cache);
           }
-          int scaledWidth = (int) (form.deviceDensity() * originalBitmapDrawable.getIntrinsicWidth());
-          int scaledHeight = (int) (form.deviceDensity() * originalBitmapDrawable.getIntrinsicHeight());
-          Log.d(LOG_TAG, "form.deviceDensity() = " + form.deviceDensity());
-          Log.d(LOG_TAG, "originalBitmapDrawable.getIntrinsicWidth() = " + originalBitmapDrawable.getIntrinsicWidth());
-          Log.d(LOG_TAG, "originalBitmapDrawable.getIntrinsicHeight() = " + originalBitmapDrawable.getIntrinsicHeight());
-          Bitmap scaledBitmap = Bitmap.createScaledBitmap(originalBitmapDrawable.getBitmap(),
-              scaledWidth, scaledHeight, false);
-          BitmapDrawable scaledBitmapDrawable = new BitmapDrawable(form.getResources(), scaledBitmap);
-          scaledBitmapDrawable.setTargetDensity(form.getResources().getDisplayMetrics());
-          originalBitmapDrawable = null; // So it will get GC'd on the next line
-          System.gc();                   // We likely used a lot of memory, so gc now.
-          continuation.onSuccess(scaledBitmapDrawable);
+          continuation.onSuccess(newBitmapDrawable(form, bitmap));
         } catch(Exception e) {
           Log.w(LOG_TAG, "Exception while loading media.", e);
           continuation.onFailure(e.getMessage());
@@ -531,14 +735,13 @@ public class MediaUtil {
     }
   }
 
-  private static BitmapFactory.Options getBitmapOptions(Form form, InputStream is, String mediaPath) {
-    // Get the size of the image.
-    BitmapFactory.Options options = new BitmapFactory.Options();
-    options.inJustDecodeBounds = true;
-    decodeStream(is, null, options);
-    int imageWidth = options.outWidth;
-    int imageHeight = options.outHeight;
-
+  /**
+   * Returns the width and height, in image pixels, beyond which an
+   * image is downsampled when decoded. Images are kept at least as large as
+   * the screen, or, if both desired dimensions are given and smaller, as
+   * the device pixels covered by the desired size.
+   */
+  private static int[] getMaxImageSize(Form form, int desiredWidth, int desiredHeight) {
     // Get the screen size.
     Display display = ((WindowManager) form.getSystemService(Context.WINDOW_SERVICE)).
         getDefaultDisplay();
@@ -559,18 +762,42 @@ public class MediaUtil {
       maxHeight = (int) (display.getHeight() / form.deviceDensity());
     }
 
-    int sampleSize = 1;
-    while ((imageWidth / sampleSize > maxWidth) && (imageHeight / sampleSize > maxHeight)) {
-      sampleSize *= 2;
+    // An image shown smaller than the screen needs no more pixels than the device uses to show it.
+    if (desiredWidth > 0 && desiredHeight > 0) {
+      maxWidth = Math.min(maxWidth, (int) Math.ceil(desiredWidth * form.deviceDensity()));
+      maxHeight = Math.min(maxHeight, (int) Math.ceil(desiredHeight * form.deviceDensity()));
+    }
+    return new int[] { maxWidth, maxHeight };
+  }
+
+  private static BitmapFactory.Options getBitmapOptions(InputStream is, String mediaPath,
+      String version, int maxWidth, int maxHeight) {
+    // Get the size of the image.
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    decodeStream(is, null, options);
+    int imageWidth = options.outWidth;
+    int imageHeight = options.outHeight;
+    if (imageWidth > 0 && imageHeight > 0) {
+      imageSizes.put(imageSizeKey(mediaPath, version), new int[] { imageWidth, imageHeight });
     }
+
+    int sampleSize = sampleSize(imageWidth, imageHeight, maxWidth, maxHeight);
     options = new BitmapFactory.Options();
     Log.d(LOG_TAG, "getBitmapOptions: sampleSize = " + sampleSize + " mediaPath = " + mediaPath
-      + " maxWidth = " + maxWidth + " maxHeight = " + maxHeight +
-      " display width = " + display.getWidth() + " display height = " + display.getHeight());
+      + " maxWidth = " + maxWidth + " maxHeight = " + maxHeight);
     options.inSampleSize = sampleSize;
     return options;
   }
 
+  private static int sampleSize(int imageWidth, int imageHeight, int maxWidth, int maxHeight) {
+    int sampleSize = 1;
+    while ((imageWidth / sampleSize > maxWidth) && (imageHeight / sampleSize > maxHeight)) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+
   // SoundPool related methods
 
   /**
@@ -200,6 +200,22 @@ public class NanoHTTPD
                  * to add lines.
                  */
                 public Properties header = new Properties();
+
+                /**
+                 * If not null, the connection is handed to this handler
+                 * instead of sending the response, for protocols such as
+                 * WebSocket that take over the socket.
+                 */
+                public SocketHandler socketHandler;
+        }
+
+        /**
+         * Takes over a connection once serve() has read the request.
+         * The handler sends its own reply and closes the socket when done.
+         */
+        public interface SocketHandler
+        {
+                void handleSocket( Socket socket ) throws IOException;
         }
 
         /**
@@ -489,6 +505,13 @@ public class NanoHTTPD
                                 Response r = serve( uri, method, header, parms, files, mySocket );
                                 if ( r == null )
                                         sendError( HTTP_INTERNALERROR, "SERVER INTERNAL ERROR: Serve() returned a null response." );
+                                else if ( r.socketHandler != null )
+                                {
+                                        // The handler owns the socket now, and this thread
+                                        // for as long as the connection lasts.
+                                        r.socketHandler.handleSocket( mySocket );
+                                        return;
+                                }
                                 else
                                         sendResponse( r.status, r.mimeType, r.header, r.data );
 
@@ -13,10 +13,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import android.graphics.Bitmap;
 import android.graphics.drawable.PictureDrawable;
 import android.location.Location;
 import android.os.Bundle;
@@ -26,6 +28,7 @@ import android.support.v4.view.ViewCompat;
 import android.util.DisplayMetrics;
 import com.google.appinventor.components.common.ComponentConstants;
 import com.google.appinventor.components.runtime.LocationSensor;
+import org.locationtech.jts.geom.Envelope;
 import org.osmdroid.api.IGeoPoint;
 import org.osmdroid.config.Configuration;
 import org.osmdroid.events.MapListener;
@@ -69,6 +72,7 @@ import com.google.appinventor.components.runtime.util.MapFactory.MapType;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Picture;
 import android.graphics.drawable.BitmapDrawable;
@@ -88,6 +92,20 @@ class NativeOpenStreetMapController implements MapController, MapListener {
   /* end copied from SVG */
 
   private static final String TAG = NativeOpenStreetMapController.class.getSimpleName();
+
+  /* Features are indexed in cells of this many degrees, a few kilometers. */
+  private static final double INDEX_CELL_SIZE = 0.05;
+  /* Overlays are attached for features within this fraction of the visible span around it. */
+  private static final double VIEWPORT_MARGIN = 0.5;
+  /* How often, in milliseconds, the attached overlays follow the map while it moves. */
+  private static final long VIEWPORT_UPDATE_DELAY = 100;
+  /* Markers are clustered in cells of a quarter of a map tile, 64 dp. */
+  private static final int CLUSTER_CELLS_PER_TILE = 4;
+  private static final double MAX_MERCATOR_LATITUDE = 85.05112878;
+  private static final int CLUSTER_COLOR = 0xCC3F51B5;
+  private static final float CLUSTER_RADIUS_DP = 18;
+  private static final float CLUSTER_TEXT_DP = 14;
+
   private boolean caches;
   private final Form form;
   private MapView view;
@@ -104,6 +122,29 @@ class NativeOpenStreetMapController implements MapController, MapListener {
   private OverlayInfoWindow defaultInfoWindow = null;
   private boolean ready = false;
 
+  /* All features on the map, by their bounding boxes */
+  private final SpatialIndex<MapFeature> featureIndex =
+      new SpatialIndex<MapFeature>(INDEX_CELL_SIZE);
+  /* Features that are Visible, whether or not their overlays are attached */
+  private final Set<MapFeature> shownFeatures = new HashSet<MapFeature>();
+  /* Features whose overlays are attached to the map view */
+  private final Set<MapFeature> attachedFeatures = new HashSet<MapFeature>();
+  /* The area, {north, west, south, east}, in which features are attached, or null before layout */
+  private double[] attachArea = null;
+  private boolean clustering = false;
+  private final List<Marker> clusterOverlays = new ArrayList<Marker>();
+  private final List<Marker> spareClusterOverlays = new ArrayList<Marker>();
+  private final Map<String, Drawable> clusterIcons = new HashMap<String, Drawable>();
+  private final Handler viewportHandler = new Handler();
+  private boolean viewportUpdateScheduled = false;
+  private final Runnable viewportUpdater = new Runnable() {
+    @Override
+    public void run() {
+      viewportUpdateScheduled = false;
+      updateViewport();
+    }
+  };
+
   private static class AppInventorLocationSensorAdapter implements IMyLocationProvider,
       LocationSensor.LocationSensorListener {
     private LocationSensor source;
@@ -242,6 +283,7 @@ class NativeOpenStreetMapController implements MapController, MapListener {
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
       scrollTo(getScrollX() + (oldw - w) / 2, getScrollY() + (oldh - h) / 2);
       super.onSizeChanged(w, h, oldw, oldh);
+      scheduleViewportUpdate();
     }
 
     @Override
@@ -455,6 +497,7 @@ class NativeOpenStreetMapController implements MapController, MapListener {
 
   @Override
   public void addFeature(final MapMarker aiMarker) {
+    indexFeature(aiMarker);
     createNativeMarker(aiMarker, new AsyncCallbackPair<Marker>() {
       @Override
       public void onFailure(String message) {
@@ -494,6 +537,7 @@ class NativeOpenStreetMapController implements MapController, MapListener {
           public void onMarkerDragEnd(Marker marker) {
             IGeoPoint point = marker.getPosition();
             aiMarker.updateLocation(point.getLatitude(), point.getLongitude());
+            featureMoved(aiMarker);
             for (MapEventListener listener : eventListeners) {
               listener.onFeatureStopDrag(aiMarker);
             }
@@ -507,9 +551,9 @@ class NativeOpenStreetMapController implements MapController, MapListener {
           }
         });
         if (aiMarker.Visible()) {
-          showOverlay(overlay);
+          showFeature(aiMarker);
         } else {
-          hideOverlay(overlay);
+          hideFeature(aiMarker);
         }
       }
 
@@ -520,6 +564,7 @@ class NativeOpenStreetMapController implements MapController, MapListener {
   public void addFeature(final MapLineString aiPolyline) {
     Polyline polyline = createNativePolyline(aiPolyline);
     featureOverlays.put(aiPolyline, polyline);
+    indexFeature(aiPolyline);
     polyline.setOnClickListener(new Polyline.OnClickListener() {
       @Override
       public boolean onClick(Polyline arg0, MapView arg1, GeoPoint arg2) {
@@ -558,20 +603,22 @@ class NativeOpenStreetMapController implements MapController, MapListener {
       @Override
       public void onDragEnd(Polyline polyline) {
         aiPolyline.updatePoints(polyline.getPoints());
+        featureMoved(aiPolyline);
         for (MapEventListener listener : eventListeners) {
           listener.onFeatureStopDrag(aiPolyline);
         }
       }
     });
     if (aiPolyline.Visible()) {
-      showOverlay(polyline);
+      showFeature(aiPolyline);
     } else {
-      hideOverlay(polyline);
+      hideFeature(aiPolyline);
     }
   }
 
   private void configurePolygon(final MapFeature component, Polygon polygon) {
     featureOverlays.put(component, polygon);
+    indexFeature(component);
     polygon.setOnClickListener(new Polygon.OnClickListener() {
       @Override
       public boolean onLongClick(Polygon arg0, MapView arg1, GeoPoint arg2) {
@@ -639,15 +686,16 @@ class NativeOpenStreetMapController implements MapController, MapListener {
           holes.addAll(polygon.getHoles());
           ((MapPolygon) component).updateHolePoints(Collections.singletonList(holes));
         }
+        featureMoved(component);
         for (MapEventListener listener : eventListeners) {
           listener.onFeatureStopDrag(component);
         }
       }
     });
     if (component.Visible()) {
-      showOverlay(polygon);
+      showFeature(component);
     } else {
-      hideOverlay(polygon);
+      hideFeature(component);
     }
   }
 
@@ -670,6 +718,13 @@ class NativeOpenStreetMapController implements MapController, MapListener {
   public void removeFeature(MapFeature aiFeature) {
     view.getOverlayManager().remove(featureOverlays.get(aiFeature));
     featureOverlays.remove(aiFeature);
+    featureIndex.remove(aiFeature);
+    shownFeatures.remove(aiFeature);
+    attachedFeatures.remove(aiFeature);
+    if (clustering) {
+      // The feature may be counted in a cluster rather than attached.
+      scheduleViewportUpdate();
+    }
   }
 
   @Override
@@ -679,6 +734,7 @@ class NativeOpenStreetMapController implements MapController, MapListener {
       marker.setPosition(new GeoPoint(aiMarker.Latitude(), aiMarker.Longitude()));
       view.invalidate();
     }
+    featureMoved(aiMarker);
   }
 
   @Override
@@ -688,6 +744,7 @@ class NativeOpenStreetMapController implements MapController, MapListener {
       overlay.setPoints(aiPolyline.getPoints());
       view.invalidate();
     }
+    featureMoved(aiPolyline);
   }
 
   @Override
@@ -698,6 +755,7 @@ class NativeOpenStreetMapController implements MapController, MapListener {
       polygon.setMultiHoles(aiPolygon.getHolePoints());
       view.invalidate();
     }
+    featureMoved(aiPolygon);
   }
 
   @Override
@@ -709,6 +767,7 @@ class NativeOpenStreetMapController implements MapController, MapListener {
       polygon.setPoints(geopoints);
       view.invalidate();
     }
+    featureMoved(aiCircle);
   }
 
   @Override
@@ -721,6 +780,7 @@ class NativeOpenStreetMapController implements MapController, MapListener {
       polygon.setPoints(geopoints);
       view.invalidate();
     }
+    featureMoved(aiRectangle);
   }
 
   @Override
@@ -1090,7 +1150,15 @@ class NativeOpenStreetMapController implements MapController, MapListener {
 
   @Override
   public void showFeature(MapFeature feature) {
-    showOverlay(featureOverlays.get(feature));
+    if (!featureOverlays.containsKey(feature)) {
+      return;  // removed from the map while its marker was being created
+    }
+    shownFeatures.add(feature);
+    if (clustering) {
+      scheduleViewportUpdate();
+    } else if (isInAttachArea(feature)) {
+      attachFeature(feature);
+    }
   }
 
   protected void showOverlay(OverlayWithIW overlay) {
@@ -1099,7 +1167,11 @@ class NativeOpenStreetMapController implements MapController, MapListener {
 
   @Override
   public void hideFeature(MapFeature feature) {
-    hideOverlay(featureOverlays.get(feature));
+    shownFeatures.remove(feature);
+    detachFeature(feature);
+    if (clustering) {
+      scheduleViewportUpdate();
+    }
   }
 
   protected void hideOverlay(OverlayWithIW overlay) {
@@ -1108,8 +1180,8 @@ class NativeOpenStreetMapController implements MapController, MapListener {
 
   @Override
   public boolean isFeatureVisible(MapFeature feature) {
-    OverlayWithIW overlay = featureOverlays.get(feature);
-    return overlay != null && view.getOverlayManager().contains(overlay);
+    // A visible feature outside of the viewport, or in a cluster, is not attached to the map.
+    return featureOverlays.containsKey(feature) && shownFeatures.contains(feature);
   }
 
   @Override
@@ -1143,6 +1215,7 @@ class NativeOpenStreetMapController implements MapController, MapListener {
 
   @Override
   public boolean onScroll(ScrollEvent event) {
+    scheduleViewportUpdate();
     for (MapEventListener listener : eventListeners) {
       listener.onBoundsChanged();
     }
@@ -1151,12 +1224,32 @@ class NativeOpenStreetMapController implements MapController, MapListener {
 
   @Override
   public boolean onZoom(ZoomEvent event) {
+    scheduleViewportUpdate();
     for (MapEventListener listener : eventListeners) {
       listener.onZoom();
     }
     return true;
   }
 
+  @Override
+  public void setClusterMarkersEnabled(boolean enabled) {
+    if (clustering != enabled) {
+      clustering = enabled;
+      updateViewport();
+    }
+  }
+
+  @Override
+  public boolean isClusterMarkersEnabled() {
+    return clustering;
+  }
+
+  @Override
+  public MapFeature getNearestFeature(double latitude, double longitude,
+      SpatialIndex.Metric<MapFeature> metric) {
+    return featureIndex.nearest(latitude, longitude, metric);
+  }
+
   @Override
   public LocationSensor.LocationSensorListener getLocationListener() {
     return locationProvider;
@@ -1168,6 +1261,218 @@ class NativeOpenStreetMapController implements MapController, MapListener {
     return view.getOverlays().size();
   }
 
+  /**
+   * Indexes a feature under its bounding box. A circle's geometry is its
+   * center, so its box is computed from its radius.
+   */
+  private void indexFeature(MapFeature feature) {
+    if (feature instanceof MapCircle) {
+      MapCircle circle = (MapCircle) feature;
+      double latitudeRadius = circle.Radius() / GeometryUtil.ONE_DEG_IN_METERS;
+      double cos = Math.cos(Math.toRadians(Math.min(89.0,
+          Math.abs(circle.Latitude()) + latitudeRadius)));
+      double longitudeRadius = latitudeRadius / cos;
+      featureIndex.put(feature, circle.Latitude() + latitudeRadius,
+          circle.Longitude() - longitudeRadius, circle.Latitude() - latitudeRadius,
+          circle.Longitude() + longitudeRadius);
+    } else {
+      Envelope envelope = feature.getGeometry().getEnvelopeInternal();
+      if (envelope.isNull()) {
+        featureIndex.remove(feature);  // no points, nothing to draw
+      } else {
+        featureIndex.put(feature, envelope.getMaxY(), envelope.getMinX(), envelope.getMinY(),
+            envelope.getMaxX());
+      }
+    }
+  }
+
+  private void featureMoved(MapFeature feature) {
+    if (!featureIndex.contains(feature) && !featureOverlays.containsKey(feature)) {
+      return;  // not on this map
+    }
+    indexFeature(feature);
+    if (clustering) {
+      scheduleViewportUpdate();
+    } else if (shownFeatures.contains(feature)) {
+      if (isInAttachArea(feature)) {
+        attachFeature(feature);
+      } else {
+        detachFeature(feature);
+      }
+    }
+  }
+
+  private boolean isInAttachArea(MapFeature feature) {
+    return attachArea == null || featureIndex.intersects(feature,
+        attachArea[0], attachArea[1], attachArea[2], attachArea[3]);
+  }
+
+  private void attachFeature(MapFeature feature) {
+    OverlayWithIW overlay = featureOverlays.get(feature);
+    if (overlay != null && attachedFeatures.add(feature)) {
+      showOverlay(overlay);
+    }
+  }
+
+  private void detachFeature(MapFeature feature) {
+    OverlayWithIW overlay = featureOverlays.get(feature);
+    if (attachedFeatures.remove(feature) && overlay != null) {
+      hideOverlay(overlay);
+    }
+  }
+
+  private void scheduleViewportUpdate() {
+    if (!viewportUpdateScheduled) {
+      viewportUpdateScheduled = true;
+      viewportHandler.postDelayed(viewportUpdater, VIEWPORT_UPDATE_DELAY);
+    }
+  }
+
+  /**
+   * Attaches the overlays of the visible features in or near the part of
+   * the map on screen, and detaches the others, so that osmdroid only draws
+   * and hit-tests those. With clustering on, markers that fall in the same
+   * cell of a grid of the screen are drawn as a single marker showing their
+   * number, except at the highest zoom level.
+   */
+  private void updateViewport() {
+    List<MapFeature> candidates;
+    if (view.getWidth() == 0 || view.getHeight() == 0) {
+      // Not laid out yet, so the bounding box is meaningless.
+      attachArea = null;
+      candidates = new ArrayList<MapFeature>(shownFeatures);
+    } else {
+      BoundingBox box = view.getBoundingBox();
+      double latitudeMargin = box.getLatitudeSpan() * VIEWPORT_MARGIN;
+      double longitudeMargin = box.getLongitudeSpan() * VIEWPORT_MARGIN;
+      attachArea = new double[] {
+          box.getLatNorth() + latitudeMargin, box.getLonWest() - longitudeMargin,
+          box.getLatSouth() - latitudeMargin, box.getLonEast() + longitudeMargin };
+      candidates = featureIndex.query(attachArea[0], attachArea[1], attachArea[2], attachArea[3]);
+    }
+
+    int zoom = (int) Math.round(view.getZoomLevel(false));
+    boolean cluster = clustering && zoom < view.getMaxZoomLevel();
+    Set<MapFeature> wanted = new HashSet<MapFeature>();
+    Map<Long, List<MapMarker>> cells = new LinkedHashMap<Long, List<MapMarker>>();
+    for (MapFeature feature : candidates) {
+      if (!shownFeatures.contains(feature)) {
+        continue;
+      }
+      if (cluster && feature instanceof MapMarker) {
+        MapMarker marker = (MapMarker) feature;
+        Long cell = clusterCell(marker.Latitude(), marker.Longitude(), zoom);
+        List<MapMarker> members = cells.get(cell);
+        if (members == null) {
+          members = new ArrayList<MapMarker>();
+          cells.put(cell, members);
+        }
+        members.add(marker);
+      } else {
+        wanted.add(feature);
+      }
+    }
+    List<List<MapMarker>> clusters = new ArrayList<List<MapMarker>>();
+    for (List<MapMarker> members : cells.values()) {
+      if (members.size() == 1) {
+        wanted.add(members.get(0));
+      } else {
+        clusters.add(members);
+      }
+    }
+
+    for (MapFeature feature : new ArrayList<MapFeature>(attachedFeatures)) {
+      if (!wanted.contains(feature)) {
+        detachFeature(feature);
+      }
+    }
+    for (MapFeature feature : wanted) {
+      attachFeature(feature);
+    }
+    showClusters(clusters);
+    view.invalidate();
+  }
+
+  /**
+   * Returns the cell of a point in a grid of Web Mercator pixels, CLUSTER_CELLS_PER_TILE
+   * cells to a tile, at the given zoom level.
+   */
+  private static long clusterCell(double latitude, double longitude, int zoom) {
+    double cells = Math.pow(2, zoom) * CLUSTER_CELLS_PER_TILE;
+    double sin = Math.sin(Math.toRadians(
+        Math.max(-MAX_MERCATOR_LATITUDE, Math.min(MAX_MERCATOR_LATITUDE, latitude))));
+    double x = (longitude + 180) / 360 * cells;
+    double y = (0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI)) * cells;
+    return ((long) Math.floor(y) << 32) | ((long) Math.floor(x) & 0xFFFFFFFFL);
+  }
+
+  private void showClusters(List<List<MapMarker>> clusters) {
+    for (Marker overlay : clusterOverlays) {
+      view.getOverlayManager().remove(overlay);
+      spareClusterOverlays.add(overlay);
+    }
+    clusterOverlays.clear();
+    for (List<MapMarker> members : clusters) {
+      double north = -90, east = -180, west = 180, south = 90;
+      double latitude = 0, longitude = 0;
+      for (MapMarker member : members) {
+        north = Math.max(north, member.Latitude());
+        south = Math.min(south, member.Latitude());
+        east = Math.max(east, member.Longitude());
+        west = Math.min(west, member.Longitude());
+        latitude += member.Latitude();
+        longitude += member.Longitude();
+      }
+      Marker overlay = spareClusterOverlays.isEmpty() ? createClusterOverlay()
+          : spareClusterOverlays.remove(spareClusterOverlays.size() - 1);
+      overlay.setPosition(new GeoPoint(latitude / members.size(), longitude / members.size()));
+      overlay.setIcon(getClusterIcon(members.size()));
+      overlay.setRelatedObject(new BoundingBox(north, east, south, west));
+      view.getOverlayManager().add(overlay);
+      clusterOverlays.add(overlay);
+    }
+  }
+
+  private Marker createClusterOverlay() {
+    Marker overlay = new Marker(view);
+    overlay.setAnchor(Marker.ANCHOR_CENTER, Marker.ANCHOR_CENTER);
+    overlay.setOnMarkerClickListener(new OnMarkerClickListener() {
+      @Override
+      public boolean onMarkerClick(Marker marker, MapView mapView) {
+        // Zoom in on the members of the cluster.
+        setBoundingBox((BoundingBox) marker.getRelatedObject());
+        return true;
+      }
+
+      @Override
+      public boolean onMarkerLongPress(Marker marker, MapView mapView) {
+        return false;
+      }
+    });
+    return overlay;
+  }
+
+  private Drawable getClusterIcon(int count) {
+    String label = count < 1000 ? Integer.toString(count) : (count / 1000) + "k";
+    Drawable icon = clusterIcons.get(label);
+    if (icon == null) {
+      float density = view.getContext().getResources().getDisplayMetrics().density;
+      int size = (int) Math.ceil(2 * CLUSTER_RADIUS_DP * density);
+      Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+      Canvas canvas = new Canvas(bitmap);
+      Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+      paint.setColor(CLUSTER_COLOR);
+      canvas.drawCircle(size / 2f, size / 2f, size / 2f, paint);
+      paint.setColor(Color.WHITE);
+      paint.setTextSize(CLUSTER_TEXT_DP * density);
+      paint.setTextAlign(Paint.Align.CENTER);
+      canvas.drawText(label, size / 2f, size / 2f - (paint.descent() + paint.ascent()) / 2, paint);
+      icon = new BitmapDrawable(view.getContext().getResources(), bitmap);
+      clusterIcons.put(label, icon);
+    }
+    return icon;
+  }
+
   static class MultiPolygon extends Polygon {
 
     private List<Polygon> children = new ArrayList<Polygon>();
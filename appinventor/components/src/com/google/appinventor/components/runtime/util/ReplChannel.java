@@ -0,0 +1,388 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import android.util.Base64;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A WebSocket connection between the blocks editor and the Companion that
+ * carries both the code to evaluate and the values it returns.
+ *
+ * <p>Over plain HTTP each piece of code is its own POST to /_newblocks, and
+ * values produced later come back through a long poll of /_values, each on
+ * its own pooled thread. The channel is opened once with a GET of /_channel
+ * and keeps one connection, and one thread, for the whole session. The
+ * blocks editor may send several forms in one message:
+ *
+ * <pre>
+ *   {"type": "eval", "forms": [{"id": 1, "seq": "5", "blockid": "...",
+ *                               "mac": "...", "code": "..."}, ...]}
+ * </pre>
+ *
+ * <p>The forms are checked and evaluated in order, exactly as /_newblocks
+ * would, and each is answered as soon as it is done, with the values it
+ * produced and the time its evaluation took:
+ *
+ * <pre>
+ *   {"type": "result", "id": 1, "status": "OK", "evalMs": 12, "reused": false,
+ *    "values": [...]}
+ * </pre>
+ *
+ * <p>The result of the form that ends a full sync also carries the sync's
+ * counts and times, see ReplEvalCache.
+ *
+ * <p>Values produced outside of an evaluation, for instance by an event
+ * handler, are pushed as {"type": "values", "values": [...]}.
+ *
+ */
+public final class ReplChannel implements NanoHTTPD.SocketHandler {
+  private static final String LOG_TAG = "ReplChannel";
+
+  // From RFC 6455, section 1.3
+  private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+  private static final int OP_CONTINUATION = 0x0;
+  private static final int OP_TEXT = 0x1;
+  private static final int OP_CLOSE = 0x8;
+  private static final int OP_PING = 0x9;
+  private static final int OP_PONG = 0xA;
+
+  // A full sync of a large project is a few megabytes of YAIL.
+  private static final int MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+  // How long the value pusher waits for values before checking whether the channel is still open
+  private static final long PUSH_WAIT = 10000;
+
+  // There is one blocks editor, so a new channel replaces the previous one.
+  private static ReplChannel current;
+
+  private final AppInvHTTPD httpd;
+  private final String acceptKey;
+  private volatile boolean open;
+  private Socket socket;
+  private InputStream in;
+  private OutputStream out;
+
+  private ReplChannel(AppInvHTTPD httpd, String acceptKey) {
+    this.httpd = httpd;
+    this.acceptKey = acceptKey;
+  }
+
+  // For tests of the framing, on streams instead of a socket
+  ReplChannel(InputStream in, OutputStream out) {
+    this((AppInvHTTPD) null, null);
+    this.in = in;
+    this.out = out;
+  }
+
+  /**
+   * Returns whether the request headers ask for a WebSocket.
+   */
+  static boolean isUpgradeRequest(Properties header) {
+    return "websocket".equalsIgnoreCase(header.getProperty("upgrade"))
+        && header.getProperty("sec-websocket-key") != null;
+  }
+
+  /**
+   * Makes the response to a WebSocket handshake request. Serving the
+   * response starts the channel on the requesting connection.
+   */
+  static NanoHTTPD.Response accept(AppInvHTTPD httpd, Properties header) {
+    String key = header.getProperty("sec-websocket-key");
+    String acceptKey;
+    try {
+      MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+      byte[] digest = sha1.digest((key.trim() + WEBSOCKET_GUID).getBytes("UTF-8"));
+      acceptKey = Base64.encodeToString(digest, Base64.NO_WRAP);
+    } catch (NoSuchAlgorithmException e) {
+      Log.e(LOG_TAG, "Unable to accept channel", e);
+      return httpd.new Response(NanoHTTPD.HTTP_INTERNALERROR, NanoHTTPD.MIME_PLAINTEXT,
+          "No SHA-1");
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "Unable to accept channel", e);
+      return httpd.new Response(NanoHTTPD.HTTP_INTERNALERROR, NanoHTTPD.MIME_PLAINTEXT,
+          "No UTF-8");
+    }
+    NanoHTTPD.Response res = httpd.new Response();
+    res.socketHandler = new ReplChannel(httpd, acceptKey);
+    return res;
+  }
+
+  @Override
+  public void handleSocket(Socket socket) throws IOException {
+    this.socket = socket;
+    in = new BufferedInputStream(socket.getInputStream());
+    out = new BufferedOutputStream(socket.getOutputStream());
+    out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+        + "Upgrade: websocket\r\n"
+        + "Connection: Upgrade\r\n"
+        + "Sec-WebSocket-Accept: " + acceptKey + "\r\n\r\n").getBytes("UTF-8"));
+    out.flush();
+
+    ReplChannel previous;
+    synchronized (ReplChannel.class) {
+      previous = current;
+      current = this;
+    }
+    if (previous != null) {
+      previous.close();
+    }
+    open = true;
+    Log.i(LOG_TAG, "Channel opened by " + socket.getInetAddress().getHostAddress());
+    httpd.adoptMainThreadClassLoader();
+    startValuePusher();
+    try {
+      String message;
+      while (open && (message = readMessage()) != null) {
+        handleMessage(message);
+      }
+    } catch (IOException e) {
+      if (open) {
+        Log.w(LOG_TAG, "Channel failed", e);
+      }
+    } finally {
+      close();
+      synchronized (ReplChannel.class) {
+        if (current == this) {
+          current = null;
+        }
+      }
+      Log.i(LOG_TAG, "Channel closed");
+    }
+  }
+
+  private void handleMessage(String message) throws IOException {
+    JSONArray forms;
+    try {
+      JSONObject request = new JSONObject(message);
+      if (!"eval".equals(request.optString("type"))) {
+        Log.w(LOG_TAG, "Ignoring message of type " + request.optString("type"));
+        return;
+      }
+      forms = request.getJSONArray("forms");
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Invalid message", e);
+      return;
+    }
+    for (int i = 0; i < forms.length() && open; i++) {
+      JSONObject form = forms.optJSONObject(i);
+      if (form != null) {
+        evalForm(form);
+      }
+    }
+  }
+
+  private void evalForm(JSONObject form) throws IOException {
+    String blockid = form.optString("blockid", "-1");
+    String code = form.optString("code", "");
+    JSONObject result = new JSONObject();
+    try {
+      result.put("type", "result");
+      result.put("id", form.opt("id"));
+      String securityError = httpd.checkCode(code, form.optString("seq", "0"), blockid,
+          form.optString("mac", "no key provided"));
+      if (securityError != null) {
+        result.put("status", "BAD");
+        result.put("message", securityError);
+      } else {
+        long start = System.currentTimeMillis();
+        boolean reused = httpd.evalCode(blockid, code);
+        result.put("status", "OK");
+        result.put("evalMs", System.currentTimeMillis() - start);
+        result.put("reused", reused);
+        JSONObject sync = httpd.takeSyncReport();
+        if (sync != null) {
+          result.put("sync", sync);
+        }
+        result.put("values", RetValManager.fetchValues(0));
+      }
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Error building result", e);
+      return;
+    }
+    try {
+      sendText(result.toString());
+    } catch (IOException e) {
+      // Leave the values for the next channel, or the long poll of /_values
+      JSONArray values = result.optJSONArray("values");
+      if (values != null) {
+        RetValManager.returnValues(values);
+      }
+      throw e;
+    }
+  }
+
+  // Pushes values produced between evaluations, replacing the long poll of /_values.
+  // Values taken by a pusher whose channel has closed meanwhile are returned, so that
+  // the pusher of the next channel sends them.
+  private void startValuePusher() {
+    Thread pusher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (open) {
+          JSONArray values = RetValManager.fetchValues(PUSH_WAIT);
+          if (values.length() == 0) {
+            continue;
+          }
+          if (!open) {
+            RetValManager.returnValues(values);
+            return;
+          }
+          try {
+            JSONObject message = new JSONObject();
+            message.put("type", "values");
+            message.put("values", values);
+            sendText(message.toString());
+          } catch (JSONException e) {
+            Log.e(LOG_TAG, "Error pushing values", e);
+            return;
+          } catch (IOException e) {
+            // The reading side notices too and closes the channel.
+            RetValManager.returnValues(values);
+            return;
+          }
+        }
+      }
+    }, "REPL Channel Values");
+    pusher.setDaemon(true);
+    pusher.start();
+  }
+
+  private void close() {
+    if (!open) {
+      return;
+    }
+    open = false;
+    try {
+      sendFrame(OP_CLOSE, new byte[0]);
+    } catch (IOException e) {
+      // The connection is already gone.
+    }
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Nothing more to do.
+    }
+  }
+
+  // WebSocket framing, RFC 6455 section 5
+
+  /**
+   * Reads the next text message, answering control frames on the way.
+   *
+   * @return the message, or null if the blocks editor closed the channel
+   * @throws IOException if the connection fails, or the message is larger
+   *     than MAX_MESSAGE_SIZE
+   */
+  String readMessage() throws IOException {
+    ByteArrayOutputStream message = new ByteArrayOutputStream();
+    while (true) {
+      int first = in.read();
+      int second = in.read();
+      if (first < 0 || second < 0) {
+        return null;
+      }
+      boolean fin = (first & 0x80) != 0;
+      int opcode = first & 0x0F;
+      boolean masked = (second & 0x80) != 0;
+      long length = second & 0x7F;
+      if (length == 126) {
+        length = readNumber(2);
+      } else if (length == 127) {
+        length = readNumber(8);
+      }
+      if (length < 0 || message.size() + length > MAX_MESSAGE_SIZE) {
+        throw new IOException("Message too large: " + length);
+      }
+      byte[] mask = masked ? readFully(4) : null;
+      byte[] payload = readFully((int) length);
+      if (mask != null) {
+        for (int i = 0; i < payload.length; i++) {
+          payload[i] ^= mask[i & 3];
+        }
+      }
+      switch (opcode) {
+        case OP_CLOSE:
+          return null;
+        case OP_PING:
+          sendFrame(OP_PONG, payload);
+          break;
+        case OP_PONG:
+          break;
+        case OP_TEXT:
+        case OP_CONTINUATION:
+          message.write(payload);
+          if (fin) {
+            return message.toString("UTF-8");
+          }
+          break;
+        default:
+          throw new IOException("Unsupported opcode " + opcode);
+      }
+    }
+  }
+
+  private long readNumber(int bytes) throws IOException {
+    long value = 0;
+    for (byte b : readFully(bytes)) {
+      value = (value << 8) | (b & 0xFF);
+    }
+    return value;
+  }
+
+  private byte[] readFully(int length) throws IOException {
+    byte[] bytes = new byte[length];
+    int offset = 0;
+    while (offset < length) {
+      int read = in.read(bytes, offset, length - offset);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      offset += read;
+    }
+    return bytes;
+  }
+
+  private void sendText(String text) throws IOException {
+    sendFrame(OP_TEXT, text.getBytes("UTF-8"));
+  }
+
+  // Called from both the reading thread and the value pusher
+  private synchronized void sendFrame(int opcode, byte[] payload) throws IOException {
+    out.write(0x80 | opcode);   // FIN, and servers never mask
+    int length = payload.length;
+    if (length < 126) {
+      out.write(length);
+    } else if (length < 65536) {
+      out.write(126);
+      out.write(length >>> 8);
+      out.write(length);
+    } else {
+      out.write(127);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        out.write((int) ((long) length >>> shift));
+      }
+    }
+    out.write(payload);
+    out.flush();
+  }
+}
@@ -0,0 +1,180 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import android.util.Log;
+
+import gnu.expr.Language;
+import gnu.mapping.Procedure;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Formatter;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Evaluates code from the blocks editor, keeping the expanded form of each
+ * piece of code so that sending the same code again does not read and
+ * expand it again.
+ *
+ * <p>The blocks editor only sends a block again when its code changed, or
+ * when it syncs the whole project after a reconnect, a project switch or a
+ * change to the components. A full sync starts with
+ * {@code (clear-current-form)}, which drops every definition, so each event
+ * handler and global definition has to run again to define itself, but the
+ * code of the blocks that did not change is the same as last time. Each
+ * piece of code is turned into a procedure of no arguments that does what
+ * evaluating the code would do, and the procedure is cached under a hash of
+ * the code. Running it again skips Kawa's reader and syntax expansion,
+ * which take most of the time of an evaluation.
+ *
+ * <p>This works because {@code process-repl-input} already delays the code
+ * and runs it later on the UI thread, so the code never runs at the top
+ * level and wrapping it in a lambda does not change what it means.
+ *
+ * <p>Counts and times are kept for each sync, from one
+ * {@code (clear-current-form)} to the initialization of the components
+ * that ends it, and logged when the sync ends.
+ *
+ */
+final class ReplEvalCache {
+  private static final String LOG_TAG = "ReplEvalCache";
+
+  private static final String CLEAR_FORM = "(clear-current-form)";
+  private static final String INITIALIZE_COMPONENTS = "(call-Initialize-of-components";
+
+  // In characters of code. A large project is a few megabytes of YAIL.
+  private static final int MAX_CACHED_CODE = 4 * 1024 * 1024;
+
+  private static final class Expanded {
+    final Procedure procedure;
+    final int codeLength;
+
+    Expanded(Procedure procedure, int codeLength) {
+      this.procedure = procedure;
+      this.codeLength = codeLength;
+    }
+  }
+
+  private final Language scheme;
+  // Keyed by a hash of the block id and the code
+  private final SizedLruCache<String, Expanded> procedures =
+      new SizedLruCache<String, Expanded>(MAX_CACHED_CODE) {
+        @Override
+        protected int sizeOf(String key, Expanded value) {
+          return value.codeLength;
+        }
+      };
+
+  // Statistics of the current sync, guarded by this
+  private int evaluated;
+  private int reused;
+  private long expandTime;
+  private long runTime;
+  private long syncStart;
+  private JSONObject lastSync;
+
+  ReplEvalCache(Language scheme) {
+    this.scheme = scheme;
+    startSync();
+  }
+
+  /**
+   * Evaluates code from the blocks editor, reusing its expanded form if the
+   * same code was evaluated before. Results and errors are reported through
+   * the RetValManager, as for an uncached evaluation.
+   *
+   * @return whether the expanded form was reused
+   */
+  synchronized boolean eval(String blockid, String code) throws Throwable {
+    if (code.contains(CLEAR_FORM)) {
+      startSync();
+    }
+    String key = hash(blockid + "\u0000" + code);
+    long start = System.currentTimeMillis();
+    Expanded expanded = procedures.get(key);
+    boolean hit = expanded != null;
+    if (!hit) {
+      String wrapped = "(begin (require <com.google.youngandroid.runtime>) (lambda () " +
+        "(process-repl-input " + blockid + " (begin " + code + " ))))";
+      Log.d(LOG_TAG, "To Expand: " + wrapped);
+      expanded = new Expanded((Procedure) scheme.eval(wrapped), code.length());
+      procedures.put(key, expanded);
+    }
+    long ready = System.currentTimeMillis();
+    expanded.procedure.apply0();
+    long end = System.currentTimeMillis();
+
+    if (hit) {
+      reused++;
+    } else {
+      evaluated++;
+      expandTime += ready - start;
+    }
+    runTime += end - ready;
+    if (code.startsWith(INITIALIZE_COMPONENTS)) {
+      endSync();
+    }
+    return hit;
+  }
+
+  /**
+   * Returns the statistics of the sync that ended last, or null if none
+   * ended since the previous call.
+   */
+  synchronized JSONObject takeSyncReport() {
+    JSONObject report = lastSync;
+    lastSync = null;
+    return report;
+  }
+
+  private void startSync() {
+    evaluated = 0;
+    reused = 0;
+    expandTime = 0;
+    runTime = 0;
+    syncStart = System.currentTimeMillis();
+  }
+
+  private void endSync() {
+    long total = System.currentTimeMillis() - syncStart;
+    Log.i(LOG_TAG, "Sync: " + (evaluated + reused) + " forms, " + reused + " reused, " +
+        expandTime + " ms expanding, " + runTime + " ms running, " + total + " ms in all; " +
+        procedures);
+    try {
+      lastSync = new JSONObject()
+          .put("forms", evaluated + reused)
+          .put("reused", reused)
+          .put("expandMs", expandTime)
+          .put("runMs", runTime)
+          .put("totalMs", total);
+    } catch (JSONException e) {
+      Log.e(LOG_TAG, "Unable to report sync", e);
+    }
+    startSync();
+  }
+
+  private static String hash(String code) {
+    try {
+      MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+      byte[] digest = sha1.digest(code.getBytes("UTF-8"));
+      StringBuffer sb = new StringBuffer(digest.length * 2);
+      Formatter formatter = new Formatter(sb);
+      for (byte b : digest) {
+        formatter.format("%02x", b);
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      // Every Android device has SHA-1 and UTF-8; fall back to the code itself.
+      return code;
+    } catch (UnsupportedEncodingException e) {
+      return code;
+    }
+  }
+}
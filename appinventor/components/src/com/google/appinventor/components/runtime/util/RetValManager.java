@@ -168,4 +168,48 @@ public class RetValManager {
     }
   }
 
+  /*
+   * fetchValues -- Remove all pending results, waiting for some if there
+   * are none. Used by ReplChannel, which sends them on its own.
+   *
+   * @param timeout how long to wait for results, in milliseconds, 0 to not wait
+   * @return JSONArray The pending results, possibly none.
+   */
+  public static JSONArray fetchValues(long timeout) {
+    synchronized (semaphore) {
+      if (currentArray.isEmpty() && timeout > 0) {
+        try {
+          semaphore.wait(timeout);
+        } catch (InterruptedException e) {
+        }
+      }
+      JSONArray values = new JSONArray(currentArray);
+      currentArray.clear();
+      return values;
+    }
+  }
+
+  /*
+   * returnValues -- Put back results taken by fetchValues that could not
+   * be sent, ahead of any produced since.
+   *
+   * @param values The results returned by fetchValues
+   */
+  public static void returnValues(JSONArray values) {
+    synchronized (semaphore) {
+      ArrayList<JSONObject> returned = new ArrayList<JSONObject>(values.length());
+      for (int i = 0; i < values.length(); i++) {
+        JSONObject value = values.optJSONObject(i);
+        if (value != null) {
+          returned.add(value);
+        }
+      }
+      boolean sendNotify = currentArray.isEmpty() && !returned.isEmpty();
+      currentArray.addAll(0, returned);
+      if (sendNotify) {
+        semaphore.notifyAll();
+      }
+    }
+  }
+
 }
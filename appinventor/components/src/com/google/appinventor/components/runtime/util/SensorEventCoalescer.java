@@ -0,0 +1,240 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives sensor events off the UI thread and hands them to a component
+ * on the UI thread in batches, at most once per display frame.
+ *
+ * <p>Sensors can report hundreds of times a second, and raising a block
+ * event for each report starves the UI thread. Instead, the events of all
+ * coalescers are received on one shared background thread, thinned out to
+ * the requested sampling interval, and queued. The first sample queued
+ * after a delivery schedules the next delivery on the UI thread, no sooner
+ * than {@link #FRAME_INTERVAL_MS} after the previous one, and that delivery
+ * passes every sample queued since, oldest first. A component can then
+ * raise one event with the latest values and still look at each sample,
+ * for instance to detect shaking.
+ *
+ */
+public final class SensorEventCoalescer implements SensorEventListener {
+
+  /**
+   * Receives the queued samples on the UI thread.
+   */
+  public interface Listener {
+    /**
+     * Called with the samples received since the previous call, oldest
+     * first. The list is never empty and belongs to the listener.
+     */
+    void onSensorSamples(List<Sample> samples);
+  }
+
+  /**
+   * A copy of the interesting parts of a {@link SensorEvent}, which the
+   * system reuses once {@code onSensorChanged} returns.
+   */
+  public static final class Sample {
+    public final int sensorType;
+    public final float[] values;
+    public final long timestamp; // nanoseconds
+    public final int accuracy;
+
+    Sample(SensorEvent event) {
+      sensorType = event.sensor.getType();
+      values = event.values.clone();
+      timestamp = event.timestamp;
+      accuracy = event.accuracy;
+    }
+  }
+
+  /**
+   * The shortest time between two deliveries, about one frame at 60 frames
+   * per second.
+   */
+  public static final int FRAME_INTERVAL_MS = 16;
+
+  // Older samples are dropped if the UI thread falls this far behind.
+  private static final int MAX_QUEUED_SAMPLES = 256;
+
+  private static HandlerThread sensorThread;
+
+  private final SensorManager sensorManager;
+  private final Listener listener;
+  private final Sensor[] sensors;
+  private final Handler uiHandler;
+  private final Runnable deliver = new Runnable() {
+    @Override
+    public void run() {
+      deliverSamples();
+    }
+  };
+
+  private final Object lock = new Object();
+  // Guarded by lock
+  private List<Sample> queue = new ArrayList<Sample>();
+  private boolean deliveryScheduled;
+  private long lastDeliveryTime;
+
+  private int samplingIntervalMs;
+  // Minimum nanoseconds between accepted samples of one sensor type
+  private volatile long samplingIntervalNanos;
+  // Used only on the sensor thread
+  private final Map<Integer, Long> lastSampleTimes = new HashMap<Integer, Long>();
+
+  private volatile boolean listening;
+
+  /**
+   * Creates a coalescer that delivers samples of {@code sensors} to
+   * {@code listener}. Must be called on the UI thread. Sensors that are
+   * null, because the device lacks them, are ignored.
+   */
+  public SensorEventCoalescer(SensorManager sensorManager, Listener listener,
+      Sensor... sensors) {
+    this.sensorManager = sensorManager;
+    this.listener = listener;
+    this.sensors = sensors;
+    uiHandler = new Handler();
+  }
+
+  private static synchronized Handler getSensorHandler() {
+    if (sensorThread == null) {
+      sensorThread = new HandlerThread("Sensors");
+      sensorThread.start();
+    }
+    return new Handler(sensorThread.getLooper());
+  }
+
+  /**
+   * Starts listening to the sensors.
+   */
+  public void start() {
+    if (listening) {
+      return;
+    }
+    listening = true;
+    Handler sensorHandler = getSensorHandler();
+    for (Sensor sensor : sensors) {
+      if (sensor != null) {
+        sensorManager.registerListener(this, sensor, toSensorDelay(samplingIntervalMs),
+            sensorHandler);
+      }
+    }
+  }
+
+  /**
+   * Stops listening and drops any samples not yet delivered.
+   */
+  public void stop() {
+    if (!listening) {
+      return;
+    }
+    listening = false;
+    sensorManager.unregisterListener(this);
+    uiHandler.removeCallbacks(deliver);
+    synchronized (lock) {
+      queue.clear();
+      deliveryScheduled = false;
+    }
+  }
+
+  public int getSamplingInterval() {
+    return samplingIntervalMs;
+  }
+
+  /**
+   * Keeps at most one sample of each sensor type per
+   * {@code samplingIntervalMs} milliseconds. An interval of 0 keeps every
+   * sample the sensors report. If listening, the sensors are registered
+   * again so that they can report at the new rate.
+   */
+  public void setSamplingInterval(int samplingIntervalMs) {
+    this.samplingIntervalMs = samplingIntervalMs;
+    samplingIntervalNanos = samplingIntervalMs * 1000000L;
+    if (listening) {
+      stop();
+      start();
+    }
+  }
+
+  // Before Gingerbread, registerListener only understands the SENSOR_DELAY constants.
+  private static int toSensorDelay(int samplingIntervalMs) {
+    if (SdkLevel.getLevel() >= SdkLevel.LEVEL_GINGERBREAD) {
+      return samplingIntervalMs * 1000;
+    }
+    if (samplingIntervalMs < 20) {
+      return SensorManager.SENSOR_DELAY_FASTEST;
+    } else if (samplingIntervalMs < 60) {
+      return SensorManager.SENSOR_DELAY_GAME;
+    } else if (samplingIntervalMs < 200) {
+      return SensorManager.SENSOR_DELAY_UI;
+    }
+    return SensorManager.SENSOR_DELAY_NORMAL;
+  }
+
+  // SensorEventListener implementation, called on the sensor thread
+
+  @Override
+  public void onSensorChanged(SensorEvent sensorEvent) {
+    if (!listening) {
+      return; // an event already in flight when stop was called
+    }
+    // The sampling interval passed to registerListener is only a hint, so
+    // drop samples that arrive early.
+    int type = sensorEvent.sensor.getType();
+    Long last = lastSampleTimes.get(type);
+    if (last != null && sensorEvent.timestamp - last < samplingIntervalNanos) {
+      return;
+    }
+    lastSampleTimes.put(type, sensorEvent.timestamp);
+
+    Sample sample = new Sample(sensorEvent);
+    synchronized (lock) {
+      if (queue.size() >= MAX_QUEUED_SAMPLES) {
+        queue.remove(0);
+      }
+      queue.add(sample);
+      if (!deliveryScheduled) {
+        deliveryScheduled = true;
+        uiHandler.postAtTime(deliver,
+            Math.max(SystemClock.uptimeMillis(), lastDeliveryTime + FRAME_INTERVAL_MS));
+      }
+    }
+  }
+
+  @Override
+  public void onAccuracyChanged(Sensor sensor, int accuracy) {
+  }
+
+  // Called on the UI thread
+
+  private void deliverSamples() {
+    List<Sample> samples;
+    synchronized (lock) {
+      deliveryScheduled = false;
+      lastDeliveryTime = SystemClock.uptimeMillis();
+      if (!listening || queue.isEmpty()) {
+        return;
+      }
+      samples = queue;
+      queue = new ArrayList<Sample>();
+    }
+    listener.onSensorSamples(samples);
+  }
+}
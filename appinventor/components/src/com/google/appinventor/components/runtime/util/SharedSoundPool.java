@@ -0,0 +1,282 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import com.google.appinventor.components.runtime.Form;
+
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The one {@link SoundPool} shared by all Sound components of the app.
+ *
+ * <p>A pool per component meant that a game with many sound effects
+ * created many pools, ran into the platform's limit on audio streams, and
+ * loaded the same file once per component. Instead, components
+ * {@link #acquire} this pool and {@link #load} sounds by media path; a path
+ * that is already loaded, by any component on any screen, is reused. A
+ * sound stays loaded while a component uses it. After that it is kept in a
+ * small least recently used cache, so switching a Source back and forth or
+ * reopening a screen does not decode the file again. The pool itself is
+ * released when the last component releases it.
+ *
+ * <p>Sounds load asynchronously. {@link #whenLoaded} runs an action as
+ * soon as a sound is ready, instead of polling for it. The time from a
+ * Play request to the sound starting is recorded and logged when the pool
+ * is released.
+ *
+ * <p>All methods must be called on the UI thread.
+ *
+ */
+public final class SharedSoundPool {
+  private static final String LOG_TAG = "SharedSoundPool";
+
+  // Streams that can play at once, across all Sound components
+  private static final int MAX_STREAMS = 16;
+
+  // SoundPool does not report how much memory its decoded samples take, so
+  // the cache of sounds that no component uses is bounded by count.
+  private static final int MAX_UNUSED_SOUNDS = 16;
+
+  // onLoadComplete is only available from API level 8. Before that, sounds
+  // are assumed to be ready at once.
+  private static final boolean TRACKS_LOADING = SdkLevel.getLevel() >= SdkLevel.LEVEL_FROYO;
+
+  private static SharedSoundPool instance;
+  private static int users;
+
+  private static final class LoadedSound {
+    final String path;
+    final int soundId;
+    int users;
+    boolean loaded;
+    List<Runnable> onLoad;
+
+    LoadedSound(String path, int soundId) {
+      this.path = path;
+      this.soundId = soundId;
+    }
+  }
+
+  // The purpose of this class is to avoid getting rejected by the Android verifier on devices
+  // with API level less than 8, where OnLoadCompleteListener does not exist. It is only loaded
+  // if TRACKS_LOADING is true.
+  private class OnLoadHelper {
+    void setOnLoadCompleteListener() {
+      soundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+        @Override
+        public void onLoadComplete(SoundPool soundPool, int sampleId, int status) {
+          loaded(sampleId, status);
+        }
+      });
+    }
+  }
+
+  private final SoundPool soundPool;
+  private final Map<String, LoadedSound> soundsByPath = new HashMap<String, LoadedSound>();
+  private final Map<Integer, LoadedSound> soundsById = new HashMap<Integer, LoadedSound>();
+  // Loaded sounds that no component uses, least recently used first
+  private final LinkedHashMap<String, LoadedSound> unusedSounds =
+      new LinkedHashMap<String, LoadedSound>();
+
+  // Play latency statistics, in milliseconds
+  private int plays;
+  private int delayedPlays;
+  private long totalLatency;
+  private long maxLatency;
+
+  private SharedSoundPool() {
+    soundPool = new SoundPool(MAX_STREAMS, AudioManager.STREAM_MUSIC, 0);
+    if (TRACKS_LOADING) {
+      new OnLoadHelper().setOnLoadCompleteListener();
+    }
+  }
+
+  /**
+   * Returns the shared pool, creating it if needed. Each call must be
+   * matched by a call to {@link #release}.
+   */
+  public static SharedSoundPool acquire() {
+    if (instance == null) {
+      instance = new SharedSoundPool();
+    }
+    users++;
+    return instance;
+  }
+
+  /**
+   * Gives up a reference obtained from {@link #acquire}. The pool and all
+   * its sounds are released with the last reference.
+   */
+  public static void release(SharedSoundPool pool) {
+    if (pool != instance || users == 0) {
+      return;
+    }
+    if (--users == 0) {
+      instance.logStatistics();
+      instance.soundPool.release();
+      instance = null;
+    }
+  }
+
+  /**
+   * Starts loading the sound at {@code mediaPath}, or reuses it if it is
+   * already loaded or loading. Each successful call must be matched by a
+   * call to {@link #unload}.
+   *
+   * <p>See {@link MediaUtil#determineMediaSource} for information about what
+   * a path can be.
+   *
+   * @return the sound id, or 0 if the sound could not be loaded
+   */
+  public int load(Form form, String mediaPath) throws IOException {
+    LoadedSound sound = soundsByPath.get(mediaPath);
+    if (sound == null) {
+      int soundId = MediaUtil.loadSoundPool(soundPool, form, mediaPath);
+      if (soundId == 0) {
+        return 0;
+      }
+      Log.i(LOG_TAG, "Loading " + mediaPath + " as sound " + soundId);
+      sound = new LoadedSound(mediaPath, soundId);
+      sound.loaded = !TRACKS_LOADING;
+      soundsByPath.put(mediaPath, sound);
+      soundsById.put(soundId, sound);
+    } else if (sound.users == 0) {
+      unusedSounds.remove(mediaPath);
+    }
+    sound.users++;
+    return sound.soundId;
+  }
+
+  /**
+   * Gives up a sound obtained from {@link #load}. It stays cached until
+   * enough other unused sounds push it out.
+   */
+  public void unload(int soundId) {
+    LoadedSound sound = soundsById.get(soundId);
+    if (sound == null || sound.users == 0) {
+      return;
+    }
+    if (--sound.users == 0) {
+      sound.onLoad = null;
+      unusedSounds.put(sound.path, sound);
+      evictUnusedSounds();
+    }
+  }
+
+  private void evictUnusedSounds() {
+    Iterator<LoadedSound> iterator = unusedSounds.values().iterator();
+    while (unusedSounds.size() > MAX_UNUSED_SOUNDS) {
+      LoadedSound sound = iterator.next();
+      iterator.remove();
+      soundsByPath.remove(sound.path);
+      soundsById.remove(sound.soundId);
+      soundPool.unload(sound.soundId);
+    }
+  }
+
+  /**
+   * Returns whether the sound has finished loading and can be played.
+   */
+  public boolean isLoaded(int soundId) {
+    LoadedSound sound = soundsById.get(soundId);
+    return sound != null && sound.loaded;
+  }
+
+  /**
+   * Runs {@code action} once the sound has finished loading, right away if
+   * it already has.
+   */
+  public void whenLoaded(int soundId, Runnable action) {
+    LoadedSound sound = soundsById.get(soundId);
+    if (sound == null || sound.loaded) {
+      action.run();
+      return;
+    }
+    if (sound.onLoad == null) {
+      sound.onLoad = new ArrayList<Runnable>();
+    }
+    sound.onLoad.add(action);
+  }
+
+  /**
+   * Cancels an action passed to {@link #whenLoaded} that has not run yet.
+   */
+  public void cancelWhenLoaded(int soundId, Runnable action) {
+    LoadedSound sound = soundsById.get(soundId);
+    if (sound != null && sound.onLoad != null) {
+      sound.onLoad.remove(action);
+    }
+  }
+
+  private void loaded(int soundId, int status) {
+    LoadedSound sound = soundsById.get(soundId);
+    if (sound == null) {
+      return;
+    }
+    if (status != 0) {
+      Log.w(LOG_TAG, "Loading " + sound.path + " failed with status " + status);
+    }
+    // A sound that failed to load is marked loaded too, so that waiting plays fail at once.
+    sound.loaded = true;
+    List<Runnable> actions = sound.onLoad;
+    sound.onLoad = null;
+    if (actions != null) {
+      for (Runnable action : actions) {
+        action.run();
+      }
+    }
+  }
+
+  /**
+   * Plays a sound once at full volume.
+   *
+   * @param requestTime when the play was requested, from
+   *        {@link System#currentTimeMillis}, for the latency statistics
+   * @return the stream id, or 0 if the sound could not be played
+   */
+  public int play(int soundId, long requestTime) {
+    int streamId = soundPool.play(soundId, 1.0f, 1.0f, 0, 0, 1.0f);
+    if (streamId != 0) {
+      long latency = System.currentTimeMillis() - requestTime;
+      plays++;
+      if (latency > 0) {
+        delayedPlays++;
+      }
+      totalLatency += latency;
+      maxLatency = Math.max(maxLatency, latency);
+    }
+    return streamId;
+  }
+
+  public void pause(int streamId) {
+    soundPool.pause(streamId);
+  }
+
+  public void resume(int streamId) {
+    soundPool.resume(streamId);
+  }
+
+  public void stop(int streamId) {
+    soundPool.stop(streamId);
+  }
+
+  private void logStatistics() {
+    if (plays > 0) {
+      Log.i(LOG_TAG, plays + " plays, " + delayedPlays + " waited for loading; " +
+          "average latency " + (totalLatency / plays) + " ms, maximum " + maxLatency + " ms");
+    }
+  }
+}
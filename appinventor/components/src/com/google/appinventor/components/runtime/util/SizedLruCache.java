@@ -0,0 +1,136 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe least recently used cache bounded by the total size of its
+ * values, as measured by {@link #sizeOf}, rather than by their count.
+ *
+ * <p>android.util.LruCache only exists from API level 12, so this is a
+ * minimal equivalent that also runs on older devices. It counts hits,
+ * misses and evictions so that callers can log how well it works.
+ *
+ */
+public abstract class SizedLruCache<K, V> {
+  private final int maxSize;
+  // Iterates least recently used first
+  private final LinkedHashMap<K, V> map = new LinkedHashMap<K, V>(16, 0.75f, true);
+  private int size;
+
+  private int hitCount;
+  private int missCount;
+  private int evictionCount;
+
+  /**
+   * Creates a cache whose values may add up to {@code maxSize}, in the
+   * units used by {@link #sizeOf}.
+   */
+  protected SizedLruCache(int maxSize) {
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Invalid size: " + maxSize);
+    }
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the size of a value, which must not change while it is cached.
+   */
+  protected abstract int sizeOf(K key, V value);
+
+  /**
+   * Returns the value for {@code key} and marks it most recently used, or
+   * returns null if it is not cached.
+   */
+  public synchronized V get(K key) {
+    V value = map.get(key);
+    if (value == null) {
+      missCount++;
+    } else {
+      hitCount++;
+    }
+    return value;
+  }
+
+  /**
+   * Caches {@code value} for {@code key}, replacing any previous value, and
+   * evicts the least recently used values until the cache fits again. A
+   * value larger than the whole cache is not cached.
+   */
+  public synchronized void put(K key, V value) {
+    int valueSize = sizeOf(key, value);
+    V previous = map.remove(key);
+    if (previous != null) {
+      size -= sizeOf(key, previous);
+    }
+    if (valueSize > maxSize) {
+      return;
+    }
+    map.put(key, value);
+    size += valueSize;
+    trimTo(maxSize);
+  }
+
+  /**
+   * Removes the value for {@code key}, if any.
+   */
+  public synchronized V remove(K key) {
+    V previous = map.remove(key);
+    if (previous != null) {
+      size -= sizeOf(key, previous);
+    }
+    return previous;
+  }
+
+  /**
+   * Removes all values.
+   */
+  public synchronized void evictAll() {
+    trimTo(0);
+  }
+
+  private void trimTo(int targetSize) {
+    Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+    while (size > targetSize && iterator.hasNext()) {
+      Map.Entry<K, V> eldest = iterator.next();
+      iterator.remove();
+      size -= sizeOf(eldest.getKey(), eldest.getValue());
+      evictionCount++;
+    }
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public int maxSize() {
+    return maxSize;
+  }
+
+  public synchronized int hitCount() {
+    return hitCount;
+  }
+
+  public synchronized int missCount() {
+    return missCount;
+  }
+
+  public synchronized int evictionCount() {
+    return evictionCount;
+  }
+
+  @Override
+  public synchronized String toString() {
+    int lookups = hitCount + missCount;
+    int hitPercent = lookups == 0 ? 0 : 100 * hitCount / lookups;
+    return "SizedLruCache[entries=" + map.size() + ", size=" + size + "/" + maxSize
+        + ", hits=" + hitCount + ", misses=" + missCount + ", hitRate=" + hitPercent
+        + "%, evictions=" + evictionCount + "]";
+  }
+}
@@ -0,0 +1,277 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A grid over latitude and longitude for finding the items, such as map
+ * features, in a bounding box or nearest to a point without looking at all
+ * of them.
+ *
+ * <p>Each item is kept with its bounding box in every cell of the grid that
+ * the box overlaps. An item whose box covers many cells, such as a line
+ * across a continent, is kept in a separate list that every query looks at
+ * instead. Boxes do not wrap around the antimeridian.
+ *
+ * <p>Items are compared by identity, as components are.
+ *
+ * @param <T> the type of the items
+ */
+public final class SpatialIndex<T> {
+
+  /**
+   * Computes the distance, in meters, from a fixed point to an item. It may
+   * be any distance for which an item whose box is far from the point is
+   * far from the point too, such as those computed by {@link GeometryUtil}.
+   */
+  public interface Metric<T> {
+    double distance(T item);
+  }
+
+  // Items covering more cells than this are kept in the list of large items.
+  private static final int MAX_CELLS_PER_ITEM = 64;
+
+  private static final class Entry<T> {
+    final T item;
+    final double north;
+    final double west;
+    final double south;
+    final double east;
+
+    Entry(T item, double north, double west, double south, double east) {
+      this.item = item;
+      this.north = north;
+      this.west = west;
+      this.south = south;
+      this.east = east;
+    }
+
+    boolean intersects(double north, double west, double south, double east) {
+      return this.south <= north && this.north >= south && this.west <= east && this.east >= west;
+    }
+  }
+
+  private final double cellSize;
+  private final Map<T, Entry<T>> entries = new HashMap<T, Entry<T>>();
+  private final Map<Long, List<Entry<T>>> cells = new HashMap<Long, List<Entry<T>>>();
+  private final List<Entry<T>> large = new ArrayList<Entry<T>>();
+
+  /**
+   * Creates an empty index.
+   *
+   * @param cellSize the size of a grid cell, in degrees
+   */
+  public SpatialIndex(double cellSize) {
+    if (!(cellSize > 0)) {
+      throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+    }
+    this.cellSize = cellSize;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public boolean contains(T item) {
+    return entries.containsKey(item);
+  }
+
+  /**
+   * Returns whether an item in the index has a bounding box that intersects
+   * the given one.
+   */
+  public boolean intersects(T item, double north, double west, double south, double east) {
+    Entry<T> entry = entries.get(item);
+    return entry != null && entry.intersects(north, west, south, east);
+  }
+
+  /**
+   * Adds an item with the given bounding box, or moves it there if it is
+   * already in the index.
+   */
+  public void put(T item, double north, double west, double south, double east) {
+    remove(item);
+    Entry<T> entry = new Entry<T>(item, Math.max(north, south), Math.min(west, east),
+        Math.min(north, south), Math.max(west, east));
+    entries.put(item, entry);
+    int top = row(entry.north);
+    int bottom = row(entry.south);
+    int left = column(entry.west);
+    int right = column(entry.east);
+    if ((long) (top - bottom + 1) * (right - left + 1) > MAX_CELLS_PER_ITEM) {
+      large.add(entry);
+      return;
+    }
+    for (int row = bottom; row <= top; row++) {
+      for (int column = left; column <= right; column++) {
+        Long key = key(row, column);
+        List<Entry<T>> cell = cells.get(key);
+        if (cell == null) {
+          cell = new ArrayList<Entry<T>>(4);
+          cells.put(key, cell);
+        }
+        cell.add(entry);
+      }
+    }
+  }
+
+  /**
+   * Removes an item from the index.
+   *
+   * @return whether the item was in the index
+   */
+  public boolean remove(T item) {
+    Entry<T> entry = entries.remove(item);
+    if (entry == null) {
+      return false;
+    }
+    if (large.remove(entry)) {
+      return true;
+    }
+    for (int row = row(entry.south); row <= row(entry.north); row++) {
+      for (int column = column(entry.west); column <= column(entry.east); column++) {
+        Long key = key(row, column);
+        List<Entry<T>> cell = cells.get(key);
+        if (cell != null) {
+          cell.remove(entry);
+          if (cell.isEmpty()) {
+            cells.remove(key);
+          }
+        }
+      }
+    }
+    return true;
+  }
+
+  public void clear() {
+    entries.clear();
+    cells.clear();
+    large.clear();
+  }
+
+  /**
+   * Returns the items whose bounding box intersects the given one.
+   */
+  public List<T> query(double north, double west, double south, double east) {
+    List<T> result = new ArrayList<T>();
+    query(north, west, south, east, result);
+    return result;
+  }
+
+  private void query(double north, double west, double south, double east,
+      Collection<T> result) {
+    Set<Entry<T>> seen = new HashSet<Entry<T>>();
+    int top = row(north);
+    int bottom = row(south);
+    int left = column(west);
+    int right = column(east);
+    if ((long) (top - bottom + 1) * (right - left + 1) > cells.size()) {
+      // Fewer cells are occupied than the box covers, as when a map is zoomed out.
+      for (List<Entry<T>> cell : cells.values()) {
+        collect(cell, north, west, south, east, seen, result);
+      }
+    } else {
+      for (int row = bottom; row <= top; row++) {
+        for (int column = left; column <= right; column++) {
+          List<Entry<T>> cell = cells.get(key(row, column));
+          if (cell != null) {
+            collect(cell, north, west, south, east, seen, result);
+          }
+        }
+      }
+    }
+    collect(large, north, west, south, east, seen, result);
+  }
+
+  private static <T> void collect(List<Entry<T>> cell, double north, double west, double south,
+      double east, Set<Entry<T>> seen, Collection<T> result) {
+    for (Entry<T> entry : cell) {
+      if (entry.intersects(north, west, south, east) && seen.add(entry)) {
+        result.add(entry.item);
+      }
+    }
+  }
+
+  /**
+   * Finds the item nearest to a point.
+   *
+   * <p>Boxes of growing size around the point are searched until one holds
+   * an item. The distance to the nearest of those items then bounds how far
+   * away a nearer item could be, and that last box is searched too.
+   *
+   * @param latitude the latitude of the point
+   * @param longitude the longitude of the point
+   * @param metric the distance from the point to an item
+   * @return the nearest item, or null if the index is empty
+   */
+  public T nearest(double latitude, double longitude, Metric<T> metric) {
+    if (entries.isEmpty()) {
+      return null;
+    }
+    T best = null;
+    double bestDistance = Double.POSITIVE_INFINITY;
+    Set<T> measured = new HashSet<T>();
+    for (double radius = cellSize; best == null; radius *= 2) {
+      List<T> candidates = query(latitude + radius, longitude - radius,
+          latitude - radius, longitude + radius);
+      for (T candidate : candidates) {
+        if (measured.add(candidate)) {
+          double distance = metric.distance(candidate);
+          if (distance < bestDistance) {
+            best = candidate;
+            bestDistance = distance;
+          }
+        }
+      }
+      if (best == null && radius >= 360) {
+        // Every item was measured; none has a finite distance.
+        return candidates.isEmpty() ? null : candidates.get(0);
+      }
+    }
+
+    // An item outside this box is at least bestDistance away, along a
+    // meridian for the latitude and by the haversine formula for the
+    // longitude, at the latitude nearest a pole within the box.
+    double angle = bestDistance / GeometryUtil.EARTH_RADIUS;
+    double latitudeRadius = Math.toDegrees(angle);
+    double polewardCos = Math.cos(Math.toRadians(
+        Math.min(90, Math.abs(latitude) + latitudeRadius)));
+    double ratio = Math.sin(angle / 2) / polewardCos;
+    double longitudeRadius = ratio >= 1 || Double.isNaN(ratio) ? 360
+        : Math.toDegrees(2 * Math.asin(ratio));
+    List<T> candidates = query(latitude + latitudeRadius, longitude - longitudeRadius,
+        latitude - latitudeRadius, longitude + longitudeRadius);
+    for (T candidate : candidates) {
+      if (measured.add(candidate)) {
+        double distance = metric.distance(candidate);
+        if (distance < bestDistance) {
+          best = candidate;
+          bestDistance = distance;
+        }
+      }
+    }
+    return best;
+  }
+
+  private int row(double latitude) {
+    return (int) Math.floor(latitude / cellSize);
+  }
+
+  private int column(double longitude) {
+    return (int) Math.floor(longitude / cellSize);
+  }
+
+  private static Long key(int row, int column) {
+    return ((long) row << 32) | (column & 0xFFFFFFFFL);
+  }
+}
@@ -0,0 +1,98 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.google.appinventor.components.runtime.shadows.ShadowAsynchUtil;
+import com.google.appinventor.components.runtime.shadows.ShadowEventDispatcher;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the ordering of buffered appends in File.java.
+ *
+ */
+public class FileTest extends RobolectricTestBase {
+  private static final String NAME = "test.txt";
+
+  private File file;
+
+  @Before
+  public void setUp() {
+    super.setUp();
+    file = new File(getForm());
+    file.AppendFlushInterval(60000);  // Only written when flushed
+  }
+
+  @Test
+  public void testSaveFileDropsPendingAppends() throws IOException {
+    file.AppendToFile("appended\n", NAME);
+    file.SaveFile("saved\n", NAME);
+    file.Flush();
+    runTasks();
+    assertEquals("saved\n", contents());
+  }
+
+  @Test
+  public void testDeleteDropsPendingAppends() {
+    file.SaveFile("saved\n", NAME);
+    file.AppendToFile("appended\n", NAME);
+    file.Delete(NAME);
+    file.Flush();
+    runTasks();
+    assertFalse(path().exists());
+  }
+
+  @Test
+  public void testReadFromSeesPendingAppends() {
+    file.SaveFile("saved\n", NAME);
+    file.AppendToFile("appended\n", NAME);
+    file.ReadFrom(NAME);
+    runTasks();
+    ShadowEventDispatcher.assertEventFired(file, "GotText", "saved\nappended\n");
+  }
+
+  @Test
+  public void testReadTailSeesPendingAppends() {
+    file.AppendToFile("1\n", NAME);
+    file.AppendToFile("2\n", NAME);
+    file.AppendToFile("3\n", NAME);
+    file.ReadTail(NAME, 1);
+    runTasks();
+    ShadowEventDispatcher.assertEventFired(file, "GotTextRange", NAME, 4L, "3\n");
+  }
+
+  @Test
+  public void testWritesInOrder() throws IOException {
+    file.AppendFlushInterval(0);
+    file.SaveFile("1\n", NAME);
+    file.AppendToFile("2\n", NAME);
+    file.SaveFile("3\n", NAME);
+    file.AppendToFile("4\n", NAME);
+    runTasks();
+    assertEquals("3\n4\n", contents());
+  }
+
+  private void runTasks() {
+    ShadowAsynchUtil.runAllPendingRunnables();
+    runAllEvents();
+  }
+
+  private java.io.File path() {
+    return new java.io.File(getForm().getFilesDir(), NAME);
+  }
+
+  private String contents() throws IOException {
+    return Files.toString(path(), Charsets.UTF_8);
+  }
+}
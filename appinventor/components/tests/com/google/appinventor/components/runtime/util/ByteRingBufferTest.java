@@ -0,0 +1,69 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ByteRingBuffer.java.
+ *
+ */
+public class ByteRingBufferTest extends TestCase {
+
+  public void testCapacityIsRoundedUp() {
+    assertEquals(8, new ByteRingBuffer(5).capacity());
+    assertEquals(8, new ByteRingBuffer(8).capacity());
+    assertEquals(1, new ByteRingBuffer(1).capacity());
+    try {
+      new ByteRingBuffer(0);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testWriteAndReadAcrossTheEnd() {
+    ByteRingBuffer buffer = new ByteRingBuffer(8);
+    byte[] out = new byte[8];
+    assertEquals(6, buffer.write(new byte[] { 1, 2, 3, 4, 5, 6 }, 0, 6));
+    assertEquals(4, buffer.read(out, 0, 4));
+    // This write wraps around to the start of the array.
+    assertEquals(5, buffer.write(new byte[] { 7, 8, 9, 10, 11 }, 0, 5));
+    assertEquals(7, buffer.available());
+    assertEquals(7, buffer.read(out, 0, 8));
+    assertEquals(5, out[0]);
+    assertEquals(11, out[6]);
+    assertEquals(0, buffer.available());
+    assertEquals(0, buffer.read(out, 0, 8));
+  }
+
+  public void testWriteStopsWhenFull() {
+    ByteRingBuffer buffer = new ByteRingBuffer(4);
+    assertEquals(4, buffer.write(new byte[] { 1, 2, 3, 4, 5, 6 }, 0, 6));
+    assertEquals(0, buffer.write(new byte[] { 7 }, 0, 1));
+    assertEquals(1, buffer.skip(1));
+    assertEquals(1, buffer.write(new byte[] { 7, 8 }, 0, 2));
+    byte[] out = new byte[4];
+    assertEquals(4, buffer.read(out, 0, 4));
+    assertEquals(2, out[0]);
+    assertEquals(7, out[3]);
+  }
+
+  public void testIndexOfAndPeek() {
+    ByteRingBuffer buffer = new ByteRingBuffer(16);
+    buffer.write("ab\ncd\ne".getBytes(), 0, 7);
+    assertEquals(2, buffer.indexOf((byte) '\n', 0));
+    assertEquals(5, buffer.indexOf((byte) '\n', 3));
+    assertEquals(-1, buffer.indexOf((byte) '\n', 6));
+    byte[] out = new byte[2];
+    assertEquals(2, buffer.peek(3, out, 0, 2));
+    assertEquals("cd", new String(out));
+    // Peeking does not consume.
+    assertEquals(7, buffer.available());
+    assertEquals(7, buffer.clear());
+    assertEquals(-1, buffer.indexOf((byte) '\n', 0));
+  }
+}
@@ -10,6 +10,8 @@ import com.google.appinventor.components.runtime.util.YailList;
 
 import junit.framework.TestCase;
 
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 
 /**
@@ -171,4 +173,57 @@ public class CsvUtilTest extends TestCase {
     String expectedCSVString = "\"field0\",\"field1\",\"field2\"";
     assertEquals(expectedCSVString, CsvUtil.toCsvRow(YailList.makeList(row)));
   }
+
+  public void testFromCSVTableLargeQuotedCell() throws Exception {
+    StringBuilder cell = new StringBuilder();
+    for (int i = 0; i < 50000; ++i) {
+      cell.append(i % 10);
+    }
+    String testString = "a,\"" + cell + "\",b\r\nc,d,e\r\n";
+    YailList ylist = CsvUtil.fromCsvTable(new StringReader(testString));
+    assertEquals(2, ylist.size());
+    YailList row = (YailList) ylist.getObject(0);
+    assertEquals(3, row.size());
+    assertEquals(cell.toString(), row.getString(1));
+    assertEquals("b", row.getString(2));
+  }
+
+  public void testFromCSVRowQuotedCellsWithAndWithoutEscapes() throws Exception {
+    YailList row = CsvUtil.fromCsvRow("\" plain \",\"say \"\"hi\"\"\",\"\"\"\"");
+    assertEquals("plain", row.getString(0));
+    assertEquals("say \"hi\"", row.getString(1));
+    assertEquals("\"", row.getString(2));
+  }
+
+  public void testParseCSVTableRowHandler() throws Exception {
+    String testString =
+      "col0,animal\r\n" +
+      "col1,vegetable\r\n" +
+      "col2,mineral\r\n";
+    final ArrayList<String> seen = new ArrayList<String>();
+    int rows = CsvUtil.parseCsvTable(new StringReader(testString), new CsvUtil.RowHandler() {
+      @Override
+      public boolean handleRow(int rowIndex, YailList row) {
+        seen.add(rowIndex + ":" + row.getString(1));
+        return rowIndex < 2;
+      }
+    });
+    assertEquals(2, rows);
+    assertEquals(2, seen.size());
+    assertEquals("1:animal", seen.get(0));
+    assertEquals("2:vegetable", seen.get(1));
+  }
+
+  public void testToCSVTableWriterEscapesQuotes() throws Exception {
+    ArrayList<String> row = new ArrayList<String>();
+    row.add("say \"hi\"");
+    row.add("plain");
+    ArrayList<YailList> list = new ArrayList<YailList>();
+    list.add(YailList.makeList(row));
+    StringWriter out = new StringWriter();
+    CsvUtil.toCsvTable(YailList.makeList(list), out);
+    assertEquals("\"say \"\"hi\"\"\",\"plain\"\r\n", out.toString());
+    YailList parsed = CsvUtil.fromCsvTable(out.toString());
+    assertEquals("say \"hi\"", ((YailList) parsed.getObject(0)).getString(0));
+  }
 }
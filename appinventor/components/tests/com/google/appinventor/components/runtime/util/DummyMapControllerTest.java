@@ -263,6 +263,21 @@ public class DummyMapControllerTest {
     mapController.updateFeatureSize(null);
   }
 
+  @Test(expected = UnsupportedOperationException.class)
+  public void testSetClusterMarkersEnabled() {
+    mapController.setClusterMarkersEnabled(true);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testIsClusterMarkersEnabled() {
+    mapController.isClusterMarkersEnabled();
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testGetNearestFeature() {
+    mapController.getNearestFeature(0.0, 0.0, null);
+  }
+
   @Test(expected = UnsupportedOperationException.class)
   public void testGetLocationListener() {
     mapController.getLocationListener();
@@ -0,0 +1,57 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests ListFilterIndex.java.
+ *
+ */
+public class ListFilterIndexTest extends TestCase {
+
+  private static ListFilterIndex newIndex(Object... elements) {
+    ListFilterIndex index = new ListFilterIndex();
+    index.replace(0, 0, Arrays.asList(elements));
+    return index;
+  }
+
+  private static void assertPositions(ListFilterIndex.Result result, int... expected) {
+    assertEquals(Arrays.toString(expected), Arrays.toString(result.positions));
+  }
+
+  public void testMatchesStartOfElementOrWord() {
+    ListFilterIndex index = newIndex("Apple pie", "Banana", "Green apple", "Pineapple", 42.0);
+    assertPositions(index.filter("app"), 0, 2);
+    assertPositions(index.filter("PIE"), 0);
+    assertPositions(index.filter("ne"), new int[0]);
+    assertPositions(index.filter("42"), 4);
+  }
+
+  public void testNarrowsPreviousResult() {
+    ListFilterIndex index = newIndex("cat", "car", "dog", "cart");
+    assertPositions(index.filter("ca"), 0, 1, 3);
+    assertPositions(index.filter("car"), 1, 3);
+    assertPositions(index.filter("cart"), 3);
+    // Not a narrowing of the previous query, so everything is searched again.
+    assertPositions(index.filter("d"), 2);
+  }
+
+  public void testReplaceInvalidatesResults() {
+    ListFilterIndex index = newIndex("cat", "car", "dog");
+    ListFilterIndex.Result before = index.filter("ca");
+    assertPositions(before, 0, 1);
+    index.replace(1, 2, Arrays.asList("cab", "dot"));
+    index.replace(3, 4, Collections.emptyList());
+    assertEquals(3, index.size());
+    assertFalse(before.version == index.version());
+    assertPositions(index.filter("cab"), 1);
+    assertPositions(index.filter("do"), 2);
+  }
+}
@@ -0,0 +1,181 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the WebSocket framing of ReplChannel.java.
+ *
+ */
+public class ReplChannelTest extends TestCase {
+  private static final int OP_CONTINUATION = 0x0;
+  private static final int OP_TEXT = 0x1;
+  private static final int OP_CLOSE = 0x8;
+  private static final int OP_PING = 0x9;
+  private static final byte[] MASK = { 0x37, (byte) 0xfa, 0x21, 0x3d };
+
+  private ByteArrayOutputStream sent;
+
+  @Override
+  protected void setUp() throws Exception {
+    sent = new ByteArrayOutputStream();
+  }
+
+  public void testMaskedTextFrame() throws IOException {
+    // The example of RFC 6455, section 5.7
+    byte[] frame = { (byte) 0x81, (byte) 0x85, 0x37, (byte) 0xfa, 0x21, 0x3d,
+                     0x7f, (byte) 0x9f, 0x4d, 0x51, 0x58 };
+    assertEquals("Hello", read(frame).readMessage());
+  }
+
+  public void testUnmaskedTextFrame() throws IOException {
+    assertEquals("Hello", read(frame(true, OP_TEXT, null, text("Hello"))).readMessage());
+  }
+
+  public void testTwoByteLength() throws IOException {
+    String message = repeat('a', 200);
+    byte[] frame = frame(true, OP_TEXT, MASK, text(message));
+    assertEquals(126, frame[1] & 0x7F);
+    assertEquals(message, read(frame).readMessage());
+  }
+
+  public void testEightByteLength() throws IOException {
+    String message = repeat('b', 70000);
+    byte[] frame = frame(true, OP_TEXT, MASK, text(message));
+    assertEquals(127, frame[1] & 0x7F);
+    assertEquals(message, read(frame).readMessage());
+  }
+
+  public void testContinuationFrames() throws IOException {
+    ReplChannel channel = read(
+        frame(false, OP_TEXT, MASK, text("Hel")),
+        frame(false, OP_CONTINUATION, MASK, text("lo, ")),
+        frame(true, OP_CONTINUATION, null, text("world")),
+        frame(true, OP_TEXT, MASK, text("again")));
+    assertEquals("Hello, world", channel.readMessage());
+    assertEquals("again", channel.readMessage());
+    assertNull(channel.readMessage());
+  }
+
+  public void testPingBetweenContinuationFrames() throws IOException {
+    ReplChannel channel = read(
+        frame(false, OP_TEXT, MASK, text("Hel")),
+        frame(true, OP_PING, MASK, text("ping")),
+        frame(true, OP_CONTINUATION, MASK, text("lo")));
+    assertEquals("Hello", channel.readMessage());
+    // Answered with an unmasked pong carrying the same payload
+    byte[] pong = sent.toByteArray();
+    assertEquals(6, pong.length);
+    assertEquals((byte) 0x8A, pong[0]);
+    assertEquals(4, pong[1]);
+    assertEquals("ping", new String(pong, 2, 4, "UTF-8"));
+  }
+
+  public void testCloseFrame() throws IOException {
+    ReplChannel channel = read(frame(true, OP_CLOSE, MASK, new byte[0]),
+        frame(true, OP_TEXT, MASK, text("ignored")));
+    assertNull(channel.readMessage());
+  }
+
+  public void testEndOfStream() throws IOException {
+    assertNull(read().readMessage());
+  }
+
+  public void testMessageAtLimit() throws IOException {
+    byte[] payload = new byte[16 * 1024 * 1024];
+    Arrays.fill(payload, (byte) 'c');
+    assertEquals(payload.length, read(frame(true, OP_TEXT, null, payload)).readMessage().length());
+  }
+
+  public void testFrameOverLimit() {
+    // Only the header: the payload must not be read, let alone allocated
+    byte[] header = { (byte) 0x81, 127, 0, 0, 0, 0, 1, 0, 0, 1 };
+    try {
+      read(header).readMessage();
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testMessageOverLimit() {
+    byte[] half = new byte[8 * 1024 * 1024];
+    ReplChannel channel = read(frame(false, OP_TEXT, null, half),
+        frame(false, OP_CONTINUATION, null, half),
+        frame(true, OP_CONTINUATION, null, new byte[1]));
+    try {
+      channel.readMessage();
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  public void testNegativeLength() {
+    byte[] header = { (byte) 0x81, 127, (byte) 0x80, 0, 0, 0, 0, 0, 0, 0 };
+    try {
+      read(header).readMessage();
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  private ReplChannel read(byte[]... frames) {
+    ByteArrayOutputStream in = new ByteArrayOutputStream();
+    for (byte[] frame : frames) {
+      in.write(frame, 0, frame.length);
+    }
+    return new ReplChannel(new ByteArrayInputStream(in.toByteArray()), sent);
+  }
+
+  private static byte[] frame(boolean fin, int opcode, byte[] mask, byte[] payload) {
+    ByteArrayOutputStream frame = new ByteArrayOutputStream();
+    frame.write((fin ? 0x80 : 0) | opcode);
+    int maskBit = mask == null ? 0 : 0x80;
+    if (payload.length < 126) {
+      frame.write(maskBit | payload.length);
+    } else if (payload.length < 65536) {
+      frame.write(maskBit | 126);
+      frame.write(payload.length >>> 8);
+      frame.write(payload.length);
+    } else {
+      frame.write(maskBit | 127);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        frame.write((int) ((long) payload.length >>> shift));
+      }
+    }
+    if (mask != null) {
+      frame.write(mask, 0, 4);
+      for (int i = 0; i < payload.length; i++) {
+        frame.write(payload[i] ^ mask[i & 3]);
+      }
+    } else {
+      frame.write(payload, 0, payload.length);
+    }
+    return frame.toByteArray();
+  }
+
+  private static byte[] text(String text) {
+    try {
+      return text.getBytes("UTF-8");
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static String repeat(char c, int count) {
+    char[] chars = new char[count];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+}
@@ -0,0 +1,70 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests SizedLruCache.java.
+ *
+ */
+public class SizedLruCacheTest extends TestCase {
+
+  private static SizedLruCache<String, String> newCache(int maxSize) {
+    return new SizedLruCache<String, String>(maxSize) {
+      @Override
+      protected int sizeOf(String key, String value) {
+        return value.length();
+      }
+    };
+  }
+
+  public void testEvictsLeastRecentlyUsed() {
+    SizedLruCache<String, String> cache = newCache(10);
+    cache.put("a", "aaaa");
+    cache.put("b", "bbbb");
+    // Using a makes b the least recently used.
+    assertEquals("aaaa", cache.get("a"));
+    cache.put("c", "cccc");
+    assertNull(cache.get("b"));
+    assertEquals("aaaa", cache.get("a"));
+    assertEquals("cccc", cache.get("c"));
+    assertEquals(8, cache.size());
+    assertEquals(1, cache.evictionCount());
+  }
+
+  public void testReplaceUpdatesSize() {
+    SizedLruCache<String, String> cache = newCache(10);
+    cache.put("a", "aaaa");
+    cache.put("a", "aa");
+    assertEquals(2, cache.size());
+    assertEquals("aa", cache.remove("a"));
+    assertEquals(0, cache.size());
+    assertNull(cache.remove("a"));
+  }
+
+  public void testValueLargerThanCacheIsNotCached() {
+    SizedLruCache<String, String> cache = newCache(3);
+    cache.put("a", "aa");
+    cache.put("b", "bbbb");
+    assertNull(cache.get("b"));
+    assertEquals("aa", cache.get("a"));
+    assertEquals(0, cache.evictionCount());
+  }
+
+  public void testStatistics() {
+    SizedLruCache<String, String> cache = newCache(10);
+    cache.put("a", "a");
+    cache.get("a");
+    cache.get("a");
+    cache.get("b");
+    assertEquals(2, cache.hitCount());
+    assertEquals(1, cache.missCount());
+    cache.evictAll();
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.evictionCount());
+  }
+}
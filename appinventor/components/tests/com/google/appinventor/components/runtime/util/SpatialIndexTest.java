@@ -0,0 +1,100 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2018 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.components.runtime.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests SpatialIndex.java.
+ *
+ */
+public class SpatialIndexTest extends TestCase {
+
+  private static void assertItems(List<String> actual, String... expected) {
+    Collections.sort(actual);
+    assertEquals(Arrays.asList(expected), actual);
+  }
+
+  // The haversine distance, in meters, between two points given as {latitude, longitude}.
+  private static double haversine(double[] a, double[] b) {
+    double lat1 = Math.toRadians(a[0]);
+    double lat2 = Math.toRadians(b[0]);
+    double dLat = lat2 - lat1;
+    double dLng = Math.toRadians(b[1] - a[1]);
+    double h = Math.pow(Math.sin(dLat / 2), 2)
+        + Math.cos(lat1) * Math.cos(lat2) * Math.pow(Math.sin(dLng / 2), 2);
+    return 2 * GeometryUtil.EARTH_RADIUS * Math.asin(Math.sqrt(h));
+  }
+
+  public void testQueryFindsIntersectingBoxes() {
+    SpatialIndex<String> index = new SpatialIndex<String>(1.0);
+    index.put("boston", 42.36, -71.06, 42.36, -71.06);
+    index.put("route", 43.0, -72.5, 41.5, -70.5);
+    index.put("paris", 48.86, 2.35, 48.86, 2.35);
+    index.put("equator", 1.0, -180.0, -1.0, 180.0);
+    assertEquals(4, index.size());
+    assertItems(index.query(42.5, -71.5, 42.0, -71.0), "boston", "route");
+    assertItems(index.query(50, 0, 45, 5), "paris");
+    assertItems(index.query(0.5, 100, 0, 101), "equator");
+    assertItems(index.query(90, -180, -90, 180), "boston", "equator", "paris", "route");
+  }
+
+  public void testPutMovesAndRemoveDrops() {
+    SpatialIndex<String> index = new SpatialIndex<String>(0.5);
+    index.put("marker", 10, 10, 10, 10);
+    index.put("marker", -10, -10, -10, -10);
+    assertEquals(1, index.size());
+    assertItems(index.query(11, 9, 9, 11));
+    assertItems(index.query(-9, -11, -11, -9), "marker");
+    assertTrue(index.intersects("marker", -9, -11, -11, -9));
+    assertFalse(index.intersects("marker", 11, 9, 9, 11));
+    assertTrue(index.remove("marker"));
+    assertFalse(index.remove("marker"));
+    assertItems(index.query(90, -180, -90, 180));
+  }
+
+  public void testNearestMatchesExhaustiveSearch() {
+    final Random random = new Random(46);
+    final double[][] points = new double[500][];
+    SpatialIndex<Integer> index = new SpatialIndex<Integer>(0.05);
+    for (int i = 0; i < points.length; i++) {
+      points[i] = new double[] { 60 + random.nextDouble() * 20, random.nextDouble() * 40 };
+      index.put(i, points[i][0], points[i][1], points[i][0], points[i][1]);
+    }
+    for (int query = 0; query < 50; query++) {
+      final double[] from = { 55 + random.nextDouble() * 30, random.nextDouble() * 50 };
+      int expected = 0;
+      for (int i = 1; i < points.length; i++) {
+        if (haversine(from, points[i]) < haversine(from, points[expected])) {
+          expected = i;
+        }
+      }
+      Integer nearest = index.nearest(from[0], from[1],
+          new SpatialIndex.Metric<Integer>() {
+            @Override
+            public double distance(Integer item) {
+              return haversine(from, points[item]);
+            }
+          });
+      assertEquals(Integer.valueOf(expected), nearest);
+    }
+  }
+
+  public void testNearestOfEmptyIndexIsNull() {
+    SpatialIndex<String> index = new SpatialIndex<String>(1.0);
+    assertNull(index.nearest(0, 0, new SpatialIndex.Metric<String>() {
+      @Override
+      public double distance(String item) {
+        return 0;
+      }
+    }));
+  }
+}